@@ -18,6 +18,8 @@
 package com.frostwire.search;
 
 /**
+ * Implementations must be safe to use from the search threads concurrently,
+ * no external synchronization is done by the performers.
  * 
  * @author gubatron
  * @author aldenml
@@ -41,4 +41,9 @@ public abstract class CrawlRegexSearchPerformer<T extends CrawlableSearchResult>
     protected final List<? extends SearchResult> searchPage(String page) {
         return PerformersHelper.searchPageHelper(this, page, regexMaxResults);
     }
+
+    @Override
+    protected RegexPageStream newPageStream() {
+        return new RegexPageStream(this, regexMaxResults);
+    }
 }
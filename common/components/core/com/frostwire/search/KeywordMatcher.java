@@ -0,0 +1,482 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that every keyword of a query is present in the names of a search result.
+ * <p>
+ * Built once per query, it's immutable and can be used by all the search
+ * threads at the same time. Texts are sanitized and folded (html stripped,
+ * separators to spaces, accents removed, lower case) in a single pass over
+ * the chars, feeding an Aho-Corasick automaton of the keywords, so a text
+ * is scanned only once whatever the number of keywords. Only texts with
+ * markup or non ASCII chars take the slower, regex and {@link Normalizer}
+ * based path.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class KeywordMatcher {
+
+    private static final Pattern HTML_TAG_PATTERN = Pattern.compile("\\<.*?>");
+    private static final Pattern HTML_ENTITY_PATTERN = Pattern.compile("\\&.*?\\;");
+    private static final Pattern WHITESPACES_PATTERN = Pattern.compile("\\s+");
+
+    private static final String[] SEPARATOR_WORDS = { ".torrent", "www.", ".com", ".net" };
+    private static final String SEPARATOR_CHARS = "\\/%_;-.()[]\n\rÐ&~{}*@^'=!,¡|#ÀÁ";
+
+    private static final int ROOT = 0;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private final List<String> tokens;
+
+    // automaton, one entry per state
+    private final char[][] edgeChars;
+    private final int[][] edgeTargets;
+    private final int[] fail;
+    private final long[][] output;
+
+    private final int[] rootAscii;
+    private final int words;
+
+    /**
+     * @param tokens the keywords, already sanitized and normalized
+     */
+    public KeywordMatcher(List<String> tokens) {
+        Set<String> unique = new LinkedHashSet<String>();
+        for (String t : tokens) {
+            if (t != null && t.length() > 0) {
+                unique.add(t);
+            }
+        }
+        this.tokens = Collections.unmodifiableList(new ArrayList<String>(unique));
+        this.words = Math.max(1, (this.tokens.size() + 63) / 64);
+
+        Builder b = new Builder(words);
+        for (int i = 0; i < this.tokens.size(); i++) {
+            b.add(this.tokens.get(i), i);
+        }
+        b.build();
+
+        this.edgeChars = b.edgeChars;
+        this.edgeTargets = b.edgeTargets;
+        this.fail = b.fail;
+        this.output = b.output;
+
+        this.rootAscii = new int[128];
+        for (int c = 0; c < 128; c++) {
+            int t = goTo(ROOT, (char) c);
+            rootAscii[c] = t >= 0 ? t : ROOT;
+        }
+    }
+
+    /**
+     * The matcher of a query. A query without keywords, for instance made
+     * only of separators, matches every text.
+     */
+    public static KeywordMatcher compile(String keywords) {
+        return new KeywordMatcher(tokenize(keywords));
+    }
+
+    /**
+     * Splits the keywords of a query in tokens, with the same sanitizing
+     * and folding that is applied to the texts.
+     */
+    public static List<String> tokenize(String keywords) {
+        String str = fold(keywords);
+
+        Set<String> tokens = new LinkedHashSet<String>();
+        for (String t : str.split(" ")) {
+            tokens.add(t);
+        }
+
+        return new ArrayList<String>(tokens);
+    }
+
+    public List<String> getTokens() {
+        return tokens;
+    }
+
+    /**
+     * True if all the keywords are contained in the concatenation of the texts.
+     * Null texts are skipped.
+     */
+    public boolean matches(String text1, String text2, String text3) {
+        if (tokens.isEmpty()) {
+            return true;
+        }
+
+        StringBuilder sb = BUFFER.get();
+        sb.setLength(0);
+        append(sb, text1);
+        append(sb, text2);
+        append(sb, text3);
+
+        return matches(sb);
+    }
+
+    public boolean matches(CharSequence text) {
+        if (tokens.isEmpty()) {
+            return true;
+        }
+
+        boolean ascii = true;
+        boolean markup = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 128) {
+                ascii = false;
+            } else if (c == '<' || c == '&') {
+                markup = true;
+            }
+        }
+
+        if (markup) {
+            text = stripHtml(text.toString());
+        }
+
+        if (ascii) {
+            return scanPlain(text);
+        } else {
+            StringBuilder sb = new StringBuilder(text.length());
+            sanitize(text, sb);
+            return scan(normalize(sb.toString()));
+        }
+    }
+
+    /**
+     * The folding of a whole text, including the whitespace cleanup.
+     */
+    static String fold(String str) {
+        StringBuilder sb = new StringBuilder(str.length());
+        sanitize(stripHtml(str), sb);
+
+        str = WHITESPACES_PATTERN.matcher(sb).replaceAll(" ").trim();
+
+        return normalize(str);
+    }
+
+    private static String stripHtml(String str) {
+        str = HTML_TAG_PATTERN.matcher(str).replaceAll("");
+        str = HTML_ENTITY_PATTERN.matcher(str).replaceAll("");
+        return str;
+    }
+
+    /**
+     * Replaces the separator words and chars by spaces.
+     */
+    private static void sanitize(CharSequence str, StringBuilder sb) {
+        int n = str.length();
+        int i = 0;
+        while (i < n) {
+            int skip = separatorWordAt(str, i);
+            if (skip > 0) {
+                sb.append(' ');
+                i += skip;
+            } else {
+                char c = str.charAt(i);
+                sb.append(SEPARATOR_CHARS.indexOf(c) >= 0 ? ' ' : c);
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Compatibility decomposition, without the combining marks and in lower case.
+     */
+    private static String normalize(String str) {
+        str = Normalizer.normalize(str, Normalizer.Form.NFKD);
+
+        StringBuilder sb = new StringBuilder(str.length());
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < '\u0300' || c > '\u036f') {
+                sb.append(c);
+            }
+        }
+
+        return sb.toString().toLowerCase(Locale.US);
+    }
+
+    private boolean scanPlain(CharSequence text) {
+        long[] found = new long[words];
+        int remaining = tokens.size();
+
+        int state = ROOT;
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            int skip = separatorWordAt(text, i);
+            char c;
+            if (skip > 0) {
+                c = ' ';
+                i += skip;
+            } else {
+                c = foldPlain(text.charAt(i));
+                i++;
+            }
+
+            state = next(state, c);
+            remaining -= collect(state, found);
+            if (remaining == 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean scan(String folded) {
+        long[] found = new long[words];
+        int remaining = tokens.size();
+
+        int state = ROOT;
+        for (int i = 0; i < folded.length(); i++) {
+            state = next(state, folded.charAt(i));
+            remaining -= collect(state, found);
+            if (remaining == 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private int collect(int state, long[] found) {
+        int count = 0;
+        long[] out = output[state];
+        if (out != null) {
+            for (int w = 0; w < words; w++) {
+                long fresh = out[w] & ~found[w];
+                if (fresh != 0) {
+                    found[w] |= fresh;
+                    count += Long.bitCount(fresh);
+                }
+            }
+        }
+        return count;
+    }
+
+    private int next(int state, char c) {
+        while (true) {
+            if (state == ROOT && c < 128) {
+                return rootAscii[c];
+            }
+            int t = goTo(state, c);
+            if (t >= 0) {
+                return t;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = fail[state];
+        }
+    }
+
+    private int goTo(int state, char c) {
+        char[] chars = edgeChars[state];
+        if (chars == null) {
+            return -1;
+        }
+        int idx = Arrays.binarySearch(chars, c);
+        return idx >= 0 ? edgeTargets[state][idx] : -1;
+    }
+
+    private static char foldPlain(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return (char) (c + ('a' - 'A'));
+        }
+        if (c <= ' ' && (c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r')) {
+            return ' ';
+        }
+        return SEPARATOR_CHARS.indexOf(c) >= 0 ? ' ' : c;
+    }
+
+    private static int separatorWordAt(CharSequence text, int i) {
+        char c = text.charAt(i);
+        if (c != '.' && c != 'w') {
+            return 0;
+        }
+        for (String w : SEPARATOR_WORDS) {
+            if (regionMatches(text, i, w)) {
+                return w.length();
+            }
+        }
+        return 0;
+    }
+
+    private static boolean regionMatches(CharSequence text, int offset, String s) {
+        if (offset + s.length() > text.length()) {
+            return false;
+        }
+        for (int j = 0; j < s.length(); j++) {
+            if (text.charAt(offset + j) != s.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void append(StringBuilder sb, String text) {
+        if (text != null) {
+            sb.append(text);
+        }
+    }
+
+    private static final class Builder {
+
+        private final int words;
+
+        private final List<char[]> chars = new ArrayList<char[]>();
+        private final List<int[]> targets = new ArrayList<int[]>();
+        private final List<long[]> outs = new ArrayList<long[]>();
+
+        char[][] edgeChars;
+        int[][] edgeTargets;
+        int[] fail;
+        long[][] output;
+
+        public Builder(int words) {
+            this.words = words;
+            newState();
+        }
+
+        public void add(String token, int index) {
+            int state = ROOT;
+            for (int i = 0; i < token.length(); i++) {
+                char c = token.charAt(i);
+                int t = find(state, c);
+                if (t < 0) {
+                    t = newState();
+                    link(state, c, t);
+                }
+                state = t;
+            }
+            long[] out = outs.get(state);
+            if (out == null) {
+                out = new long[words];
+                outs.set(state, out);
+            }
+            out[index >> 6] |= 1L << (index & 63);
+        }
+
+        /**
+         * Computes the failure links breadth first, merging the outputs.
+         */
+        public void build() {
+            int n = chars.size();
+
+            edgeChars = chars.toArray(new char[n][]);
+            edgeTargets = targets.toArray(new int[n][]);
+            output = outs.toArray(new long[n][]);
+            fail = new int[n];
+
+            LinkedList<Integer> queue = new LinkedList<Integer>();
+            queue.add(ROOT);
+            while (!queue.isEmpty()) {
+                int s = queue.removeFirst();
+                char[] cs = edgeChars[s];
+                if (cs == null) {
+                    continue;
+                }
+                for (int k = 0; k < cs.length; k++) {
+                    int t = edgeTargets[s][k];
+                    queue.add(t);
+
+                    if (s == ROOT) {
+                        fail[t] = ROOT;
+                    } else {
+                        int f = fail[s];
+                        int g;
+                        while ((g = find(f, cs[k])) < 0 && f != ROOT) {
+                            f = fail[f];
+                        }
+                        fail[t] = g >= 0 && g != t ? g : ROOT;
+                    }
+
+                    long[] inherited = output[fail[t]];
+                    if (inherited != null) {
+                        if (output[t] == null) {
+                            output[t] = inherited.clone();
+                        } else {
+                            for (int w = 0; w < words; w++) {
+                                output[t][w] |= inherited[w];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        private int newState() {
+            chars.add(null);
+            targets.add(null);
+            outs.add(null);
+            return chars.size() - 1;
+        }
+
+        private int find(int state, char c) {
+            char[] cs = chars.get(state);
+            if (cs == null) {
+                return -1;
+            }
+            int idx = Arrays.binarySearch(cs, c);
+            return idx >= 0 ? targets.get(state)[idx] : -1;
+        }
+
+        private void link(int state, char c, int target) {
+            char[] cs = chars.get(state);
+            int[] ts = targets.get(state);
+            if (cs == null) {
+                chars.set(state, new char[] { c });
+                targets.set(state, new int[] { target });
+            } else {
+                int pos = -(Arrays.binarySearch(cs, c) + 1);
+                char[] ncs = new char[cs.length + 1];
+                int[] nts = new int[ts.length + 1];
+                System.arraycopy(cs, 0, ncs, 0, pos);
+                System.arraycopy(ts, 0, nts, 0, pos);
+                ncs[pos] = c;
+                nts[pos] = target;
+                System.arraycopy(cs, pos, ncs, pos + 1, cs.length - pos);
+                System.arraycopy(ts, pos, nts, pos + 1, ts.length - pos);
+                chars.set(state, ncs);
+                targets.set(state, nts);
+            }
+        }
+    }
+}
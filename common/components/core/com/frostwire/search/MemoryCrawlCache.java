@@ -0,0 +1,245 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Byte bounded in-memory crawl cache.
+ * <p>
+ * Keys are spread over a fixed number of segments, each one with its own
+ * lock and a share of the total byte budget. Every segment follows a
+ * simplified 2Q policy: new entries land in a FIFO probation queue and are
+ * only promoted to the LRU protected queue when they are requested again,
+ * so a burst of one-time crawls can't flush the hot entries.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class MemoryCrawlCache implements CrawlCache {
+
+    private static final int DEFAULT_NUM_SEGMENTS = 16;
+
+    // percent of every segment reserved for the probation queue
+    private static final int PROBATION_PERCENT = 25;
+
+    private final Segment[] segments;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    public MemoryCrawlCache(long maxBytes, int numSegments) {
+        if (maxBytes <= 0 || numSegments <= 0) {
+            throw new IllegalArgumentException("maxBytes and numSegments must be positive");
+        }
+
+        this.segments = new Segment[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            segments[i] = new Segment(Math.max(1, maxBytes / numSegments));
+        }
+
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    public MemoryCrawlCache(long maxBytes) {
+        this(maxBytes, DEFAULT_NUM_SEGMENTS);
+    }
+
+    @Override
+    public byte[] get(String key) {
+        byte[] data = segmentFor(key).get(key);
+
+        if (data != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+
+        return data;
+    }
+
+    @Override
+    public void put(String key, byte[] data) {
+        if (key != null && data != null) {
+            evictions.addAndGet(segmentFor(key).put(key, data));
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        segmentFor(key).remove(key);
+    }
+
+    @Override
+    public void clear() {
+        for (Segment s : segments) {
+            s.clear();
+        }
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Segment s : segments) {
+            size += s.size();
+        }
+        return size;
+    }
+
+    public long dataSize() {
+        long size = 0;
+        for (Segment s : segments) {
+            size += s.dataSize();
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private Segment segmentFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    private static final class Segment {
+
+        private final long maxBytes;
+        private final long maxProbationBytes;
+
+        private final LinkedHashMap<String, byte[]> probation;
+        private final LinkedHashMap<String, byte[]> protect;
+
+        private long probationBytes;
+        private long protectBytes;
+
+        public Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+            this.maxProbationBytes = Math.max(1, maxBytes * PROBATION_PERCENT / 100);
+
+            this.probation = new LinkedHashMap<String, byte[]>(16, 0.75f, false);
+            this.protect = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+        }
+
+        public synchronized byte[] get(String key) {
+            byte[] data = protect.get(key);
+
+            if (data == null) {
+                data = probation.remove(key);
+                if (data != null) {
+                    // second hit, promote
+                    probationBytes -= data.length;
+                    protect.put(key, data);
+                    protectBytes += data.length;
+                }
+            }
+
+            return data;
+        }
+
+        /**
+         * @return the number of evicted entries
+         */
+        public synchronized int put(String key, byte[] data) {
+            if (data.length > maxBytes) {
+                remove(key);
+                return 0;
+            }
+
+            byte[] old = protect.get(key);
+            if (old != null) {
+                protect.put(key, data);
+                protectBytes += data.length - old.length;
+            } else {
+                old = probation.remove(key);
+                if (old != null) {
+                    probationBytes -= old.length;
+                }
+                probation.put(key, data);
+                probationBytes += data.length;
+            }
+
+            return evict();
+        }
+
+        public synchronized void remove(String key) {
+            byte[] data = protect.remove(key);
+            if (data != null) {
+                protectBytes -= data.length;
+            }
+            data = probation.remove(key);
+            if (data != null) {
+                probationBytes -= data.length;
+            }
+        }
+
+        public synchronized void clear() {
+            probation.clear();
+            protect.clear();
+            probationBytes = 0;
+            protectBytes = 0;
+        }
+
+        public synchronized int size() {
+            return probation.size() + protect.size();
+        }
+
+        public synchronized long dataSize() {
+            return probationBytes + protectBytes;
+        }
+
+        private int evict() {
+            int evicted = 0;
+
+            // the newest entry always stays in probation, even when it's larger than the queue
+            Iterator<Entry<String, byte[]>> it = probation.entrySet().iterator();
+            while (probationBytes > maxProbationBytes && probation.size() > 1) {
+                probationBytes -= it.next().getValue().length;
+                it.remove();
+                evicted++;
+            }
+
+            it = protect.entrySet().iterator();
+            while (probationBytes + protectBytes > maxBytes && it.hasNext()) {
+                protectBytes -= it.next().getValue().length;
+                it.remove();
+                evicted++;
+            }
+
+            return evicted;
+        }
+    }
+}
@@ -41,4 +41,9 @@ public abstract class PagedRegexSearchPerformer<T extends SearchResult> extends
     protected final List<? extends SearchResult> searchPage(String page) {
         return PerformersHelper.searchPageHelper(this, page, regexMaxResults);
     }
+
+    @Override
+    protected RegexPageStream newPageStream() {
+        return new RegexPageStream(this, regexMaxResults);
+    }
 }
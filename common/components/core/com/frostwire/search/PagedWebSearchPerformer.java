@@ -19,10 +19,23 @@
 package com.frostwire.search;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import com.frostwire.concurrent.DefaultThreadFactory;
+import com.frostwire.logging.Logger;
 import com.frostwire.search.domainalias.DomainAliasManager;
+import com.frostwire.util.HttpClient.HttpClientListener;
 
 /**
  * @author gubatron
@@ -31,27 +44,122 @@ import com.frostwire.search.domainalias.DomainAliasManager;
  */
 public abstract class PagedWebSearchPerformer extends WebSearchPerformer {
 
+    private static final Logger LOG = Logger.getLogger(PagedWebSearchPerformer.class);
+
+    private static final int DEFAULT_MAX_CONCURRENT_PAGES = 3;
+
+    private static final int PAGE_FETCHER_THREADS = 8;
+
+    private static final ExecutorService pageFetcher = newPageFetcher();
+
     private final int pages;
+    private final int maxConcurrentPages;
 
-    public PagedWebSearchPerformer(DomainAliasManager domainAliasManager, long token, String keywords, int timeout, int pages) {
+    /**
+     * @param maxConcurrentPages how many pages this performer may have in flight at the same time,
+     *                           a value of 1 fetches the pages one after another.
+     */
+    public PagedWebSearchPerformer(DomainAliasManager domainAliasManager, long token, String keywords, int timeout, int pages, int maxConcurrentPages) {
         super(domainAliasManager, token, keywords, timeout);
         this.pages = pages;
+        this.maxConcurrentPages = Math.max(1, maxConcurrentPages);
+    }
+
+    public PagedWebSearchPerformer(DomainAliasManager domainAliasManager, long token, String keywords, int timeout, int pages) {
+        this(domainAliasManager, token, keywords, timeout, pages, DEFAULT_MAX_CONCURRENT_PAGES);
     }
 
     @Override
     public void perform() {
-        for (int i = 1; !isStopped() && i <= pages; i++) {
-            onResults(this, searchPage(i));
+        if (pages > 1 && maxConcurrentPages > 1) {
+            performConcurrently();
+        } else {
+            for (int i = 1; !isStopped() && i <= pages; i++) {
+                onResults(this, searchPage(i));
+            }
+        }
+    }
+
+    /**
+     * Keeps up to maxConcurrentPages requests in flight, but delivers the
+     * results in page order. A new page is requested as soon as the oldest
+     * one is consumed.
+     */
+    private void performConcurrently() {
+        List<Future<List<? extends SearchResult>>> futures = new ArrayList<Future<List<? extends SearchResult>>>(pages);
+        int next = 1;
+
+        try {
+            while (next <= pages && next <= maxConcurrentPages) {
+                futures.add(submitPage(next++));
+            }
+
+            for (int i = 0; !isStopped() && i < futures.size(); i++) {
+                List<? extends SearchResult> results = waitPage(futures.get(i));
+
+                if (!isStopped() && next <= pages) {
+                    futures.add(submitPage(next++));
+                }
+
+                if (!isStopped()) {
+                    onResults(this, results);
+                }
+            }
+        } finally {
+            for (Future<List<? extends SearchResult>> f : futures) {
+                f.cancel(false);
+            }
+        }
+    }
+
+    private Future<List<? extends SearchResult>> submitPage(final int page) {
+        FutureTask<List<? extends SearchResult>> task = new FutureTask<List<? extends SearchResult>>(new Callable<List<? extends SearchResult>>() {
+            @Override
+            public List<? extends SearchResult> call() throws Exception {
+                if (isStopped()) {
+                    return Collections.emptyList();
+                }
+                return searchPage(page);
+            }
+        });
+
+        try {
+            pageFetcher.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run(); // fetch it in this thread then
         }
+
+        return task;
+    }
+
+    private List<? extends SearchResult> waitPage(Future<List<? extends SearchResult>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop();
+        } catch (ExecutionException e) {
+            LOG.warn("Error fetching search page: " + e.getMessage());
+        }
+
+        return Collections.emptyList();
     }
 
     protected List<? extends SearchResult> searchPage(int page) {
         List<? extends SearchResult> result = Collections.emptyList();
         try {
             String url = getUrl(page, getEncodedKeywords());
-            String text = fetchSearchPage(url);
-            if (text != null) {
-                result = searchPage(text);
+            RegexPageStream stream = newPageStream();
+            if (stream != null) {
+                String text = fetchSearchPage(url, stream);
+                if (text != null) {
+                    result = stream.finish();
+                }
+            } else {
+                String text = fetchSearchPage(url);
+                if (text != null) {
+                    result = searchPage(text);
+                }
             }
         } catch (Throwable e) {
             checkAccesibleDomains();
@@ -63,7 +171,30 @@ public abstract class PagedWebSearchPerformer extends WebSearchPerformer {
         return fetch(url);
     }
 
+    /**
+     * Same as {@link #fetchSearchPage(String)}, but the listener gets the
+     * bytes of the page as they arrive.
+     */
+    protected String fetchSearchPage(String url, HttpClientListener listener) throws IOException {
+        return fetch(url, null, null, listener);
+    }
+
+    /**
+     * Returns the stream that searches the pages while they are received, the
+     * results it finds are delivered with the rest of the page, in page order.
+     * By default the pages are searched once fully received.
+     */
+    protected RegexPageStream newPageStream() {
+        return null;
+    }
+
     protected abstract String getUrl(int page, String encodedKeywords);
 
     protected abstract List<? extends SearchResult> searchPage(String page);
-}
\ No newline at end of file
+
+    private static ExecutorService newPageFetcher() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(PAGE_FETCHER_THREADS, PAGE_FETCHER_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DefaultThreadFactory("PagedWebSearchPerformer-PageFetcher", true));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.frostwire.logging.Logger;
+import com.frostwire.util.HttpClient;
+import com.frostwire.util.HttpClient.HttpClientListenerAdapter;
+import com.google.code.regexp.Matcher;
+
+/**
+ * Runs the regex of a performer over a page while it's being received.
+ * <p>
+ * A match is only taken when the matcher didn't need to look at the end of
+ * the text received so far, because then more text can't change it. The
+ * results are kept until {@link #finish()} searches the end of the page and
+ * returns them all, in the same order and with the same limit as
+ * {@link PerformersHelper#searchPageHelper}. The performer delivers them with
+ * the other pages, in page order.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class RegexPageStream extends HttpClientListenerAdapter {
+
+    private static final Logger LOG = Logger.getLogger(RegexPageStream.class);
+
+    /**
+     * Minimum number of new chars before searching again.
+     */
+    private static final int MIN_SCAN_CHARS = 8192;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final RegexSearchPerformer<?> performer;
+    private final int regexMaxResults;
+
+    private final CharsetDecoder decoder;
+    private final StringBuilder page;
+    private ByteBuffer pending;
+    private CharBuffer chars;
+
+    private final List<SearchResult> results;
+
+    private int from;
+    private int found;
+    private int nextScan;
+
+    public RegexPageStream(RegexSearchPerformer<?> performer, int regexMaxResults) {
+        this.performer = performer;
+        this.regexMaxResults = regexMaxResults;
+
+        this.decoder = UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.page = new StringBuilder(MIN_SCAN_CHARS);
+        this.pending = ByteBuffer.allocate(0);
+        this.chars = CharBuffer.allocate(MIN_SCAN_CHARS);
+
+        this.results = new LinkedList<SearchResult>();
+
+        this.from = 0;
+        this.found = 0;
+        this.nextScan = MIN_SCAN_CHARS;
+    }
+
+    @Override
+    public void onData(HttpClient client, byte[] buffer, int offset, int length) {
+        if (performer.isStopped()) {
+            client.cancel();
+            return;
+        }
+
+        decode(ByteBuffer.wrap(buffer, offset, length), false);
+
+        if (page.length() >= nextScan && found < regexMaxResults) {
+            try {
+                scan(false);
+            } catch (RuntimeException e) {
+                // too much backtracking in a partial page, the whole page will tell
+            }
+
+            nextScan = page.length() + Math.max(MIN_SCAN_CHARS, (page.length() - from) / 2);
+        }
+    }
+
+    /**
+     * Searches what's left of the page once it's all received.
+     *
+     * @return all the results of the page, the ones found before an error in
+     *         the end of the page included
+     */
+    public List<? extends SearchResult> finish() {
+        decode(ByteBuffer.allocate(0), true);
+
+        try {
+            scan(true);
+        } catch (RuntimeException e) {
+            LOG.warn("Error searching the end of the page: " + e.getMessage());
+        }
+
+        return results;
+    }
+
+    /**
+     * Adds the matches after the last one to the results. From and found move
+     * with each result added, so an error leaves them in step with the results.
+     */
+    private void scan(boolean complete) {
+        Matcher m = performer.getPattern().matcher(new MaxIterCharSequence(page, 2 * page.length()));
+        SearchMatcher matcher = SearchMatcher.from(m);
+
+        while (found < regexMaxResults && !performer.isStopped() && m.find(from)) {
+            if (!complete && m.hitEnd()) {
+                break; // more text could change this match
+            }
+
+            from = m.end() > m.start() ? m.end() : m.end() + 1;
+
+            SearchResult sr = performer.fromMatcher(matcher);
+            if (sr != null) {
+                results.add(sr);
+                found++;
+            }
+
+            if (from > page.length()) {
+                break;
+            }
+        }
+    }
+
+    private void decode(ByteBuffer in, boolean endOfInput) {
+        ByteBuffer bytes = in;
+
+        if (pending.hasRemaining()) {
+            bytes = ByteBuffer.allocate(pending.remaining() + in.remaining());
+            bytes.put(pending).put(in);
+            bytes.flip();
+        }
+
+        while (true) {
+            chars.clear();
+            boolean overflow = decoder.decode(bytes, chars, endOfInput).isOverflow();
+            chars.flip();
+            page.append(chars);
+
+            if (!overflow) {
+                break;
+            }
+        }
+
+        if (endOfInput) {
+            chars.clear();
+            decoder.flush(chars);
+            chars.flip();
+            page.append(chars);
+        }
+
+        // an incomplete multi-byte char waits for the next bytes
+        pending = ByteBuffer.allocate(bytes.remaining());
+        pending.put(bytes);
+        pending.flip();
+    }
+}
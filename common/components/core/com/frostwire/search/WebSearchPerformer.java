@@ -25,6 +25,7 @@ import org.apache.commons.io.FilenameUtils;
 import com.frostwire.logging.Logger;
 import com.frostwire.search.domainalias.DomainAliasManager;
 import com.frostwire.util.HttpClient;
+import com.frostwire.util.HttpClient.HttpClientListener;
 import com.frostwire.util.HttpClientFactory;
 import com.frostwire.util.StringUtils;
 import com.frostwire.util.UserAgentGenerator;
@@ -91,6 +92,16 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
         return client.get(url, timeout, DEFAULT_USER_AGENT, null, cookie, customHeaders);
     }
 
+    /**
+     * Like {@link #fetch(String, String, Map)}, with a client of its own so the
+     * listener can follow this request alone.
+     */
+    public String fetch(String url, String cookie, Map<String, String> customHeaders, HttpClientListener listener) throws IOException {
+        HttpClient c = HttpClientFactory.newInstance();
+        c.setListener(listener);
+        return c.get(url, timeout, DEFAULT_USER_AGENT, null, cookie, customHeaders);
+    }
+
     public String post(String url, Map<String, String> formData) {
         return client.post(url, timeout, DEFAULT_USER_AGENT, formData);
     }
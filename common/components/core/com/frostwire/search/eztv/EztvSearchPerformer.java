@@ -22,6 +22,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import com.frostwire.search.CrawlableSearchResult;
+import com.frostwire.search.RegexPageStream;
 import com.frostwire.search.SearchMatcher;
 import com.frostwire.search.domainalias.DomainAliasManager;
 import com.frostwire.search.torrent.TorrentRegexSearchPerformer;
@@ -51,6 +52,14 @@ public class EztvSearchPerformer extends TorrentRegexSearchPerformer<EztvSearchR
         return post(url, formData);
     }
 
+    /**
+     * The search is a form post, the page is searched once received.
+     */
+    @Override
+    protected RegexPageStream newPageStream() {
+        return null;
+    }
+
     @Override
     protected String getUrl(int page, String encodedKeywords) {
         return "http://"+getDomainNameToUse()+"/search/";
@@ -24,6 +24,7 @@ import com.frostwire.search.CrawlableSearchResult;
 import com.frostwire.search.SearchMatcher;
 import com.frostwire.search.domainalias.DomainAliasManager;
 import com.frostwire.search.torrent.TorrentRegexSearchPerformer;
+import com.frostwire.util.HttpClient.HttpClientListener;
 
 /**
  * 
@@ -34,6 +35,7 @@ import com.frostwire.search.torrent.TorrentRegexSearchPerformer;
 public class MonovaSearchPerformer extends TorrentRegexSearchPerformer<MonovaSearchResult> {
 
     private static final int MAX_RESULTS = 10;
+    private static final String COOKIE = "MONOVA=1; MONOVA-ADULT=0; MONOVA-NON-ADULT=1;";
     private static final String REGEX = "(?is)<a href=\"http://www.monova.org/torrent/([0-9]*?)/(.*?).html";
     private static final String HTML_REGEX = "(?is)<div id=\"downloadbox\" .*?Zoink</a>.*?<a href=\"(.*?)\" alt=\"Download!\" rel=\"nofollow\">Torcache<.*?<strong>Added:</strong>(.*?)<div class=\"clear-both\">.*?<font color=\"[A-Za-z]*?\">(.*?)</font> seeds.*?<strong>Total size:</strong><div .*?>(.*?)</div><div class=\"clear-both\">.*?Hash:</strong><div .*?>(.*?)</div><div class=\"clear-both\">";
 
@@ -48,7 +50,12 @@ public class MonovaSearchPerformer extends TorrentRegexSearchPerformer<MonovaSea
 
     @Override
     protected String fetchSearchPage(String url) throws IOException {
-        return fetch(url, "MONOVA=1; MONOVA-ADULT=0; MONOVA-NON-ADULT=1;", null);
+        return fetch(url, COOKIE, null);
+    }
+
+    @Override
+    protected String fetchSearchPage(String url, HttpClientListener listener) throws IOException {
+        return fetch(url, COOKIE, null, listener);
     }
 
     @Override
@@ -23,13 +23,17 @@
 package com.frostwire.torrent;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
 import java.util.TreeMap;
 
 /**
@@ -44,6 +48,12 @@ final class BEncoder {
 
     private static final byte[] MINUS_1_BYTES = "-1".getBytes();
 
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private static final KeyOrder[] key_orders = new KeyOrder[512];
+
+    private static final ThreadLocal<byte[]> stream_buffers = new ThreadLocal<byte[]>();
+
     public static byte[] encode(Map<String, Object> object) throws IOException {
         return (encode(object, false));
     }
@@ -56,6 +66,42 @@ final class BEncoder {
         return (encoder.toByteArray());
     }
 
+    /**
+     * Writes the encoding as it goes through a buffer reused by the thread,
+     * instead of building it all in memory first. The bytes are the same as
+     * encode(object). The stream isn't flushed or closed.
+     */
+    public static void encode(Map<String, Object> object, OutputStream os) throws IOException {
+        byte[] buffer = stream_buffers.get();
+
+        if (buffer == null) {
+
+            buffer = new byte[STREAM_BUFFER_SIZE];
+
+        } else {
+
+            // in case an encode to a stream happens while encoding this one
+
+            stream_buffers.set(null);
+        }
+
+        try {
+            BEncoder encoder = new BEncoder(os, buffer);
+
+            encoder.encodeObject(object);
+
+            encoder.flush();
+
+        } finally {
+
+            stream_buffers.set(buffer);
+        }
+    }
+
+    public static void encode(Map<String, Object> object, WritableByteChannel channel) throws IOException {
+        encode(object, Channels.newOutputStream(channel));
+    }
+
     private byte[] current_buffer = new byte[256];
     private int current_buffer_pos = 0;
     private byte[][] old_buffers;
@@ -64,10 +110,22 @@ final class BEncoder {
 
     private boolean url_encode;
 
+    // when streaming the current buffer is written out each time it fills up
+
+    private OutputStream output;
+
+    private Object[] scratch = new Object[32];
+    private int scratch_top;
+
     private BEncoder(boolean _url_encode) {
         url_encode = _url_encode;
     }
 
+    private BEncoder(OutputStream _output, byte[] _buffer) {
+        output = _output;
+        current_buffer = _buffer;
+    }
+
     private boolean encodeObject(Object object)
 
     throws IOException {
@@ -128,8 +186,6 @@ final class BEncoder {
             @SuppressWarnings("unchecked")
             Map<String, Object> tempMap = (Map<String, Object>) object;
 
-            SortedMap<String, Object> tempTree = null;
-
             // unfortunately there are some occasions where we want to ensure that
             // the 'key' of the map is not mangled by assuming its UTF-8 encodable.
             // In particular the response from a tracker scrape request uses the
@@ -145,48 +201,39 @@ final class BEncoder {
             //are we sorted?
             if (tempMap instanceof TreeMap) {
 
-                tempTree = (TreeMap<String, Object>) tempMap;
+                encodeEntries(tempMap, byte_keys, object);
 
             } else {
-                tempTree = new TreeMap<String, Object>(tempMap);
-            }
 
-            Iterator<Map.Entry<String, Object>> it = tempTree.entrySet().iterator();
+                int base = scratch_top;
 
-            while (it.hasNext()) {
+                KeyOrder order = getKeyOrder(tempMap);
 
-                Map.Entry<String, Object> entry = (Map.Entry<String, Object>) it.next();
+                if (order == null) {
 
-                Object o_key = entry.getKey();
+                    // keys that aren't all strings, keep the old behaviour
 
-                Object value = entry.getValue();
+                    encodeEntries(new TreeMap<String, Object>(tempMap), byte_keys, object);
 
-                if (value != null) {
-                    if (o_key instanceof byte[]) {
-                        encodeObject(o_key);
-                        if (!encodeObject(value))
-                            encodeObject("");
-                    } else if (o_key instanceof String) {
-                        String key = (String) o_key;
-                        if (byte_keys) {
-                            try {
-                                encodeObject(Constants.BYTE_CHARSET.encode(key));
-                                if (!encodeObject(value))
-                                    encodeObject("");
-                            } catch (UnsupportedEncodingException e) {
-                                throw (new IOException("BEncoder: unsupport encoding: " + e.getMessage()));
-                            }
-                        } else {
-                            // if we put non-ascii chars in as keys we can get horrible expanding
-                            // config issues as we cycle through decode/encode cycles with certain
-                            // characters
-
-                            encodeObject(key); // Key goes in as UTF-8
-                            if (!encodeObject(value))
-                                encodeObject("");
+                } else {
+
+                    int size = order.keys.length;
+
+                    scratch_top = base + 2 * size;
+
+                    try {
+                        for (int i = 0; i < size; i++) {
+
+                            int j = order.order[i];
+
+                            encodeEntry(scratch[base + j], scratch[base + size + j], byte_keys, object);
                         }
-                    } else
-                        Debug.out("Attempt to encode an unsupported map key type: " + object.getClass() + ";value=" + object);
+                    } finally {
+
+                        Arrays.fill(scratch, base, base + 2 * size, null);
+
+                        scratch_top = base;
+                    }
                 }
             }
 
@@ -257,13 +304,124 @@ final class BEncoder {
         return true;
     }
 
-    private void writeChar(char c) {
+    private void encodeEntries(Map<String, Object> map, boolean byte_keys, Object object) throws IOException {
+        Iterator<Map.Entry<String, Object>> it = map.entrySet().iterator();
+
+        while (it.hasNext()) {
+
+            Map.Entry<String, Object> entry = it.next();
+
+            encodeEntry(entry.getKey(), entry.getValue(), byte_keys, object);
+        }
+    }
+
+    private void encodeEntry(Object o_key, Object value, boolean byte_keys, Object object) throws IOException {
+        if (value != null) {
+            if (o_key instanceof byte[]) {
+                encodeObject(o_key);
+                if (!encodeObject(value))
+                    encodeObject("");
+            } else if (o_key instanceof String) {
+                String key = (String) o_key;
+                if (byte_keys) {
+                    try {
+                        encodeObject(Constants.BYTE_CHARSET.encode(key));
+                        if (!encodeObject(value))
+                            encodeObject("");
+                    } catch (UnsupportedEncodingException e) {
+                        throw (new IOException("BEncoder: unsupport encoding: " + e.getMessage()));
+                    }
+                } else {
+                    // if we put non-ascii chars in as keys we can get horrible expanding
+                    // config issues as we cycle through decode/encode cycles with certain
+                    // characters
+
+                    encodeObject(key); // Key goes in as UTF-8
+                    if (!encodeObject(value))
+                        encodeObject("");
+                }
+            } else
+                Debug.out("Attempt to encode an unsupported map key type: " + object.getClass() + ";value=" + object);
+        }
+    }
+
+    /**
+     * Puts the keys of the map in the scratch area in iteration order, followed
+     * by the values, and returns the sorted order of the keys. The order is
+     * cached by the keys and their iteration order, so the many maps with the
+     * same keys are sorted once.
+     * 
+     * @return null if a key isn't a String or the map changed while copying
+     */
+    private KeyOrder getKeyOrder(Map<?, ?> map) {
+        int size = map.size();
+        int base = scratch_top;
+
+        if (base + 2 * size > scratch.length) {
+
+            Object[] new_scratch = new Object[Math.max(scratch.length * 2, base + 2 * size)];
+
+            System.arraycopy(scratch, 0, new_scratch, 0, base);
+
+            scratch = new_scratch;
+        }
+
+        int hash = size;
+        int i = 0;
+
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+
+            Object key = entry.getKey();
+
+            if (i == size || !(key instanceof String)) {
+
+                Arrays.fill(scratch, base, base + 2 * size, null);
+
+                return null;
+            }
+
+            scratch[base + i] = key;
+            scratch[base + size + i] = entry.getValue();
+
+            hash = hash * 31 + key.hashCode();
+
+            i++;
+        }
+
+        if (i != size) {
+
+            Arrays.fill(scratch, base, base + 2 * size, null);
+
+            return null;
+        }
+
+        int slot = (hash ^ (hash >>> 16)) & (key_orders.length - 1);
+
+        KeyOrder order = key_orders[slot];
+
+        if (order == null || !order.matches(scratch, base, size, hash)) {
+
+            order = new KeyOrder(scratch, base, size, hash);
+
+            key_orders[slot] = order;
+        }
+
+        return order;
+    }
+
+    private void writeChar(char c) throws IOException {
         int rem = current_buffer.length - current_buffer_pos;
 
         if (rem > 0) {
 
             current_buffer[current_buffer_pos++] = (byte) c;
 
+        } else if (output != null) {
+
+            flush();
+
+            current_buffer[current_buffer_pos++] = (byte) c;
+
         } else {
 
             int next_buffer_size = current_buffer.length < BUFFER_DOUBLE_LIMIT ? (current_buffer.length << 1) : (current_buffer.length + BUFFER_DOUBLE_LIMIT);
@@ -292,7 +450,7 @@ final class BEncoder {
         }
     }
 
-    private void writeInt(int i) {
+    private void writeInt(int i) throws IOException {
         // we get a bunch of -1 values, optimise
 
         if (i == -1) {
@@ -307,7 +465,7 @@ final class BEncoder {
         writeBytes(int_buffer, start, 12 - start);
     }
 
-    private void writeLong(long l) {
+    private void writeLong(long l) throws IOException {
         if (l <= Integer.MAX_VALUE && l >= Integer.MIN_VALUE) {
 
             writeInt((int) l);
@@ -318,11 +476,11 @@ final class BEncoder {
         }
     }
 
-    private void writeBytes(byte[] bytes) {
+    private void writeBytes(byte[] bytes) throws IOException {
         writeBytes(bytes, 0, bytes.length);
     }
 
-    private void writeBytes(byte[] bytes, int offset, int length) {
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
         int rem = current_buffer.length - current_buffer_pos;
 
         if (rem >= length) {
@@ -331,6 +489,22 @@ final class BEncoder {
 
             current_buffer_pos += length;
 
+        } else if (output != null) {
+
+            flush();
+
+            if (length > current_buffer.length) {
+
+                // the pieces of a big torrent for example, no point copying them
+
+                output.write(bytes, offset, length);
+
+            } else {
+
+                System.arraycopy(bytes, offset, current_buffer, 0, length);
+
+                current_buffer_pos = length;
+            }
         } else {
 
             if (rem > 0) {
@@ -366,10 +540,19 @@ final class BEncoder {
         }
     }
 
-    private void writeByteBuffer(ByteBuffer bb) {
+    private void writeByteBuffer(ByteBuffer bb) throws IOException {
         writeBytes(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
     }
 
+    private void flush() throws IOException {
+        if (current_buffer_pos > 0) {
+
+            output.write(current_buffer, 0, current_buffer_pos);
+
+            current_buffer_pos = 0;
+        }
+    }
+
     private String getEncodedSoFar() {
         return (new String(toByteArray()));
     }
@@ -475,4 +658,54 @@ final class BEncoder {
         }
         return charPos;
     }
+
+    private static final class KeyOrder {
+
+        private final String[] keys;
+        private final int[] order;
+        private final int hash;
+
+        private KeyOrder(Object[] scratch, int base, int size, int _hash) {
+            keys = new String[size];
+            order = new int[size];
+            hash = _hash;
+
+            System.arraycopy(scratch, base, keys, 0, size);
+
+            Integer[] indexes = new Integer[size];
+
+            for (int i = 0; i < size; i++) {
+                indexes[i] = i;
+            }
+
+            // same order as the TreeMap we used to build
+
+            Arrays.sort(indexes, new Comparator<Integer>() {
+                public int compare(Integer i1, Integer i2) {
+                    return keys[i1].compareTo(keys[i2]);
+                }
+            });
+
+            for (int i = 0; i < size; i++) {
+                order[i] = indexes[i];
+            }
+        }
+
+        private boolean matches(Object[] scratch, int base, int size, int _hash) {
+            if (hash != _hash || keys.length != size) {
+                return false;
+            }
+
+            for (int i = 0; i < size; i++) {
+                String key = keys[i];
+                Object other = scratch[base + i];
+
+                if (key != other && !key.equals(other)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
 }
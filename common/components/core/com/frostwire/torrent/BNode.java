@@ -0,0 +1,400 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.torrent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A view of a bencoded value that reads the source in place.
+ * <p>
+ * Decoding makes a single pass that records where each value starts and
+ * where the next one after it begins, in one int array for the whole
+ * document. Nothing else is built: the strings are sliced from the source
+ * when asked for, so the pieces of a big torrent are never copied, and a
+ * subtree that isn't looked at costs nothing more. The source must not be
+ * changed while the nodes are in use.
+ * <p>
+ * {@link #toObject()} gives the same Map/List/byte[]/Long tree as
+ * {@link BDecoder} for the code that needs it.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class BNode {
+
+    public static final int DICT = BParser.DICT;
+    public static final int LIST = BParser.LIST;
+    public static final int STRING = BParser.STRING;
+    public static final int INTEGER = BParser.INTEGER;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Document doc;
+    private final int index;
+
+    private BNode(Document doc, int index) {
+        this.doc = doc;
+        this.index = index;
+    }
+
+    public static BNode decode(byte[] data) throws IOException {
+        return decode(ByteBuffer.wrap(data));
+    }
+
+    public static BNode decode(byte[] data, int offset, int length) throws IOException {
+        return decode(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Decodes the value at the position of the buffer, the buffer is not
+     * changed, see {@link #rawLength()} for the bytes used.
+     */
+    public static BNode decode(ByteBuffer buffer) throws IOException {
+        BParser p = new BParser(buffer);
+
+        // per value: where it starts, where it ends and the index of the value after its subtree
+        int[] tokens = new int[3 * 64];
+        int count = 0;
+
+        int[] open = new int[16];
+        int depth = 0;
+
+        int event;
+        while ((event = p.next()) != BParser.DONE) {
+            if (event == BParser.END) {
+                int t = open[--depth];
+                tokens[3 * t + 1] = p.position();
+                tokens[3 * t + 2] = count;
+                continue;
+            }
+
+            if (3 * count + 3 > tokens.length) {
+                int[] n = new int[tokens.length * 2];
+                System.arraycopy(tokens, 0, n, 0, 3 * count);
+                tokens = n;
+            }
+
+            tokens[3 * count] = p.start();
+            tokens[3 * count + 1] = p.position();
+            tokens[3 * count + 2] = count + 1;
+
+            if (event == BParser.DICT || event == BParser.LIST) {
+                if (depth == open.length) {
+                    int[] n = new int[open.length * 2];
+                    System.arraycopy(open, 0, n, 0, depth);
+                    open = n;
+                }
+                open[depth++] = count;
+            }
+
+            count++;
+        }
+
+        return new BNode(new Document(buffer, tokens), 0);
+    }
+
+    public int type() {
+        byte b = doc.buffer.get(start());
+        switch (b) {
+        case 'd':
+            return DICT;
+        case 'l':
+            return LIST;
+        case 'i':
+            return INTEGER;
+        default:
+            return STRING;
+        }
+    }
+
+    public boolean isDict() {
+        return type() == DICT;
+    }
+
+    public boolean isList() {
+        return type() == LIST;
+    }
+
+    public boolean isString() {
+        return type() == STRING;
+    }
+
+    public boolean isInteger() {
+        return type() == INTEGER;
+    }
+
+    /**
+     * @return the number of entries of a dictionary or items of a list
+     */
+    public int size() {
+        checkContainer();
+        int n = 0;
+        for (int t = index + 1; t < end(); t = doc.next(t)) {
+            n++;
+        }
+        return type() == DICT ? n / 2 : n;
+    }
+
+    /**
+     * @return the value of the key in a dictionary, null if it isn't there
+     */
+    public BNode get(String key) {
+        checkType(DICT);
+        int end = end();
+        for (int t = index + 1; t < end; t = doc.next(doc.next(t))) {
+            if (doc.stringEquals(t, key)) {
+                return new BNode(doc, doc.next(t));
+            }
+        }
+        return null;
+    }
+
+    public boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the key of the entry of a dictionary, in the order of the data
+     */
+    public String keyAt(int i) {
+        checkType(DICT);
+        return doc.key(child(2 * i));
+    }
+
+    public BNode valueAt(int i) {
+        checkType(DICT);
+        return new BNode(doc, child(2 * i + 1));
+    }
+
+    /**
+     * @return the item of a list
+     */
+    public BNode item(int i) {
+        checkType(LIST);
+        return new BNode(doc, child(i));
+    }
+
+    public long longValue() {
+        checkType(INTEGER);
+        ByteBuffer b = doc.buffer;
+        int p = start() + 1;
+        int end = doc.end(index) - 1;
+        boolean negative = b.get(p) == '-';
+        if (negative) {
+            p++;
+        }
+        long value = 0;
+        while (p < end) {
+            value = value * 10 + (b.get(p++) - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * @return the number of bytes of a string
+     */
+    public int length() {
+        checkType(STRING);
+        return doc.stringLength(index);
+    }
+
+    /**
+     * @return a read-only view of the bytes of a string, not a copy
+     */
+    public ByteBuffer slice() {
+        checkType(STRING);
+        int offset = doc.stringOffset(index);
+        return doc.slice(offset, doc.end(index) - offset);
+    }
+
+    public byte[] toByteArray() {
+        checkType(STRING);
+        int offset = doc.stringOffset(index);
+        byte[] data = new byte[doc.end(index) - offset];
+        ByteBuffer b = doc.buffer.duplicate();
+        b.position(offset);
+        b.get(data);
+        return data;
+    }
+
+    public String stringValue() {
+        return stringValue(UTF_8);
+    }
+
+    public String stringValue(Charset charset) {
+        return charset.decode(slice()).toString();
+    }
+
+    public boolean stringEquals(String s) {
+        checkType(STRING);
+        return doc.stringEquals(index, s);
+    }
+
+    /**
+     * @return the value as encoded in the source, for example to hash the
+     * info dictionary of a torrent
+     */
+    public ByteBuffer raw() {
+        return doc.slice(start(), rawLength());
+    }
+
+    /**
+     * @return the number of bytes of the encoded value
+     */
+    public int rawLength() {
+        return doc.end(index) - start();
+    }
+
+    /**
+     * Builds the same tree as {@link BDecoder}: Map with String keys, List,
+     * byte[] and Long.
+     */
+    public Object toObject() {
+        switch (type()) {
+        case DICT:
+            Map<String, Object> map = new HashMap<String, Object>();
+            for (int t = index + 1; t < end(); t = doc.next(doc.next(t))) {
+                map.put(doc.key(t), new BNode(doc, doc.next(t)).toObject());
+            }
+            return map;
+        case LIST:
+            List<Object> list = new ArrayList<Object>();
+            for (int t = index + 1; t < end(); t = doc.next(t)) {
+                list.add(new BNode(doc, t).toObject());
+            }
+            return list;
+        case INTEGER:
+            return Long.valueOf(longValue());
+        default:
+            return toByteArray();
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (type()) {
+        case DICT:
+            return "dict(" + size() + ")";
+        case LIST:
+            return "list(" + size() + ")";
+        case INTEGER:
+            return String.valueOf(longValue());
+        default:
+            return "string(" + length() + ")";
+        }
+    }
+
+    private int start() {
+        return doc.start(index);
+    }
+
+    private int end() {
+        return doc.next(index);
+    }
+
+    private int child(int i) {
+        int end = end();
+        int t = index + 1;
+        for (int n = 0; n < i && t < end; n++) {
+            t = doc.next(t);
+        }
+        if (t >= end) {
+            throw new IndexOutOfBoundsException("index: " + i);
+        }
+        return t;
+    }
+
+    private void checkContainer() {
+        int type = type();
+        if (type != DICT && type != LIST) {
+            throw new IllegalStateException("not a dictionary or list: " + this);
+        }
+    }
+
+    private void checkType(int type) {
+        if (type() != type) {
+            throw new IllegalStateException("wrong type: " + this);
+        }
+    }
+
+    private static final class Document {
+
+        private final ByteBuffer buffer;
+        private final int[] tokens;
+
+        public Document(ByteBuffer buffer, int[] tokens) {
+            this.buffer = buffer;
+            this.tokens = tokens;
+        }
+
+        public int start(int t) {
+            return tokens[3 * t];
+        }
+
+        public int end(int t) {
+            return tokens[3 * t + 1];
+        }
+
+        public int next(int t) {
+            return tokens[3 * t + 2];
+        }
+
+        public int stringOffset(int t) {
+            int p = start(t);
+            while (buffer.get(p) != ':') {
+                p++;
+            }
+            return p + 1;
+        }
+
+        public int stringLength(int t) {
+            return end(t) - stringOffset(t);
+        }
+
+        public boolean stringEquals(int t, String s) {
+            int offset = stringOffset(t);
+            return BParser.equals(buffer, offset, end(t) - offset, s);
+        }
+
+        /**
+         * the keys are read as single byte chars, like BDecoder does
+         */
+        public String key(int t) {
+            int offset = stringOffset(t);
+            char[] chars = new char[end(t) - offset];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) (buffer.get(offset + i) & 0xff);
+            }
+            return new String(chars);
+        }
+
+        public ByteBuffer slice(int offset, int length) {
+            ByteBuffer b = buffer.duplicate();
+            b.limit(offset + length).position(offset);
+            return b.slice().asReadOnlyBuffer();
+        }
+    }
+}
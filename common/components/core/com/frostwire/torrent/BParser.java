@@ -0,0 +1,339 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.torrent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A pull parser of bencoded data over a byte array or a buffer, it doesn't
+ * copy or allocate per value.
+ * <p>
+ * Each call to {@link #next()} returns the next event, the details of a
+ * string or an integer are read from the parser right after. Inside a
+ * dictionary the strings alternate between keys and values, see
+ * {@link #isKey()}. {@link #skip()} jumps over the rest of the container
+ * just opened without reporting its contents.
+ * <p>
+ * The source isn't modified, the positions returned are indexes in it.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class BParser {
+
+    public static final int DONE = 0;
+    public static final int DICT = 1;
+    public static final int LIST = 2;
+    public static final int STRING = 3;
+    public static final int INTEGER = 4;
+    public static final int END = 5;
+
+    private static final int MAX_DEPTH = 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    private final int end;
+    private int pos;
+
+    // per open container: the kind in the low bit (1 = dict), the children read so far above it
+    private int[] stack;
+    private int depth;
+    private boolean started;
+
+    private int event;
+    private int start;
+    private int stringOffset;
+    private int stringLength;
+    private long longValue;
+    private boolean key;
+
+    public BParser(byte[] data) {
+        this(ByteBuffer.wrap(data));
+    }
+
+    public BParser(byte[] data, int offset, int length) {
+        this(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Parses from the position to the limit of the buffer, the buffer itself
+     * is not changed.
+     */
+    public BParser(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.end = buffer.limit();
+        this.pos = buffer.position();
+        this.stack = new int[16];
+    }
+
+    /**
+     * @return the next event, {@link #DONE} once the top level value is complete
+     */
+    public int next() throws IOException {
+        if (started && depth == 0) {
+            return event = DONE;
+        }
+
+        if (pos >= end) {
+            throw new BEncodingException("BParser: unexpected end of data at " + pos);
+        }
+
+        started = true;
+        start = pos;
+        key = false;
+
+        byte b = buffer.get(pos);
+
+        if (b == 'e') {
+            if (depth == 0) {
+                throw new BEncodingException("BParser: unexpected 'e' at " + pos);
+            }
+            int top = stack[depth - 1];
+            if ((top & 1) == 1 && (top >>> 1) % 2 == 1) {
+                throw new BEncodingException("BParser: dictionary key without value at " + pos);
+            }
+            depth--;
+            pos++;
+            return event = END;
+        }
+
+        if (depth > 0) {
+            int top = stack[depth - 1];
+            key = (top & 1) == 1 && (top >>> 1) % 2 == 0;
+            stack[depth - 1] = top + 2;
+
+            if (key && (b < '0' || b > '9')) {
+                throw new BEncodingException("BParser: dictionary key isn't a string at " + pos);
+            }
+        }
+
+        switch (b) {
+        case 'd':
+        case 'l':
+            if (depth == MAX_DEPTH) {
+                throw new BEncodingException("BParser: nesting too deep at " + pos);
+            }
+            if (depth == stack.length) {
+                int[] s = new int[stack.length * 2];
+                System.arraycopy(stack, 0, s, 0, depth);
+                stack = s;
+            }
+            stack[depth++] = b == 'd' ? 1 : 0;
+            pos++;
+            return event = b == 'd' ? DICT : LIST;
+
+        case 'i':
+            pos = readLong(pos + 1);
+            return event = INTEGER;
+
+        default:
+            if (b < '0' || b > '9') {
+                throw new BEncodingException("BParser: invalid byte '" + (char) b + "' at " + pos);
+            }
+            pos = readString(pos);
+            return event = STRING;
+        }
+    }
+
+    /**
+     * After {@link #DICT} or {@link #LIST}, moves past the matching {@link #END}
+     * without reporting the contents. Does nothing after the other events.
+     */
+    public void skip() throws IOException {
+        if (event != DICT && event != LIST) {
+            return;
+        }
+
+        int target = depth - 1;
+        int level = 1;
+
+        // a raw scan, the structure is still checked by the lengths and the nesting
+        while (level > 0) {
+            if (pos >= end) {
+                throw new BEncodingException("BParser: unexpected end of data at " + pos);
+            }
+            byte b = buffer.get(pos);
+            if (b == 'd' || b == 'l') {
+                level++;
+                pos++;
+            } else if (b == 'e') {
+                level--;
+                pos++;
+            } else if (b == 'i') {
+                pos = readLong(pos + 1);
+            } else if (b >= '0' && b <= '9') {
+                pos = readString(pos);
+            } else {
+                throw new BEncodingException("BParser: invalid byte '" + (char) b + "' at " + pos);
+            }
+        }
+
+        depth = target;
+        event = END;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * @return the index in the source of the first byte of the current value
+     */
+    public int start() {
+        return start;
+    }
+
+    /**
+     * @return the index in the source right after the current value, or
+     * after the opening byte of a container
+     */
+    public int position() {
+        return pos;
+    }
+
+    /**
+     * @return true if the current string is a dictionary key
+     */
+    public boolean isKey() {
+        return key;
+    }
+
+    public int stringOffset() {
+        return stringOffset;
+    }
+
+    public int stringLength() {
+        return stringLength;
+    }
+
+    /**
+     * @return a read-only view of the current string, not a copy
+     */
+    public ByteBuffer stringSlice() {
+        ByteBuffer b = buffer.duplicate();
+        b.limit(stringOffset + stringLength).position(stringOffset);
+        return b.slice().asReadOnlyBuffer();
+    }
+
+    public byte[] stringBytes() {
+        byte[] data = new byte[stringLength];
+        for (int i = 0; i < stringLength; i++) {
+            data[i] = buffer.get(stringOffset + i);
+        }
+        return data;
+    }
+
+    public String stringValue() {
+        return UTF_8.decode(stringSlice()).toString();
+    }
+
+    /**
+     * Compares the current string with a key made of single byte chars,
+     * without decoding it.
+     */
+    public boolean stringEquals(String s) {
+        return equals(buffer, stringOffset, stringLength, s);
+    }
+
+    public long longValue() {
+        return longValue;
+    }
+
+    static boolean equals(ByteBuffer buffer, int offset, int length, String s) {
+        if (s.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if ((buffer.get(offset + i) & 0xff) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int readLong(int p) throws IOException {
+        boolean negative = false;
+        if (p < end && buffer.get(p) == '-') {
+            negative = true;
+            p++;
+        }
+
+        // accumulated negatively, like Long.parseLong, so Long.MIN_VALUE fits
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multmin = limit / 10;
+        long value = 0;
+        int digits = 0;
+
+        while (true) {
+            if (p >= end) {
+                throw new BEncodingException("BParser: unexpected end of data in integer at " + p);
+            }
+            byte b = buffer.get(p++);
+            if (b == 'e') {
+                break;
+            }
+            if (b < '0' || b > '9') {
+                throw new BEncodingException("BParser: invalid integer at " + (p - 1));
+            }
+            int digit = b - '0';
+            if (value < multmin || value * 10 < limit + digit) {
+                throw new BEncodingException("BParser: integer overflow at " + (p - 1));
+            }
+            value = value * 10 - digit;
+            digits++;
+        }
+
+        if (digits == 0) {
+            throw new BEncodingException("BParser: empty integer at " + p);
+        }
+
+        longValue = negative ? value : -value;
+        return p;
+    }
+
+    private int readString(int p) throws IOException {
+        long length = 0;
+
+        while (true) {
+            if (p >= end) {
+                throw new BEncodingException("BParser: unexpected end of data in string length at " + p);
+            }
+            byte b = buffer.get(p++);
+            if (b == ':') {
+                break;
+            }
+            if (b < '0' || b > '9' || length > Integer.MAX_VALUE) {
+                throw new BEncodingException("BParser: invalid string length at " + (p - 1));
+            }
+            length = length * 10 + (b - '0');
+        }
+
+        if (length > end - p) {
+            throw new BEncodingException("BParser: string of " + length + " bytes past the end of data at " + p);
+        }
+
+        stringOffset = p;
+        stringLength = (int) length;
+        return p + stringLength;
+    }
+}
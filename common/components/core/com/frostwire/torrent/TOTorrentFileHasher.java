@@ -23,14 +23,38 @@
 
 package com.frostwire.torrent;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
 import java.util.Vector;
-
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.frostwire.concurrent.DefaultThreadFactory;
+
+/**
+ * Pieces are read sequentially from the files, but every full piece is
+ * hashed in a shared pool of worker threads. The hashes are collected back
+ * in piece order in the calling thread, where the listener is notified too.
+ * The number of piece buffers in flight is bounded, so a slow disk or a
+ * fast one never makes the memory grow beyond a few pieces per core.
+ */
 public class TOTorrentFileHasher {
+
+    private static final int HASHER_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private static final int MAX_BUFFERED_BYTES = 64 * 1024 * 1024;
+
+    private static final ExecutorService hashers = newHashers();
+
     protected boolean do_other_per_file_hash;
     protected int piece_length;
 
@@ -52,6 +76,12 @@ public class TOTorrentFileHasher {
 
     protected boolean cancelled;
 
+    private final BlockingQueue<byte[]> free_buffers;
+    private final int max_buffers;
+    private int allocated_buffers;
+
+    private final LinkedList<Future<byte[]>> pending_hashes = new LinkedList<Future<byte[]>>();
+
     protected TOTorrentFileHasher(boolean _do_other_overall_hashes, boolean _do_other_per_file_hash, int _piece_length, TOTorrentFileHasherListener _listener) {
         if (_do_other_overall_hashes) {
             overall_sha1_hash = new SHA1Hasher();
@@ -63,7 +93,11 @@ public class TOTorrentFileHasher {
         piece_length = _piece_length;
         listener = _listener;
 
+        free_buffers = new LinkedBlockingQueue<byte[]>();
+        max_buffers = Math.max(2, Math.min(HASHER_THREADS + 1, MAX_BUFFERED_BYTES / piece_length));
+
         buffer = new byte[piece_length];
+        allocated_buffers = 1;
     }
 
     long add(File _file)
@@ -71,7 +105,7 @@ public class TOTorrentFileHasher {
     throws TOTorrentException {
         long file_length = 0;
 
-        InputStream is = null;
+        FileChannel channel = null;
 
         SHA1Hasher sha1_hash = null;
         //ED2KHasher	ed2k_hash		= null;
@@ -83,20 +117,23 @@ public class TOTorrentFileHasher {
                 //ed2k_hash		= new ED2KHasher();
             }
 
-            is = new BufferedInputStream(new FileInputStream(_file), 65536);
+            channel = new FileInputStream(_file).getChannel();
 
             while (true) {
 
                 if (cancelled) {
                     try {
-                        is.close();
+                        channel.close();
                     } catch (IOException e) {
                         // ignore
                     }
+
+                    cancelHashes();
+
                     throw (new TOTorrentException("TOTorrentCreate: operation cancelled", TOTorrentException.RT_CANCELLED));
                 }
 
-                int len = is.read(buffer, buffer_pos, piece_length - buffer_pos);
+                int len = channel.read(ByteBuffer.wrap(buffer, buffer_pos, piece_length - buffer_pos));
 
                 if (len > 0) {
 
@@ -112,24 +149,21 @@ public class TOTorrentFileHasher {
 
                     if (buffer_pos == piece_length) {
 
-                        // hash this piece
-
-                        byte[] hash = new SHA1Hasher().calculateHash(buffer);
-
                         if (overall_sha1_hash != null) {
 
                             overall_sha1_hash.update(buffer);
                             //overall_ed2k_hash.update( buffer );
                         }
 
-                        pieces.add(hash);
+                        // hash this piece in the background
 
-                        if (listener != null) {
+                        hashPiece(buffer);
 
-                            listener.pieceHashed(pieces.size());
-                        }
+                        buffer = nextBuffer();
 
                         buffer_pos = 0;
+
+                        collectHashes(false);
                     }
                 } else {
 
@@ -151,9 +185,9 @@ public class TOTorrentFileHasher {
 
             throw (new TOTorrentException("TOTorrentFileHasher: file read fails '" + e.toString() + "'", TOTorrentException.RT_READ_FAILS));
         } finally {
-            if (is != null) {
+            if (channel != null) {
                 try {
-                    is.close();
+                    channel.close();
                 } catch (Exception e) {
                 }
             }
@@ -176,6 +210,8 @@ public class TOTorrentFileHasher {
 
     throws TOTorrentException {
         try {
+            collectHashes(true);
+
             if (buffer_pos > 0) {
 
                 byte[] rem = new byte[buffer_pos];
@@ -243,4 +279,65 @@ public class TOTorrentFileHasher {
     protected void cancel() {
         cancelled = true;
     }
+
+    private void hashPiece(final byte[] piece) {
+        pending_hashes.add(hashers.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                try {
+                    return new SHA1Hasher().calculateHash(piece);
+                } finally {
+                    free_buffers.offer(piece);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Waits for a piece buffer to be released by the workers, if
+     * all the ones allowed are in use.
+     */
+    private byte[] nextBuffer() throws InterruptedException {
+        byte[] b = free_buffers.poll();
+
+        if (b == null) {
+            if (allocated_buffers < max_buffers) {
+                allocated_buffers++;
+                b = new byte[piece_length];
+            } else {
+                b = free_buffers.take();
+            }
+        }
+
+        return b;
+    }
+
+    /**
+     * Moves the finished hashes to the pieces, in order.
+     */
+    private void collectHashes(boolean wait) throws Exception {
+        while (!pending_hashes.isEmpty() && (wait || pending_hashes.getFirst().isDone())) {
+
+            pieces.add(pending_hashes.removeFirst().get());
+
+            if (listener != null) {
+
+                listener.pieceHashed(pieces.size());
+            }
+        }
+    }
+
+    private void cancelHashes() {
+        for (Future<byte[]> f : pending_hashes) {
+            f.cancel(false);
+        }
+
+        pending_hashes.clear();
+    }
+
+    private static ExecutorService newHashers() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(HASHER_THREADS, HASHER_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DefaultThreadFactory("TOTorrentFileHasher-Hasher", true));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 }
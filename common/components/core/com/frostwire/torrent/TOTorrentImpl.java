@@ -127,7 +127,7 @@ class TOTorrentImpl implements TOTorrent {
     public void serialiseToBEncodedFile(final File output_file)
 
     throws TOTorrentException {
-        byte[] res = serialiseToByteArray();
+        Map<String, Object> root = serialiseToMap();
 
         BufferedOutputStream bos = null;
 
@@ -201,7 +201,9 @@ class TOTorrentImpl implements TOTorrent {
 
             bos = new BufferedOutputStream(fos, 8192);
 
-            bos.write(res);
+            // streamed so the pieces of a big torrent aren't copied into another array
+
+            BEncoder.encode(root, bos);
 
             bos.flush();
 
@@ -25,9 +25,20 @@ package com.frostwire.util;
  */
 public class HttpClientFactory {
 
+    static {
+        // the JDK keeps alive up to this number of idle connections per host,
+        // the default of 5 is too low for the concurrent pages of a search
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", "16");
+        }
+    }
+
     private HttpClientFactory() {
     }
 
+    /**
+     * The clients are cheap, the connections are shared by all of them.
+     */
     public static HttpClient newInstance() {
         return new JdkHttpClient();
     }
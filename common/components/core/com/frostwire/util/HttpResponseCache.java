@@ -0,0 +1,100 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Bodies of the responses that came with an ETag or a Last-Modified header,
+ * so the next request of the same URL can be revalidated with
+ * If-None-Match/If-Modified-Since and answered from here on a 304.
+ * <p>
+ * Bounded by the total size of the bodies, least recently used go first.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class HttpResponseCache {
+
+    private final int maxSize;
+    private final int maxEntrySize;
+
+    private final LinkedHashMap<String, Entry> entries;
+    private int size;
+
+    public HttpResponseCache(int maxSize, int maxEntrySize) {
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxEntrySize;
+
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        this.size = 0;
+    }
+
+    public synchronized Entry get(String url) {
+        return entries.get(url);
+    }
+
+    public void put(String url, String etag, String lastModified, byte[] body) {
+        if (etag == null && lastModified == null) {
+            return;
+        }
+
+        if (body.length > maxEntrySize) {
+            remove(url);
+            return;
+        }
+
+        Entry e = new Entry(etag, lastModified, body);
+
+        synchronized (this) {
+            Entry old = entries.put(url, e);
+            if (old != null) {
+                size -= old.body.length;
+            }
+            size += body.length;
+
+            Iterator<Entry> it = entries.values().iterator();
+            while (size > maxSize && it.hasNext()) {
+                size -= it.next().body.length;
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void remove(String url) {
+        Entry old = entries.remove(url);
+        if (old != null) {
+            size -= old.body.length;
+        }
+    }
+
+    public static final class Entry {
+
+        public final String etag;
+        public final String lastModified;
+        public final byte[] body;
+
+        public Entry(String etag, String lastModified, byte[] body) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+    }
+}
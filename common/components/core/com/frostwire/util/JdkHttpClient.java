@@ -43,6 +43,12 @@ import com.frostwire.logging.Logger;
 
 /**
  * A pure java based HTTP client with resume capabilities.
+ * <p>
+ * The GET bodies are fully read and the stream closed without disconnecting,
+ * so the JDK keeps the connection (and the TLS session) alive and reuses it
+ * for the next request to the same host, from any instance. Responses with
+ * an ETag or Last-Modified header are revalidated on the next request.
+ *
  * @author gubatron
  * @author aldenml
  *
@@ -53,6 +59,28 @@ final class JdkHttpClient implements HttpClient {
 
     private static final int DEFAULT_TIMEOUT = 10000;
     private static final String DEFAULT_USER_AGENT = UserAgentGenerator.getUserAgent();
+
+    private static final int BUFFER_SIZE = 16384;
+    private static final int MAX_REUSED_BODY_SIZE = 1024 * 1024;
+
+    private static final HttpResponseCache cache = new HttpResponseCache(4 * 1024 * 1024, 512 * 1024);
+
+    private static final ThreadLocal<byte[]> copyBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private static final ThreadLocal<ByteArrayOutputStream> bodyBuffer = new ThreadLocal<ByteArrayOutputStream>();
+
+    private static final HostnameVerifier TRUST_ALL_HOSTNAMES = new HostnameVerifier() {
+        @Override
+        public boolean verify(String hostname, SSLSession session) {
+            return true;
+        }
+    };
+
     private HttpClientListener listener;
 
     private boolean canceled;
@@ -90,17 +118,17 @@ final class JdkHttpClient implements HttpClient {
         ByteArrayOutputStream baos = null;
 
         try {
-            baos = new ByteArrayOutputStream();
-            get(url, baos, timeout, userAgent, referrer, cookie, -1, -1, customHeaders);
+            baos = takeBodyBuffer();
+            get(url, baos, timeout, userAgent, referrer, cookie, -1, -1, customHeaders, cookie == null && customHeaders == null, true);
 
-            result = new String(baos.toByteArray(), "UTF-8");
+            result = baos.toString("UTF-8");
         } catch (java.net.SocketTimeoutException timeoutException) {
             throw timeoutException;
         } catch (IOException e) {
             LOG.error("Error getting string from http body response: " + e.getMessage(), e);
             throw e;
         } finally {
-            closeQuietly(baos);
+            releaseBodyBuffer(baos);
         }
 
         return result;
@@ -112,14 +140,14 @@ final class JdkHttpClient implements HttpClient {
         ByteArrayOutputStream baos = null;
 
         try {
-            baos = new ByteArrayOutputStream();
-            get(url, baos, timeout, userAgent, referrer, null, -1);
+            baos = takeBodyBuffer();
+            get(url, baos, timeout, userAgent, referrer, null, -1, -1, null, true, true);
 
             result = baos.toByteArray();
         } catch (Throwable e) {
             LOG.error("Error getting string from http body response: " + e.getMessage(), e);
         } finally {
-            closeQuietly(baos);
+            releaseBodyBuffer(baos);
         }
 
         return result;
@@ -273,10 +301,15 @@ final class JdkHttpClient implements HttpClient {
     }
 
     private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, String cookie, int rangeStart) throws IOException {
-        get(url, out, timeout, userAgent, referrer, cookie, rangeStart, -1, null);
+        get(url, out, timeout, userAgent, referrer, cookie, rangeStart, -1, null, false, false);
     }
 
-    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, String cookie, int rangeStart, int rangeLength, final Map<String, String> customHeaders) throws IOException {
+    /**
+     * @param revalidate if the body can be served from the response cache, then out must be a ByteArrayOutputStream
+     * @param gzip if a compressed body can be asked for, only for bodies read in memory, the saved files
+     *            must be the bytes of the resource so that their length and the resume ranges are right
+     */
+    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, String cookie, int rangeStart, int rangeLength, final Map<String, String> customHeaders, boolean revalidate, boolean gzip) throws IOException {
         canceled = false;
         final URL u = new URL(url);
         final URLConnection conn = u.openConnection();
@@ -303,6 +336,20 @@ final class JdkHttpClient implements HttpClient {
 
         if (rangeStart > 0) {
             conn.setRequestProperty("Range", buildRange(rangeStart, rangeLength));
+        } else if (gzip) {
+            // a range would apply to the compressed body
+            conn.setRequestProperty("Accept-Encoding", "gzip");
+        }
+
+        HttpResponseCache.Entry cached = revalidate ? cache.get(url) : null;
+
+        if (cached != null) {
+            if (cached.etag != null) {
+                conn.setRequestProperty("If-None-Match", cached.etag);
+            }
+            if (cached.lastModified != null) {
+                conn.setRequestProperty("If-Modified-Since", cached.lastModified);
+            }
         }
 
         if (customHeaders != null && customHeaders.size() > 0) {
@@ -310,45 +357,80 @@ final class JdkHttpClient implements HttpClient {
             setCustomHeaders(conn, customHeaders);
         }
 
-        InputStream in = conn.getInputStream();
-        if ("gzip".equals(conn.getContentEncoding())) {
-            in = new GZIPInputStream(in);
-        }
-
-        int httpResponseCode = getResponseCode(conn);
-
-        if (httpResponseCode != HttpURLConnection.HTTP_OK && httpResponseCode != HttpURLConnection.HTTP_PARTIAL) {
-            throw new ResponseCodeNotSupportedException(httpResponseCode);
+        InputStream in;
+        try {
+            in = conn.getInputStream();
+        } catch (IOException e) {
+            // reading the error body lets the connection go back to the keep alive cache
+            drainErrorStream(conn);
+            throw e;
         }
 
-        onHeaders(conn.getHeaderFields());
-        checkRangeSupport(rangeStart, conn);
+        boolean completed = false;
 
         try {
-            byte[] b = new byte[4096];
-            int n = 0;
-            while (!canceled && (n = in.read(b, 0, b.length)) != -1) {
-                if (!canceled) {
-                    out.write(b, 0, n);
-                    onData(b, 0, n);
-                }
+            if ("gzip".equals(conn.getContentEncoding())) {
+                in = new GZIPInputStream(in);
             }
 
-            closeQuietly(out);
+            int httpResponseCode = getResponseCode(conn);
+
+            if (httpResponseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                onHeaders(conn.getHeaderFields());
+
+                out.write(cached.body);
+                onData(cached.body, 0, cached.body.length);
+
+                closeQuietly(out);
+                completed = true;
 
-            if (canceled) {
-                onCancel();
-            } else {
                 onComplete();
+                return;
+            }
+
+            if (httpResponseCode != HttpURLConnection.HTTP_OK && httpResponseCode != HttpURLConnection.HTTP_PARTIAL) {
+                throw new ResponseCodeNotSupportedException(httpResponseCode);
+            }
+
+            onHeaders(conn.getHeaderFields());
+            checkRangeSupport(rangeStart, conn);
+
+            try {
+                byte[] b = copyBuffer.get();
+                int n = 0;
+                while (!canceled && (n = in.read(b, 0, b.length)) != -1) {
+                    if (!canceled) {
+                        out.write(b, 0, n);
+                        onData(b, 0, n);
+                    }
+                }
+
+                closeQuietly(out);
+
+                if (canceled) {
+                    onCancel();
+                } else {
+                    completed = true;
+
+                    if (revalidate && out instanceof ByteArrayOutputStream) {
+                        cache.put(url, conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"), ((ByteArrayOutputStream) out).toByteArray());
+                    }
+
+                    onComplete();
+                }
+            } catch (Exception e) {
+                onError(e);
             }
-        } catch (Exception e) {
-            onError(e);
         } finally {
             closeQuietly(in);
-            closeQuietly(conn);
+
+            if (!completed) {
+                // a partially read connection can't be reused
+                closeQuietly(conn);
+            }
         }
     }
-    
+
     @Override
     public void post(String url, int timeout, String userAgent, ProgressFileEntity fileEntity) throws Throwable {
         canceled = false;
@@ -489,12 +571,7 @@ final class JdkHttpClient implements HttpClient {
     }
 
     private void setHostnameVerifier(HttpsURLConnection conn) {
-        conn.setHostnameVerifier(new HostnameVerifier() {
-            @Override
-            public boolean verify(String hostname, SSLSession session) {
-                return true;
-            }
-        });
+        conn.setHostnameVerifier(TRUST_ALL_HOSTNAMES);
     }
 
     private int getResponseCode(URLConnection conn) {
@@ -569,6 +646,45 @@ final class JdkHttpClient implements HttpClient {
         }
     }
 
+    private static void drainErrorStream(URLConnection conn) {
+        if (conn instanceof HttpURLConnection) {
+            InputStream err = ((HttpURLConnection) conn).getErrorStream();
+            if (err != null) {
+                try {
+                    byte[] b = copyBuffer.get();
+                    while (err.read(b) != -1) {
+                    }
+                } catch (IOException e) {
+                    // ignore
+                } finally {
+                    closeQuietly(err);
+                }
+            }
+        }
+    }
+
+    /**
+     * The body buffer of this thread, they are reused unless a body was too big.
+     */
+    private static ByteArrayOutputStream takeBodyBuffer() {
+        ByteArrayOutputStream baos = bodyBuffer.get();
+
+        if (baos == null) {
+            baos = new ByteArrayOutputStream(BUFFER_SIZE);
+        } else {
+            bodyBuffer.set(null); // in use, in case of a nested request from a listener
+            baos.reset();
+        }
+
+        return baos;
+    }
+
+    private static void releaseBodyBuffer(ByteArrayOutputStream baos) {
+        if (baos != null && baos.size() <= MAX_REUSED_BODY_SIZE) {
+            bodyBuffer.set(baos);
+        }
+    }
+
     private static void closeQuietly(Closeable closeable) {
         try {
             if (closeable != null) {
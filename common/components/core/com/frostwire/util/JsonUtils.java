@@ -18,8 +18,11 @@
 
 package com.frostwire.util;
 
+import java.lang.reflect.Type;
+
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * Simple JSON utility class based on google-gson.
@@ -50,6 +53,18 @@ public final class JsonUtils {
         return gson.toJson(obj);
     }
 
+    /**
+     * This method serializes the specified object into the writer, for
+     * streaming a big document element by element.
+     *
+     * @param obj the object for which Json representation is to be written
+     * @param type the type of obj
+     * @param writer the writer positioned where the value goes
+     */
+    public static void toJson(Object obj, Type type, JsonWriter writer) {
+        gson.toJson(obj, type, writer);
+    }
+
     /**
      * This method deserializes the specified Json into an object of the specified class.
      * 
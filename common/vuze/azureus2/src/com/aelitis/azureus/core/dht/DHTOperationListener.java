@@ -33,6 +33,10 @@ import com.aelitis.azureus.core.dht.transport.DHTTransportValue;
 public interface 
 DHTOperationListener 
 {
+		// searching, found, diversified and read can be called from the few threads shared
+		// by the steps of all the lookups and must not block, hand long work to another thread.
+		// complete runs on a thread of its own and may wait for other operations
+	
 	public void
 	searching(
 		DHTTransportContact	contact,
@@ -67,7 +67,12 @@ DHTControlImpl
 {
 	private static final boolean DISABLE_REPLICATE_ON_JOIN	= true;
 	
-	public  static 		 int EXTERNAL_LOOKUP_CONCURRENCY			= 16;
+		// a lookup holds its slot in the pool until it completes but no thread, as
+		// its steps are run by the replies, so this bounds the lookups in progress
+		// rather than the threads. With the default search concurrency that's about
+		// 1300 requests in flight, well under what fills the UDP send queue
+	
+	public  static 		 int EXTERNAL_LOOKUP_CONCURRENCY			= 256;
 	private static final int EXTERNAL_PUT_CONCURRENCY				= 8;
 	private static final int EXTERNAL_SLEEPING_PUT_CONCURRENCY		= 4;
 	
@@ -75,6 +80,18 @@ DHTControlImpl
 	
 	private static final int INTEGRATION_TIME_MAX			= 15*1000;
 	
+	private static final int LOOKUP_DISPATCHERS				= 4;
+	
+	private static final AsyncDispatcher[]	lookup_dispatchers = new AsyncDispatcher[LOOKUP_DISPATCHERS];
+	private static int						lookup_dispatcher_next;
+	
+	static{
+		for (int i=0;i<LOOKUP_DISPATCHERS;i++){
+			
+			lookup_dispatchers[i] = new AsyncDispatcher( "DHTControl:lookupSteps", 10000 );
+		}
+	}
+	
 		
 	private DHTControlAdapter		adapter;
 	private DHTTransport			transport;
@@ -2184,6 +2201,13 @@ DHTControlImpl
 				private int runningState = 1; // -1 terminated, 0 waiting, 1 running
 				private int freeTasksCount = concurrency;
 				
+					// when a reply frees a slot the next steps are queued here, all the
+					// steps of the lookup after the first run on the same thread. The
+					// handler's searching and found callbacks can run there, so the
+					// operation listeners must not block (see DHTOperationListener)
+				
+				private final AsyncDispatcher step_dispatcher = getLookupDispatcher();
+				
 
 				private boolean	cancelled;
 
@@ -2328,16 +2352,37 @@ DHTControlImpl
 					{
 						//System.out.println("release-start");
 						runningState = 1;
-						new AEThread2("DHT lookup runner",true) {
-							public void run() {
-								thread_pool.registerThreadAsChild(worker);
+						step_dispatcher.dispatch(new AERunnable() {
+							public void runSupport() {
 								lookupSteps();
-								thread_pool.deregisterThreadAsChild(worker);
 							}
-						}.start();
+						});
 					}
 				}
 				
+				private void completeLookup(final boolean error)
+				{
+					if(!step_dispatcher.isDispatchThread())
+					{
+						terminateLookup(error);
+						return;
+					}
+					
+					// the result handlers can start other lookups and wait for them, so each
+					// completion gets its own thread, a shared one would wait on completions
+					// queued behind it
+					new AEThread2("DHT lookup complete",true) {
+						public void run() {
+							thread_pool.registerThreadAsChild(worker);
+							try {
+								terminateLookup(error);
+							} finally {
+								thread_pool.deregisterThreadAsChild(worker);
+							}
+						}
+					}.start();
+				}
+				
 				protected synchronized void
 				cancel()
 				{
@@ -2746,13 +2791,13 @@ DHTControlImpl
 						}
 						
 						if(terminate){
-							terminateLookup(false);
+							completeLookup(false);
 						}else if ( cancelled ){
-							terminateLookup( true );
+							completeLookup( true );
 						}
 					} catch (Throwable e) {
 						Debug.printStackTrace(e);
-						terminateLookup(true);
+						completeLookup(true);
 					}
 				}
 				
@@ -2878,6 +2923,17 @@ DHTControlImpl
 		return( task );
 	}
 	
+	private static AsyncDispatcher
+	getLookupDispatcher()
+	{
+		synchronized( lookup_dispatchers ){
+			
+			lookup_dispatcher_next = ( lookup_dispatcher_next + 1 ) % LOOKUP_DISPATCHERS;
+			
+			return( lookup_dispatchers[lookup_dispatcher_next] );
+		}
+	}
+	
 	private static class
 	ASImpl
 		implements DHTControlActivity.ActivityState
@@ -25,6 +25,8 @@ package com.aelitis.azureus.core.dht.db.impl;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.gudy.azureus2.core3.ipfilter.IpFilter;
 import org.gudy.azureus2.core3.ipfilter.IpFilterManagerFactory;
@@ -86,23 +88,38 @@ DHTDBImpl
 	private int			cache_republish_interval;
 	
 	private long		MIN_CACHE_EXPIRY_CHECK_INTERVAL		= 60*1000;
-	private long		last_cache_expiry_check;
 	
 	private static final long	IP_BLOOM_FILTER_REBUILD_PERIOD		= 15*60*1000;
 	private static final int	IP_COUNT_BLOOM_SIZE_INCREASE_CHUNK	= 1000;
 	
 	private BloomFilter	ip_count_bloom_filter = BloomFilterFactory.createAddRemove8Bit( IP_COUNT_BLOOM_SIZE_INCREASE_CHUNK );
+	private boolean		ip_count_bloom_rebuild_pending;
+	
+	private AEMonitor	ip_count_bloom_mon	= new AEMonitor( "DHTDB:ipbloom" );
 	
 	private static final int	VALUE_VERSION_CHUNK = 128;
 	private int	next_value_version;
 	private int next_value_version_left;
 	
+	private AEMonitor	value_version_mon	= new AEMonitor( "DHTDB:version" );
+	
 	
 	protected static final int		QUERY_STORE_REQUEST_ENTRY_SIZE	= 6;
 	protected static final int		QUERY_STORE_REPLY_ENTRY_SIZE	= 2;
 	
-	private Map<HashWrapper,DHTDBMapping>				stored_values 				= new HashMap<HashWrapper,DHTDBMapping>();
-	private Map<DHTDBMapping.ShortHash,DHTDBMapping>	stored_values_prefix_map	= new HashMap<DHTDBMapping.ShortHash,DHTDBMapping>();
+		// the mappings are spread over shards by key, each with its own lock, so that stores
+		// and gets of different keys don't wait for each other and the scans (republish,
+		// expiry, survey) hold one shard at a time. Locks are taken in the order this_mon
+		// (survey state), a shard, then one of the small ones (prefix map, ip bloom, value
+		// version) and never the other way round
+	
+	private static final int	SHARDS	= 32;	// power of 2
+	
+	private MappingShard[]		shards;
+	
+	private Map<DHTDBMapping.ShortHash,DHTDBMapping>	stored_values_prefix_map	= new ConcurrentHashMap<DHTDBMapping.ShortHash,DHTDBMapping>();
+	
+	private AEMonitor	prefix_map_mon	= new AEMonitor( "DHTDB:prefix" );
 	
 	private DHTControl				control;
 	private DHTStorageAdapter		adapter;
@@ -112,10 +129,10 @@ DHTDBImpl
 	
 	private static final long	MAX_TOTAL_SIZE	= 4*1024*1024;
 	
-	private int		total_size;
-	private int		total_values;
-	private int		total_keys;
-	private int		total_local_keys;
+	private AtomicInteger	total_size			= new AtomicInteger();
+	private AtomicInteger	total_values		= new AtomicInteger();
+	private AtomicInteger	total_keys			= new AtomicInteger();
+	private AtomicInteger	total_local_keys	= new AtomicInteger();
 	
 	
 	private boolean force_original_republish;
@@ -153,8 +170,8 @@ DHTDBImpl
 			}
 		};
 	
-	private boolean	sleeping;
-	private boolean	suspended;
+	private volatile boolean	sleeping;
+	private volatile boolean	suspended;
 		
 	public
 	DHTDBImpl(
@@ -168,6 +185,13 @@ DHTDBImpl
 		original_republish_interval		= _original_republish_interval;
 		cache_republish_interval		= _cache_republish_interval;
 		logger							= _logger;
+		
+		shards = new MappingShard[SHARDS];
+		
+		for (int i=0;i<SHARDS;i++){
+			
+			shards[i] = new MappingShard();
+		}
 			
 		survey_enabled = 
 			_protocol_version >= DHTTransportUDP.PROTOCOL_VERSION_REPLICATION_CONTROL3 &&
@@ -269,15 +293,7 @@ DHTDBImpl
 					perform(
 						TimerEvent	event )
 					{
-						try{
-							this_mon.enter();
-							
-							rebuildIPBloomFilter( false );
-							
-						}finally{
-							
-							this_mon.exit();
-						}
+						rebuildIPBloomFilter( false );
 					}
 				});
 				
@@ -320,17 +336,28 @@ DHTDBImpl
 			
 			survey_state.clear();
 			
-			Iterator<DHTDBMapping>	it = stored_values.values().iterator();
+		}finally{
+			
+			this_mon.exit();
+		}
+		
+		for ( MappingShard shard: shards ){
 			
-			while( it.hasNext()){
+			try{
+				shard.mon.enter();
+			
+				Iterator<DHTDBMapping>	it = shard.mappings.values().iterator();
 				
-				DHTDBMapping	mapping = it.next();
+				while( it.hasNext()){
+					
+					DHTDBMapping	mapping = it.next();
+					
+					mapping.updateLocalContact( local_contact );
+				}
+			}finally{
 				
-				mapping.updateLocalContact( local_contact );
+				shard.mon.exit();
 			}
-		}finally{
-			
-			this_mon.exit();
 		}
 	}
 	
@@ -362,21 +389,23 @@ DHTDBImpl
 				}
 			}
 			
+			MappingShard	shard = getShard( key );
+			
 			try{
-				this_mon.enter();
+				shard.mon.enter();
 					
-				total_local_keys++;
+				total_local_keys.incrementAndGet();
 				
 					// don't police max check for locally stored data
 					// only that received
 				
-				DHTDBMapping	mapping = (DHTDBMapping)stored_values.get( key );
+				DHTDBMapping	mapping = shard.mappings.get( key );
 				
 				if ( mapping == null ){
 					
 					mapping = new DHTDBMapping( this, key, true );
 					
-					stored_values.put( key, mapping );
+					shard.mappings.put( key, mapping );
 					
 					addToPrefixMap( mapping );
 				}
@@ -399,7 +428,7 @@ DHTDBImpl
 				
 			}finally{
 				
-				this_mon.exit();
+				shard.mon.exit();
 			}
 		}else{
 			
@@ -440,7 +469,7 @@ DHTDBImpl
 			// allow 4 bytes per value entry to deal with overhead (prolly should be more but we're really
 			// trying to deal with 0-length value stores)
 		
-		if ( total_size + ( total_values*4 ) > MAX_TOTAL_SIZE ){
+		if ( total_size.get() + ( total_values.get()*4 ) > MAX_TOTAL_SIZE ){
 			
 			DHTLog.log( "Not storing " + DHTLog.getString2(key.getHash()) + " as maximum storage limit exceeded" );
 
@@ -449,23 +478,25 @@ DHTDBImpl
 		
 		// logStoreOps();
 		
+		if ( sleeping || suspended ){
+			
+			return( DHT.DT_NONE );
+		}
+		
+		MappingShard	shard = getShard( key );
+		
 		try{
-			this_mon.enter();
-						
-			if ( sleeping || suspended ){
-				
-				return( DHT.DT_NONE );
-			}
+			shard.mon.enter();
 			
-			checkCacheExpiration( false );
+			checkCacheExpiration( shard, false );
 				
-			DHTDBMapping	mapping = (DHTDBMapping)stored_values.get( key );
+			DHTDBMapping	mapping = shard.mappings.get( key );
 			
 			if ( mapping == null ){
 				
 				mapping = new DHTDBMapping( this, key, false );
 				
-				stored_values.put( key, mapping );
+				shard.mappings.put( key, mapping );
 				
 				addToPrefixMap( mapping );
 			}
@@ -486,7 +517,7 @@ DHTDBImpl
 	
 		}finally{
 			
-			this_mon.exit();
+			shard.mon.exit();
 		}
 	}
 	
@@ -498,12 +529,14 @@ DHTDBImpl
 		byte					flags,
 		boolean					external_request )	
 	{
+		MappingShard	shard = getShard( key );
+		
 		try{
-			this_mon.enter();
+			shard.mon.enter();
 			
-			checkCacheExpiration( false );
+			checkCacheExpiration( shard, false );
 					
-			final DHTDBMapping mapping = (DHTDBMapping)stored_values.get(key);
+			final DHTDBMapping mapping = shard.mappings.get(key);
 			
 			if ( mapping == null ){
 				
@@ -535,7 +568,7 @@ DHTDBImpl
 			
 		}finally{
 			
-			this_mon.exit();
+			shard.mon.exit();
 		}
 	}
 	
@@ -545,10 +578,12 @@ DHTDBImpl
 	{
 			// local get
 		
+		MappingShard	shard = getShard( key );
+		
 		try{
-			this_mon.enter();
+			shard.mon.enter();
 		
-			DHTDBMapping mapping = (DHTDBMapping)stored_values.get( key );
+			DHTDBMapping mapping = shard.mappings.get( key );
 			
 			if ( mapping != null ){
 				
@@ -559,7 +594,7 @@ DHTDBImpl
 			
 		}finally{
 			
-			this_mon.exit();
+			shard.mon.exit();
 		}
 	}
 	
@@ -567,10 +602,12 @@ DHTDBImpl
 	getAnyValue(
 		HashWrapper				key )
 	{		
+		MappingShard	shard = getShard( key );
+		
 		try{
-			this_mon.enter();
+			shard.mon.enter();
 		
-			DHTDBMapping mapping = (DHTDBMapping)stored_values.get( key );
+			DHTDBMapping mapping = shard.mappings.get( key );
 			
 			if ( mapping != null ){
 				
@@ -581,7 +618,7 @@ DHTDBImpl
 			
 		}finally{
 			
-			this_mon.exit();
+			shard.mon.exit();
 		}
 	}
 	
@@ -589,14 +626,16 @@ DHTDBImpl
 	hasKey(
 		HashWrapper		key )
 	{
+		MappingShard	shard = getShard( key );
+		
 		try{
-			this_mon.enter();
+			shard.mon.enter();
 			
-			return( stored_values.containsKey( key ));
+			return( shard.mappings.containsKey( key ));
 			
 		}finally{
 			
-			this_mon.exit();
+			shard.mon.exit();
 		}
 	}
 	
@@ -607,10 +646,12 @@ DHTDBImpl
 	{
 			// local remove
 		
+		MappingShard	shard = getShard( key );
+		
 		try{
-			this_mon.enter();
+			shard.mon.enter();
 		
-			DHTDBMapping mapping = (DHTDBMapping)stored_values.get( key );
+			DHTDBMapping mapping = shard.mappings.get( key );
 			
 			if ( mapping != null ){
 				
@@ -618,11 +659,11 @@ DHTDBImpl
 				
 				if ( res != null ){
 									
-					total_local_keys--;
+					total_local_keys.decrementAndGet();
 					
 					if ( !mapping.getValues().hasNext()){
 						
-						stored_values.remove( key );
+						shard.mappings.remove( key );
 					
 						removeFromPrefixMap( mapping );
 						
@@ -639,7 +680,7 @@ DHTDBImpl
 			
 		}finally{
 			
-			this_mon.exit();
+			shard.mon.exit();
 		}
 	}
 	
@@ -726,83 +767,85 @@ DHTDBImpl
 	public boolean
 	isEmpty()
 	{
-		return( total_keys == 0 );
+		return( total_keys.get() == 0 );
 	}
 	
 	public int
 	getKeyCount()
 	{
-		return( (int)total_keys );
+		return( total_keys.get());
 	}
 	
 	public int
 	getLocalKeyCount()
 	{
-		return( total_local_keys );
+		return( total_local_keys.get());
 	}
 	
 	public int
 	getValueCount()
 	{
-		return( (int)total_values );
+		return( total_values.get());
 	}
 	
 	public int
 	getSize()
 	{
-		return( (int)total_size );
+		return( total_size.get());
 	}
 	
 	public int[]
 	getValueDetails()
 	{
-		try{
-			this_mon.enter();
-			
-			int[]	res = new int[6];
-			
-			Iterator<DHTDBMapping>	it = stored_values.values().iterator();
+		int[]	res = new int[6];
+		
+		for ( MappingShard shard: shards ){
 			
-			while( it.hasNext()){
+			try{
+				shard.mon.enter();
+				
+				Iterator<DHTDBMapping>	it = shard.mappings.values().iterator();
+				
+				while( it.hasNext()){
 				
-				DHTDBMapping	mapping = it.next();
+					DHTDBMapping	mapping = it.next();
 				
-				res[DHTDBStats.VD_VALUE_COUNT] += mapping.getValueCount();
-				res[DHTDBStats.VD_LOCAL_SIZE] += mapping.getLocalSize();
-				res[DHTDBStats.VD_DIRECT_SIZE] += mapping.getDirectSize();
-				res[DHTDBStats.VD_INDIRECT_SIZE] += mapping.getIndirectSize();
+					res[DHTDBStats.VD_VALUE_COUNT] += mapping.getValueCount();
+					res[DHTDBStats.VD_LOCAL_SIZE] += mapping.getLocalSize();
+					res[DHTDBStats.VD_DIRECT_SIZE] += mapping.getDirectSize();
+					res[DHTDBStats.VD_INDIRECT_SIZE] += mapping.getIndirectSize();
 				
-				int	dt = mapping.getDiversificationType();
+					int	dt = mapping.getDiversificationType();
 				
-				if ( dt == DHT.DT_FREQUENCY ){
+					if ( dt == DHT.DT_FREQUENCY ){
 					
-					res[DHTDBStats.VD_DIV_FREQ]++;
+						res[DHTDBStats.VD_DIV_FREQ]++;
 					
-				}else if ( dt == DHT.DT_SIZE ){
+					}else if ( dt == DHT.DT_SIZE ){
 					
-					res[DHTDBStats.VD_DIV_SIZE]++;
+						res[DHTDBStats.VD_DIV_SIZE]++;
 					
-					/*
-					Iterator<DHTDBValueImpl> it2 = mapping.getIndirectValues();
+						/*
+						Iterator<DHTDBValueImpl> it2 = mapping.getIndirectValues();
 					
-					System.out.println( "values=" + mapping.getValueCount());
+						System.out.println( "values=" + mapping.getValueCount());
 					
-					while( it2.hasNext()){
+						while( it2.hasNext()){
 						
-						DHTDBValueImpl val = it2.next();
+							DHTDBValueImpl val = it2.next();
 						
-						System.out.println( new String( val.getValue()) + " - " + val.getOriginator().getAddress());
+							System.out.println( new String( val.getValue()) + " - " + val.getOriginator().getAddress());
+						}
+						*/
 					}
-					*/
 				}
+			}finally{
+				
+				shard.mon.exit();
 			}
-			
-			return( res );
-			
-		}finally{
-			
-			this_mon.exit();
 		}
+		
+		return( res );
 	}
 	
 	public int
@@ -819,15 +862,43 @@ DHTDBImpl
 	public Iterator<HashWrapper>
 	getKeys()
 	{
-		try{
-			this_mon.enter();
-			
-			return( new ArrayList<HashWrapper>( stored_values.keySet()).iterator());
+		List<HashWrapper>	keys = new ArrayList<HashWrapper>();
+		
+		for ( MappingShard shard: shards ){
 			
-		}finally{
+			try{
+				shard.mon.enter();
+				
+				keys.addAll( shard.mappings.keySet());
+				
+			}finally{
+				
+				shard.mon.exit();
+			}
+		}
+		
+		return( keys.iterator());
+	}
+	
+	protected int
+	getMappingCount()
+	{
+		int	count = 0;
+		
+		for ( MappingShard shard: shards ){
 			
-			this_mon.exit();
+			try{
+				shard.mon.enter();
+				
+				count += shard.mappings.size();
+				
+			}finally{
+				
+				shard.mon.exit();
+			}
 		}
+		
+		return( count );
 	}
 	
 	protected int
@@ -844,46 +915,49 @@ DHTDBImpl
 
 		Map<HashWrapper,List<DHTDBValueImpl>>	republish = new HashMap<HashWrapper,List<DHTDBValueImpl>>();
 		
-		try{
-			this_mon.enter();
+		for ( MappingShard shard: shards ){
 			
-			Iterator<Map.Entry<HashWrapper,DHTDBMapping>>	it = stored_values.entrySet().iterator();
+			try{
+				shard.mon.enter();
+				
+				Iterator<Map.Entry<HashWrapper,DHTDBMapping>>	it = shard.mappings.entrySet().iterator();
 			
-			while( it.hasNext()){
+				while( it.hasNext()){
 				
-				Map.Entry<HashWrapper,DHTDBMapping>	entry = it.next();
+					Map.Entry<HashWrapper,DHTDBMapping>	entry = it.next();
 				
-				HashWrapper		key		= (HashWrapper)entry.getKey();
+					HashWrapper		key		= (HashWrapper)entry.getKey();
 				
-				DHTDBMapping	mapping	= (DHTDBMapping)entry.getValue();
+					DHTDBMapping	mapping	= (DHTDBMapping)entry.getValue();
 				
-				Iterator<DHTDBValueImpl>	it2 = mapping.getValues();
+					Iterator<DHTDBValueImpl>	it2 = mapping.getValues();
 				
-				List<DHTDBValueImpl>	values = new ArrayList<DHTDBValueImpl>();
+					List<DHTDBValueImpl>	values = new ArrayList<DHTDBValueImpl>();
 				
-				while( it2.hasNext()){
+					while( it2.hasNext()){
 					
-					DHTDBValueImpl	value = it2.next();
+						DHTDBValueImpl	value = it2.next();
 				
-					if ( value != null && value.isLocal()){
+						if ( value != null && value.isLocal()){
 						
-						// we're republising the data, reset the creation time
+							// we're republising the data, reset the creation time
 						
-						value.setCreationTime();
+							value.setCreationTime();
 
-						values.add( value );
+							values.add( value );
+						}
 					}
-				}
 				
-				if ( values.size() > 0 ){
+					if ( values.size() > 0 ){
 					
-					republish.put( key, values );
+						republish.put( key, values );
 					
+					}
 				}
+			}finally{
+				
+				shard.mon.exit();
 			}
-		}finally{
-			
-			this_mon.exit();
 		}
 		
 		Iterator<Map.Entry<HashWrapper,List<DHTDBValueImpl>>>	it = republish.entrySet().iterator();
@@ -936,91 +1010,94 @@ DHTDBImpl
 		
 		long	now = System.currentTimeMillis();
 		
-		try{
-			this_mon.enter();
+		for ( MappingShard shard: shards ){
 			
-			checkCacheExpiration( true );
+			try{
+				shard.mon.enter();
+				
+				checkCacheExpiration( shard, true );
 
-			Iterator<Map.Entry<HashWrapper,DHTDBMapping>>	it = stored_values.entrySet().iterator();
+				Iterator<Map.Entry<HashWrapper,DHTDBMapping>>	it = shard.mappings.entrySet().iterator();
 			
-			while( it.hasNext()){
+				while( it.hasNext()){
 				
-				Map.Entry<HashWrapper,DHTDBMapping>	entry = it.next();
+					Map.Entry<HashWrapper,DHTDBMapping>	entry = it.next();
 				
-				HashWrapper			key		= entry.getKey();
+					HashWrapper			key		= entry.getKey();
 				
-				DHTDBMapping		mapping	= entry.getValue();
+					DHTDBMapping		mapping	= entry.getValue();
 				
-					// assume that if we've diversified then the other k-1 locations are under similar
-					// stress and will have done likewise - no point in republishing cache values to them
-					// New nodes joining will have had stuff forwarded to them regardless of diversification
-					// status
+						// assume that if we've diversified then the other k-1 locations are under similar
+						// stress and will have done likewise - no point in republishing cache values to them
+						// New nodes joining will have had stuff forwarded to them regardless of diversification
+						// status
 				
-				if ( mapping.getDiversificationType() != DHT.DT_NONE ){
+					if ( mapping.getDiversificationType() != DHT.DT_NONE ){
 					
-					continue;
-				}
+						continue;
+					}
 				
-				Iterator<DHTDBValueImpl>	it2 = mapping.getValues();
+					Iterator<DHTDBValueImpl>	it2 = mapping.getValues();
 				
-				boolean	all_rf_values = it2.hasNext();
+					boolean	all_rf_values = it2.hasNext();
 				
-				List<DHTDBValueImpl>	values = new ArrayList<DHTDBValueImpl>();
+					List<DHTDBValueImpl>	values = new ArrayList<DHTDBValueImpl>();
 				
-				while( it2.hasNext()){
+					while( it2.hasNext()){
 					
-					DHTDBValueImpl	value = it2.next();
+						DHTDBValueImpl	value = it2.next();
 				
-					if ( value.isLocal()){
+						if ( value.isLocal()){
 						
-						all_rf_values = false;
+							all_rf_values = false;
 						
-					}else{
+						}else{
 						
-						if ( value.getReplicationFactor() == DHT.REP_FACT_DEFAULT ){
+							if ( value.getReplicationFactor() == DHT.REP_FACT_DEFAULT ){
 							
-							all_rf_values = false;
-						}
+								all_rf_values = false;
+							}
 						
-							// if this value was stored < period ago then we assume that it was
-							// also stored to the other k-1 locations at the same time and therefore
-							// we don't need to re-store it
+								// if this value was stored < period ago then we assume that it was
+								// also stored to the other k-1 locations at the same time and therefore
+								// we don't need to re-store it
 						
-						if ( now < value.getStoreTime()){
+							if ( now < value.getStoreTime()){
 							
-								// deal with clock changes
+									// deal with clock changes
 							
-							value.setStoreTime( now );
+								value.setStoreTime( now );
 							
-						}else if ( now - value.getStoreTime() <= cache_republish_interval ){
+							}else if ( now - value.getStoreTime() <= cache_republish_interval ){
 							
-							// System.out.println( "skipping store" );
+								// System.out.println( "skipping store" );
 							
-						}else{
+							}else{
 								
-							values.add( value );
+								values.add( value );
+							}
 						}
 					}
-				}
 
-				if ( all_rf_values ){
+					if ( all_rf_values ){
 					
-						// if surveying is disabled then we swallow values here to prevent them
-						// from being replicated using the existing technique and muddying the waters
+							// if surveying is disabled then we swallow values here to prevent them
+							// from being replicated using the existing technique and muddying the waters
 					
-					values.clear();	// handled by the survey process
+						values.clear();	// handled by the survey process
 					
-					republish_via_survey.add( mapping );
-				}
+						republish_via_survey.add( mapping );
+					}
 					
-				if ( values.size() > 0 ){
+					if ( values.size() > 0 ){
 						
-					republish.put( key, values );
+						republish.put( key, values );
+					}
 				}
+			}finally{
+				
+				shard.mon.exit();
 			}
-		}finally{
-			
-			this_mon.exit();
 		}
 		
 		if ( republish_via_survey.size() > 0 ){
@@ -1062,24 +1139,7 @@ DHTDBImpl
 			
 			if ( stop_caching.size() > 0 ){
 				
-				try{
-					this_mon.enter();
-					
-					for (int i=0;i<stop_caching.size();i++){
-						
-						DHTDBMapping	mapping = (DHTDBMapping)stored_values.remove( stop_caching.get(i));
-						
-						if ( mapping != null ){
-							
-							removeFromPrefixMap( mapping );
-							
-							mapping.destroy();
-						}
-					}
-				}finally{
-					
-					this_mon.exit();
-				}
+				removeMappings( stop_caching );
 			}
 		}
 		
@@ -1274,24 +1334,7 @@ DHTDBImpl
 				sem.reserve();
 			}
 			
-			try{
-				this_mon.enter();
-				
-				for (int i=0;i<stop_caching.size();i++){
-					
-					DHTDBMapping	mapping = (DHTDBMapping)stored_values.remove( stop_caching.get(i));
-					
-					if ( mapping != null ){
-						
-						removeFromPrefixMap( mapping );
-						
-						mapping.destroy();
-					}
-				}
-			}finally{
-				
-				this_mon.exit();
-			}
+			removeMappings( stop_caching );
 		}
 		
 		DHTStorageBlock[]	direct_key_blocks = getDirectKeyBlocks();
@@ -1408,12 +1451,36 @@ DHTDBImpl
 	protected void
 	checkCacheExpiration(
 		boolean		force )
+	{
+		for ( MappingShard shard: shards ){
+			
+			try{
+				shard.mon.enter();
+				
+				checkCacheExpiration( shard, force );
+				
+			}finally{
+				
+				shard.mon.exit();
+			}
+		}
+	}
+	
+		/**
+		 * Removes the expired values of the shard, at most once a minute unless forced.
+		 * The shard's lock is held
+		 */
+	
+	protected void
+	checkCacheExpiration(
+		MappingShard	shard,
+		boolean			force )
 	{
 		long	 now = SystemTime.getCurrentTime();
 		
 		if ( !force ){
 			
-			long elapsed = now - last_cache_expiry_check;
+			long elapsed = now - shard.last_cache_expiry_check;
 			
 			if ( elapsed > 0 && elapsed < MIN_CACHE_EXPIRY_CHECK_INTERVAL ){
 				
@@ -1421,83 +1488,128 @@ DHTDBImpl
 			}
 		}
 			
-		try{
-			this_mon.enter();
-			
-			last_cache_expiry_check	= now;
-			
-			Iterator<DHTDBMapping>	it = stored_values.values().iterator();
+		shard.last_cache_expiry_check	= now;
+		
+		Iterator<DHTDBMapping>	it = shard.mappings.values().iterator();
+		
+		while( it.hasNext()){
 			
-			while( it.hasNext()){
+			DHTDBMapping	mapping = it.next();
+
+			if ( mapping.getValueCount() == 0 ){
+									
+				it.remove();
 				
-				DHTDBMapping	mapping = it.next();
-	
-				if ( mapping.getValueCount() == 0 ){
-										
-					it.remove();
-					
-					removeFromPrefixMap( mapping );
-					
-					mapping.destroy();
+				removeFromPrefixMap( mapping );
+				
+				mapping.destroy();
 
-				}else{
+			}else{
+				
+				Iterator<DHTDBValueImpl>	it2 = mapping.getValues();
+				
+				while( it2.hasNext()){
 					
-					Iterator<DHTDBValueImpl>	it2 = mapping.getValues();
+					DHTDBValueImpl	value = it2.next();				
 					
-					while( it2.hasNext()){
+					if ( !value.isLocal()){
 						
-						DHTDBValueImpl	value = it2.next();				
+							// distance 1 = initial store location. We use the initial creation date
+							// when deciding whether or not to remove this, plus a bit, as the 
+							// original publisher is supposed to republish these
 						
-						if ( !value.isLocal()){
+						int life_hours = value.getLifeTimeHours();
+						
+						int	max_age;
+						
+						if ( life_hours < 1 ){
 							
-								// distance 1 = initial store location. We use the initial creation date
-								// when deciding whether or not to remove this, plus a bit, as the 
-								// original publisher is supposed to republish these
+							max_age = original_republish_interval;
 							
-							int life_hours = value.getLifeTimeHours();
+						}else{
 							
-							int	max_age;
+							max_age = life_hours * 60*60*1000;
 							
-							if ( life_hours < 1 ){
+							if ( max_age > MAX_VALUE_LIFETIME ){
 								
-								max_age = original_republish_interval;
-								
-							}else{
-								
-								max_age = life_hours * 60*60*1000;
-								
-								if ( max_age > MAX_VALUE_LIFETIME ){
-									
-									max_age = MAX_VALUE_LIFETIME;
-								}
+								max_age = MAX_VALUE_LIFETIME;
 							}
+						}
+						
+						int	grace;
+						
+						if (( value.getFlags() & DHT.FLAG_PUT_AND_FORGET ) != 0 ){
 							
-							int	grace;
+							grace = 0;
 							
-							if (( value.getFlags() & DHT.FLAG_PUT_AND_FORGET ) != 0 ){
-								
-								grace = 0;
-								
-							}else{
-								
-									// scale the grace period for short lifetimes
-								
-								grace = Math.min( ORIGINAL_REPUBLISH_INTERVAL_GRACE, max_age/4 );
-							}
+						}else{
 							
-							if ( now > value.getCreationTime() + max_age + grace ){
-								
-								DHTLog.log( "removing cache entry (" + value.getString() + ")" );
-								
-								it2.remove();
-							}	
+								// scale the grace period for short lifetimes
+							
+							grace = Math.min( ORIGINAL_REPUBLISH_INTERVAL_GRACE, max_age/4 );
 						}
+						
+						if ( now > value.getCreationTime() + max_age + grace ){
+							
+							DHTLog.log( "removing cache entry (" + value.getString() + ")" );
+							
+							it2.remove();
+						}	
 					}
 				}
 			}
-		}finally{
-			
-			this_mon.exit();
+		}
+	}
+	
+	protected MappingShard
+	getShard(
+		HashWrapper		key )
+	{
+		int	hash = key.hashCode();
+		
+		return( shards[( hash ^ ( hash >>> 16 )) & ( SHARDS - 1 )]);
+	}
+	
+	protected DHTDBMapping
+	getMapping(
+		HashWrapper		key )
+	{
+		MappingShard	shard = getShard( key );
+		
+		try{
+			shard.mon.enter();
+			
+			return( shard.mappings.get( key ));
+			
+		}finally{
+			
+			shard.mon.exit();
+		}
+	}
+	
+	protected void
+	removeMappings(
+		List<HashWrapper>	keys )
+	{
+		for ( HashWrapper key: keys ){
+			
+			MappingShard	shard = getShard( key );
+			
+			try{
+				shard.mon.enter();
+				
+				DHTDBMapping	mapping = shard.mappings.remove( key );
+				
+				if ( mapping != null ){
+					
+					removeFromPrefixMap( mapping );
+					
+					mapping.destroy();
+				}
+			}finally{
+				
+				shard.mon.exit();
+			}
 		}
 	}
 	
@@ -1507,27 +1619,30 @@ DHTDBImpl
 	{
 		DHTDBMapping.ShortHash key = mapping.getShortKey();
 		
-		DHTDBMapping existing = stored_values_prefix_map.get( key );
-		
-			// possible to have clashes, be consistent in which one we use to avoid
-			// confusing other nodes
-		
-		if ( existing != null ){
+		try{
+			prefix_map_mon.enter();
+			
+			DHTDBMapping existing = stored_values_prefix_map.get( key );
 			
-			byte[]	existing_full 	= existing.getKey().getBytes();
-			byte[]	new_full		= mapping.getKey().getBytes();
+				// possible to have clashes, be consistent in which one we use to avoid
+				// confusing other nodes
 			
-			if ( control.computeAndCompareDistances( existing_full, new_full, local_contact.getID()) < 0 ){
+			if ( existing != null ){
 				
-				return;
+				byte[]	existing_full 	= existing.getKey().getBytes();
+				byte[]	new_full		= mapping.getKey().getBytes();
+				
+				if ( control.computeAndCompareDistances( existing_full, new_full, local_contact.getID()) < 0 ){
+					
+					return;
+				}
 			}
-		}
-		
-		stored_values_prefix_map.put( key, mapping );
-	
-		if ( stored_values_prefix_map.size() > stored_values.size()){
 			
-			Debug.out( "inconsistent" );
+			stored_values_prefix_map.put( key, mapping );
+			
+		}finally{
+			
+			prefix_map_mon.exit();
 		}
 	}
 	
@@ -1537,11 +1652,18 @@ DHTDBImpl
 	{
 		DHTDBMapping.ShortHash key = mapping.getShortKey();
 
-		DHTDBMapping existing = stored_values_prefix_map.get( key );
-	
-		if ( existing == mapping ){
+		try{
+			prefix_map_mon.enter();
+			
+			DHTDBMapping existing = stored_values_prefix_map.get( key );
+		
+			if ( existing == mapping ){
+				
+				stored_values_prefix_map.remove( key );
+			}
+		}finally{
 			
-			stored_values_prefix_map.remove( key );
+			prefix_map_mon.exit();
 		}
 	}
 	
@@ -1552,51 +1674,53 @@ DHTDBImpl
 		
 		Map<HashWrapper,List<DHTDBValueImpl>>	republish = new HashMap<HashWrapper,List<DHTDBValueImpl>>();
 
-		try{
-
-			this_mon.enter();
-						
-			Iterator<Map.Entry<HashWrapper,DHTDBMapping>>	it = stored_values.entrySet().iterator();
+		for ( MappingShard shard: shards ){
+			
+			try{
+				shard.mon.enter();
+							
+				Iterator<Map.Entry<HashWrapper,DHTDBMapping>>	it = shard.mappings.entrySet().iterator();
 			
-			while( it.hasNext()){
+				while( it.hasNext()){
 				
-				Map.Entry<HashWrapper,DHTDBMapping>	entry = it.next();
+					Map.Entry<HashWrapper,DHTDBMapping>	entry = it.next();
 				
-				HashWrapper		key		= entry.getKey();
+					HashWrapper		key		= entry.getKey();
 				
-				DHTDBMapping	mapping	= entry.getValue();
+					DHTDBMapping	mapping	= entry.getValue();
 
-				Iterator<DHTDBValueImpl>	it2 = mapping.getValues();
+					Iterator<DHTDBValueImpl>	it2 = mapping.getValues();
 				
-				List<DHTDBValueImpl>	values = new ArrayList<DHTDBValueImpl>();
+					List<DHTDBValueImpl>	values = new ArrayList<DHTDBValueImpl>();
 
-				while( it2.hasNext()){
+					while( it2.hasNext()){
 					
-					DHTDBValueImpl	value = it2.next();				
+						DHTDBValueImpl	value = it2.next();				
 
-					if ( value.isLocal()){
+						if ( value.isLocal()){
 						
-						if (( value.getFlags() & DHT.FLAG_PRECIOUS ) != 0 ){
+							if (( value.getFlags() & DHT.FLAG_PRECIOUS ) != 0 ){
 							
-							if ( now - value.getCreationTime() > PRECIOUS_CHECK_INTERVAL ){
+								if ( now - value.getCreationTime() > PRECIOUS_CHECK_INTERVAL ){
 								
-								value.setCreationTime();
+									value.setCreationTime();
 
-								values.add( value );
+									values.add( value );
+								}
 							}
 						}
 					}
-				}
 				
-				if ( values.size() > 0 ){
+					if ( values.size() > 0 ){
 					
-					republish.put( key, values );
+						republish.put( key, values );
 					
+					}
 				}
+			}finally{
+				
+				shard.mon.exit();
 			}
-		}finally{
-			
-			this_mon.exit();
 		}
 		
 		Iterator<Map.Entry<HashWrapper,List<DHTDBValueImpl>>>	it = republish.entrySet().iterator();
@@ -1678,6 +1802,8 @@ DHTDBImpl
 		
 		final List<HashWrapper> applicable_keys = new ArrayList<HashWrapper>();
 		
+		int	all_keys = 0;
+		
 		try{
 			this_mon.enter();
 			
@@ -1693,45 +1819,57 @@ DHTDBImpl
 				}
 			}
 			
-			Iterator<DHTDBMapping>	it = stored_values.values().iterator();
-						
 			Set<HashWrapper>	existing_times = new HashSet<HashWrapper>( survey_mapping_times.keySet());
 			
-			while( it.hasNext()){
+			for ( MappingShard shard: shards ){
 				
-				DHTDBMapping	mapping = it.next();
+				try{
+					shard.mon.enter();
+				
+					all_keys += shard.mappings.size();
 					
-				HashWrapper hw = mapping.getKey();
+					Iterator<DHTDBMapping>	it = shard.mappings.values().iterator();
+					
+					while( it.hasNext()){
 				
-				if ( existing_times.size() > 0 ){
+						DHTDBMapping	mapping = it.next();
+					
+						HashWrapper hw = mapping.getKey();
 				
-					existing_times.remove( hw );
-				}
+						if ( existing_times.size() > 0 ){
 				
-				if ( !applyRF( mapping )){
+							existing_times.remove( hw );
+						}
+				
+						if ( !applyRF( mapping )){
 						
-					continue;
-				}
+							continue;
+						}
 					
-				applicable_keys.add( hw );
+						applicable_keys.add( hw );
 				
-				byte[] key = hw.getBytes();
+						byte[] key = hw.getBytes();
 				
-				/*
-				List<DHTTransportContact>	contacts = control.getClosestKContactsList( key, true );
+						/*
+						List<DHTTransportContact>	contacts = control.getClosestKContactsList( key, true );
 
-				for ( DHTTransportContact c: contacts ){
+						for ( DHTTransportContact c: contacts ){
 					
-					id_map.put( c.getID(), c );
-				}
-				*/
+							id_map.put( c.getID(), c );
+						}
+						*/
 								
-				byte[] distance = control.computeDistance( my_id, key );
+						byte[] distance = control.computeDistance( my_id, key );
 				
-				if ( max_dist == null || control.compareDistances( distance, max_dist  ) > 0 ){
+						if ( max_dist == null || control.compareDistances( distance, max_dist  ) > 0 ){
 					
-					max_dist	= distance;
-					max_key 	= key;
+							max_dist	= distance;
+							max_key 	= key;
+						}
+					}
+				}finally{
+					
+					shard.mon.exit();
 				}
 			}
 			
@@ -1742,7 +1880,7 @@ DHTDBImpl
 				survey_mapping_times.remove( hw );
 			}
 			
-			logger.log( "Survey starts: state size=" + survey_state.size() + ", all keys=" + stored_values.size() + ", applicable keys=" + applicable_keys.size());
+			logger.log( "Survey starts: state size=" + survey_state.size() + ", all keys=" + all_keys + ", applicable keys=" + applicable_keys.size());
 
 		}finally{
 			
@@ -1950,7 +2088,7 @@ DHTDBImpl
 				
 				while( it.hasNext()){
 					
-					DHTDBMapping	mapping = stored_values.get( it.next());
+					DHTDBMapping	mapping = getMapping( it.next());
 		
 					if ( mapping == null ){
 							
@@ -2607,11 +2745,18 @@ DHTDBImpl
 					copies = t[0];
 				}
 								
-				Iterator<DHTDBValueImpl> values = mapping.getValues();
+				boolean	has_values;
 				
-				if ( values.hasNext()){
+				int	max_replication_factor = -1;
 				
-					int	max_replication_factor = -1;
+				MappingShard	shard = getShard( mapping.getKey());
+				
+				try{
+					shard.mon.enter();
+					
+					Iterator<DHTDBValueImpl> values = mapping.getValues();
+					
+					has_values = values.hasNext();
 				
 					while( values.hasNext()){
 						
@@ -2624,6 +2769,12 @@ DHTDBImpl
 							max_replication_factor = rf;
 						}
 					}
+				}finally{
+					
+					shard.mon.exit();
+				}
+				
+				if ( has_values ){
 					
 					if ( max_replication_factor == 0 ){
 						
@@ -2801,16 +2952,25 @@ DHTDBImpl
 					
 				List<DHTTransportValue> v = new ArrayList<DHTTransportValue>();
 				
-				Iterator<DHTDBValueImpl> it = mapping.getValues();
+				MappingShard	shard = getShard( mapping.getKey());
 				
-				while( it.hasNext()){
+				try{
+					shard.mon.enter();
 					
-					DHTDBValueImpl value = it.next();
+					Iterator<DHTDBValueImpl> it = mapping.getValues();
 					
-					if ( !value.isLocal()){
+					while( it.hasNext()){
 						
-						v.add( value.getValueForRelay(local_contact));
+						DHTDBValueImpl value = it.next();
+						
+						if ( !value.isLocal()){
+							
+							v.add( value.getValueForRelay(local_contact));
+						}
 					}
+				}finally{
+					
+					shard.mon.exit();
 				}
 				
 				store_values[i] = v.toArray( new DHTTransportValue[v.size()]);
@@ -2904,41 +3064,51 @@ DHTDBImpl
 	private void
 	sleep()
 	{
-		Iterator<Map.Entry<HashWrapper,DHTDBMapping>>	it = stored_values.entrySet().iterator();
+		for ( MappingShard shard: shards ){
+			
+			try{
+				shard.mon.enter();
+				
+				Iterator<Map.Entry<HashWrapper,DHTDBMapping>>	it = shard.mappings.entrySet().iterator();
 		
-		while( it.hasNext()){
+				while( it.hasNext()){
 			
-			Map.Entry<HashWrapper,DHTDBMapping>	entry = it.next();
+					Map.Entry<HashWrapper,DHTDBMapping>	entry = it.next();
 			
-			HashWrapper			key		= entry.getKey();
+					HashWrapper			key		= entry.getKey();
 			
-			DHTDBMapping		mapping	= entry.getValue();
+					DHTDBMapping		mapping	= entry.getValue();
 								
-			Iterator<DHTDBValueImpl>	it2 = mapping.getValues();
+					Iterator<DHTDBValueImpl>	it2 = mapping.getValues();
 			
-			boolean	all_remote = it2.hasNext();
+					boolean	all_remote = it2.hasNext();
 								
-			while( it2.hasNext()){
+					while( it2.hasNext()){
 				
-				DHTDBValueImpl	value = it2.next();
+						DHTDBValueImpl	value = it2.next();
 			
-				if ( value.isLocal()){
+						if ( value.isLocal()){
 					
-					all_remote = false;
+							all_remote = false;
 					
-					break;
-				}
-			}
+							break;
+						}
+					}
 			
-			if ( all_remote ){
+					if ( all_remote ){
 				
-				it.remove();
+						it.remove();
 				
-				removeFromPrefixMap( mapping );
+						removeFromPrefixMap( mapping );
 					
-				mapping.destroy();
+						mapping.destroy();
+					}
+				}
+			}finally{
+				
+				shard.mon.exit();
 			}
-		}		
+		}
 	}
 	
 	public void
@@ -3102,73 +3272,83 @@ DHTDBImpl
 		try{
 			this_mon.enter();
 			
-			logger.log( "Stored keys = " + stored_values.size() + ", values = " + getValueDetails()[DHTDBStats.VD_VALUE_COUNT]); 
+			logger.log( "Stored keys = " + getMappingCount() + ", values = " + getValueDetails()[DHTDBStats.VD_VALUE_COUNT]); 
 
 			if ( !full ){
 				
 				return;
 			}
 			
-			Iterator<Map.Entry<HashWrapper,DHTDBMapping>>	it1 = stored_values.entrySet().iterator();
+			for ( MappingShard shard: shards ){
+				
+				try{
+					shard.mon.enter();
+					
+					Iterator<Map.Entry<HashWrapper,DHTDBMapping>>	it1 = shard.mappings.entrySet().iterator();
 			
-			// ByteArrayHashMap<Integer> blah = new ByteArrayHashMap<Integer>();
+					// ByteArrayHashMap<Integer> blah = new ByteArrayHashMap<Integer>();
 			
-			while( it1.hasNext()){
+					while( it1.hasNext()){
 						
-				Map.Entry<HashWrapper,DHTDBMapping>		entry = it1.next();
+						Map.Entry<HashWrapper,DHTDBMapping>		entry = it1.next();
 				
-				HashWrapper		value_key	= entry.getKey();
+						HashWrapper		value_key	= entry.getKey();
 				
-				DHTDBMapping	mapping 	= entry.getValue();
+						DHTDBMapping	mapping 	= entry.getValue();
 				
-				/*
-				if ( mapping.getIndirectSize() > 1000 ){
-					mapping.print();
-				}
-				*/
+						/*
+						if ( mapping.getIndirectSize() > 1000 ){
+							mapping.print();
+						}
+						*/
 				
-				DHTDBValue[]	values = mapping.get(null,0,(byte)0);
+						DHTDBValue[]	values = mapping.get(null,0,(byte)0);
 					
-				for (int i=0;i<values.length;i++){
+						for (int i=0;i<values.length;i++){
 					
-					DHTDBValue	value = values[i];
+							DHTDBValue	value = values[i];
 					
-					/*
-					byte[] v = value.getValue();
+							/*
+							byte[] v = value.getValue();
 					
-					Integer y = blah.get( v );
+							Integer y = blah.get( v );
 					
-					if ( y == null ){
-						blah.put( v, 1 );
-					}else{
-						blah.put( v, y+1 );
-					}
-					*/
+							if ( y == null ){
+								blah.put( v, 1 );
+							}else{
+								blah.put( v, y+1 );
+							}
+							*/
 					
-					Integer key = new Integer( value.isLocal()?0:1);
+							Integer key = new Integer( value.isLocal()?0:1);
 					
-					Object[]	data = (Object[])count.get( key );
+							Object[]	data = (Object[])count.get( key );
 									
-					if ( data == null ){
+							if ( data == null ){
 						
-						data = new Object[2];
+								data = new Object[2];
 						
-						data[0] = new Integer(1);
+								data[0] = new Integer(1);
 						
-						data[1] = "";
+								data[1] = "";
 									
-						count.put( key, data );
+								count.put( key, data );
 	
-					}else{
+							}else{
 						
-						data[0] = new Integer(((Integer)data[0]).intValue() + 1 );
-					}
+								data[0] = new Integer(((Integer)data[0]).intValue() + 1 );
+							}
 				
-					String	s = (String)data[1];
+							String	s = (String)data[1];
 					
-					s += (s.length()==0?"":", ") + "key=" + DHTLog.getString2(value_key.getHash()) + ",val=" + value.getString();
+							s += (s.length()==0?"":", ") + "key=" + DHTLog.getString2(value_key.getHash()) + ",val=" + value.getString();
 					
-					data[1]	= s;
+							data[1]	= s;
+						}
+					}
+				}finally{
+					
+					shard.mon.exit();
 				}
 			}
 			
@@ -3201,48 +3381,58 @@ DHTDBImpl
 				logger.log( "    " + k + " -> " + data[0] + " entries" ); // ": " + data[1]);
 			}
 			
-			Iterator<Map.Entry<HashWrapper,DHTDBMapping>> it3 = stored_values.entrySet().iterator();
-			
 			StringBuilder	sb = new StringBuilder( 1024 );
 			
 			int		str_entries	= 0;
 			
-			while( it3.hasNext()){
+			for ( MappingShard shard: shards ){
+				
+				try{
+					shard.mon.enter();
+					
+					Iterator<Map.Entry<HashWrapper,DHTDBMapping>> it3 = shard.mappings.entrySet().iterator();
+					
+					while( it3.hasNext()){
 						
-				Map.Entry<HashWrapper,DHTDBMapping>		entry = it3.next();
+						Map.Entry<HashWrapper,DHTDBMapping>		entry = it3.next();
 				
-				HashWrapper		value_key	= entry.getKey();
+						HashWrapper		value_key	= entry.getKey();
 				
-				DHTDBMapping	mapping 	= entry.getValue();
+						DHTDBMapping	mapping 	= entry.getValue();
 				
-				if ( str_entries == 16 ){
+						if ( str_entries == 16 ){
 					
-					logger.log( sb.toString());
+							logger.log( sb.toString());
 					
-					sb = new StringBuilder( 1024 );
+							sb = new StringBuilder( 1024 );
 					
-					sb.append( "    " );
+							sb.append( "    " );
 					
-					str_entries	= 0;
-				}
+							str_entries	= 0;
+						}
 				
-				str_entries++;
+						str_entries++;
 				
-				if ( str_entries > 1 ){
-					sb.append( ", ");
+						if ( str_entries > 1 ){
+							sb.append( ", ");
+						}
+						sb.append( DHTLog.getString2(value_key.getHash()));
+						sb.append( " -> " );
+						sb.append( mapping.getValueCount());
+						sb.append( "/" );
+						sb.append( mapping.getHits());
+						sb.append( "[" );
+						sb.append( mapping.getLocalSize());
+						sb.append( "," );
+						sb.append( mapping.getDirectSize());
+						sb.append( "," );
+						sb.append( mapping.getIndirectSize());
+						sb.append( "]" );;
+					}
+				}finally{
+					
+					shard.mon.exit();
 				}
-				sb.append( DHTLog.getString2(value_key.getHash()));
-				sb.append( " -> " );
-				sb.append( mapping.getValueCount());
-				sb.append( "/" );
-				sb.append( mapping.getHits());
-				sb.append( "[" );
-				sb.append( mapping.getLocalSize());
-				sb.append( "," );
-				sb.append( mapping.getDirectSize());
-				sb.append( "," );
-				sb.append( mapping.getIndirectSize());
-				sb.append( "]" );;
 			}
 			
 			if ( str_entries > 0 ){
@@ -3274,51 +3464,53 @@ DHTDBImpl
 					// delete their data on a separate thread so as not to 
 					// interfere with the current action
 				
-				try{
-					this_mon.enter();
-					
-					Iterator<DHTDBMapping>	it = stored_values.values().iterator();
-						
-					boolean	overall_deleted = false;
-					
-					HashWrapper value_id = new HashWrapper( contact.getID());
+				boolean	overall_deleted = false;
+				
+				HashWrapper value_id = new HashWrapper( contact.getID());
+				
+				for ( MappingShard shard: shards ){
 					
-					while( it.hasNext()){
-						
-						DHTDBMapping	mapping = it.next();
+					try{
+						shard.mon.enter();
 						
-						boolean	deleted = false;
+						Iterator<DHTDBMapping>	it = shard.mappings.values().iterator();
 						
-						if ( mapping.removeDirectValue( value_id ) != null ){
+						while( it.hasNext()){
 							
-							deleted = true;
-						}
-	
-						if ( mapping.removeIndirectValue( value_id ) != null ){
+							DHTDBMapping	mapping = it.next();
 							
-							deleted = true;
-						}
-
-						
-						if ( deleted && !ban_ip ){
-						
-								// if we're not banning then rebuild bloom to avoid us continually
-								// going through this ban code
+							boolean	deleted = false;
 							
-							mapping.rebuildIPBloomFilter( false );
+							if ( mapping.removeDirectValue( value_id ) != null ){
+								
+								deleted = true;
+							}
+		
+							if ( mapping.removeIndirectValue( value_id ) != null ){
+								
+								deleted = true;
+							}
+	
 							
-							overall_deleted = true;
+							if ( deleted && !ban_ip ){
+							
+									// if we're not banning then rebuild bloom to avoid us continually
+									// going through this ban code
+								
+								mapping.rebuildIPBloomFilter( false );
+								
+								overall_deleted = true;
+							}
 						}
-					}
-
-					if ( overall_deleted && !ban_ip ){
+					}finally{
 						
-						rebuildIPBloomFilter( false );
+						shard.mon.exit();
 					}
-				}finally{
-					
-					this_mon.exit();
+				}
+
+				if ( overall_deleted && !ban_ip ){
 					
+					rebuildIPBloomFilter( false );
 				}
 			}
 		}.start();
@@ -3346,18 +3538,46 @@ DHTDBImpl
 		
 			// However, for CVS DHTs we can have sizes of 1000 or less. 
 		
-		int	hit_count = ip_count_bloom_filter.add( contact.getAddress().getAddress().getAddress());
+		int		hit_count;
+		boolean	rebuild	= false;
+		
+		try{
+			ip_count_bloom_mon.enter();
+			
+			hit_count = ip_count_bloom_filter.add( contact.getAddress().getAddress().getAddress());
+
+				// allow up to 10% bloom filter utilisation
+			
+			if ( 	ip_count_bloom_filter.getSize() / ip_count_bloom_filter.getEntryCount() < 10 &&
+					!ip_count_bloom_rebuild_pending ){
+				
+				ip_count_bloom_rebuild_pending	= true;
+				
+				rebuild	= true;
+			}
+		}finally{
+			
+			ip_count_bloom_mon.exit();
+		}
 		
 		if ( DHTLog.GLOBAL_BLOOM_TRACE ){
 		
 			System.out.println( "direct add from " + contact.getAddress() + ", hit count = " + hit_count );
 		}
-
-			// allow up to 10% bloom filter utilisation
 		
-		if ( ip_count_bloom_filter.getSize() / ip_count_bloom_filter.getEntryCount() < 10 ){
+		if ( rebuild ){
 			
-			rebuildIPBloomFilter( true );
+				// we're called with a shard's lock held and the rebuild goes through all of
+				// them, the filter carries on filling up meanwhile
+			
+			new AEThread2( "DHTDB:bloom rebuild", true )
+			{
+				public void
+				run()
+				{
+					rebuildIPBloomFilter( true );
+				}
+			}.start();
 		}
 		
 		if ( hit_count > 64 ){
@@ -3372,7 +3592,17 @@ DHTDBImpl
 	decrementValueAdds(
 		DHTTransportContact	contact )
 	{
-		int	hit_count = ip_count_bloom_filter.remove( contact.getAddress().getAddress().getAddress());
+		int	hit_count;
+		
+		try{
+			ip_count_bloom_mon.enter();
+			
+			hit_count = ip_count_bloom_filter.remove( contact.getAddress().getAddress().getAddress());
+			
+		}finally{
+			
+			ip_count_bloom_mon.exit();
+		}
 
 		if ( DHTLog.GLOBAL_BLOOM_TRACE ){
 			
@@ -3386,98 +3616,113 @@ DHTDBImpl
 	{
 		BloomFilter	new_filter;
 		
+		int	size = ip_count_bloom_filter.getSize();
+		
 		if ( increase_size ){
 			
-			new_filter = BloomFilterFactory.createAddRemove8Bit( ip_count_bloom_filter.getSize() + IP_COUNT_BLOOM_SIZE_INCREASE_CHUNK );
+			new_filter = BloomFilterFactory.createAddRemove8Bit( size + IP_COUNT_BLOOM_SIZE_INCREASE_CHUNK );
 			
 		}else{
 			
-			new_filter = BloomFilterFactory.createAddRemove8Bit( ip_count_bloom_filter.getSize());
+			new_filter = BloomFilterFactory.createAddRemove8Bit( size );
 			
 		}
 		
+			// the shards are gone through one at a time so values added or removed in the
+			// ones done already are missed until the next rebuild, fine for a flood check
+		
 		try{
 			
 			//Map		sender_map	= new HashMap();
 			//List	senders		= new ArrayList();
 			
-			Iterator<DHTDBMapping>	it = stored_values.values().iterator();
-			
 			int	max_hits = 0;
 			
-			while( it.hasNext()){
+			for ( MappingShard shard: shards ){
+				
+				try{
+					shard.mon.enter();
+					
+					Iterator<DHTDBMapping>	it = shard.mappings.values().iterator();
+					
+					while( it.hasNext()){
 				
-				DHTDBMapping	mapping = it.next();
+						DHTDBMapping	mapping = it.next();
 
-				mapping.rebuildIPBloomFilter( false );
+						mapping.rebuildIPBloomFilter( false );
 				
-				Iterator<DHTDBValueImpl>	it2 = mapping.getDirectValues();
+						Iterator<DHTDBValueImpl>	it2 = mapping.getDirectValues();
 				
-				while( it2.hasNext()){
+						while( it2.hasNext()){
 					
-					DHTDBValueImpl	val = it2.next();
+							DHTDBValueImpl	val = it2.next();
 					
-					if ( !val.isLocal()){
+							if ( !val.isLocal()){
 						
-						// logger.log( "    adding " + val.getOriginator().getAddress());
+								// logger.log( "    adding " + val.getOriginator().getAddress());
 						
-						int	hits = new_filter.add( val.getOriginator().getAddress().getAddress().getAddress());
+								int	hits = new_filter.add( val.getOriginator().getAddress().getAddress().getAddress());
 						
-						if ( hits > max_hits ){
+								if ( hits > max_hits ){
 							
-							max_hits = hits;
+									max_hits = hits;
+								}
+							}
 						}
-					}
-				}
 				
-					// survey our neighbourhood
-				
-				/*
-				 * its is non-trivial to do anything about nodes that get "close" to us and then
-				 * spam us with crap. Ultimately, of course, to take a key out you "just" create
-				 * the 20 closest nodes to the key and then run nodes that swallow all registrations
-				 * and return nothing.  
-				 * Protecting against one or two such nodes that flood crap requires crap to be
-				 * identified. Tracing shows a large disparity between number of values registered
-				 * per neighbour (factors of 100), so an approach based on number of registrations
-				 * is non-trivial (assuming future scaling of the DHT, what do we consider crap?)
-				 * A further approach would be to query the claimed originators of values (obviously
-				 * a low bandwith approach, e.g. query 3 values from the contact with highest number
-				 * of forwarded values). This requires originators to support long term knowledge of
-				 * what they've published (we don't want to blacklist a neighbour because an originator
-				 * has deleted a value/been restarted). We also then have to consider how to deal with
-				 * non-responses to queries (assuming an affirmative Yes -> value has been forwarded
-				 * correnctly, No -> probably crap). We can't treat non-replies as No. Thus a bad
-				 * neighbour only has to forward crap with originators that aren't AZ nodes (very
-				 * easy to do!) to break this aproach. 
-				 * 
-				 * 
-				it2 = mapping.getIndirectValues();
-				
-				while( it2.hasNext()){
-					
-					DHTDBValueImpl	val = (DHTDBValueImpl)it2.next();
-					
-					DHTTransportContact sender = val.getSender();
-					
-					HashWrapper	hw = new HashWrapper( sender.getID());
-					
-					Integer	sender_count = (Integer)sender_map.get( hw );
-					
-					if ( sender_count == null ){
+							// survey our neighbourhood
+				
+						/*
+						 * its is non-trivial to do anything about nodes that get "close" to us and then
+						 * spam us with crap. Ultimately, of course, to take a key out you "just" create
+						 * the 20 closest nodes to the key and then run nodes that swallow all registrations
+						 * and return nothing.  
+						 * Protecting against one or two such nodes that flood crap requires crap to be
+						 * identified. Tracing shows a large disparity between number of values registered
+						 * per neighbour (factors of 100), so an approach based on number of registrations
+						 * is non-trivial (assuming future scaling of the DHT, what do we consider crap?)
+						 * A further approach would be to query the claimed originators of values (obviously
+						 * a low bandwith approach, e.g. query 3 values from the contact with highest number
+						 * of forwarded values). This requires originators to support long term knowledge of
+						 * what they've published (we don't want to blacklist a neighbour because an originator
+						 * has deleted a value/been restarted). We also then have to consider how to deal with
+						 * non-responses to queries (assuming an affirmative Yes -> value has been forwarded
+						 * correnctly, No -> probably crap). We can't treat non-replies as No. Thus a bad
+						 * neighbour only has to forward crap with originators that aren't AZ nodes (very
+						 * easy to do!) to break this aproach. 
+						 * 
+						 * 
+						it2 = mapping.getIndirectValues();
+				
+						while( it2.hasNext()){
+					
+							DHTDBValueImpl	val = (DHTDBValueImpl)it2.next();
+					
+							DHTTransportContact sender = val.getSender();
+					
+							HashWrapper	hw = new HashWrapper( sender.getID());
+					
+							Integer	sender_count = (Integer)sender_map.get( hw );
+					
+							if ( sender_count == null ){
 						
-						sender_count = new Integer(1);
+								sender_count = new Integer(1);
 						
-						senders.add( sender );
+								senders.add( sender );
 						
-					}else{
+							}else{
 						
-						sender_count = new Integer( sender_count.intValue() + 1 );						
-					}
+								sender_count = new Integer( sender_count.intValue() + 1 );						
+							}
+					
+							sender_map.put( hw, sender_count );
+						}	
+						*/
+				}
+				}finally{
 					
-					sender_map.put( hw, sender_count );
-				}	
-				*/
+					shard.mon.exit();
+				}
 			}
 			
 			logger.log( "Rebuilt global IP bloom filter, size=" + new_filter.getSize() + ", entries=" + new_filter.getEntryCount()+", max hits=" + max_hits );
@@ -3495,7 +3740,17 @@ DHTDBImpl
 			
 		}finally{
 			
-			ip_count_bloom_filter	= new_filter;
+			try{
+				ip_count_bloom_mon.enter();
+				
+				ip_count_bloom_filter	= new_filter;
+				
+				ip_count_bloom_rebuild_pending	= false;
+				
+			}finally{
+				
+				ip_count_bloom_mon.exit();
+			}
 		}
 	}
 	
@@ -3575,7 +3830,7 @@ DHTDBImpl
 	getNextValueVersion()
 	{
 		try{
-			this_mon.enter();
+			value_version_mon.enter();
 			
 			if ( next_value_version_left == 0 ){
 				
@@ -3603,7 +3858,7 @@ DHTDBImpl
 			
 		}finally{
 			
-			this_mon.exit();
+			value_version_mon.exit();
 		}
 	}
 	
@@ -3635,7 +3890,7 @@ DHTDBImpl
 			
 			reportSizes( "keyAdded" );
 			
-			total_keys++;
+			total_keys.incrementAndGet();
 			
 			return( delegate.keyCreated( key, local ));
 		}
@@ -3644,7 +3899,7 @@ DHTDBImpl
 		keyDeleted(
 			DHTStorageKey	adapter_key )
 		{
-			total_keys--;
+			total_keys.decrementAndGet();
 						
 			delegate.keyDeleted( adapter_key );
 
@@ -3681,8 +3936,8 @@ DHTDBImpl
 			DHTStorageKey		key,
 			DHTTransportValue	value )
 		{
-			total_values++;
-			total_size += value.getValue().length;
+			total_values.incrementAndGet();
+			total_size.addAndGet( value.getValue().length );
 			
 			reportSizes( "valueAdded");
 			
@@ -3707,7 +3962,7 @@ DHTDBImpl
 			DHTTransportValue	old_value,
 			DHTTransportValue	new_value )
 		{
-			total_size += (new_value.getValue().length - old_value.getValue().length );
+			total_size.addAndGet( new_value.getValue().length - old_value.getValue().length );
 			
 			reportSizes("valueUpdated");
 			
@@ -3719,8 +3974,8 @@ DHTDBImpl
 			DHTStorageKey		key,
 			DHTTransportValue	value )
 		{
-			total_values--;
-			total_size -= value.getValue().length;
+			total_values.decrementAndGet();
+			total_size.addAndGet( -value.getValue().length );
 		
 			reportSizes("valueDeleted");
 			
@@ -3835,6 +4090,16 @@ DHTDBImpl
 		}
 	}
 	
+	protected static class
+	MappingShard
+	{
+		private AEMonitor	mon	= new AEMonitor( "DHTDB:shard" );
+		
+		private Map<HashWrapper,DHTDBMapping>	mappings = new HashMap<HashWrapper,DHTDBMapping>();
+		
+		private long	last_cache_expiry_check;
+	}
+	
 	protected static class
 	SurveyContactState
 	{
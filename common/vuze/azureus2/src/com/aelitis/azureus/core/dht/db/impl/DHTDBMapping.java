@@ -102,7 +102,7 @@ DHTDBMapping
 	protected  Map<HashWrapper,DHTDBValueImpl>
 	createLinkedMap()
 	{		
-		return( new LinkedHashMap<HashWrapper,DHTDBValueImpl>(1, 0.75f, true ));
+		return( new DHTDBValueMap());
 	}
 	
 	protected HashWrapper
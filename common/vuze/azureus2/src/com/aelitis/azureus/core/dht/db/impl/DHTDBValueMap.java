@@ -0,0 +1,329 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) 2026 Aelitis, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * AELITIS, SAS au capital de 46,603.30 euros
+ * 8 Allee Lenotre, La Grille Royale, 78600 Le Mesnil le Roi, France.
+ *
+ */
+
+package com.aelitis.azureus.core.dht.db.impl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.gudy.azureus2.core3.util.HashWrapper;
+
+/**
+ * The values of a {@link DHTDBMapping} by originator, in access order like
+ * the LinkedHashMap it replaces, most recently used last.
+ * <p>
+ * Nearly all the mappings hold one or a few values, so the entries are kept
+ * in two arrays searched in order, no table and no entry objects. A map that
+ * grows past a few values moves them into a LinkedHashMap and stays there.
+ * <p>
+ * Not thread safe, the mappings are used with the lock of their shard held.
+ */
+final class
+DHTDBValueMap
+	extends AbstractMap<HashWrapper,DHTDBValueImpl>
+{
+	private static final int	MAX_ARRAY_SIZE	= 16;
+
+	private static final HashWrapper[]		NO_KEYS		= new HashWrapper[0];
+	private static final DHTDBValueImpl[]	NO_VALUES	= new DHTDBValueImpl[0];
+
+	private HashWrapper[]		keys	= NO_KEYS;
+	private DHTDBValueImpl[]	values	= NO_VALUES;
+	private int					size;
+
+	private LinkedHashMap<HashWrapper,DHTDBValueImpl>	large;
+
+	public int
+	size()
+	{
+		if ( large != null ){
+
+			return( large.size());
+		}
+
+		return( size );
+	}
+
+	public boolean
+	containsKey(
+		Object	key )
+	{
+		if ( large != null ){
+
+			return( large.containsKey( key ));
+		}
+
+		return( indexOf( key ) >= 0 );
+	}
+
+	public DHTDBValueImpl
+	get(
+		Object	key )
+	{
+		if ( large != null ){
+
+			return( large.get( key ));
+		}
+
+		int	index = indexOf( key );
+
+		if ( index < 0 ){
+
+			return( null );
+		}
+
+		DHTDBValueImpl	value = values[index];
+
+		moveToEnd( index );
+
+		return( value );
+	}
+
+	public DHTDBValueImpl
+	put(
+		HashWrapper		key,
+		DHTDBValueImpl	value )
+	{
+		if ( large != null ){
+
+			return( large.put( key, value ));
+		}
+
+		int	index = indexOf( key );
+
+		if ( index >= 0 ){
+
+			DHTDBValueImpl	old = values[index];
+
+			values[index] = value;
+
+			moveToEnd( index );
+
+			return( old );
+		}
+
+		if ( size == MAX_ARRAY_SIZE ){
+
+			large = new LinkedHashMap<HashWrapper,DHTDBValueImpl>( MAX_ARRAY_SIZE*2, 0.75f, true );
+
+			for ( int i=0;i<size;i++){
+
+				large.put( keys[i], values[i] );
+			}
+
+			keys	= NO_KEYS;
+			values	= NO_VALUES;
+			size	= 0;
+
+			large.put( key, value );
+
+			return( null );
+		}
+
+		if ( size == keys.length ){
+
+			int	capacity = Math.min( MAX_ARRAY_SIZE, Math.max( 1, size*2 ));
+
+			HashWrapper[]		new_keys	= new HashWrapper[capacity];
+			DHTDBValueImpl[]	new_values	= new DHTDBValueImpl[capacity];
+
+			System.arraycopy( keys, 0, new_keys, 0, size );
+			System.arraycopy( values, 0, new_values, 0, size );
+
+			keys	= new_keys;
+			values	= new_values;
+		}
+
+		keys[size]		= key;
+		values[size]	= value;
+
+		size++;
+
+		return( null );
+	}
+
+	public DHTDBValueImpl
+	remove(
+		Object	key )
+	{
+		if ( large != null ){
+
+			return( large.remove( key ));
+		}
+
+		int	index = indexOf( key );
+
+		if ( index < 0 ){
+
+			return( null );
+		}
+
+		DHTDBValueImpl	old = values[index];
+
+		removeAt( index );
+
+		return( old );
+	}
+
+	public void
+	clear()
+	{
+		large	= null;
+		keys	= NO_KEYS;
+		values	= NO_VALUES;
+		size	= 0;
+	}
+
+	public Set<Map.Entry<HashWrapper,DHTDBValueImpl>>
+	entrySet()
+	{
+		if ( large != null ){
+
+			return( large.entrySet());
+		}
+
+		return(
+			new AbstractSet<Map.Entry<HashWrapper,DHTDBValueImpl>>()
+			{
+				public int
+				size()
+				{
+					return( DHTDBValueMap.this.size());
+				}
+
+				public Iterator<Map.Entry<HashWrapper,DHTDBValueImpl>>
+				iterator()
+				{
+					return( new ArrayIterator());
+				}
+			});
+	}
+
+	private int
+	indexOf(
+		Object	key )
+	{
+		int	hash = key.hashCode();
+
+		for ( int i=0;i<size;i++){
+
+			HashWrapper	k = keys[i];
+
+			if ( k.hashCode() == hash && k.equals( key )){
+
+				return( i );
+			}
+		}
+
+		return( -1 );
+	}
+
+	private void
+	moveToEnd(
+		int		index )
+	{
+		int	last = size - 1;
+
+		if ( index == last ){
+
+			return;
+		}
+
+		HashWrapper		key		= keys[index];
+		DHTDBValueImpl	value	= values[index];
+
+		System.arraycopy( keys, index+1, keys, index, last-index );
+		System.arraycopy( values, index+1, values, index, last-index );
+
+		keys[last]		= key;
+		values[last]	= value;
+	}
+
+	private void
+	removeAt(
+		int		index )
+	{
+		int	moved = size - index - 1;
+
+		if ( moved > 0 ){
+
+			System.arraycopy( keys, index+1, keys, index, moved );
+			System.arraycopy( values, index+1, values, index, moved );
+		}
+
+		size--;
+
+		keys[size]		= null;
+		values[size]	= null;
+
+		if ( size == 0 ){
+
+			keys	= NO_KEYS;
+			values	= NO_VALUES;
+		}
+	}
+
+	private class
+	ArrayIterator
+		implements Iterator<Map.Entry<HashWrapper,DHTDBValueImpl>>
+	{
+		private int		next;
+		private int		last	= -1;
+
+		public boolean
+		hasNext()
+		{
+			return( large == null && next < size );
+		}
+
+		public Map.Entry<HashWrapper,DHTDBValueImpl>
+		next()
+		{
+			if ( !hasNext()){
+
+				throw( new NoSuchElementException());
+			}
+
+			last = next++;
+
+			return( new AbstractMap.SimpleImmutableEntry<HashWrapper,DHTDBValueImpl>( keys[last], values[last] ));
+		}
+
+		public void
+		remove()
+		{
+			if ( last < 0 || large != null ){
+
+				throw( new IllegalStateException());
+			}
+
+			removeAt( last );
+
+			next	= last;
+			last	= -1;
+		}
+	}
+}
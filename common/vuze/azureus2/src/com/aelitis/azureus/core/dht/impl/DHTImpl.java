@@ -212,7 +212,9 @@ DHTImpl
 						
 						speed_tester = null;
 					}
-				}else{
+				}else if ( logger.getPluginInterface() != null ){
+					
+						// no plugins when run outside of a client, in the simulations
 					
 					new_tester = speed_tester = DHTSpeedTesterFactory.create( this );
 				}
@@ -23,7 +23,9 @@
 package com.aelitis.azureus.core.dht.transport.loopback;
 
 import java.io.*;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
 import java.util.List;
 import java.util.Map;
 
@@ -42,8 +44,9 @@ DHTTransportLoopbackContactImpl
 {
 	private DHTTransportLoopbackImpl	transport;
 	
-	private byte[]		id;
-	private int			random_id;
+	private byte[]				id;
+	private InetSocketAddress	address;
+	private int					random_id;
 	
 	protected
 	DHTTransportLoopbackContactImpl(
@@ -52,6 +55,17 @@ DHTTransportLoopbackContactImpl
 	{
 		transport	= _transport;
 		id			= _id;
+		
+			// the control needs addresses, for the spoof ids amongst others, so each
+			// node gets a made up one from its id
+		
+		try{
+			address = new InetSocketAddress( InetAddress.getByAddress( new byte[]{ id[0], id[1], id[2], id[3] }), ((id[4]&0xff)<<8 | (id[5]&0xff)) | 1024 );
+			
+		}catch( UnknownHostException e ){
+			
+			throw( new RuntimeException( e ));
+		}
 	}
 	
 	public DHTTransport
@@ -123,19 +137,19 @@ DHTTransportLoopbackContactImpl
 	public InetSocketAddress
 	getAddress()
 	{
-		return( null );
+		return( address );
 	}
 	
 	public InetSocketAddress
 	getTransportAddress()
 	{
-		return( null );
+		return( address );
 	}
 	
 	public InetSocketAddress 
 	getExternalAddress() 
 	{
-		return null;
+		return address;
 	}
 	
 	public boolean
@@ -23,6 +23,10 @@
 package com.aelitis.azureus.core.dht.transport.loopback;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.io.*;
 
 import org.gudy.azureus2.core3.util.*;
@@ -43,8 +47,15 @@ DHTTransportLoopbackImpl
 {
 	public static		byte	VERSION			= 1;
 	
+		// a request and its reply are delivered LATENCY + [0..LATENCY_JITTER] ms after
+		// being sent, a failed one is reported FAIL_DELAY ms later, like a timeout
+	
 	public static 		int		LATENCY			= 0;
+	public static 		int		LATENCY_JITTER	= 0;
 	public static		int		FAIL_PERCENTAGE	= 0;
+	public static		int		FAIL_DELAY		= 0;
+	
+	private static final int	DISPATCH_THREADS	= 8;
 	
 	public byte
 	getProtocolVersion()
@@ -77,6 +88,15 @@ DHTTransportLoopbackImpl
 		LATENCY	= _latency;
 	}
 	
+	public static void
+	setLatency(
+		int	_latency,
+		int	_jitter )
+	{
+		LATENCY			= _latency;
+		LATENCY_JITTER	= _jitter;
+	}
+	
 	public static void
 	setFailPercentage(
 		int	p )
@@ -84,54 +104,38 @@ DHTTransportLoopbackImpl
 		FAIL_PERCENTAGE	= p;
 	}
 	
+	public static void
+	setFailDelay(
+		int	millis )
+	{
+		FAIL_DELAY	= millis;
+	}
+	
 	private static long	node_id_seed_next	= 0;
-	private static Map	node_map	= new HashMap();
+	private static Map	node_map	= new ConcurrentHashMap();
 	
-	private static List	dispatch_queue = new ArrayList();
-	private static AESemaphore	dispatch_queue_sem	= new AESemaphore("DHTTransportLoopback" );
+		// the messages in flight wait on the scheduler rather than holding a thread, so
+		// a latency doesn't slow down the other nodes. Not the Timer, its events go by
+		// the 25ms SystemTime clock which would round the latencies off to a tick or two
 	
-	private static AEMonitor	class_mon	= new AEMonitor( "DHTTransportLoopback:class" );
-
-	static{
-		AEThread	dispatcher = 
-			new AEThread("DHTTransportLoopback")
+	private static ScheduledThreadPoolExecutor	dispatch_scheduler	= 
+		new ScheduledThreadPoolExecutor( 
+			DISPATCH_THREADS,
+			new ThreadFactory()
 			{
-				public void
-				runSupport()
+				public Thread
+				newThread(
+					Runnable	r )
 				{
-					while(true){
-						
-						dispatch_queue_sem.reserve();
-						
-						Runnable	r;
-						
-						try{
-							class_mon.enter();
-							
-							r = (Runnable)dispatch_queue.remove(0);
-							
-						}finally{
-							
-							class_mon.exit();
-						}
-						
-						if ( LATENCY > 0 ){
-							
-							try{
-								Thread.sleep( LATENCY );
-								
-							}catch( Throwable e ){
-								
-							}
-						}
-						
-						r.run();
-					}
+					Thread	t = new Thread( r, "DHTTransportLoopback" );
+					
+					t.setDaemon( true );
+					
+					return( t );
 				}
-			};
-			
-			dispatcher.start();
-	}
+			});
+	
+	private static AEMonitor	class_mon	= new AEMonitor( "DHTTransportLoopback:class" );
 	
 	private byte[]				node_id;
 	private DHTTransportContact	local_contact;
@@ -147,24 +151,16 @@ DHTTransportLoopbackImpl
 	public static DHTTransportStats
 	getOverallStats()
 	{
-		try{
-			class_mon.enter();
+		DHTTransportStatsImpl	overall_stats = new DHTTransportLoopbackStatsImpl( VERSION );
 		
-			DHTTransportStatsImpl	overall_stats = new DHTTransportLoopbackStatsImpl( VERSION );
-			
-			Iterator	it = node_map.values().iterator();
-			
-			while( it.hasNext()){
-				
-				overall_stats.add((DHTTransportStatsImpl)((DHTTransportLoopbackImpl)it.next()).getStats());
-			}
-			
-			return( overall_stats );
-			
-		}finally{
+		Iterator	it = node_map.values().iterator();
+		
+		while( it.hasNext()){
 			
-			class_mon.exit();
+			overall_stats.add((DHTTransportStatsImpl)((DHTTransportLoopbackImpl)it.next()).getStats());
 		}
+		
+		return( overall_stats );
 	}
 	
 	public
@@ -261,14 +257,7 @@ DHTTransportLoopbackImpl
 	findTarget(
 		byte[]		id )
 	{
-		try{
-			class_mon.enter();
-			
-			return((DHTTransportLoopbackImpl)node_map.get( new HashWrapper( id )));
-		}finally{
-			
-			class_mon.exit();
-		}
+		return((DHTTransportLoopbackImpl)node_map.get( new HashWrapper( id )));
 	}
 	
 	public void
@@ -339,19 +328,48 @@ DHTTransportLoopbackImpl
 	
 	protected void
 	run(
-		final AERunnable	r )
+		AERunnable	r )
 	{
-		try{
-			class_mon.enter();
+		int	delay = LATENCY;
+		
+		if ( LATENCY_JITTER > 0 ){
 			
-			dispatch_queue.add( r );
+			delay += (int)( Math.random()*( LATENCY_JITTER + 1 ));
+		}
+		
+		run( r, delay );
+	}
+	
+	protected void
+	run(
+		final AERunnable	r,
+		int					delay )
+	{
+		dispatch_scheduler.schedule( r, delay, TimeUnit.MILLISECONDS );
+	}
+	
+	protected void
+	failed(
+		final DHTTransportReplyHandler	handler,
+		final DHTTransportContact		contact )
+	{
+		if ( FAIL_DELAY <= 0 ){
 			
-		}finally{
+			handler.failed( contact, new Exception( "failed" ));
 			
-			class_mon.exit();
+		}else{
+			
+			run(
+				new AERunnable()
+				{
+					public void
+					runSupport()
+					{
+						handler.failed( contact, new Exception( "failed" ));
+					}
+				},
+				FAIL_DELAY );
 		}
-		
-		dispatch_queue_sem.release();
 	}
 	
 	public DHTTransportStats
@@ -395,7 +413,7 @@ DHTTransportLoopbackImpl
 		
 			stats.pingFailed();
 			
-			handler.failed(contact, new Exception( "failed" ));
+			failed( handler, contact );
 			
 		}else{
 			
@@ -442,7 +460,7 @@ DHTTransportLoopbackImpl
 		
 			stats.keyBlockFailed();
 			
-			handler.failed(contact, new Exception( "failed" ));
+			failed( handler, contact );
 			
 		}else{
 			
@@ -488,7 +506,7 @@ DHTTransportLoopbackImpl
 		
 			stats.statsFailed();
 			
-			handler.failed(contact, new Exception( "failed"));
+			failed( handler, contact );
 			
 		}else{
 			
@@ -538,7 +556,7 @@ DHTTransportLoopbackImpl
 		
 			stats.storeFailed();
 			
-			handler.failed(contact,new Exception( "failed"));
+			failed( handler, contact );
 			
 		}else{
 			
@@ -613,7 +631,7 @@ DHTTransportLoopbackImpl
 		
 			stats.findNodeFailed();
 			
-			handler.failed(contact,new Exception( "failed"));
+			failed( handler, contact );
 			
 		}else{
 			
@@ -678,7 +696,7 @@ DHTTransportLoopbackImpl
 		
 			stats.findValueFailed();
 			
-			handler.failed(contact,new Exception( "failed"));
+			failed( handler, contact );
 			
 		}else{
 			
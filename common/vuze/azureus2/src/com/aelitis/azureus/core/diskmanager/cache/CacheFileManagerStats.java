@@ -74,6 +74,11 @@ CacheFileManagerStats
 	public long
 	getFileWriteCount();
 	
+		// fraction of the reads served from the cache, from 0 to 1
+	
+	public float
+	getCacheHitRatio();
+	
 		// returns the number of bytes in the requested range that are in cache
 	
 	public boolean[] getBytesInCache(TOTorrent torrent, long[] absoluteOffsets, long[] lengths);
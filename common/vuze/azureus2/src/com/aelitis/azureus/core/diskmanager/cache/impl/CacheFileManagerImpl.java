@@ -29,6 +29,9 @@ package com.aelitis.azureus.core.diskmanager.cache.impl;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.gudy.azureus2.core3.config.COConfigurationManager;
 import org.gudy.azureus2.core3.logging.LogEvent;
@@ -54,6 +57,14 @@ CacheFileManagerImpl
 	
 	public static final int		STATS_UPDATE_FREQUENCY		= 1*1000;	// 1 sec
 	public static final long	DIRTY_CACHE_WRITE_MAX_AGE	= 120*1000;	// 2 mins
+	
+		// number of independently locked stripes of entries, a power of 2
+	
+	public static final int		CACHE_STRIPES				= 16;
+	
+		// typical entry size, used to size the memory of evicted blocks
+	
+	public static final int		CACHE_BLOCK_SIZE			= 16*1024;
 		
 	static{
 		if ( DEBUG ){
@@ -114,7 +125,12 @@ CacheFileManagerImpl
 	protected long		cache_files_not_smaller_than;
 	
 	protected long		cache_minimum_free_size;
-	protected long		cache_space_free;
+	protected AtomicLong	cache_space_free	= new AtomicLong();
+	
+		// bytes in the FIFO part of the stripes, kept to a quarter of the cache
+	
+	protected long			cache_probation_size;
+	protected AtomicLong	cache_probation_used	= new AtomicLong();
 
 	private long	cache_file_id_next	= 0;
 	
@@ -125,24 +141,31 @@ CacheFileManagerImpl
 	protected WeakHashMap		cache_files			= new WeakHashMap();
 	protected WeakHashMap		updated_cache_files	= null;
 	
-		// access order
+		// 2Q ordered entries, each stripe with its own lock
+	
+	protected CacheStripe[]		cache_stripes;
+	
+	private AtomicInteger		next_victim_stripe	= new AtomicInteger();
 	
-	protected LinkedHashMap		cache_entries = new LinkedHashMap(1024, 0.75f, true );
+		// the background writer finds the files with dirty entries itself when woken
+	
+	protected AESemaphore		writer_sem			= new AESemaphore( "CacheFile:writer" );
+	protected AtomicBoolean		writer_pending		= new AtomicBoolean();
 	
 	protected CacheFileManagerStatsImpl	stats;
 	
 
 	protected Map	torrent_to_cache_file_map	= new LightHashMap();
 	
-	protected long				cache_bytes_written;
-	protected long				cache_bytes_read;
-	protected long				file_bytes_written;
-	protected long				file_bytes_read;
+	protected AtomicLong		cache_bytes_written	= new AtomicLong();
+	protected AtomicLong		cache_bytes_read	= new AtomicLong();
+	protected AtomicLong		file_bytes_written	= new AtomicLong();
+	protected AtomicLong		file_bytes_read		= new AtomicLong();
 	
-	protected long				cache_read_count;
-	protected long				cache_write_count;
-	protected long				file_read_count;
-	protected long				file_write_count;
+	protected AtomicLong		cache_read_count	= new AtomicLong();
+	protected AtomicLong		cache_write_count	= new AtomicLong();
+	protected AtomicLong		file_read_count		= new AtomicLong();
+	protected AtomicLong		file_write_count	= new AtomicLong();
 	
 	protected AEMonitor			this_mon	= new AEMonitor( "CacheFileManager" );
 	
@@ -201,13 +224,29 @@ CacheFileManagerImpl
 		
 		cache_minimum_free_size	= cache_size/4;
 		
-		cache_space_free		= cache_size;
+		cache_space_free.set( cache_size );
+		
+		cache_probation_size	= cache_size/4;
+		
+		int	max_ghosts = Math.max( 64, (int)( cache_size / CACHE_BLOCK_SIZE / 2 / CACHE_STRIPES ));
+		
+		cache_stripes	= new CacheStripe[CACHE_STRIPES];
+		
+		for (int i=0;i<cache_stripes.length;i++){
+			
+			cache_stripes[i] = new CacheStripe( max_ghosts );
+		}
 		
 		stats = new CacheFileManagerStatsImpl( this );
 		
 
 		cacheStatsAndCleaner();
 		
+		if ( cache_write_enabled ){
+			
+			cacheWriter();
+		}
+
 
 		if (Logger.isEnabled())
 			Logger.log(new LogEvent(LOGID, "DiskCache: enabled = " + cache_enabled
@@ -361,88 +400,71 @@ CacheFileManagerImpl
 	
 		throws CacheFileManagerException
 	{
-		boolean	ok 	= false;
 		boolean	log	= false;		
 		
-		while( !ok ){
+		while( true ){
 			
-				// musn't invoke synchronised CacheFile methods while holding manager lock as this
+				// musn't invoke synchronised CacheFile methods while holding a stripe lock as this
 				// can cause deadlocks (as CacheFile calls manager methods with locks)
 			
-			CacheEntry	oldest_entry	= null;
+			long	free = cache_space_free.get();
 			
-			try{
-				this_mon.enter();
+			if ( length < free || free == cache_size ){
+				
+				break;
+			}
+			
+				// short of space, the writer makes sure the next victims are clean
 			
-				if ( length < cache_space_free || cache_space_free == cache_size ){
+			wakeWriter();
+			
+			CacheEntry	victim = getVictim();
+			
+			if ( victim == null ){
 				
-					ok	= true;
-					
-				}else{
-					
-					oldest_entry = (CacheEntry)cache_entries.keySet().iterator().next();
-				}
-			}finally{
+					// everything is on its way out
 				
-				this_mon.exit();
+				break;
 			}
 			
-			if ( !ok ){
+			log	= true;
+			
+			CacheFileWithCache	victim_file = victim.getFile();
+			
+			try{
+					// only the victim goes, its neighbours may well be the hot data
 				
-				log	= true;
+				victim_file.flushCache( victim.getFilePosition(), victim.getLength(), true, -1, 0, -1 );
 				
-				long	old_free	= cache_space_free;
-			
-				CacheFileWithCache	oldest_file = oldest_entry.getFile();
+			}catch( CacheFileManagerException e ){
 				
-				try{
-					
-					oldest_file.flushCache( oldest_entry.getFilePosition(), true, cache_minimum_free_size );
-					
-				}catch( CacheFileManagerException e ){
+					// if the flush failed on a file other than this one then we don't report the error here,
+					// rather we tag the existing file as failed so that when it is next accessed the error
+					// will be reported
+				
+				if ( victim_file != file ){
+											
+					victim_file.setPendingException( e );
 					
-						// if the flush failed on a file other than this one then we don't report the error here,
-						// rather we tag the existing file as failed so that when it is next accessed the error
-						// will be reported
+				}else{
 					
-					if ( oldest_file != file ){
-												
-						oldest_file.setPendingException( e );
-						
-					}else{
-						
-						throw( e );
-					}
-				}
-				
-				long	flushed = cache_space_free - old_free;
-				
-				if (Logger.isEnabled()) {
-					TOTorrentFile tf = file.getTorrentFile();
-					TOTorrent torrent = tf == null ? null : tf.getTorrent();
-					Logger.log(new LogEvent(torrent, LOGID,
-							"DiskCache: cache full, flushed " + flushed + " from "
-									+ oldest_file.getName()));
+					throw( e );
 				}
+			}
+			
+			if ( getStripe( victim ).contains( victim )){
+			
+					// hmm, something wrong with cache as the flush should have got rid of the victim
 				
-				if ( flushed == 0 ){
-				
-					try{
-						this_mon.enter();
-						
-						if (	cache_entries.size() > 0 &&
-								(CacheEntry)cache_entries.keySet().iterator().next() == oldest_entry ){
-							
-								// hmm, something wrong with cache as the flush should have got rid
-								// of at least the oldest entry
-							
-							throw( new CacheFileManagerException( null, "Cache inconsistent: 0 flushed"));
-						}
-					}finally{
-						
-						this_mon.exit();
-					}
-				}
+				throw( new CacheFileManagerException( null, "Cache inconsistent: 0 flushed"));
+			}
+			
+			if (Logger.isEnabled()) {
+				TOTorrentFile tf = file.getTorrentFile();
+				TOTorrent torrent = tf == null ? null : tf.getTorrent();
+				Logger.log(new LogEvent(torrent, LOGID,
+						"DiskCache: cache full, flushed " + victim.getLength() + " from "
+								+ victim_file.getName()));
 			}
 		}
 					
@@ -460,6 +482,155 @@ CacheFileManagerImpl
 		return( entry );
 	}
 	
+	protected CacheStripe
+	getStripe(
+		CacheEntry	entry )
+	{
+		return( getStripe( CacheStripe.getKey( entry.getFile(), entry.getFilePosition())));
+	}
+	
+	protected CacheStripe
+	getStripe(
+		CacheStripe.BlockKey	key )
+	{
+		int	h = key.hashCode();
+		
+		h ^= ( h >>> 16 );
+		
+		return( cache_stripes[ h & ( cache_stripes.length - 1 )]);
+	}
+	
+		/**
+		 * the next entry to go, from the FIFO while it's over its share of the cache and
+		 * otherwise from the LRU. The stripes take turns so it's only roughly in order
+		 */
+	
+	protected CacheEntry
+	getVictim()
+	{
+		boolean	from_probation = cache_probation_used.get() > cache_probation_size;
+		
+		int	start = next_victim_stripe.getAndIncrement();
+		
+		for (int pass=0;pass<2;pass++){
+			
+			for (int i=0;i<cache_stripes.length;i++){
+				
+				CacheEntry	entry = cache_stripes[( start + i ) & ( cache_stripes.length - 1 )].getVictim( from_probation );
+				
+				if ( entry != null ){
+					
+					return( entry );
+				}
+			}
+			
+			from_probation = !from_probation;
+		}
+		
+		return( null );
+	}
+	
+	protected List
+	getCacheEntries()
+	{
+		List	result = new ArrayList();
+		
+		for (int i=0;i<cache_stripes.length;i++){
+			
+			cache_stripes[i].getEntries( result );
+		}
+		
+		return( result );
+	}
+	
+		/**
+		 * the files with dirty entries, gathered from the stripes at the time of the call
+		 * so that nothing keeps hold of a file once its entries are gone
+		 */
+	
+	protected Set
+	getDirtyFiles()
+	{
+		Set	dirty_files	= new HashSet();
+		
+		Iterator entry_it = getCacheEntries().iterator();
+
+		while( entry_it.hasNext()){
+
+			CacheEntry	entry = (CacheEntry)entry_it.next();
+
+			if ( entry.isDirty()){
+
+				dirty_files.add( entry.getFile());
+			}
+		}
+		
+		return( dirty_files );
+	}
+	
+	protected void
+	wakeWriter()
+	{
+		if ( cache_write_enabled && writer_pending.compareAndSet( false, true )){
+			
+			writer_sem.release();
+		}
+	}
+	
+		/**
+		 * writes the dirty data when the cache is short of space, so the entries that have to go
+		 * can just be dropped. Only contiguous runs of at least a piece are written, so the
+		 * adjacent blocks of a file go out in a single write
+		 */
+	
+	protected void
+	cacheWriter()
+	{
+		new AEThread2( "CacheFile:writer", true )
+		{
+			public void
+			run()
+			{
+				while( true ){
+					
+					writer_sem.reserve();
+					
+					writer_pending.set( false );
+					
+					Iterator	it = getDirtyFiles().iterator();
+					
+					while( it.hasNext()){
+						
+						CacheFileWithCache	file = (CacheFileWithCache)it.next();
+						
+						try{
+							TOTorrentFile	tf = file.getTorrentFile();
+
+							long	min_flush_size	= -1;
+
+							if ( tf != null ){
+
+								min_flush_size	= tf.getTorrent().getPieceLength();
+							}
+							
+							file.flushOldDirtyData( 0, min_flush_size );
+							
+						}catch( CacheFileManagerException e ){
+
+							file.setPendingException( e );
+							
+							Debug.printStackTrace( e );
+							
+						}catch( Throwable e ){
+
+							Debug.printStackTrace( e );
+						}
+					}
+				}
+			}
+		}.start();
+	}
+	
 	protected void
 	cacheStatsAndCleaner()
 	{		
@@ -487,8 +658,6 @@ CacheFileManagerImpl
 
 						cleaner_ticks	= CACHE_CLEANER_TICKS;
 
-						final Set	dirty_files	= new HashSet();
-
 						final long	oldest	=SystemTime.getCurrentTime() - DIRTY_CACHE_WRITE_MAX_AGE;
 
 						try{
@@ -501,31 +670,14 @@ CacheFileManagerImpl
 								updated_cache_files	= null;
 							}
 
-							if ( cache_entries.size() > 0 ){
-
-								Iterator it = cache_entries.keySet().iterator();
-
-								while( it.hasNext()){
-
-									CacheEntry	entry = (CacheEntry)it.next();
-
-									// System.out.println( "oldest entry = " + ( now - entry.getLastUsed()));
-
-									if ( entry.isDirty()){
-
-										dirty_files.add( entry.getFile());
-									}
-								}
-							}
-
 							// System.out.println( "cache file = " + cache_files.size() + ", torrent map = " + torrent_to_cache_file_map.size());
 
 						}finally{
 
 							this_mon.exit();
 						}
-
-						Iterator	it = dirty_files.iterator();
+						
+						Iterator	it = getDirtyFiles().iterator();
 
 						while( it.hasNext()){
 
@@ -576,62 +728,67 @@ CacheFileManagerImpl
 	
 		throws CacheFileManagerException
 	{
-		try{
-			this_mon.enter();
-			
-			cache_space_free	-= new_entry.getLength();
+		long	free = cache_space_free.addAndGet( -new_entry.getLength());
+		
+			// 	System.out.println( "Total cache space = " + cache_space_free );
+		
+		CacheStripe.BlockKey	key = CacheStripe.getKey( new_entry.getFile(), new_entry.getFilePosition());
+		
+		if ( getStripe( key ).add( new_entry, key ) == CacheStripe.IN_PROBATION ){
 			
-				// 	System.out.println( "Total cache space = " + cache_space_free );
+			cache_probation_used.addAndGet( new_entry.getLength());
+		}
 		
-			cache_entries.put( new_entry, new_entry );
+		if ( new_entry.isDirty() && free < cache_minimum_free_size ){
+				
+			wakeWriter();
+		}
+		
+		if ( DEBUG ){
 			
-			if ( DEBUG ){
+			CacheFileWithCache	file	= new_entry.getFile();
+							
+			long	total_cache_size	= 0;
+			
+			int		my_count = 0;
+
+			Iterator it = getCacheEntries().iterator();
+			
+			while( it.hasNext()){
 				
-				CacheFileWithCache	file	= new_entry.getFile();
-								
-				long	total_cache_size	= 0;
+				CacheEntry	entry = (CacheEntry)it.next();
 				
-				int		my_count = 0;
-
-				Iterator it = cache_entries.keySet().iterator();
+				total_cache_size	+= entry.getLength();
 				
-				while( it.hasNext()){
+				if ( entry.getFile() == file ){
 					
-					CacheEntry	entry = (CacheEntry)it.next();
-					
-					total_cache_size	+= entry.getLength();
-					
-					if ( entry.getFile() == file ){
-						
-						my_count++;
-					}
-				}
-			
-				if ( my_count != file.cache.size()){
-					
-					Debug.out( "Cache inconsistency: my count = " + my_count + ", file = " + file.cache.size());
-					
-					throw( new CacheFileManagerException( null, "Cache inconsistency: counts differ"));
-					
-				}else{
-					
-					//System.out.println( "Cache: file_count = " + my_count );
+					my_count++;
 				}
+			}
+		
+			if ( my_count != file.cache.size()){
 				
-				if ( total_cache_size != cache_size - cache_space_free ){
-					
-					Debug.out( "Cache inconsistency: used_size = " + total_cache_size + ", free = " + cache_space_free + ", size = " + cache_size );
-					
-					throw( new CacheFileManagerException( null, "Cache inconsistency: sizes differ"));
-					
-				}else{
-					
-					//System.out.println( "Cache: usage = " + total_cache_size );
-				}
+				Debug.out( "Cache inconsistency: my count = " + my_count + ", file = " + file.cache.size());
+				
+				throw( new CacheFileManagerException( null, "Cache inconsistency: counts differ"));
+				
+			}else{
+				
+				//System.out.println( "Cache: file_count = " + my_count );
 			}
-		}finally{
 			
-			this_mon.exit();
+				// only exact when there's no other file in use
+			
+			if ( total_cache_size != cache_size - cache_space_free.get()){
+				
+				Debug.out( "Cache inconsistency: used_size = " + total_cache_size + ", free = " + cache_space_free + ", size = " + cache_size );
+				
+				throw( new CacheFileManagerException( null, "Cache inconsistency: sizes differ"));
+				
+			}else{
+				
+				//System.out.println( "Cache: usage = " + total_cache_size );
+			}
 		}
 	}
 	
@@ -641,24 +798,17 @@ CacheFileManagerImpl
 	
 		throws CacheFileManagerException
 	{
-		try{
-			this_mon.enter();
+			// note that the "used" operation updates the MRU of the stripe
 		
-				// note that the "get" operation update the MRU in cache_entries
+		if ( getStripe( entry ).used( entry ) == CacheStripe.NOT_FOUND ){
 			
-			if ( cache_entries.get( entry ) == null ){
-				
-				Debug.out( "Cache inconsistency: entry missing on usage" );
-				
-				throw( new CacheFileManagerException( null, "Cache inconsistency: entry missing on usage"));
-				
-			}else{
-				
-				entry.used();
-			}
-		}finally{
+			Debug.out( "Cache inconsistency: entry missing on usage" );
 			
-			this_mon.exit();
+			throw( new CacheFileManagerException( null, "Cache inconsistency: entry missing on usage"));
+			
+		}else{
+			
+			entry.used();
 		}
 	}
 	
@@ -670,37 +820,36 @@ CacheFileManagerImpl
 	{
 		entry.getBuffer().returnToPool();
 		
-		try{
-			this_mon.enter();
-			
-			cache_space_free	+= entry.getLength();
+		cache_space_free.addAndGet( entry.getLength());
+		
+		int	was = getStripe( entry ).remove( entry );
+		
+		if ( was == CacheStripe.NOT_FOUND ){
 			
-			if ( cache_entries.remove( entry ) == null ){
-				
-				Debug.out( "Cache inconsistency: entry missing on removal" );
+			Debug.out( "Cache inconsistency: entry missing on removal" );
 
-				throw( new CacheFileManagerException( null, "Cache inconsistency: entry missing on removal"));
-			}
+			throw( new CacheFileManagerException( null, "Cache inconsistency: entry missing on removal"));
+			
+		}else if ( was == CacheStripe.IN_PROBATION ){
+			
+			cache_probation_used.addAndGet( -entry.getLength());
+		}
 
-			/*
-			if ( 	entry.getType() == CacheEntry.CT_READ_AHEAD ){
-				
-				if ( entry.getUsageCount() < 2 ){
-				
-					System.out.println( "ra: not used" );
-				
-				}else{
-				
-					System.out.println( "ra: used" );
-				}
-			}
-			*/
+		/*
+		if ( 	entry.getType() == CacheEntry.CT_READ_AHEAD ){
 			
-			// System.out.println( "Total cache space = " + cache_space_free );
-		}finally{
+			if ( entry.getUsageCount() < 2 ){
 			
-			this_mon.exit();
+				System.out.println( "ra: not used" );
+			
+			}else{
+			
+				System.out.println( "ra: used" );
+			}
 		}
+		*/
+		
+		// System.out.println( "Total cache space = " + cache_space_free );
 	}
 	
 	protected long
@@ -712,7 +861,7 @@ CacheFileManagerImpl
 	protected long
 	getCacheUsed()
 	{
-		long free = cache_space_free;
+		long free = cache_space_free.get();
 		
 		if ( free < 0 ){
 			
@@ -726,115 +875,84 @@ CacheFileManagerImpl
 	cacheBytesWritten(
 		long		num )
 	{
-		try{
-			this_mon.enter();
-			
-			cache_bytes_written	+= num;
-			
-			cache_write_count++;
-			
-		}finally{
-			
-			this_mon.exit();
-		}
+		cache_bytes_written.addAndGet( num );
+		
+		cache_write_count.incrementAndGet();
 	}
 	
 	protected void
 	cacheBytesRead(
 		int		num )
 	{
-		try{
-			this_mon.enter();
-			
-			cache_bytes_read	+= num;
-			
-			cache_read_count++;
-			
-		}finally{
-			
-			this_mon.exit();
-		}
+		cache_bytes_read.addAndGet( num );
+		
+		cache_read_count.incrementAndGet();
 	}
 	
 	protected void
 	fileBytesWritten(
 		long	num )
 	{
-		try{
-			this_mon.enter();
-			
-			file_bytes_written	+= num;
-			
-			file_write_count++;
-			
-		}finally{
-			
-			this_mon.exit();
-		}
+		file_bytes_written.addAndGet( num );
+		
+		file_write_count.incrementAndGet();
 	}
 	
 	protected void
 	fileBytesRead(
 		int		num )
 	{
-		try{
-			this_mon.enter();
-			
-			file_bytes_read	+= num;
-			
-			file_read_count++;
-		}finally{
-			
-			this_mon.exit();
-		}
+		file_bytes_read.addAndGet( num );
+		
+		file_read_count.incrementAndGet();
 	}
 	
 	protected long
 	getBytesWrittenToCache()
 	{
-		return( cache_bytes_written );
+		return( cache_bytes_written.get());
 	}
 	
 	protected long
 	getBytesWrittenToFile()
 	{
-		return( file_bytes_written );
+		return( file_bytes_written.get());
 	}
 	
 	protected long
 	getBytesReadFromCache()
 	{
-		return( cache_bytes_read );
+		return( cache_bytes_read.get());
 	}
 	
 	protected long
 	getBytesReadFromFile()
 	{
-		return( file_bytes_read );
+		return( file_bytes_read.get());
 	}
 	
 	public long
 	getCacheReadCount()
 	{
-		return( cache_read_count );
+		return( cache_read_count.get());
 	}
 	
 	public long
 	getCacheWriteCount()
 	{
-		return( cache_write_count );
+		return( cache_write_count.get());
 	}
 	
 	public long
 	getFileReadCount()
 	{
-		return( file_read_count );
+		return( file_read_count.get());
 	}
 	
 	public long
 	getFileWriteCount()
 	{
-		return( file_write_count );
+		return( file_write_count.get());
 	}
 	
 	protected void
@@ -966,22 +1084,14 @@ CacheFileManagerImpl
 		try{
 			writer.indent();
 			
-			Iterator it;
-			
-				// grab a copy to avoid potential deadlock as we never take the manager monitor
+				// grab a copy to avoid potential deadlock as we never take a stripe lock
 				// and then the file's own monitor, always the other way around
 			
-			try{
-				this_mon.enter();
-
-				it = new ArrayList( cache_entries.keySet()).iterator();
-
-			}finally{
-				
-				this_mon.exit();
-			}
+			List	entries = getCacheEntries();
+			
+			Iterator it = entries.iterator();
 			
-			writer.println( "Entries = " + cache_entries.size());
+			writer.println( "Entries = " + entries.size());
 							
 			Set	files = new HashSet();
 			
@@ -195,6 +195,22 @@ CacheFileManagerStatsImpl
 		return( manager.getFileWriteCount());
 	}
 	
+	public float
+	getCacheHitRatio()
+	{
+			// every read that misses the cache ends up as a file read (or a read-ahead)
+		
+		long	hits	= manager.getCacheReadCount();
+		long	misses	= manager.getFileReadCount();
+		
+		if ( hits + misses == 0 ){
+			
+			return( 0 );
+		}
+		
+		return((float)hits / ( hits + misses ));
+	}
+	
 	public boolean[] getBytesInCache(TOTorrent torrent, long[] absoluteOffsets, long[] lengths)
 	{
 		return manager.getBytesInCache( torrent, absoluteOffsets, lengths);
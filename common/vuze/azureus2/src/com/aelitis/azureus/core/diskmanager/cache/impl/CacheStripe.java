@@ -0,0 +1,214 @@
+/*
+ * Created on 17-Oct-2026
+ * Copyright (C) 2026 Aelitis, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * AELITIS, SAS au capital de 46,603.30 euros
+ * 8 Allee Lenotre, La Grille Royale, 78600 Le Mesnil le Roi, France.
+ *
+ */
+
+package com.aelitis.azureus.core.diskmanager.cache.impl;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A stripe of the cache entries, with its own lock, kept by the 2Q policy.
+ * <p>
+ * New entries go into a FIFO (A1in) and the hits there don't move them, so
+ * data read or written once in a pass goes away first. When an entry leaves
+ * the FIFO its key is remembered (A1out) and if the same block comes back
+ * while remembered it goes into the LRU (Am), which keeps the data that is
+ * really used again.
+ */
+public class
+CacheStripe
+{
+	public static final int	NOT_FOUND		= 0;
+	public static final int	IN_PROBATION	= 1;
+	public static final int	IN_PROTECTED	= 2;
+
+	private final LinkedHashMap<CacheEntry,BlockKey>	probation 	= new LinkedHashMap<CacheEntry,BlockKey>( 64, 0.75f, false );
+	private final LinkedHashMap<CacheEntry,BlockKey>	protected_	= new LinkedHashMap<CacheEntry,BlockKey>( 64, 0.75f, true );
+	private final LinkedHashMap<BlockKey,Boolean>	ghosts		= new LinkedHashMap<BlockKey,Boolean>( 64, 0.75f, false );
+
+	private final int	max_ghosts;
+
+	protected
+	CacheStripe(
+		int		_max_ghosts )
+	{
+		max_ghosts	= _max_ghosts;
+	}
+
+	protected static BlockKey
+	getKey(
+		CacheFileWithCache	file,
+		long				file_position )
+	{
+		return( new BlockKey( file, file_position ));
+	}
+
+		/**
+		 * @return IN_PROBATION or IN_PROTECTED
+		 */
+
+	protected synchronized int
+	add(
+		CacheEntry		entry,
+		BlockKey		key )
+	{
+		if ( ghosts.remove( key ) != null ){
+
+			protected_.put( entry, key );
+
+			return( IN_PROTECTED );
+		}
+
+		probation.put( entry, key );
+
+		return( IN_PROBATION );
+	}
+
+		/**
+		 * @return where the entry is, NOT_FOUND if it isn't in the stripe
+		 */
+
+	protected synchronized int
+	used(
+		CacheEntry		entry )
+	{
+			// the get updates the LRU order
+
+		if ( protected_.get( entry ) != null ){
+
+			return( IN_PROTECTED );
+		}
+
+		return( probation.containsKey( entry )?IN_PROBATION:NOT_FOUND );
+	}
+
+		/**
+		 * @return where the entry was, NOT_FOUND if it wasn't in the stripe
+		 */
+
+	protected synchronized int
+	remove(
+		CacheEntry		entry )
+	{
+		BlockKey	key = probation.remove( entry );
+
+		if ( key != null ){
+
+			ghosts.put( key, Boolean.TRUE );
+
+			if ( ghosts.size() > max_ghosts ){
+
+				Iterator<BlockKey>	it = ghosts.keySet().iterator();
+
+				it.next();
+
+				it.remove();
+			}
+
+			return( IN_PROBATION );
+		}
+
+		return( protected_.remove( entry ) != null?IN_PROTECTED:NOT_FOUND );
+	}
+
+	protected synchronized boolean
+	contains(
+		CacheEntry		entry )
+	{
+		return( probation.containsKey( entry ) || protected_.containsKey( entry ));
+	}
+
+		/**
+		 * the first entry to go from the FIFO, or the least recently used
+		 */
+
+	protected synchronized CacheEntry
+	getVictim(
+		boolean		from_probation )
+	{
+		LinkedHashMap<CacheEntry,BlockKey>	map = from_probation?probation:protected_;
+
+		if ( map.isEmpty()){
+
+			return( null );
+		}
+
+		return( map.keySet().iterator().next());
+	}
+
+	protected synchronized void
+	getEntries(
+		Collection<CacheEntry>		result )
+	{
+		result.addAll( probation.keySet());
+		result.addAll( protected_.keySet());
+	}
+
+	protected synchronized int
+	size()
+	{
+		return( probation.size() + protected_.size());
+	}
+
+		/**
+		 * Identifies the block of a file, the same for the entries of a later
+		 * read or write at the same place. The whole position is kept as files
+		 * go past 4GB, and only the hash of the file so a ghost doesn't hold on
+		 * to a closed file
+		 */
+
+	protected static class
+	BlockKey
+	{
+		private final int		file_hash;
+		private final long		file_position;
+
+		protected
+		BlockKey(
+			CacheFileWithCache	file,
+			long				_file_position )
+		{
+			file_hash		= System.identityHashCode( file );
+			file_position	= _file_position;
+		}
+
+		public int
+		hashCode()
+		{
+			return( file_hash*31 + (int)( file_position ^ ( file_position >>> 32 )));
+		}
+
+		public boolean
+		equals(
+			Object	other )
+		{
+			if ( other instanceof BlockKey ){
+
+				BlockKey	o = (BlockKey)other;
+
+				return( file_hash == o.file_hash && file_position == o.file_position );
+			}
+
+			return( false );
+		}
+	}
+}
@@ -37,6 +37,7 @@ import org.gudy.azureus2.core3.util.DirectByteBuffer;
 import org.gudy.azureus2.core3.util.FileUtil;
 import org.gudy.azureus2.core3.util.SystemTime;
 
+import com.aelitis.azureus.core.diskmanager.file.FMFile;
 import com.aelitis.azureus.core.diskmanager.file.FMFileManagerException;
 
 public class 
@@ -257,108 +258,71 @@ FMFileAccessLinear
 		
 		AEThread2.setDebug( owner );
 		
+			// complete files are served from the mapped windows when enabled
+		
+		if ( owner.getAccessMode() == FMFile.FM_READ && FMFileMappedWindows.read( owner, fc, buffers, offset )){
+			
+			return;
+		}
+		
 		int[]	original_positions = new int[buffers.length];
 		
 		long read_start = SystemTime.getHighPrecisionCounter();
 		
 		try{
-			if(USE_MMAP)
-			{
-				
-				long size = 0;
-				for(int i=0;i<buffers.length;i++)
-				{
-					size += buffers[i].remaining(DirectByteBuffer.SS_FILE);
-					original_positions[i] = buffers[i].position(DirectByteBuffer.SS_FILE);
-				}
-					
-				size = Math.min(size, fc.size()-offset);
-				MappedByteBuffer buf = fc.map(MapMode.READ_ONLY, offset, size);
-				for(DirectByteBuffer b : buffers)
-				{
-					buf.limit(buf.position()+b.remaining(DirectByteBuffer.SS_FILE));
-					b.put(DirectByteBuffer.SS_FILE, buf);
+			fc.position(offset);
+			ByteBuffer[]	bbs = new ByteBuffer[buffers.length];
+			
+			ByteBuffer	last_bb	= null;
+			for (int i=0;i<bbs.length;i++){
+				ByteBuffer bb = bbs[i] = buffers[i].getBuffer(DirectByteBuffer.SS_FILE);
+				int	pos = original_positions[i] = bb.position();
+				if ( pos != bb.limit()){
+					last_bb	= bbs[i];
 				}
-					
-				
-			} else {
-				
-				fc.position(offset);
-				ByteBuffer[]	bbs = new ByteBuffer[buffers.length];
+			}
+			
+			if ( last_bb != null ){
+				int		loop			= 0;
 				
-				ByteBuffer	last_bb	= null;
-				for (int i=0;i<bbs.length;i++){
-					ByteBuffer bb = bbs[i] = buffers[i].getBuffer(DirectByteBuffer.SS_FILE);
-					int	pos = original_positions[i] = bb.position();
-					if ( pos != bb.limit()){
-						last_bb	= bbs[i];
-					}
-				}
+					// we sometimes read off the end of the file (when rechecking) so
+					// bail out if we've completed the read or got to file end
+					// a "better" fix would be to prevent the over-read in the first
+					// place, but hey, we're just about to release and there may be other
+					// instances of this...
+
+					// nasty Android bug here regarding it incorrectly setting a buffer's position to
+					// be the amount read as opposed to incrementing it by the amount read
 				
-				if ( last_bb != null ){
-					int		loop			= 0;
+				if ( Constants.isAndroid ){
 					
-						// we sometimes read off the end of the file (when rechecking) so
-						// bail out if we've completed the read or got to file end
-						// a "better" fix would be to prevent the over-read in the first
-						// place, but hey, we're just about to release and there may be other
-						// instances of this...
-
-						// nasty Android bug here regarding it incorrectly setting a buffer's position to
-						// be the amount read as opposed to incrementing it by the amount read
+					int	bbs_index = 0;
 					
-					if ( Constants.isAndroid ){
+					while ( fc.position() < fc.size() && last_bb.hasRemaining()){
 						
-						int	bbs_index = 0;
+						ByteBuffer current_bb = bbs[bbs_index];
 						
-						while ( fc.position() < fc.size() && last_bb.hasRemaining()){
+						if ( !current_bb.hasRemaining()){
 							
-							ByteBuffer current_bb = bbs[bbs_index];
+							bbs_index++;
 							
-							if ( !current_bb.hasRemaining()){
+						}else{
+							
+							long	read = fc.read( current_bb );
+							
+							if ( read > 0 ){
 								
-								bbs_index++;
+								loop	= 0;
 								
 							}else{
 								
-								long	read = fc.read( current_bb );
-								
-								if ( read > 0 ){
-									
-									loop	= 0;
-									
-								}else{
-									
-									loop++;
-									
-									if ( loop == READ_RETRY_LIMIT ){
-										Debug.out( "FMFile::read: zero length read - abandoning" );
-										throw( new FMFileManagerException( "read fails: retry limit exceeded"));
-									}
-									
-									if ( DEBUG_VERBOSE )
-										Debug.out( "FMFile::read: zero length read - retrying" );
-		
-									try{
-										Thread.sleep( READ_RETRY_DELAY*loop );
-									}catch( InterruptedException e ){
-										throw( new FMFileManagerException( "read fails: interrupted" ));
-									}
-									
-								}	
-							}
-						}
-					}else{
-						while ( fc.position() < fc.size() && last_bb.hasRemaining()){
-							long	read = fc.read( bbs );
-							if ( read > 0 ){
-								loop	= 0;
-							}else{
 								loop++;
+								
 								if ( loop == READ_RETRY_LIMIT ){
 									Debug.out( "FMFile::read: zero length read - abandoning" );
 									throw( new FMFileManagerException( "read fails: retry limit exceeded"));
 								}
+								
 								if ( DEBUG_VERBOSE )
 									Debug.out( "FMFile::read: zero length read - retrying" );
 	
@@ -371,6 +335,28 @@ FMFileAccessLinear
 							}	
 						}
 					}
+				}else{
+					while ( fc.position() < fc.size() && last_bb.hasRemaining()){
+						long	read = fc.read( bbs );
+						if ( read > 0 ){
+							loop	= 0;
+						}else{
+							loop++;
+							if ( loop == READ_RETRY_LIMIT ){
+								Debug.out( "FMFile::read: zero length read - abandoning" );
+								throw( new FMFileManagerException( "read fails: retry limit exceeded"));
+							}
+							if ( DEBUG_VERBOSE )
+								Debug.out( "FMFile::read: zero length read - retrying" );
+
+							try{
+								Thread.sleep( READ_RETRY_DELAY*loop );
+							}catch( InterruptedException e ){
+								throw( new FMFileManagerException( "read fails: interrupted" ));
+							}
+							
+						}	
+					}
 				}
 			}
 		}catch ( Throwable e ){
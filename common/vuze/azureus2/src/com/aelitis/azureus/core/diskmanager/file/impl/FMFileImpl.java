@@ -542,6 +542,8 @@ FMFileImpl
 			throw( cause );
 		}
 		
+		FMFileMappedWindows.release( this );
+		
 		if ( raf != null ){
 			
 			try{
@@ -633,6 +635,8 @@ FMFileImpl
 			flush_exception = e;
 		}
 		
+		FMFileMappedWindows.release( this );
+		
 		if ( raf == null ){
 			
 				// may have previously been implicitly closed, tidy up if required
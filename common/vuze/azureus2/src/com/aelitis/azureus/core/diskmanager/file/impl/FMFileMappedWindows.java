@@ -0,0 +1,510 @@
+/*
+ * Created on 17-Oct-2026
+ * Copyright (C) 2026 Aelitis, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * AELITIS, SAS au capital de 46,603.30 euros
+ * 8 Allee Lenotre, La Grille Royale, 78600 Le Mesnil le Roi, France.
+ *
+ */
+
+package com.aelitis.azureus.core.diskmanager.file.impl;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.gudy.azureus2.core3.config.COConfigurationManager;
+import org.gudy.azureus2.core3.config.ParameterListener;
+import org.gudy.azureus2.core3.util.Constants;
+import org.gudy.azureus2.core3.util.Debug;
+import org.gudy.azureus2.core3.util.DirectByteBuffer;
+
+/**
+ * Read-only memory mapped windows over the files being seeded, so serving the
+ * same pieces again and again is a copy from the page cache instead of a
+ * system call per block.
+ * <p>
+ * The windows are kept in a pool bounded by "diskmanager.perf.read.mmap.maxmb",
+ * the least recently used go first. A window is unmapped when it leaves the
+ * pool and nobody is copying from it, and all the windows of a file go when
+ * the file is closed, so it can be moved or deleted right away.
+ * <p>
+ * Only 64 bit JVMs map, and any failure makes the caller fall back to the
+ * channel read.
+ */
+public class
+FMFileMappedWindows
+{
+	private static final int	WINDOW_SIZE		= 32*1024*1024;
+	private static final long	MIN_FILE_SIZE	= 1024*1024;
+
+	private static volatile boolean	enabled;
+	private static volatile long	max_mapped;
+
+	private static final LinkedHashMap<Key,Window>	windows = new LinkedHashMap<Key,Window>( 16, 0.75f, true );
+
+	private static long	mapped;
+
+	static{
+		COConfigurationManager.addAndFireParameterListeners(
+			new String[]{
+				"diskmanager.perf.read.mmap.enable",
+				"diskmanager.perf.read.mmap.maxmb" },
+			new ParameterListener()
+			{
+				public void
+				parameterChanged(
+					String	name )
+				{
+					enabled		= Constants.is64Bit && COConfigurationManager.getBooleanParameter( "diskmanager.perf.read.mmap.enable" );
+					max_mapped	= COConfigurationManager.getIntParameter( "diskmanager.perf.read.mmap.maxmb" )*1024L*1024L;
+
+					if ( !enabled ){
+
+						releaseAll();
+					}
+				}
+			});
+	}
+
+		/**
+		 * Fills the buffers from the mapped windows, stopping at the end of the
+		 * file like the channel read does
+		 * @return false if the file isn't mapped, the buffers are left untouched
+		 */
+
+	protected static boolean
+	read(
+		FMFileImpl			owner,
+		FileChannel			fc,
+		DirectByteBuffer[]	buffers,
+		long				offset )
+	{
+		if ( !enabled ){
+
+			return( false );
+		}
+
+		int[]	original_positions = new int[buffers.length];
+
+		long	wanted = 0;
+
+		for (int i=0;i<buffers.length;i++){
+
+			original_positions[i] = buffers[i].position( DirectByteBuffer.SS_FILE );
+
+			wanted += buffers[i].remaining( DirectByteBuffer.SS_FILE );
+		}
+
+		try{
+			long	file_length = fc.size();
+
+			if ( file_length < MIN_FILE_SIZE ){
+
+				return( false );
+			}
+
+			long	end 	= Math.min( offset + wanted, file_length );
+			long	pos		= offset;
+			int		index	= 0;
+
+			while( pos < end ){
+
+				Window	window = acquire( owner, fc, pos / WINDOW_SIZE, file_length );
+
+				if ( window == null ){
+
+					reset( buffers, original_positions );
+
+					return( false );
+				}
+
+				try{
+					ByteBuffer	src = window.buffer.duplicate();
+
+					src.position((int)( pos - window.start ));
+
+					long	window_end = Math.min( end, window.start + window.length );
+
+					while( pos < window_end ){
+
+						DirectByteBuffer	dst = buffers[index];
+
+						int	chunk = (int)Math.min( dst.remaining( DirectByteBuffer.SS_FILE ), window_end - pos );
+
+						src.limit( src.position() + chunk );
+
+						dst.put( DirectByteBuffer.SS_FILE, src );
+
+						pos += chunk;
+
+						if ( !dst.hasRemaining( DirectByteBuffer.SS_FILE )){
+
+							index++;
+						}
+					}
+				}finally{
+
+					releaseWindow( window );
+				}
+			}
+
+			return( true );
+
+		}catch( Throwable e ){
+
+				// includes the InternalError raised when the file shrinks under the mapping
+
+			reset( buffers, original_positions );
+
+			Debug.out( "Mapped read failed for " + owner.getName() + ", using the channel", e );
+
+			release( owner );
+
+			return( false );
+		}
+	}
+
+		/**
+		 * Drops the windows of the file, must be called when it's closed
+		 */
+
+	protected static void
+	release(
+		FMFileImpl		owner )
+	{
+		List<Window>	dead = new ArrayList<Window>();
+
+		synchronized( windows ){
+
+			if ( windows.isEmpty()){
+
+				return;
+			}
+
+			Iterator<Window>	it = windows.values().iterator();
+
+			while( it.hasNext()){
+
+				Window	window = it.next();
+
+				if ( window.key.owner == owner ){
+
+					it.remove();
+
+					retire( window, dead );
+				}
+			}
+		}
+
+		unmap( dead );
+	}
+
+	private static void
+	releaseAll()
+	{
+		List<Window>	dead = new ArrayList<Window>();
+
+		synchronized( windows ){
+
+			for ( Window window: windows.values()){
+
+				retire( window, dead );
+			}
+
+			windows.clear();
+		}
+
+		unmap( dead );
+	}
+
+	private static Window
+	acquire(
+		FMFileImpl		owner,
+		FileChannel		fc,
+		long			index,
+		long			file_length )
+	{
+		Key	key = new Key( owner, index );
+
+		List<Window>	dead = new ArrayList<Window>();
+
+		try{
+			synchronized( windows ){
+
+				Window	window = windows.get( key );
+
+				if ( window != null ){
+
+					if ( window.file_length == file_length ){
+
+						window.users++;
+
+						return( window );
+					}
+
+					windows.remove( key );
+
+					retire( window, dead );
+				}
+			}
+
+			long	start	= index*WINDOW_SIZE;
+			int		length	= (int)Math.min( WINDOW_SIZE, file_length - start );
+
+			MappedByteBuffer	buffer;
+
+			try{
+				buffer = fc.map( MapMode.READ_ONLY, start, length );
+
+			}catch( Throwable e ){
+
+					// out of address space or not supported by the file system
+
+				return( null );
+			}
+
+			Window	window = new Window( key, buffer, start, length, file_length );
+
+			synchronized( windows ){
+
+				Window	existing = windows.get( key );
+
+				if ( existing != null && existing.file_length == file_length ){
+
+						// someone else mapped it meanwhile
+
+					window.dead = true;
+
+					dead.add( window );
+
+					existing.users++;
+
+					return( existing );
+				}
+
+				if ( existing != null ){
+
+					windows.remove( key );
+
+					retire( existing, dead );
+				}
+
+				window.users++;
+
+				windows.put( key, window );
+
+				mapped += length;
+
+				Iterator<Window>	it = windows.values().iterator();
+
+				while( mapped > max_mapped && it.hasNext()){
+
+					Window	victim = it.next();
+
+					if ( victim != window ){
+
+						it.remove();
+
+						retire( victim, dead );
+					}
+				}
+
+				return( window );
+			}
+		}finally{
+
+			unmap( dead );
+		}
+	}
+
+	private static void
+	reset(
+		DirectByteBuffer[]	buffers,
+		int[]				original_positions )
+	{
+		for (int i=0;i<buffers.length;i++){
+
+			buffers[i].position( DirectByteBuffer.SS_FILE, original_positions[i] );
+		}
+	}
+
+	private static void
+	releaseWindow(
+		Window		window )
+	{
+		boolean	unmap;
+
+		synchronized( windows ){
+
+			window.users--;
+
+			unmap = window.dead && window.users == 0;
+		}
+
+		if ( unmap ){
+
+			unmap( window.buffer );
+		}
+	}
+
+		/**
+		 * called with the pool locked once the window is out of the map
+		 */
+
+	private static void
+	retire(
+		Window			window,
+		List<Window>	dead )
+	{
+		mapped -= window.length;
+
+		window.dead = true;
+
+		if ( window.users == 0 ){
+
+			dead.add( window );
+		}
+	}
+
+	private static void
+	unmap(
+		List<Window>	dead )
+	{
+		for ( Window window: dead ){
+
+			unmap( window.buffer );
+		}
+	}
+
+		/**
+		 * Releases the mapping now instead of waiting for the GC, which on
+		 * Windows keeps the file locked. If the JVM doesn't let us it's left
+		 * to the GC.
+		 */
+
+	private static void
+	unmap(
+		MappedByteBuffer	buffer )
+	{
+		try{
+			Class<?>	unsafe_class = Class.forName( "sun.misc.Unsafe" );
+
+			Method	invoke_cleaner;
+
+			try{
+				invoke_cleaner = unsafe_class.getMethod( "invokeCleaner", ByteBuffer.class );
+
+			}catch( NoSuchMethodException e ){
+
+				invoke_cleaner = null;
+			}
+
+			if ( invoke_cleaner != null ){
+
+				Field	f = unsafe_class.getDeclaredField( "theUnsafe" );
+
+				f.setAccessible( true );
+
+				invoke_cleaner.invoke( f.get( null ), buffer );
+
+			}else{
+
+				Method	cleaner = buffer.getClass().getMethod( "cleaner" );
+
+				cleaner.setAccessible( true );
+
+				Object	c = cleaner.invoke( buffer );
+
+				if ( c != null ){
+
+					c.getClass().getMethod( "clean" ).invoke( c );
+				}
+			}
+		}catch( Throwable e ){
+		}
+	}
+
+	private static final class
+	Key
+	{
+		private final FMFileImpl	owner;
+		private final long			index;
+
+		private
+		Key(
+			FMFileImpl	_owner,
+			long		_index )
+		{
+			owner	= _owner;
+			index	= _index;
+		}
+
+		public int
+		hashCode()
+		{
+			return( System.identityHashCode( owner ) * 31 + (int)index );
+		}
+
+		public boolean
+		equals(
+			Object	other )
+		{
+			if ( !( other instanceof Key )){
+
+				return( false );
+			}
+
+			Key	o = (Key)other;
+
+			return( owner == o.owner && index == o.index );
+		}
+	}
+
+	private static final class
+	Window
+	{
+		private final Key				key;
+		private final MappedByteBuffer	buffer;
+		private final long				start;
+		private final int				length;
+		private final long				file_length;
+
+		private int			users;
+		private boolean		dead;
+
+		private
+		Window(
+			Key					_key,
+			MappedByteBuffer	_buffer,
+			long				_start,
+			int					_length,
+			long				_file_length )
+		{
+			key			= _key;
+			buffer		= _buffer;
+			start		= _start;
+			length		= _length;
+			file_length	= _file_length;
+		}
+	}
+}
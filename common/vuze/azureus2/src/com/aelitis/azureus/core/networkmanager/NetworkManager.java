@@ -141,8 +141,18 @@ public class NetworkManager {
   private final List<ReadController> 	read_controllers;
   
   {
+	  	// sharded mode, the upgraded connections are partitioned across this many
+	  	// read and write processors, the first one is kept for the global entities
+	  
+	 int	num_shards = COConfigurationManager.getIntParameter( "network.control.shard.count" );
+	 
 	 int	num_read = COConfigurationManager.getIntParameter( "network.control.read.processor.count" );
 	 
+	 if ( num_shards > 1 ){
+		 
+		 num_read = Math.max( num_read, num_shards + 1 );
+	 }
+	 
 	 read_controllers = new ArrayList<ReadController>(num_read);
 	 
 	 for (int i=0;i<num_read;i++){
@@ -152,6 +162,11 @@ public class NetworkManager {
 	 
 	 int	num_write = COConfigurationManager.getIntParameter( "network.control.write.processor.count" );
 	 
+	 if ( num_shards > 1 ){
+		 
+		 num_write = Math.max( num_write, num_shards + 1 );
+	 }
+	 
 	 write_controllers = new ArrayList<WriteController>(num_write);
 	 
 	 for (int i=0;i<num_write;i++){
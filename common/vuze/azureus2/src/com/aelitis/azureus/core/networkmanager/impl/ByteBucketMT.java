@@ -88,7 +88,11 @@ ByteBucketMT
 		  return;
 		}
 		  
-	    avail_bytes -= bytes_used;
+	    	// shared by the processors of every shard, the update must not be lost
+	    
+	    synchronized( this ){
+	    	avail_bytes -= bytes_used;
+	    }
 	    //if( avail_bytes < 0 ) Debug.out( "avail_bytes < 0: " + avail_bytes);
 	  }
 	  
@@ -24,6 +24,7 @@ package com.aelitis.azureus.core.networkmanager.impl.tcp;
 
 
 import java.net.InetAddress;
+import java.nio.channels.SocketChannel;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -118,10 +119,12 @@ TCPNetworkManager
 	    if( tcp_mss_size < 512 )  tcp_mss_size = 512; 
 	}
 	
-	private final VirtualChannelSelector read_selector 	= 
-			new VirtualChannelSelector( "TCP network manager", VirtualChannelSelector.OP_READ, true );
-	private final VirtualChannelSelector write_selector = 
-			new VirtualChannelSelector( "TCP network manager", VirtualChannelSelector.OP_WRITE, true );
+		// one read and one write selector per shard, each with its own thread, see
+		// "network.control.shard.count". the channels are spread by identity, so a
+		// channel always stays with the same selectors
+	
+	private final VirtualChannelSelector[] read_selectors;
+	private final VirtualChannelSelector[] write_selectors;
 
 	private final TCPConnectionManager connect_disconnect_manager = new TCPConnectionManager();
 
@@ -160,10 +163,32 @@ TCPNetworkManager
 				}
 			});
 		
+		int	shards = Math.max( 1, COConfigurationManager.getIntParameter( "network.control.shard.count" ));
+		
+		read_selectors 	= new VirtualChannelSelector[shards];
+		write_selectors = new VirtualChannelSelector[shards];
+		
+		for ( int i=0;i<shards;i++ ){
+			
+			read_selectors[i] 	= new VirtualChannelSelector( "TCP network manager", VirtualChannelSelector.OP_READ, true );
+			write_selectors[i] 	= new VirtualChannelSelector( "TCP network manager", VirtualChannelSelector.OP_WRITE, true );
+			
+			String	suffix = shards==1?"":(":" + i );
+			
+			startReadSelector( read_selectors[i], suffix );
+			startWriteSelector( write_selectors[i], suffix );
+		}
+	}
+	
+	private void
+	startReadSelector(
+		final VirtualChannelSelector	read_selector,
+		String							suffix )
+	{
 		   //start read selector processing
 		
 		AEThread2 read_selector_thread = 
-	    	new AEThread2( "ReadController:ReadSelector", true ) 
+	    	new AEThread2( "ReadController:ReadSelector" + suffix, true ) 
 	    	{
 		    	public void 
 		    	run() 
@@ -208,11 +233,17 @@ TCPNetworkManager
 	    	
 	    read_selector_thread.setPriority( Thread.MAX_PRIORITY - 2 );
 	    read_selector_thread.start();
-	    
+	}
+	
+	private void
+	startWriteSelector(
+		final VirtualChannelSelector	write_selector,
+		String							suffix )
+	{
 	    	//start write selector processing
 	    
 	    AEThread2 write_selector_thread = 
-	    	new AEThread2( "WriteController:WriteSelector", true )
+	    	new AEThread2( "WriteController:WriteSelector" + suffix, true )
 	    	{
 		    	public void 
 		    	run() 
@@ -293,14 +324,35 @@ TCPNetworkManager
 	 * Get the virtual selector used for socket channel read readiness.
 	 * @return read readiness selector
 	 */
-	public VirtualChannelSelector getReadSelector() {  return read_selector;  }
+	public VirtualChannelSelector getReadSelector() {  return read_selectors[0];  }
+
+	/**
+	 * Get the virtual selector used for the read readiness of the given channel,
+	 * always the same one for a channel.
+	 * @return read readiness selector
+	 */
+	public VirtualChannelSelector getReadSelector( SocketChannel channel ) {  return read_selectors[getShard( channel )];  }
 
 
 	/**
 	 * Get the virtual selector used for socket channel write readiness.
 	 * @return write readiness selector
 	 */
-	public VirtualChannelSelector getWriteSelector() {  return write_selector;  }
+	public VirtualChannelSelector getWriteSelector() {  return write_selectors[0];  }
+
+	/**
+	 * Get the virtual selector used for the write readiness of the given channel,
+	 * always the same one for a channel.
+	 * @return write readiness selector
+	 */
+	public VirtualChannelSelector getWriteSelector( SocketChannel channel ) {  return write_selectors[getShard( channel )];  }
+
+	private int
+	getShard(
+		SocketChannel	channel )
+	{
+		return(( System.identityHashCode( channel ) & 0x7fffffff ) % read_selectors.length );
+	}
 
 
 	public boolean
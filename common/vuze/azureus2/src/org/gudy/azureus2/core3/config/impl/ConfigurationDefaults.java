@@ -492,6 +492,7 @@ public class ConfigurationDefaults {
     def.put( "Alert on close", FALSE );
     def.put( "diskmanager.friendly.hashchecking", FALSE );
     def.put( "diskmanager.hashchecking.smallestfirst", TRUE );    
+    def.put( "diskmanager.hashchecking.nonrotational.max", new Long(4));
     def.put( "Default Start Torrents Stopped", FALSE);
     def.put( "Default Start Torrents Stopped Auto Pause", FALSE );
     def.put( "Server Enable UDP", TRUE); // this actually means the UDP tracker client
@@ -505,6 +506,8 @@ public class ConfigurationDefaults {
     def.put( "diskmanager.perf.cache.notsmallerthan", new Long(1024));	// 1024 K
     def.put( "diskmanager.perf.read.maxthreads", new Long(32));
     def.put( "diskmanager.perf.read.maxmb", new Long(5));
+    def.put( "diskmanager.perf.read.mmap.enable", FALSE );
+    def.put( "diskmanager.perf.read.mmap.maxmb", new Long(256));
     def.put( "diskmanager.perf.write.maxthreads", new Long(32));
     def.put( "diskmanager.perf.write.maxmb", new Long(5));
     def.put( "diskmanager.perf.cache.trace", FALSE);
@@ -562,6 +565,7 @@ public class ConfigurationDefaults {
     def.put( "network.control.read.aggressive", FALSE );
     def.put( "network.control.read.processor.count", new Long(1));
     def.put( "network.control.write.processor.count", new Long(1));
+    def.put( "network.control.shard.count", new Long(1));
     def.put( "peermanager.schedule.time", new Long(100));
     def.put( "enable_small_osx_fonts", TRUE );
     def.put( "Play Download Finished Announcement", FALSE);
@@ -605,6 +609,7 @@ public class ConfigurationDefaults {
     // This gets permanently set by GlobalManagerImpl to false once Azureus has initialised.
     // This is intended to be used once as part of an upgrade.
     def.put( "Set Completion Flag For Completed Downloads On Start", TRUE );
+    def.put( "globalmanager.load.threads", ZERO );	// 0 = as many as the cores, up to 4
     
     // Move on removal settings.
     def.put( "File.move.download.removed.enabled", FALSE );
@@ -28,18 +28,28 @@ DiskManagerRecheckInstance
 	private DiskManagerRecheckScheduler	scheduler;
 	private long						metric;
 	private int							piece_length;
+	private int							num_pieces;
+	private DiskManagerRecheckScheduler.Device	device;
 	private boolean						low_priority;
 	
+	private int							priority;
+	private volatile boolean			paused;
+	private volatile int				pieces_granted;
+	
 	protected
 	DiskManagerRecheckInstance(
-		DiskManagerRecheckScheduler	_scheduler,
-		long						_size,
-		int							_piece_length,
-		boolean						_low_priority )
+		DiskManagerRecheckScheduler			_scheduler,
+		long								_size,
+		int									_piece_length,
+		int									_num_pieces,
+		DiskManagerRecheckScheduler.Device	_device,
+		boolean								_low_priority )
 	{
 		scheduler		= _scheduler;
 		metric			= (_low_priority?0:0x7000000000000000L) + _size;
 		piece_length	= _piece_length;
+		num_pieces		= _num_pieces;
+		device			= _device;
 		low_priority	= _low_priority;
 	}
 	
@@ -55,18 +65,92 @@ DiskManagerRecheckInstance
 		return( piece_length );
 	}
 	
+	protected DiskManagerRecheckScheduler.Device
+	getDevice()
+	{
+		return( device );
+	}
+	
 	protected boolean
 	isLowPriority()
 	{
 		return( low_priority );
 	}
 	
+		/**
+		 * Pieces checked in flight, a solid state device keeps more of them busy
+		 */
+	
+	public int
+	getMaxPending()
+	{
+		return( device.isRotational()?2:8 );
+	}
+	
 	public boolean
 	getPermission()
 	{
 		return( scheduler.getPermission( this ));
 	}
 	
+		/**
+		 * @return thousandths of the pieces given permission so far
+		 */
+	
+	public int
+	getProgress()
+	{
+		if ( num_pieces == 0 ){
+			
+			return( 1000 );
+		}
+		
+		return((int)Math.min( 1000, 1000L * pieces_granted / num_pieces ));
+	}
+	
+	protected void
+	pieceGranted()
+	{
+		pieces_granted++;	// only called with the scheduler locked
+	}
+	
+	public void
+	setPaused(
+		boolean		_paused )
+	{
+		paused	= _paused;
+	}
+	
+	public boolean
+	isPaused()
+	{
+		return( paused );
+	}
+	
+		/**
+		 * Higher priorities run first, the default is 0
+		 */
+	
+	public void
+	setPriority(
+		int		_priority )
+	{
+		scheduler.setPriority( this, _priority );
+	}
+	
+	public int
+	getPriority()
+	{
+		return( priority );
+	}
+	
+	protected void
+	setPrioritySupport(
+		int		_priority )
+	{
+		priority	= _priority;
+	}
+	
 	public void
 	unregister()
 	{
@@ -22,21 +22,38 @@
 
 package org.gudy.azureus2.core3.disk.impl;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.gudy.azureus2.core3.config.COConfigurationManager;
 import org.gudy.azureus2.core3.config.ParameterListener;
 import org.gudy.azureus2.core3.util.AEMonitor;
+import org.gudy.azureus2.core3.util.Constants;
 import org.gudy.azureus2.core3.util.RealTimeInfo;
 
+	/**
+	 * Rechecks are queued per physical device. A spinning disk (or one we can't tell)
+	 * runs one recheck at a time with the usual delays, a solid state device runs 
+	 * several side by side without them.
+	 */
+
 public class 
 DiskManagerRecheckScheduler 
 {
+	private static final Device	UNKNOWN_DEVICE	= new Device( "", true );
+	
 	private static boolean 	friendly_hashing;
 	private static boolean 	smallest_first;
+	private static int		non_rotational_max;
 
     static{
     	
@@ -45,27 +62,34 @@ DiskManagerRecheckScheduler
 			parameterChanged( 
 				String  str ) 
     	    {
-    	   	      friendly_hashing 	= COConfigurationManager.getBooleanParameter( "diskmanager.friendly.hashchecking" );
-    	   	      smallest_first	= COConfigurationManager.getBooleanParameter( "diskmanager.hashchecking.smallestfirst" ); 
+    	   	      friendly_hashing 		= COConfigurationManager.getBooleanParameter( "diskmanager.friendly.hashchecking" );
+    	   	      smallest_first		= COConfigurationManager.getBooleanParameter( "diskmanager.hashchecking.smallestfirst" ); 
+    	   	      non_rotational_max	= Math.max( 1, COConfigurationManager.getIntParameter( "diskmanager.hashchecking.nonrotational.max" ));
     	    }
     	 };
 
  		COConfigurationManager.addAndFireParameterListeners(
  				new String[]{
  					"diskmanager.friendly.hashchecking",
- 					"diskmanager.hashchecking.smallestfirst" },
+ 					"diskmanager.hashchecking.smallestfirst",
+ 					"diskmanager.hashchecking.nonrotational.max" },
  				param_listener );
     }
     
-	private List		instances		= new ArrayList();
-	private AEMonitor	instance_mon	= new AEMonitor( "DiskManagerRecheckScheduler" );
+	private List<DiskManagerRecheckInstance>	instances		= new ArrayList<DiskManagerRecheckInstance>();
+	private AEMonitor							instance_mon	= new AEMonitor( "DiskManagerRecheckScheduler" );
 	
+	private Map<String,Device>	devices	= new HashMap<String,Device>();
+	
+	private volatile boolean	paused;
 	
 	public DiskManagerRecheckInstance
 	register(
 		DiskManagerHelper	helper,
 		boolean				low_priority )
 	{
+		Device	device = getDevice( helper.getSaveLocation());
+		
 		try{
 			instance_mon.enter();
 			
@@ -74,37 +98,13 @@ DiskManagerRecheckScheduler
 						this, 
 						helper.getTorrent().getSize(),
 						(int)helper.getTorrent().getPieceLength(),
+						helper.getTorrent().getNumberOfPieces(),
+						device,
 						low_priority );
 			
 			instances.add( res );
 			
-			if ( smallest_first ){
-				
-				Collections.sort(
-						instances,
-						new Comparator()
-						{
-							public int
-							compare(
-								Object	o1,
-								Object	o2 )
-							{
-								long	comp = ((DiskManagerRecheckInstance)o1).getMetric() - ((DiskManagerRecheckInstance)o2).getMetric();
-								
-								if ( comp < 0 ){
-									
-									return( -1 );
-									
-								}else if ( comp == 0 ){
-									
-									return( 0 );
-									
-								}else{
-									return( 1 );
-								}
-							}
-						});
-			}
+			sort();
 			
 			return( res );
 			
@@ -114,6 +114,97 @@ DiskManagerRecheckScheduler
 		}
 	}
 	
+		/**
+		 * Pauses or resumes all the rechecks, the ones running wait before their next piece
+		 */
+	
+	public void
+	setPaused(
+		boolean		_paused )
+	{
+		paused	= _paused;
+	}
+	
+	public boolean
+	isPaused()
+	{
+		return( paused );
+	}
+	
+	public List<DiskManagerRecheckInstance>
+	getInstances()
+	{
+		try{
+			instance_mon.enter();
+			
+			return( new ArrayList<DiskManagerRecheckInstance>( instances ));
+			
+		}finally{
+			
+			instance_mon.exit();
+		}
+	}
+	
+	protected void
+	setPriority(
+		DiskManagerRecheckInstance	instance,
+		int							priority )
+	{
+		try{
+			instance_mon.enter();
+			
+			instance.setPrioritySupport( priority );
+			
+			sort();
+			
+		}finally{
+			
+			instance_mon.exit();
+		}
+	}
+	
+	private void
+	sort()
+	{
+		Collections.sort(
+				instances,
+				new Comparator<DiskManagerRecheckInstance>()
+				{
+					public int
+					compare(
+						DiskManagerRecheckInstance	i1,
+						DiskManagerRecheckInstance	i2 )
+					{
+						int	p1 = i1.getPriority();
+						int	p2 = i2.getPriority();
+						
+						if ( p1 != p2 ){
+							
+							return( p1 > p2?-1:1 );
+						}
+						
+						if ( !smallest_first ){
+							
+							return( 0 );	// sort is stable, keeps the order of registration
+						}
+						
+						long	comp = i1.getMetric() - i2.getMetric();
+						
+						if ( comp < 0 ){
+							
+							return( -1 );
+							
+						}else if ( comp == 0 ){
+							
+							return( 0 );
+							
+						}else{
+							return( 1 );
+						}
+					}
+				});
+	}
+	
 	protected boolean
 	getPermission(
 		DiskManagerRecheckInstance	instance )
@@ -124,7 +215,7 @@ DiskManagerRecheckScheduler
 		try{
 			instance_mon.enter();
 
-			if ( instances.get(0) == instance ){
+			if ( !paused && !instance.isPaused() && isRunnable( instance )){
 					    
 				boolean	low_priority = instance.isLowPriority();
 				
@@ -140,6 +231,10 @@ DiskManagerRecheckScheduler
 		            	
 		            	delay	= 0;	// delay introduced elsewhere
 		            	
+		            }else if ( !instance.getDevice().isRotational()){
+		            	
+		            	delay	= 0;	// no seeks to make room for
+		            	
 		            }else if ( !low_priority ){
 		            	
 		            	delay	= 1;	// high priority recheck, just a smidge of a delay
@@ -156,6 +251,8 @@ DiskManagerRecheckScheduler
 		            	delay = Math.max( delay, 12 );
 	  				}
 					
+		            instance.pieceGranted();
+		            
 		            result	= true;
 				}
 			}
@@ -177,6 +274,39 @@ DiskManagerRecheckScheduler
 		return( result );
 	}
 	
+		/**
+		 * the instance is among the first of its device that aren't paused
+		 */
+	
+	private boolean
+	isRunnable(
+		DiskManagerRecheckInstance	instance )
+	{
+		Device	device = instance.getDevice();
+		
+		int	allowed = device.isRotational()?1:non_rotational_max;
+		
+		for ( DiskManagerRecheckInstance i: instances ){
+			
+			if ( i == instance ){
+				
+				return( true );
+			}
+			
+			if ( i.getDevice() == device && !i.isPaused()){
+				
+				allowed--;
+				
+				if ( allowed == 0 ){
+					
+					return( false );
+				}
+			}
+		}
+		
+		return( false );
+	}
+	
 	protected void
 	unregister(
 		DiskManagerRecheckInstance	instance )
@@ -190,4 +320,129 @@ DiskManagerRecheckScheduler
 			instance_mon.exit();
 		}	
 	}
+	
+	private Device
+	getDevice(
+		File		location )
+	{
+		try{
+			File	f = location;
+			
+			while( f != null && !f.exists()){
+				
+				f = f.getParentFile();
+			}
+			
+			if ( f == null ){
+				
+				return( UNKNOWN_DEVICE );
+			}
+			
+			FileStore	store = Files.getFileStore( f.toPath());
+			
+			String	name = store.name();
+			
+			try{
+				instance_mon.enter();
+				
+				Device	device = devices.get( name );
+				
+				if ( device != null ){
+					
+					return( device );
+				}
+			}finally{
+				
+				instance_mon.exit();
+			}
+			
+			Device	device = new Device( name, isRotational( name ));
+			
+			try{
+				instance_mon.enter();
+				
+				devices.put( name, device );
+				
+			}finally{
+				
+				instance_mon.exit();
+			}
+			
+			return( device );
+			
+		}catch( Throwable e ){
+			
+			return( UNKNOWN_DEVICE );
+		}
+	}
+	
+		/**
+		 * Only Linux tells us, everything else is treated as a spinning disk
+		 */
+	
+	private static boolean
+	isRotational(
+		String		store_name )
+	{
+		if ( !Constants.isLinux || !store_name.startsWith( "/dev/" )){
+			
+			return( true );
+		}
+		
+		try{
+				// resolves /dev/mapper links to dm-N, partitions live under their disk
+			
+			String	dev = new File( store_name ).getCanonicalFile().getName();
+			
+			File	sys = new File( "/sys/class/block", dev ).getCanonicalFile();
+			
+			File	flag = new File( sys, "queue/rotational" );
+			
+			if ( !flag.exists()){
+				
+				flag = new File( sys.getParentFile(), "queue/rotational" );
+			}
+			
+			BufferedReader	reader = new BufferedReader( new FileReader( flag ));
+			
+			try{
+				return( !"0".equals( reader.readLine()));
+				
+			}finally{
+				
+				reader.close();
+			}
+		}catch( Throwable e ){
+			
+			return( true );
+		}
+	}
+	
+	protected static class
+	Device
+	{
+		private final String	name;
+		private final boolean	rotational;
+		
+		private
+		Device(
+			String		_name,
+			boolean		_rotational )
+		{
+			name		= _name;
+			rotational	= _rotational;
+		}
+		
+		protected String
+		getName()
+		{
+			return( name );
+		}
+		
+		protected boolean
+		isRotational()
+		{
+			return( rotational );
+		}
+	}
 }
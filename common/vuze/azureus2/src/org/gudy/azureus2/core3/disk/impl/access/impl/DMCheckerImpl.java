@@ -307,7 +307,7 @@ DMCheckerImpl
 		  				
 		  				int	checks_submitted	= 0;
 		  				           
-			            final AESemaphore	 run_sem = new AESemaphore( "DMChecker::completeRecheck:runsem", 2 );
+			            final AESemaphore	 run_sem = new AESemaphore( "DMChecker::completeRecheck:runsem", recheck_inst.getMaxPending());
 			            
 			            int nbPieces = disk_manager.getNbPieces();
 			            
@@ -155,6 +155,7 @@ DownloadManagerStateImpl
 	
 	private static Map					global_state_cache			= new HashMap();
 	private static ArrayList			global_state_cache_wrappers	= new ArrayList();
+	private static boolean				global_state_cache_stamped;
 	
 	private DownloadManagerImpl			download_manager;
 	
@@ -298,13 +299,39 @@ DownloadManagerStateImpl
 			if ( saved_file.exists()){
 				
 				try{
-					Map	cached_state = (Map)global_state_cache.remove( new HashWrapper( torrent_hash ));
+						// the downloads can be loaded by several threads at startup
+					
+					Map	cached_state;
+					
+					try{
+						class_mon.enter();
+					
+						cached_state = (Map)global_state_cache.remove( new HashWrapper( torrent_hash ));
+						
+						if ( cached_state != null && global_state_cache_stamped && !isCurrent( cached_state, saved_file )){
+							
+								// the state has been written since, e.g. the cache outlived a crash
+							
+							cached_state = null;
+						}
+					}finally{
+						
+						class_mon.exit();
+					}
 					
 					if ( cached_state != null ){
 						
 						CachedStateWrapper wrapper = new CachedStateWrapper( download_manager, torrent_file, torrent_hash, cached_state, inactive );
 						
-						global_state_cache_wrappers.add( wrapper );
+						try{
+							class_mon.enter();
+						
+							global_state_cache_wrappers.add( wrapper );
+							
+						}finally{
+							
+							class_mon.exit();
+						}
 						
 						saved_state	= wrapper;
 						
@@ -371,6 +398,22 @@ DownloadManagerStateImpl
 		return( new File( ACTIVE_DIR, ByteFormatter.encodeString( torrent_hash ) + ".dat" ));
 	}
 	
+		/**
+		 * Entries of a stamped cache are only used if the state file is still the one they were taken from
+		 */
+	
+	private static boolean
+	isCurrent(
+		Map		cached_state,
+		File	state_file )
+	{
+		Long	len 	= (Long)cached_state.get( "dat_len" );
+		Long	time	= (Long)cached_state.get( "dat_time" );
+		
+		return( len != null && time != null && 
+				state_file.length() == len.longValue() && state_file.lastModified() == time.longValue());
+	}
+	
 	protected static File
 	getGlobalStateFile()
 	{
@@ -395,6 +438,8 @@ DownloadManagerStateImpl
 				
 				Map	map = BDecoder.decode( is );
 				
+				global_state_cache_stamped = map.get( "ver" ) != null;
+				
 				List	cache = (List)map.get( "state" );
 				
 				if ( cache != null ){
@@ -441,6 +486,7 @@ DownloadManagerStateImpl
 			
 			List	cache = new ArrayList();
 			
+			map.put( "ver", new Long( 1 ));
 			map.put( "state", cache );
 
 			Iterator	it = state_map.values().iterator();
@@ -469,7 +515,7 @@ DownloadManagerStateImpl
 			
 			try{
 				
-				os.write( BEncoder.encode( map ));
+				BEncoder.encode( map, os );
 				
 				os.close();
 				
@@ -498,7 +544,14 @@ DownloadManagerStateImpl
 	public static void
 	discardGlobalStateCache()
 	{
-		getGlobalStateFile().delete();
+			// a stamped cache stays valid entry by entry so keep it for a start after a crash
+		
+		if ( !global_state_cache_stamped ){
+		
+			getGlobalStateFile().delete();
+		}
+		
+		global_state_cache.clear();
 		
 		for ( int i=0;i<global_state_cache_wrappers.size();i++){
 			
@@ -3205,6 +3258,12 @@ DownloadManagerStateImpl
 			TOTorrent	state = dms.getTorrent();
 			
 			cache.put( "hash", state.getHash());
+			
+			File	state_file = getStateFile( state.getHash());
+			
+			cache.put( "dat_len", new Long( state_file.length()));
+			cache.put( "dat_time", new Long( state_file.lastModified()));
+			
 			cache.put( "name", state.getName());
 			cache.put( "utf8name", state.getUTF8Name() == null ? "" : state.getUTF8Name());
 			cache.put( "comment", state.getComment());
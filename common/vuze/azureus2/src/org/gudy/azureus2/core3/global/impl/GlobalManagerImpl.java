@@ -32,6 +32,8 @@ import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.gudy.azureus2.core3.category.Category;
 import org.gudy.azureus2.core3.category.CategoryManager;
@@ -196,8 +198,8 @@ public class GlobalManagerImpl
 	private GlobalManagerStatsWriter 	stats_writer;
 	private GlobalManagerHostSupport	host_support;
   
-		// for non-persistent downloads
-	private Map<HashWrapper,Map>							saved_download_manager_state	= new HashMap<HashWrapper,Map>();
+		// for non-persistent downloads, filled by the loader threads at startup
+	private Map<HashWrapper,Map>							saved_download_manager_state	= new ConcurrentHashMap<HashWrapper,Map>();
 	
 	
 	private int							next_seed_piece_recheck_index;
@@ -1974,18 +1976,61 @@ public class GlobalManagerImpl
 					  iter = downloads.iterator();
 					  nbDownloads = downloads.size();
 				  }
-				  int currentDownload = 0;
+				  int load_threads = COConfigurationManager.getIntParameter( "globalmanager.load.threads" );
+				  
+				  if ( load_threads <= 0 ){
+					  
+					  load_threads = Math.min( 4, Runtime.getRuntime().availableProcessors());
+				  }
+				  
+				  List<Map> download_maps = new ArrayList<Map>( nbDownloads );
+				  
 				  while (iter.hasNext()) {
-					  currentDownload++;        
-					  Map mDownload = (Map) iter.next();
+					  download_maps.add((Map)iter.next());
+				  }
+				  
+				  	// the download managers are built by a few threads ahead of us as reading the torrent
+				  	// and its state is most of the time, they are still added one by one in order
+				  
+				  DownloadManager[] prepared = null;
+				  AESemaphore[]		prepared_sems = null;
+				  
+				  if ( load_threads > 1 && nbDownloads >= 2*load_threads ){
+					  
+					  prepared		= new DownloadManager[nbDownloads];
+					  prepared_sems	= new AESemaphore[nbDownloads];
 					  
-					  DownloadManager dm = 
-						  loadDownload( 
-								  mDownload,
-								  currentDownload,
-								  nbDownloads, 
-								  progress_listener,
-								  debug );
+					  for ( int i=0;i<nbDownloads;i++ ){
+						  prepared_sems[i] = new AESemaphore( "GM:load" );
+					  }
+					  
+					  startLoaders( download_maps, prepared, prepared_sems, load_threads, debug );
+				  }
+				  
+				  for ( int i=0;i<nbDownloads;i++ ){
+					  Map mDownload = download_maps.get( i );
+					  
+					  DownloadManager dm;
+					  
+					  if ( prepared == null ){
+						  
+						  dm = loadDownload( mDownload, i+1, nbDownloads, progress_listener, debug );
+						  
+					  }else{
+						  
+						  reportLoadProgress( mDownload, i+1, nbDownloads, progress_listener );
+						  
+						  prepared_sems[i].reserve();
+						  
+						  dm = prepared[i];
+						  
+						  prepared[i] = null;
+						  
+						  if ( dm != null && addDownloadManager( dm, false, false ) != dm ){
+							  
+							  dm = null;
+						  }
+					  }
 					  
 					  if ( dm != null ){
 						  
@@ -2059,6 +2104,45 @@ public class GlobalManagerImpl
 	  }
   }
   
+  private void
+  startLoaders(
+	final List<Map>				download_maps,
+	final DownloadManager[]		prepared,
+	final AESemaphore[]			prepared_sems,
+	int							load_threads,
+	final boolean				debug )
+  {
+	  final AtomicInteger next = new AtomicInteger();
+	  
+	  for ( int i=0;i<load_threads;i++ ){
+		  
+		  new AEThread2( "GM:loader", true )
+		  {
+			  public void
+			  run()
+			  {
+				  while( true ){
+					  
+					  int index = next.getAndIncrement();
+					  
+					  if ( index >= prepared.length ){
+						  
+						  break;
+					  }
+					  
+					  try{
+						  prepared[index] = createDownload( download_maps.get( index ), debug );
+						  
+					  }finally{
+						  
+						  prepared_sems[index].release();
+					  }
+				  }
+			  }
+		  }.start();
+	  }
+  }
+  
   private void triggerAddListener(List downloadsToAdd) {
 		try {
 			managers_mon.enter();
@@ -2174,6 +2258,55 @@ public class GlobalManagerImpl
 	int								nbDownloads,
 	GlobalMangerProgressListener	progress_listener,
 	boolean							debug )
+  {
+	  reportLoadProgress( mDownload, currentDownload, nbDownloads, progress_listener );
+	  
+	  DownloadManager dm = createDownload( mDownload, debug );
+	  
+	  if ( dm != null && addDownloadManager( dm, false, false ) == dm ){
+		  
+		  return( dm );
+	  }
+	  
+	  return( null );
+  }
+  
+  private void
+  reportLoadProgress(
+	Map 							mDownload,
+	int								currentDownload,
+	int								nbDownloads,
+	GlobalMangerProgressListener	progress_listener )
+  {
+	  if ( progress_listener != null &&  SystemTime.getCurrentTime() - lastListenerUpdate > 100) {
+		  lastListenerUpdate = SystemTime.getCurrentTime();
+
+		  String shortFileName;
+		  try {
+			  String fileName = new String((byte[]) mDownload.get("torrent"), Constants.DEFAULT_ENCODING);
+			  
+			  shortFileName = new File(fileName).getName();
+		  } catch (Exception e) {
+			  shortFileName = "";
+		  }
+
+		  progress_listener.reportPercent(100 * currentDownload / nbDownloads);
+		  progress_listener.reportCurrentTask(MessageText.getString("splash.loadingTorrent") 
+				  + " " + currentDownload + " "
+				  + MessageText.getString("splash.of") + " " + nbDownloads
+				  + " : " + shortFileName );
+	  }
+  }
+  
+  	/**
+  	 * Builds the download manager from its saved map without adding it, 
+  	 * safe to call from several threads at once while loading
+  	 */
+  
+  private DownloadManager
+  createDownload(
+	Map 							mDownload,
+	boolean							debug )
   {
 	  try {
 		  byte[]	torrent_hash = (byte[])mDownload.get( "torrent_hash" );
@@ -2185,24 +2318,6 @@ public class GlobalManagerImpl
 
 		  String fileName = new String((byte[]) mDownload.get("torrent"), Constants.DEFAULT_ENCODING);
 
-		  if ( progress_listener != null &&  SystemTime.getCurrentTime() - lastListenerUpdate > 100) {
-			  lastListenerUpdate = SystemTime.getCurrentTime();
-
-			  String shortFileName = fileName;
-			  try {
-				  File f = new File(fileName);
-				  shortFileName = f.getName();
-			  } catch (Exception e) {
-				// TODO: handle exception
-			}
-			  
-			  progress_listener.reportPercent(100 * currentDownload / nbDownloads);
-			  progress_listener.reportCurrentTask(MessageText.getString("splash.loadingTorrent") 
-					  + " " + currentDownload + " "
-					  + MessageText.getString("splash.of") + " " + nbDownloads
-					  + " : " + shortFileName );
-		  }
-
 		  //migration from using a single savePath to a separate dir and file entry
 		  String	torrent_save_dir;
 		  String	torrent_save_file;
@@ -2273,15 +2388,10 @@ public class GlobalManagerImpl
 
 			  List file_priorities = (List) mDownload.get("file_priorities");
 
-			  final DownloadManager dm = 
+			  return( 
 				  DownloadManagerFactory.create(
 						  this, torrent_hash, fileName, torrent_save_dir, torrent_save_file, 
-						  state, true, true, has_ever_been_started, file_priorities );
-
-			  if ( addDownloadManager( dm, false, false ) == dm ){
-				  
-				  return( dm );
-			  }
+						  state, true, true, has_ever_been_started, file_priorities ));
 		  }
 	  }
 	  catch (UnsupportedEncodingException e1) {
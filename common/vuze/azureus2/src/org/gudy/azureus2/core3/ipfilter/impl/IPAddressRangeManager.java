@@ -45,12 +45,13 @@ IPAddressRangeManager
 
 	protected ArrayList entries = new ArrayList();
 	
-	protected long		total_span;
+	protected volatile boolean	rebuild_required;
+	protected long				last_rebuild_time;
 	
-	protected boolean	rebuild_required;
-	protected long		last_rebuild_time;
+		// lookups read whatever snapshot is current without locking, a rebuild
+		// makes a new one and swaps it in
 	
-	protected IpRange[] mergedRanges = new IpRange[0];
+	protected volatile RangeSnapshot	snapshot = RangeSnapshot.EMPTY;
 	
 	protected AEMonitor	this_mon	= new AEMonitor( "IPAddressRangeManager" );
 
@@ -97,166 +98,59 @@ IPAddressRangeManager
 	isInRange(
 		String	ip )
 	{
+		checkRebuild();
+		
+		RangeSnapshot	s = snapshot;
+		
 			// optimise for pretty normal case where there are no ranges
 		
-		if ( entries.size() == 0 ){
+		if ( s.size() == 0 ){
 			
 			return( null );
 		}
 		
-		try{
-			this_mon.enter();
-			
-			long address_long = addressToInt( ip );
-			
-			if ( address_long < 0 ){
-				
-				address_long += 0x100000000L;
-			}
-			
-			Object res = isInRange( address_long );
-			
-			// LGLogger.log( "IPAddressRangeManager: checking '" + ip + "' against " + entries.size() + "/" + merged_entries.length + " -> " + res );
-			
-			return( res );
-						
-		}finally{
+		long address_long = addressToInt( ip );
+		
+		if ( address_long < 0 ){
 			
-			this_mon.exit();
+			address_long += 0x100000000L;
 		}
+		
+		return( s.lookup( address_long ));
 	}
 	
 	public Object
 	isInRange(
 		InetAddress	ip )
 	{
+		checkRebuild();
+		
+		RangeSnapshot	s = snapshot;
+		
 			// optimise for pretty normal case where there are no ranges
 		
-		if ( entries.size() == 0 ){
+		if ( s.size() == 0 ){
 			
 			return( null );
 		}
 		
-		try{
-			this_mon.enter();
-			
-			long address_long = addressToInt( ip );
-			
-			if ( address_long < 0 ){
-				
-				address_long += 0x100000000L;
-			}
-			
-			Object res = isInRange( address_long );
-			
-			// LGLogger.log( "IPAddressRangeManager: checking '" + ip + "' against " + entries.size() + "/" + merged_entries.length + " -> " + res );
-			
-			return( res );
-						
-		}finally{
+		long address_long = addressToInt( ip );
+		
+		if ( address_long < 0 ){
 			
-			this_mon.exit();
+			address_long += 0x100000000L;
 		}
+		
+		return( s.lookup( address_long ));
 	}
 	
 	protected Object
 	isInRange(
 		long	address_long )
 	{
-		try{
-			this_mon.enter();
-			
-			checkRebuild();
-			
-			if ( mergedRanges.length == 0 ){
-				
-				return( null );
-			}
-				
-				// assisted binary chop 
-			
-			int	bottom 	= 0;
-			int	top		= mergedRanges.length-1;
-			
-			int	current	= -1;
-			
-			while( top >= 0 && bottom < mergedRanges.length && bottom <= top){
-				
-				current = (bottom+top)/2;
-				
-				IpRange	e = mergedRanges[current];
-				
-				long	this_start 	= e.getStartIpLong();
-				long 	this_end	= e.getMergedEndLong();
-				
-				if ( address_long == this_start ){
-					
-					break;
-					
-				}else if ( address_long > this_start ){
-					
-					if ( address_long <= this_end ){
-						
-						break;
-					}
-					
-						// lies to the right of this entry
-					
-					bottom	= current + 1;
-					
-				}else if ( address_long == this_end ){
-					
-					break;
-					
-				}else{
-					// < this_end
-					
-					if ( address_long >= this_start ){
-						
-						break;
-					}
-					
-					top = current - 1;
-				}
-			}
-			
-			if ( top >= 0 && bottom < mergedRanges.length && bottom <= top ){
-	
-				IpRange	e = mergedRanges[current];
-			
-				if ( address_long <= e.getEndIpLong()){
-					
-					return( e );
-				}
-				
-				IpRange[]	merged = e.getMergedEntries();
-				
-				if ( merged == null ){
-					
-					Debug.out( "IPAddressRangeManager: inconsistent merged details - no entries" );
-					
-					return( null );
-				}
-				
-				for (int i=0;i<merged.length;i++){
-					
-					IpRange	me = merged[i];
-					
-					if ( me.getStartIpLong() <= address_long && me.getEndIpLong() >= address_long ){
-						
-						return( me );
-					}
-				}
-				
-				Debug.out( "IPAddressRangeManager: inconsistent merged details - entry not found" );
-			}
-			
-			return( null );
-			
-		}finally{
-			
-			this_mon.exit();
-		}
+		checkRebuild();
+		
+		return( snapshot.lookup( address_long ));
 	}
 	
 	protected int
@@ -282,6 +176,11 @@ IPAddressRangeManager
 	protected void
 	checkRebuild()
 	{
+		if ( !rebuild_required ){
+			
+			return;
+		}
+		
 		try{
 			this_mon.enter();
 		
@@ -303,6 +202,9 @@ IPAddressRangeManager
 					
 					rebuild_required	= false;
 				
+						// other threads keep checking against the old snapshot
+						// meanwhile, only changes wait for the monitor
+					
 					rebuild();
 				}
 			}
@@ -323,131 +225,20 @@ IPAddressRangeManager
 		
 		entries.toArray(ents);
 		
-		for (int i=0;i<ents.length;i++){
-			
-			ents[i].resetMergeInfo();
-		}
-		
-			// sort based on start address
-		
-		Arrays.sort( 
-			ents,
-			new Comparator<IpRange>()
-			{
-				public int 
-				compare(
-					IpRange e1, 
-					IpRange e2 )
-				{	
-					long diff = e1.getStartIpLong() - e2.getStartIpLong();
-					
-					if (diff == 0) {
-						
-						diff = e2.getEndIpLong() - e1.getEndIpLong();
-					}
-
-					return signum(diff);
-				}
-			});
-		
-			// now merge overlapping ranges
-		
-		List me = new ArrayList( ents.length );
-		
-		for (int i=0;i<ents.length;i++){
-			
-			IpRange	entry = ents[i];
-			
-			if ( entry.getMerged()){
-				
-				continue;
-			}
-			
-			me.add( entry );
-			
-			int	pos = i+1;
-			
-			while( pos < ents.length ){
-				
-				long	end_pos = entry.getMergedEndLong();
-				
-				IpRange	e2 = ents[pos++];
-				
-				if (!e2.getMerged()){
-					
-					if ( end_pos >= e2.getStartIpLong()){
-						
-						e2.setMerged();
-						
-						if ( e2.getEndIpLong() > end_pos ){
-							
-							entry.setMergedEnd( e2.getEndIpLong() );
-							
-							entry.addMergedEntry( e2 );
-						}
-					}else{
-						
-						break;
-					}	
-				}
-			}
-		}
-		
-		/*
-		for (int i=0;i<ents.length;i++){
-			
-			entry	e = ents[i];
-			
-			System.out.println( Long.toHexString(e.getStart()) + " - " + Long.toHexString(e.getEnd()) + ": " + e.getMerged() + "/" + Long.toHexString(e.getMergedEnd()));
-		}
-		*/
-		
-		mergedRanges = new IpRange[me.size()];
-		
-		me.toArray( mergedRanges );
-		
-		total_span	= 0;
-		
-		for (int i=0;i<mergedRanges.length;i++){
-			
-			IpRange	e = mergedRanges[i];
-			
-				// span is inclusive
-			
-			long	span = ( e.getMergedEndLong() - e.getStartIpLong()) + 1;
-			
-			total_span	+= span;
-		}
-			//	System.out.println( "non_merged = " + merged_entries.length );
+		snapshot = RangeSnapshot.build( ents );
 		
 		if (Logger.isEnabled())
 			Logger.log(new LogEvent(LOGID, "IPAddressRangeManager: rebuilding "
 					+ entries.size() + " entries ends"));
 
 	}
-	
-	/**
-	 * @param diff
-	 * @return
-	 */
-	protected int signum(long diff) {
-		if (diff > 0) {
-			return 1;
-		}
-		
-		if (diff < 0) {
-			return -1;
-		}
-
-		return 0;
-	}
 
 	protected long
 	getTotalSpan()
 	{
 		checkRebuild();
 		
-		return( total_span );
+		return( snapshot.getTotalSpan());
 	}
 	
 	
@@ -577,4 +368,174 @@ IPAddressRangeManager
 			this_mon.exit();
 		}
 	}
+	
+		/**
+		 * An immutable, searchable copy of the ranges: the start and end addresses
+		 * are kept in sorted int arrays, offset by 2^31 so that they compare as
+		 * unsigned, next to the range they come from.
+		 * <p>
+		 * Only the ranges that reach further than all the ones starting before
+		 * them are kept. Both arrays are then strictly increasing and an address
+		 * is in a range if it is in the last one starting at or before it, any
+		 * range that is dropped lies inside one that is kept.
+		 */
+	
+	protected static final class
+	RangeSnapshot
+	{
+		static final RangeSnapshot	EMPTY = new RangeSnapshot( new int[0], new int[0], new IpRange[0], 0 );
+		
+		private final int[]		starts;
+		private final int[]		ends;
+		private final IpRange[]	ranges;
+		
+		private final long		total_span;
+		
+		private
+		RangeSnapshot(
+			int[]		_starts,
+			int[]		_ends,
+			IpRange[]	_ranges,
+			long		_total_span )
+		{
+			starts		= _starts;
+			ends		= _ends;
+			ranges		= _ranges;
+			total_span	= _total_span;
+		}
+		
+		protected static RangeSnapshot
+		build(
+			IpRange[]	ents )
+		{
+				// sort on the start address, the low half of the key gives the entry
+			
+			long[]	keys = new long[ents.length];
+			
+			int	num = 0;
+			
+			for (int i=0;i<ents.length;i++){
+				
+				IpRange	e = ents[i];
+				
+				long	start	= e.getStartIpLong();
+				long	end		= e.getEndIpLong();
+				
+				if ( start < 0 || end < start ){
+					
+					continue;
+				}
+				
+				keys[num++] = ((long)bias( start ) << 32 ) | i;
+			}
+			
+			Arrays.sort( keys, 0, num );
+			
+			int[]		starts	= new int[num];
+			int[]		ends	= new int[num];
+			IpRange[]	ranges	= new IpRange[num];
+			
+			int		kept		= 0;
+			long	max_end		= -1;
+			long	total_span	= 0;
+			
+			for (int i=0;i<num;i++){
+				
+				IpRange	e = ents[(int)keys[i]];
+				
+				int		start	= (int)( keys[i] >> 32 );
+				long	end		= e.getEndIpLong();
+				
+				if ( end <= max_end ){
+					
+						// inside the range that got to max_end
+					
+					continue;
+				}
+				
+					// span is inclusive and only counts addresses once
+				
+				total_span += end - Math.max( max_end + 1, e.getStartIpLong()) + 1;
+				
+				if ( kept > 0 && starts[kept-1] == start ){
+					
+						// same start, this one covers the previous one
+					
+					kept--;
+				}
+				
+				starts[kept]	= start;
+				ends[kept]		= bias( end );
+				ranges[kept]	= e;
+				
+				kept++;
+				
+				max_end = end;
+			}
+			
+			if ( kept < num ){
+				
+				starts	= Arrays.copyOf( starts, kept );
+				ends	= Arrays.copyOf( ends, kept );
+				ranges	= Arrays.copyOf( ranges, kept );
+			}
+			
+			return( new RangeSnapshot( starts, ends, ranges, total_span ));
+		}
+		
+		protected int
+		size()
+		{
+			return( ranges.length );
+		}
+		
+		protected long
+		getTotalSpan()
+		{
+			return( total_span );
+		}
+		
+		protected IpRange
+		lookup(
+			long	address_long )
+		{
+			int	address = bias( address_long );
+			
+				// find the last range starting at or before the address
+			
+			int	bottom	= 0;
+			int	top		= starts.length - 1;
+			
+			int	found	= -1;
+			
+			while( bottom <= top ){
+				
+				int	current = ( bottom + top ) >>> 1;
+				
+				if ( starts[current] <= address ){
+					
+					found	= current;
+					bottom	= current + 1;
+					
+				}else{
+					
+					top = current - 1;
+				}
+			}
+			
+			if ( found >= 0 && address <= ends[found] ){
+				
+				return( ranges[found] );
+			}
+			
+			return( null );
+		}
+		
+		private static int
+		bias(
+			long	address_long )
+		{
+			return((int)( address_long + Integer.MIN_VALUE ));
+		}
+	}
 }
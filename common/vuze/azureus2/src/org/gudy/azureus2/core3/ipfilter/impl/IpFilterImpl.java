@@ -30,6 +30,7 @@ import java.io.*;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.gudy.azureus2.core3.config.COConfigurationManager;
 import org.gudy.azureus2.core3.config.ParameterListener;
@@ -57,6 +58,8 @@ IpFilterImpl
  
 	private IPAddressRangeManager	range_manager = new IPAddressRangeManager();
 	
+		// changed under class_mon, read without it when checking connections
+	
 	private Map			bannedIps;
 	 
     //Map ip blocked -> matching range
@@ -115,7 +118,7 @@ IpFilterImpl
 	{
 	  ipFilter = this;
 	  
-	  bannedIps = new HashMap();
+	  bannedIps = new ConcurrentHashMap();
 	  
 	  ipsBlocked = new LinkedList();
 	  
@@ -805,38 +808,22 @@ IpFilterImpl
 	isBanned(
 		InetAddress ipAddress) 
 	{
-	  try{
-	  	class_mon.enter();
-	  
 		int	address = range_manager.addressToInt( ipAddress );
 		
 		Integer	i_address = new Integer( address );
 		
 	    return( bannedIps.get(i_address) != null );
-	    
-	  }finally{
-	  	
-	  	class_mon.exit();
-	  }
 	}
 	
 	private boolean 
 	isBanned(
 		String ipAddress) 
 	{
-	  try{
-	  	class_mon.enter();
-	  
 		int	address = range_manager.addressToInt( ipAddress );
 		
 		Integer	i_address = new Integer( address );
 		
 	    return( bannedIps.get(i_address) != null );
-	    
-	  }finally{
-	  	
-	  	class_mon.exit();
-	  }
 	}
   
 	public boolean
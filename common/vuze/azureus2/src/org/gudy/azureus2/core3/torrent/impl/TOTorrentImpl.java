@@ -151,7 +151,7 @@ TOTorrentImpl
 			TorrentUtils.addCreatedTorrent( this );
 		}
 		
-		byte[]	res = serialiseToByteArray();
+		Map	root = serialiseToMap();
 						
         BufferedOutputStream bos = null;
 						
@@ -226,7 +226,9 @@ TOTorrentImpl
 			
             bos = new BufferedOutputStream( fos, 8192 );
 			
-            bos.write( res );
+            	// streamed so the pieces of a big torrent aren't copied into another array
+            
+            BEncoder.encode( root, bos );
 			
             bos.flush();
 			
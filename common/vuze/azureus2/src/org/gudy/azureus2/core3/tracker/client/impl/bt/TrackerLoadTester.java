@@ -22,12 +22,28 @@
  */
 package org.gudy.azureus2.core3.tracker.client.impl.bt;
 
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.gudy.azureus2.core3.tracker.server.TRTrackerServer;
+import org.gudy.azureus2.core3.tracker.server.TRTrackerServerFactory;
 import org.gudy.azureus2.core3.util.Constants;
 
 /**
+ * Fills a tracker with nbTorrents swarms of nbClientsPerTorrent peers.
+ * <p>
+ * Given a number of threads and a duration it then load tests the tracker: the threads
+ * announce for random peers of random swarms, one in ten of them stopping so that peers
+ * keep leaving and joining, and the announces per second and the latency percentiles
+ * are reported. With "local" as the url a tracker is started in this process.
+ * <p>
+ * Usage: TrackerLoadTester nbTorrents nbClientsPerTorrent [threads seconds [url|local]]
+ * 
  * @author Olivier Chalouhi
  *
  */
@@ -35,42 +51,131 @@ public class TrackerLoadTester {
   
   private static final String trackerUrl = "http://localhost:6969/announce";
   
+  private static final int localPort = 6970;
+  
+  private final String url;
+  private final int nbTorrents;
+  private final int nbClientsPerTorrent;
+  
   public TrackerLoadTester(int nbTorrents,int nbClientsPerTorrent) {
+    this(trackerUrl,nbTorrents,nbClientsPerTorrent);
+  }
+  
+  public TrackerLoadTester(String url,int nbTorrents,int nbClientsPerTorrent) {
+    this.url = url;
+    this.nbTorrents = nbTorrents;
+    this.nbClientsPerTorrent = nbClientsPerTorrent;
     for(int i = 0 ; i < nbTorrents ; i++) {
       byte[] hash = generate20BytesHash(i);
       //System.out.println("Adding torrent " + hash);
       for(int j = 0 ; j < nbClientsPerTorrent ; j++) {
         byte[] peerId = generate20BytesHash(j);
-        announce(trackerUrl,hash,peerId,6881+j);
+        announce(url,hash,peerId,6881+j,null);
       }
     }
   }
      
-  public static void main(String args[]) {
+  public static void main(String args[]) throws Exception {
     if(args.length < 2) return;
     int nbTorrents = Integer.parseInt(args[0]);
     int nbClientsPerTorrent = Integer.parseInt(args[1]);
-    new TrackerLoadTester(nbTorrents,nbClientsPerTorrent);
+    if(args.length < 4) {
+      new TrackerLoadTester(nbTorrents,nbClientsPerTorrent);
+      return;
+    }
+    int nbThreads = Integer.parseInt(args[2]);
+    int seconds = Integer.parseInt(args[3]);
+    String url = args.length > 4 ? args[4] : trackerUrl;
+    if(url.equals("local")) {
+      TRTrackerServer server = TRTrackerServerFactory.create(TRTrackerServerFactory.PR_TCP,localPort,false,false);
+      for(int i = 0 ; i < nbTorrents ; i++) {
+        server.permit("",generate20BytesHash(i),true);
+      }
+      url = "http://127.0.0.1:" + localPort + "/announce";
+    }
+    long start = System.currentTimeMillis();
+    TrackerLoadTester tester = new TrackerLoadTester(url,nbTorrents,nbClientsPerTorrent);
+    System.out.println("filled " + nbTorrents + " torrents of " + nbClientsPerTorrent + " peers in " + (System.currentTimeMillis() - start) + " ms");
+    tester.load(nbThreads,seconds);
+    System.exit(0);
   }
   
-  private void announce(String trackerURL,byte[] hash,byte[] peerId,int port) {
+  public void load(int nbThreads,final int seconds) throws Exception {
+    final long[][] latencies = new long[nbThreads][];
+    final int[] counts = new int[nbThreads];
+    final long end = System.currentTimeMillis() + seconds * 1000L;
+    Thread[] threads = new Thread[nbThreads];
+    for(int t = 0 ; t < nbThreads ; t++) {
+      final int index = t;
+      threads[t] = new Thread("TrackerLoadTester") {
+        public void run() {
+          Random random = new Random(index);
+          long[] times = new long[1024];
+          int count = 0;
+          while(System.currentTimeMillis() < end) {
+            int client = random.nextInt(nbClientsPerTorrent);
+            byte[] hash = generate20BytesHash(random.nextInt(nbTorrents));
+            byte[] peerId = generate20BytesHash(client);
+            long s = System.nanoTime();
+            if(random.nextInt(10) == 0) {
+              // the peer leaves and comes straight back
+              announce(url,hash,peerId,6881+client,"stopped");
+            }
+            announce(url,hash,peerId,6881+client,null);
+            if(count == times.length) {
+              times = Arrays.copyOf(times,count*2);
+            }
+            times[count++] = System.nanoTime() - s;
+          }
+          latencies[index] = times;
+          counts[index] = count;
+        }
+      };
+      threads[t].start();
+    }
+    int total = 0;
+    for(int t = 0 ; t < nbThreads ; t++) {
+      threads[t].join();
+      total += counts[t];
+    }
+    long[] all = new long[total];
+    int pos = 0;
+    for(int t = 0 ; t < nbThreads ; t++) {
+      System.arraycopy(latencies[t],0,all,pos,counts[t]);
+      pos += counts[t];
+    }
+    Arrays.sort(all);
+    if(total == 0) return;
+    System.out.println(String.format("%d threads: %.0f announces/s, latency ms: p50 %.2f, p90 %.2f, p99 %.2f, max %.2f",
+        nbThreads, total / (double) seconds, all[total/2]/1e6, all[total*9/10]/1e6, all[total*99/100]/1e6, all[total-1]/1e6));
+  }
+  
+  private void announce(String trackerURL,byte[] hash,byte[] peerId,int port,String event) {
     try {
       String strUrl = trackerURL 
       	+ "?info_hash=" + URLEncoder.encode(new String(hash, Constants.BYTE_ENCODING), Constants.BYTE_ENCODING).replaceAll("\\+", "%20")
       	+ "&peer_id="   + URLEncoder.encode(new String(peerId, Constants.BYTE_ENCODING), Constants.BYTE_ENCODING).replaceAll("\\+", "%20")
       	+ "&port=" + port
-      	+ "&uploaded=0&downloaded=0&left=0&numwant=50&no_peer_id=1&compact=1";
+      	+ "&uploaded=0&downloaded=0&left=" + (port % 2) + "&numwant=50&no_peer_id=1&compact=1"
+      	+ (event == null ? "" : "&event=" + event);
       //System.out.println(strUrl);
       URL url = new URL(strUrl);
       URLConnection con = url.openConnection();
       con.connect();
-      con.getContent();
+      InputStream is = con.getInputStream();
+      byte[] buffer = new byte[4096];
+      while(is.read(buffer) != -1) {
+      }
+      is.close();
+      if(con instanceof HttpURLConnection && ((HttpURLConnection)con).getResponseCode() != 200) {
+        System.out.println("announce failed: " + ((HttpURLConnection)con).getResponseCode());
+      }
     } catch(Exception e) {
       e.printStackTrace();
     }    
   }
   
-  private byte[] generate20BytesHash(int iter) {
+  private static byte[] generate20BytesHash(int iter) {
     byte[] result = new byte[20];
     int pos = 0;
     while(iter > 0) {
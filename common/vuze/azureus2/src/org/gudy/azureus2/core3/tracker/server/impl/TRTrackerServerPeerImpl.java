@@ -64,6 +64,10 @@ TRTrackerServerPeerImpl
 	private DHTNetworkPosition	network_position;
 	private Object				user_data;
 	
+	private byte[]				compact_bytes;
+	private int					peer_list_index	= -1;
+	private int					selection_mark;
+	
 	protected
 	TRTrackerServerPeerImpl(
 		HashWrapper			_peer_id,
@@ -228,8 +232,9 @@ TRTrackerServerPeerImpl
 	{
 		// default values pending resolution
 		
-		ip_str 		= new String( ip );
-		ip_bytes	= null;
+		ip_str 			= new String( ip );
+		ip_bytes		= null;
+		compact_bytes	= null;
 		
 		HostNameToIPResolver.addResolverRequest( ip_str, this );
 		
@@ -265,6 +270,8 @@ TRTrackerServerPeerImpl
 			ip_str 		= address.getHostAddress();
 			
 			ip_bytes	= address.getAddress();
+			
+			compact_bytes	= null;
 		}
 	}
 	
@@ -357,6 +364,78 @@ TRTrackerServerPeerImpl
 		return( ip_bytes );
 	}
 	
+		/**
+		 * The address and port as sent in a compact announce reply, 6 bytes for IPv4 and
+		 * 18 for IPv6. Built once and reused by every reply until the address or port change,
+		 * null while the address is unresolved
+		 */
+	
+	protected byte[]
+	getCompactBytes()
+	{
+		byte[]	res = compact_bytes;
+		
+		if ( res == null ){
+			
+			byte[]	address = ip_bytes;
+			
+			if ( address == null ){
+				
+				return( null );
+			}
+			
+			int	port = getTCPPort();
+			
+			res = new byte[address.length+2];
+			
+			System.arraycopy( address, 0, res, 0, address.length );
+			
+			res[address.length]		= (byte)(port>>8);
+			res[address.length+1]	= (byte)(port&0xff);
+			
+			compact_bytes = res;
+		}
+		
+		return( res );
+	}
+	
+		/**
+		 * Position in the torrent's peer list, -1 when not in it. Maintained by the torrent
+		 * under its monitor
+		 */
+	
+	protected int
+	getPeerListIndex()
+	{
+		return( peer_list_index );
+	}
+	
+	protected void
+	setPeerListIndex(
+		int		index )
+	{
+		peer_list_index	= index;
+	}
+	
+		/**
+		 * Marks the peer as returned by the announce reply being built, so that random
+		 * selection doesn't return it twice
+		 */
+	
+	protected boolean
+	markSelected(
+		int		mark )
+	{
+		if ( selection_mark == mark ){
+			
+			return( false );
+		}
+		
+		selection_mark	= mark;
+		
+		return( true );
+	}
+	
 	public int
 	getTCPPort()
 	{
@@ -73,10 +73,9 @@ TRTrackerServerTorrentImpl
 	
 	private Map<String,TRTrackerServerPeerImpl>				peer_reuse_map	= new HashMap<String,TRTrackerServerPeerImpl>();
 	
-	private List<TRTrackerServerPeerImpl>					peer_list		= new ArrayList<TRTrackerServerPeerImpl>();
+		// dense, each peer knows its index so removal swaps the last peer into its slot
 	
-	private int				peer_list_hole_count;
-	private boolean			peer_list_compaction_suspended;
+	private ArrayList<TRTrackerServerPeerImpl>				peer_list		= new ArrayList<TRTrackerServerPeerImpl>();
 	
 	private List			biased_peers			= null;
 	private int				min_biased_peers		= 0;
@@ -107,8 +106,7 @@ TRTrackerServerTorrentImpl
 	private boolean			map_size_diff_reported;
 	private boolean			ip_override_limit_exceeded_reported;
 	
-	private byte			duplicate_peer_checker_index	= 0;
-	private byte[]			duplicate_peer_checker			= new byte[0];
+	private int				selection_mark;
 	
 	private URL[]			redirects;
 	
@@ -182,7 +180,7 @@ TRTrackerServerTorrentImpl
 	
 						peer_map.put( peer.getPeerId(), peer );
 						
-						peer_list.add( peer );
+						addToPeerList( peer );
 										
 						peer_reuse_map.put( reuse_key, peer );
 							
@@ -415,7 +413,7 @@ TRTrackerServerTorrentImpl
 					
 					peer_map.put( peer_id, peer );
 					
-					peer_list.add( peer );
+					addToPeerList( peer );
 									
 					peer_reuse_map.put( reuse_key, peer );
 										
@@ -669,56 +667,51 @@ TRTrackerServerTorrentImpl
 					
 					int	to_remove = (seed_retention/20)+1;
 					
-					try{
-						peer_list_compaction_suspended	= true;
+						// remove bad NAT ones in preference to others
 					
-							// remove bad NAT ones in preference to others
+					for (int bad_nat_loop=TRTrackerServerNATChecker.getSingleton().isEnabled()?0:1;bad_nat_loop<2;bad_nat_loop++){
 						
-						for (int bad_nat_loop=TRTrackerServerNATChecker.getSingleton().isEnabled()?0:1;bad_nat_loop<2;bad_nat_loop++){
+						for (int i=0;i<peer_list.size();i++){
 							
-							for (int i=0;i<peer_list.size();i++){
-								
-								TRTrackerServerPeerImpl	this_peer = (TRTrackerServerPeerImpl)peer_list.get(i);
-								
-								if ( this_peer != null && this_peer.isSeed() && !this_peer.isBiased()){
+							TRTrackerServerPeerImpl	this_peer = peer_list.get(i);
 							
-									boolean	bad_nat = this_peer.isNATStatusBad();
+							if ( this_peer.isSeed() && !this_peer.isBiased()){
+						
+								boolean	bad_nat = this_peer.isNATStatusBad();
+								
+								if ( 	( bad_nat_loop == 0 && bad_nat ) ||
+										( bad_nat_loop == 1 )){
 									
-									if ( 	( bad_nat_loop == 0 && bad_nat ) ||
-											( bad_nat_loop == 1 )){
-										
-										if ( USE_LIGHTWEIGHT_SEEDS ){
-																			
-											lightweight_seed_map.put( 
-													this_peer.getPeerId(), 
-													new lightweightSeed( 
-															now, 
-															new_timeout, 
-															this_peer.getUploaded(),
-															this_peer.getNATStatus()));
-										}
+									if ( USE_LIGHTWEIGHT_SEEDS ){
+																		
+										lightweight_seed_map.put( 
+												this_peer.getPeerId(), 
+												new lightweightSeed( 
+														now, 
+														new_timeout, 
+														this_peer.getUploaded(),
+														this_peer.getNATStatus()));
+									}
+									
+									removePeer( this_peer, TRTrackerServerTorrentPeerListener.ET_TOO_MANY_PEERS, null );
+		
+									if ( --to_remove == 0 ){
 										
-										removePeer( this_peer, i, TRTrackerServerTorrentPeerListener.ET_TOO_MANY_PEERS, null );
-			
-										if ( --to_remove == 0 ){
-											
-											break;
-										}
+										break;
 									}
+									
+										// the last peer has been moved into this slot
+									
+									i--;
 								}
 							}
-							
-							if ( to_remove == 0 ){
-								
-								break;
-							}
 						}
-					}finally{
 						
-						peer_list_compaction_suspended	= false;
+						if ( to_remove == 0 ){
+							
+							break;
+						}
 					}
-					
-					checkForPeerListCompaction( false );
 				}
 			}
 			
@@ -870,14 +863,9 @@ TRTrackerServerTorrentImpl
 		
 				TRTrackerServerPeerImpl	pi = (TRTrackerServerPeerImpl)peer;
 			
-				if ( peer_map.containsKey( pi.getPeerId())){
-					
-					int	index = peer_list.indexOf( pi );
-					
-					if ( index != -1 ){
+				if ( peer_map.containsKey( pi.getPeerId()) && pi.getPeerListIndex() != -1 ){
 						
-						removePeer( pi, index, TRTrackerServerTorrentPeerListener.ET_FAILED, null );
-					}
+					removePeer( pi, TRTrackerServerTorrentPeerListener.ET_FAILED, null );
 				}
 			}else{
 				
@@ -901,16 +889,6 @@ TRTrackerServerTorrentImpl
 		TRTrackerServerPeerImpl	peer,
 		int						reason,
 		String					url_parameters )
-	{
-		removePeer( peer, -1, reason, url_parameters );
-	}
-		
-	protected void
-	removePeer(
-		TRTrackerServerPeerImpl	peer,
-		int						peer_list_index,
-		int						reason,
-		String					url_parameters )	// -1 if not known
 	{
 		try{
 			this_mon.enter();
@@ -949,34 +927,11 @@ TRTrackerServerTorrentImpl
 				}
 			}
 			
-			if ( peer_list_index == -1 ){
-				
-				int	peer_index = peer_list.indexOf( peer );
-				
-				if ( peer_index == -1){
-					
-					Debug.out(" TRTrackerServerTorrent::removePeer: peer_list doesn't contain peer");
-				}else{
-					
-					peer_list.set( peer_index, null );
-				}
-			}else{
-				
-				if ( peer_list.get( peer_list_index ) == peer ){
-					
-					peer_list.set( peer_list_index, null );
-					
-				}else{
-					
-					Debug.out(" TRTrackerServerTorrent::removePeer: peer_list doesn't contain peer at index");
+			if ( !removeFromPeerList( peer )){
 					
-				}
+				Debug.out(" TRTrackerServerTorrent::removePeer: peer_list doesn't contain peer");
 			}
 			
-			peer_list_hole_count++;
-				
-			checkForPeerListCompaction( false );
-			
 			try{
 				Object o = peer_reuse_map.remove( new String( peer.getIPAsRead(), Constants.BYTE_ENCODING ) + ":" + peer.getTCPPort());
 			
@@ -1006,6 +961,45 @@ TRTrackerServerTorrentImpl
 		}
 	}
 	
+	protected void
+	addToPeerList(
+		TRTrackerServerPeerImpl	peer )
+	{
+		peer.setPeerListIndex( peer_list.size());
+		
+		peer_list.add( peer );
+	}
+	
+		/**
+		 * Constant time, the last peer takes the slot of the removed one
+		 * @return false if the peer isn't in the list
+		 */
+	
+	protected boolean
+	removeFromPeerList(
+		TRTrackerServerPeerImpl	peer )
+	{
+		int	index = peer.getPeerListIndex();
+		
+		if ( index < 0 || index >= peer_list.size() || peer_list.get( index ) != peer ){
+			
+			return( false );
+		}
+		
+		TRTrackerServerPeerImpl	last = peer_list.remove( peer_list.size() - 1 );
+		
+		if ( last != peer ){
+			
+			peer_list.set( index, last );
+			
+			last.setPeerListIndex( index );
+		}
+		
+		peer.setPeerListIndex( -1 );
+		
+		return( true );
+	}
+	
 	protected void
 	updateBiasedPeers(
 		Set	biased_peers_set )
@@ -1315,15 +1309,19 @@ TRTrackerServerTorrentImpl
 					
 					for (int i=0;i<peer_list.size();i++){
 									
-						TRTrackerServerPeerImpl	peer = (TRTrackerServerPeerImpl)peer_list.get(i);
+						TRTrackerServerPeerImpl	peer = peer_list.get(i);
 										
-						if ( peer == null || peer == requesting_peer ){
+						if ( peer == requesting_peer ){
 													
 						}else if ( now > peer.getTimeout()){
 										
 								// System.out.println( "removing timed out client '" + peer.getString());
 							
-							removePeer( peer, i, TRTrackerServerTorrentPeerListener.ET_TIMEOUT, null );									
+							removePeer( peer, TRTrackerServerTorrentPeerListener.ET_TIMEOUT, null );									
+							
+								// the last peer has been moved into this slot
+							
+							i--;
 							
 						}else if ( peer.getTCPPort() == 0 ){
 							
@@ -1346,309 +1344,131 @@ TRTrackerServerTorrentImpl
 							
 						}else if ( include_seeds || !peer.isSeed()){
 							
-							Map rep_peer = new HashMap(3);
-				
-							if ( send_peer_ids ){
-								
-								rep_peer.put( "peer id", peer.getPeerId().getHash());
-							}
-							
-							if ( compact_mode != COMPACT_MODE_NONE ){
-								
-								byte[]	peer_bytes = peer.getIPAddressBytes();
-								
-								if ( peer_bytes == null ){
-									
-									continue;
-								}
-								
-								rep_peer.put( "ip", peer_bytes );
-								
-								if ( compact_mode >= COMPACT_MODE_AZ ){
-									
-									rep_peer.put( "azver", new Long( peer.getAZVer()));
-									
-									rep_peer.put( "azudp", new Long( peer.getUDPPort()));
-									
-									if ( peer.isSeed()){
-										
-										rep_peer.put( "azhttp", new Long( peer.getHTTPPort()));
-									}
-								
-									if ( compact_mode >= COMPACT_MODE_XML ){
-										
-										rep_peer.put( "ip", peer.getIPAsRead() );
-
-									}else{
-										
-										rep_peer.put( "azup", new Long( peer.getUpSpeed()));
-										
-										if ( peer.isBiased()){
-											
-											rep_peer.put( "azbiased", "" );
-										}
-	
-										if ( network_position != null ){
-											
-											DHTNetworkPosition	peer_pos = peer.getNetworkPosition();
-											
-											if ( peer_pos != null && network_position.getPositionType() == peer_pos.getPositionType()){
-												
-												rep_peer.put( "azrtt", new Long( (long)peer_pos.estimateRTT(network_position )));
-											}
-										}
-									}
-								}
-							}else{
-								
-								rep_peer.put( "ip", peer.getIPAsRead() );
-							}
-							
-							rep_peer.put( "port", new Long( peer.getTCPPort()));
-							
-							if ( crypto_level != TRTrackerServerPeer.CRYPTO_NONE ){
-								
-								rep_peer.put( "crypto_flag", new Long( peer.getCryptoLevel() == TRTrackerServerPeer.CRYPTO_REQUIRED?1:0));
-							}
-							
-							if ( peer.isBiased()){
-								
-								rep_peers.addFirst( rep_peer );
-								
-							}else{
-								
-								rep_peers.addLast( rep_peer );
-							}
+							exportPeer( rep_peers, peer, send_peer_ids, compact_mode, crypto_level, network_position );
 						}
 					}
 				}else{
 					
-					int	peer_list_size	= peer_list.size();
-			
 						// to avoid returning duplicates when doing the two-loop check
-						// for nat selection we maintain an array of markers
+						// for nat selection the chosen peers are marked. Timed out peers
+						// are removed as they are found, moving the last peer into their
+						// slot, so the list size is read each time
 					
-					if ( duplicate_peer_checker.length < peer_list_size ){
-						
-						duplicate_peer_checker	= new byte[peer_list_size*2];
-						
-						duplicate_peer_checker_index	= 1;
-						
-					}else if ( duplicate_peer_checker.length > (peer_list_size*2)){
-						
-						duplicate_peer_checker	= new byte[(3*peer_list_size)/2];
-						
-						duplicate_peer_checker_index	= 1;
-						
-					}else{
-						
-						duplicate_peer_checker_index++;
+					selection_mark++;
+					
+					if ( selection_mark == 0 ){
 						
-						if ( duplicate_peer_checker_index == 0 ){
-							
-							Arrays.fill( duplicate_peer_checker, (byte)0);
-							
-							duplicate_peer_checker_index	= 1;
-						}
+						selection_mark = 1;
 					}
 					
-					boolean	peer_removed	= false;
+						// too costly to randomise as below. use more efficient but slightly less accurate
+						// approach
+					
+						// two pass process if bad nat detection enabled
+				
+					int	added			= 0;
+					//int	bad_nat_added	= 0;
+
+					for (int bad_nat_loop=TRTrackerServerNATChecker.getSingleton().isEnabled()?0:1;bad_nat_loop<2;bad_nat_loop++){
+
+						int	limit 	= num_want*2;	// some entries we find might not be usable
+													// so in the limit search for more
+						
+						if ( num_want*3 > total_peers ){
 							
-					try{
-							// got to suspend peer list compaction as we rely on the
-							// list staying the same size during processing below
+							limit++;
+						}
 						
-						peer_list_compaction_suspended	= true;
-			
-							// too costly to randomise as below. use more efficient but slightly less accurate
-							// approach
+						int	biased_peers_count = 0;
 						
-							// two pass process if bad nat detection enabled
-					
-						int	added			= 0;
-						//int	bad_nat_added	= 0;
-
-						for (int bad_nat_loop=TRTrackerServerNATChecker.getSingleton().isEnabled()?0:1;bad_nat_loop<2;bad_nat_loop++){
-	
-							int	limit 	= num_want*2;	// some entries we find might not be usable
-														// so in the limit search for more
+						if ( biased_peers != null ){ // explicit are additional && explicit_biased_peers == null ){
 							
-							if ( num_want*3 > total_peers ){
+							if ( biased_peers.size() > 1 ){
+												
+									// juggle things a bit
+								
+								Object	x = biased_peers.remove(0);
 								
-								limit++;
+								biased_peers.add( random.nextInt( biased_peers.size() + 1 ), x);
 							}
 							
-							int	biased_peers_count = 0;
+							biased_peers_count = Math.min( min_biased_peers, biased_peers.size());
+						}
+						
+						for (int i=0;i<limit && added < num_want;i++){
+							
+							boolean	biased_up_front;
 							
-							if ( biased_peers != null ){ // explicit are additional && explicit_biased_peers == null ){
+							TRTrackerServerPeerImpl	peer;
+							
+								// deal with bias up front
+							
+							if ( bad_nat_loop == 1 && i < biased_peers_count ){
 								
-								if ( biased_peers.size() > 1 ){
-													
-										// juggle things a bit
+								peer = (TRTrackerServerPeerImpl)biased_peers.get(i);
+								
+								biased_up_front = true;	// not marked, biased peers are never picked at random
+								
+							}else{
+								
+								int	peer_list_size = peer_list.size();
+								
+								if ( peer_list_size == 0 ){
 									
-									Object	x = biased_peers.remove(0);
+									break;
+								}
+								
+								peer = peer_list.get( random.nextInt( peer_list_size ));
+								
+								if ( peer.isBiased()){
 									
-									biased_peers.add( random.nextInt( biased_peers.size() + 1 ), x);
+									continue;
 								}
 								
-								biased_peers_count = Math.min( min_biased_peers, biased_peers.size());
+								biased_up_front = false;
 							}
 							
-							for (int i=0;i<limit && added < num_want;i++){
+							if ( now > peer.getTimeout()){
 								
-								int	peer_index;
+								removePeer( peer, TRTrackerServerTorrentPeerListener.ET_TIMEOUT, null );
 								
-								TRTrackerServerPeerImpl	peer;
+							}else if ( requesting_peer == peer || peer.getTCPPort() == 0 ){
 								
-									// deal with bias up front
-								
-								if ( bad_nat_loop == 1 && i < biased_peers_count ){
-									
-									peer = (TRTrackerServerPeerImpl)biased_peers.get(i);
-									
-									peer_index = -1;	// don't know actual index and don't need to as biased peers processed separately
-									
-								}else{
-									
-									peer_index = random.nextInt(peer_list_size);
-									
-									peer = (TRTrackerServerPeerImpl)peer_list.get(peer_index);
-									
-									if ( peer == null || peer.isBiased()){
-										
-										continue;
-									}
-								}
+									// a port of 0 means that the peer definitely can't accept incoming connections
+						
+							}else if ( crypto_level == TRTrackerServerPeer.CRYPTO_NONE && peer.getCryptoLevel() == TRTrackerServerPeer.CRYPTO_REQUIRED ){
 								
-								if ( now > peer.getTimeout()){
-									
-									removePeer( peer, TRTrackerServerTorrentPeerListener.ET_TIMEOUT, null );
-									
-									peer_removed	= true;
-									
-								}else if ( requesting_peer == peer || peer.getTCPPort() == 0 ){
-									
-										// a port of 0 means that the peer definitely can't accept incoming connections
-							
-								}else if ( crypto_level == TRTrackerServerPeer.CRYPTO_NONE && peer.getCryptoLevel() == TRTrackerServerPeer.CRYPTO_REQUIRED ){
-									
-									// don't return "crypto required" peers to those that can't correctly connect to them
+								// don't return "crypto required" peers to those that can't correctly connect to them
 
-								}else if ( remove_ips != null && remove_ips.contains( new String( peer.getIP()))){
+							}else if ( remove_ips != null && remove_ips.contains( new String( peer.getIP()))){
 
-									// skippy skippy
+								// skippy skippy
 
-								}else if ( include_seeds || !peer.isSeed()){
-							
-									boolean	bad_nat = peer.isNATStatusBad();
+							}else if ( include_seeds || !peer.isSeed()){
+						
+								boolean	bad_nat = peer.isNATStatusBad();
+								
+								if ( 	( bad_nat_loop == 0 && !bad_nat ) ||
+										( bad_nat_loop == 1 )){
 									
-									if ( 	( bad_nat_loop == 0 && !bad_nat ) ||
-											( bad_nat_loop == 1 )){
+									if ( biased_up_front || peer.markSelected( selection_mark )){
+								
+										//if ( bad_nat ){
+										//	
+										//	bad_nat_added++;
+										//}
 										
-										if ( peer_index == -1 || duplicate_peer_checker[peer_index] != duplicate_peer_checker_index ){
-											
-											if ( peer_index != -1 ){
-												
-												duplicate_peer_checker[peer_index] = duplicate_peer_checker_index;
-											}
-									
-											//if ( bad_nat ){
-											//	
-											//	bad_nat_added++;
-											//}
-											
-											added++;
-											
-											Map rep_peer = new HashMap(3);
-											
-											if ( send_peer_ids ){
-												
-												rep_peer.put( "peer id", peer.getPeerId().getHash());
-											}
-											
-											if ( compact_mode != COMPACT_MODE_NONE ){
-												
-												byte[]	peer_bytes = peer.getIPAddressBytes();
-												
-												if ( peer_bytes == null ){
-																						
-													continue;
-												}
-												
-												rep_peer.put( "ip", peer_bytes );
-												
-												if ( compact_mode >= COMPACT_MODE_AZ ){
-													
-													rep_peer.put( "azver", new Long( peer.getAZVer()));
-													
-													rep_peer.put( "azudp", new Long( peer.getUDPPort()));
-													
-													if ( peer.isSeed()){
-														
-														rep_peer.put( "azhttp", new Long( peer.getHTTPPort()));
-													}
-													
-													if ( compact_mode >= COMPACT_MODE_XML ){
-														
-														rep_peer.put( "ip", peer.getIPAsRead() );
-
-													}else{
-														
-														rep_peer.put( "azup", new Long( peer.getUpSpeed()));
-														
-														if ( peer.isBiased()){
-															
-															rep_peer.put( "azbiased", "" );
-														}
-	
-														if ( network_position != null ){
-																													
-															DHTNetworkPosition	peer_pos = peer.getNetworkPosition();
-															
-															if ( peer_pos != null && network_position.getPositionType() == peer_pos.getPositionType()){
-																
-																rep_peer.put( "azrtt", new Long( (long)peer_pos.estimateRTT(network_position )));
-															}
-														}
-													}
-												}
-											}else{
-												
-												rep_peer.put( "ip", peer.getIPAsRead() );
-											}
-											
-											rep_peer.put( "port", new Long( peer.getTCPPort()));	
-											
-											if ( crypto_level != TRTrackerServerPeer.CRYPTO_NONE ){
-												
-												rep_peer.put( "crypto_flag", new Long( peer.getCryptoLevel() == TRTrackerServerPeer.CRYPTO_REQUIRED?1:0));
-											}
-
-											if ( peer.isBiased()){
-																							
-												rep_peers.addFirst( rep_peer );
-												
-											}else{
-											
-												rep_peers.addLast( rep_peer );
-											}
-										}
+										added++;
+										
+										exportPeer( rep_peers, peer, send_peer_ids, compact_mode, crypto_level, network_position );
 									}
 								}
 							}
 						}
-						
-						// System.out.println( "num_want = " + num_want + ", added = " + added + ", bad_nat = " + bad_nat_added );
-						
-					}finally{
-							
-						peer_list_compaction_suspended	= false;
-							
-						if ( peer_removed ){
-								
-							checkForPeerListCompaction( false );
-						}
 					}
+					
+					// System.out.println( "num_want = " + num_want + ", added = " + added + ", bad_nat = " + bad_nat_added );
+					
 				/*
 				}else{
 						// given up on this approach for the moment as too costly
@@ -2075,114 +1895,101 @@ TRTrackerServerTorrentImpl
 				
 				if ( compact_mode == COMPACT_MODE_NORMAL ){
 					
-					byte[]	compact_peers = new byte[num_peers_returned*6];
-						
-					int	index = 0;
+						// entries are the peers themselves, with their cached compact form, or
+						// maps for the queued and explicit peers
 					
-					int	num_ipv4 = 0;
-					int num_ipv6 = 0;
+					byte[][]	fragments = new byte[num_peers_returned][];
+					
+					int	index 		= 0;
+					int	ipv4_bytes	= 0;
+					int	ipv6_bytes	= 0;
 					
 					while( it.hasNext()){
 						
-						Map	rep_peer = (Map)it.next();
+						Object	rep_peer = it.next();
 						
-						byte[] 	ip 		= (byte[])rep_peer.get( "ip" );
+						byte[]	fragment;
+						byte	crypto_flag;
 						
-						if ( ip.length > 4 ){
+						if ( rep_peer instanceof TRTrackerServerPeerImpl ){
 							
-							num_ipv6++;
+							TRTrackerServerPeerImpl	peer = (TRTrackerServerPeerImpl)rep_peer;
+							
+							fragment 	= peer.getCompactBytes();
+							crypto_flag	= (byte)(peer.getCryptoLevel() == TRTrackerServerPeer.CRYPTO_REQUIRED?1:0);
 							
-								// continue and fill in crypto return
-
 						}else{
-
-							num_ipv4++;
 							
-							if ( num_ipv6 == 0 ){
-								
-								int		port	= ((Long)rep_peer.get( "port" )).intValue();
-								
-								int	pos = index*6;
-								
-								System.arraycopy( ip, 0, compact_peers, pos, 4 );
-								
-								pos += 4;
-								
-								compact_peers[pos++] = (byte)(port>>8);
-								compact_peers[pos++] = (byte)(port&0xff);
-							}
+							Map	rep_peer_map = (Map)rep_peer;
+							
+							byte[] 	ip 		= (byte[])rep_peer_map.get( "ip" );
+							int		port	= ((Long)rep_peer_map.get( "port" )).intValue();
+							
+							fragment = new byte[ip.length+2];
+							
+							System.arraycopy( ip, 0, fragment, 0, ip.length );
+							
+							fragment[ip.length]		= (byte)(port>>8);
+							fragment[ip.length+1]	= (byte)(port&0xff);
+							
+							Long	crypto_flag_l = (Long)rep_peer_map.get( "crypto_flag" );
+							
+							crypto_flag = crypto_flag_l==null?0:crypto_flag_l.byteValue();
 						}
 						
-						if ( crypto_flags != null ){
+						fragments[index] = fragment;
+						
+						if ( fragment.length > 6 ){
 							
-							Long	crypto_flag = (Long)rep_peer.remove( "crypto_flag" );
+							ipv6_bytes += fragment.length;
 							
-							crypto_flags[index] = crypto_flag.byteValue();
+						}else{
+							
+							ipv4_bytes += fragment.length;
+						}
+						
+						if ( crypto_flags != null ){
+							
+							crypto_flags[index] = crypto_flag;
 						}
 						
 						index++;
 					}
 					
-						// inefficient hack to support ipv6 compact for the moment
+					byte[]	compact_peers_v4 = new byte[ipv4_bytes];
+					byte[]	compact_peers_v6 = new byte[ipv6_bytes];
 					
-					if ( num_ipv6 > 0 ){
-						
-						byte[]	compact_peers_v4 = new byte[num_ipv4*6];
-						byte[]	compact_peers_v6 = new byte[num_ipv6*18];
-
-						it	= rep_peers.iterator();
-
-						int	v4_index	= 0;
-						int v6_index	= 0;
+					int	v4_pos	= 0;
+					int	v6_pos	= 0;
+					
+					for ( byte[] fragment: fragments ){
 						
-						while( it.hasNext()){
+						if ( fragment.length > 6 ){
 							
-							Map	rep_peer = (Map)it.next();
+							System.arraycopy( fragment, 0, compact_peers_v6, v6_pos, fragment.length );
 							
-							byte[] 	ip 		= (byte[])rep_peer.get( "ip" );
+							v6_pos += fragment.length;
 							
-							int		port	= ((Long)rep_peer.get( "port" )).intValue();
-
-							if ( ip.length > 4 ){
-													
-								int	pos = v6_index*18;
-								
-								System.arraycopy( ip, 0, compact_peers_v6, pos, 16 );
-								
-								pos += 16;
-								
-								compact_peers_v6[pos++] = (byte)(port>>8);
-								compact_peers_v6[pos++] = (byte)(port&0xff);
-								
-								v6_index++;
-								
-							}else{
-								
-								int	pos = v4_index*6;
-								
-								System.arraycopy( ip, 0, compact_peers_v4, pos, 4 );
-								
-								pos += 4;
-								
-								compact_peers_v4[pos++] = (byte)(port>>8);
-								compact_peers_v4[pos++] = (byte)(port&0xff);
-
-								v4_index++;
-							}
+						}else{
+							
+							System.arraycopy( fragment, 0, compact_peers_v4, v4_pos, fragment.length );
+							
+							v4_pos += fragment.length;
 						}
+					}
 					
-						if ( compact_peers_v4.length > 0 ){
+					if ( ipv6_bytes > 0 ){
+						
+						if ( ipv4_bytes > 0 ){
 							
 							root.put( "peers", compact_peers_v4 );
 						}
 						
-						if ( compact_peers_v6.length > 0 ){
-							
-							root.put( "peers6", compact_peers_v6 );
-						}
+						root.put( "peers6", compact_peers_v6 );
+						
 					}else{
 					
-						root.put( "peers", compact_peers );
+						root.put( "peers", compact_peers_v4 );
 					}
 				}else{
 					
@@ -2254,6 +2061,27 @@ TRTrackerServerTorrentImpl
 		byte						crypto_level,
 		DHTNetworkPosition			network_position )
 	{
+		if ( compact_mode == COMPACT_MODE_NORMAL && peer instanceof TRTrackerServerPeerImpl ){
+			
+				// no map needed, the reply is built from the peer's pre-encoded address and port
+			
+			if (((TRTrackerServerPeerImpl)peer).getCompactBytes() == null ){
+				
+				return;
+			}
+			
+			if ( peer.isBiased()){
+				
+				rep_peers.addFirst( peer );
+				
+			}else{
+				
+				rep_peers.addLast( peer );
+			}
+			
+			return;
+		}
+		
 		Map rep_peer = new HashMap(3);
 		
 		if ( send_peer_ids ){
@@ -2396,38 +2224,30 @@ TRTrackerServerTorrentImpl
 			
 			int new_seed_count 	= 0;
 			
-			try{
-				peer_list_compaction_suspended	= true;
+			for (int i=0;i<peer_list.size();i++){
+								
+				TRTrackerServerPeerImpl	peer = peer_list.get(i);
 				
-				for (int i=0;i<peer_list.size();i++){
-									
-					TRTrackerServerPeerImpl	peer = (TRTrackerServerPeerImpl)peer_list.get(i);
+				if ( now > peer.getTimeout()){
+					
+					removePeer( peer, TRTrackerServerTorrentPeerListener.ET_TIMEOUT, null );
 					
-					if ( peer == null ){
+						// the last peer has been moved into this slot
+					
+					i--;
+					
+				}else{
+					
+					if ( peer.isSeed()){
 						
-						continue;
+						new_seed_count++;
 					}
 					
-					if ( now > peer.getTimeout()){
-						
-						removePeer( peer, i, TRTrackerServerTorrentPeerListener.ET_TIMEOUT, null );
-						
-					}else{
-						
-						if ( peer.isSeed()){
-							
-							new_seed_count++;
-						}
+					if ( peer.isNATStatusBad()){
 						
-						if ( peer.isNATStatusBad()){
-							
-							new_bad_NAT_count++;
-						}
+						new_bad_NAT_count++;
 					}
 				}
-			}finally{
-				
-				peer_list_compaction_suspended	= false;
 			}
 			
 			bad_NAT_count	= new_bad_NAT_count;
@@ -2437,7 +2257,7 @@ TRTrackerServerTorrentImpl
 				
 				removed_count = 0;
 				
-				checkForPeerListCompaction( true );
+				peer_list.trimToSize();
 				
 					// rehash
 				
@@ -2446,10 +2266,6 @@ TRTrackerServerTorrentImpl
 				
 				peer_map 		= new_peer_map;
 				peer_reuse_map	= new_peer_reuse_map;
-				
-			}else{
-				
-				checkForPeerListCompaction( false );
 			}
 			
 			Iterator	it = lightweight_seed_map.values().iterator();
@@ -2469,43 +2285,6 @@ TRTrackerServerTorrentImpl
 		}
 	}
 	
-	protected void
-	checkForPeerListCompaction(
-		boolean	force )
-	{
-		if ( peer_list_hole_count > 0 && !peer_list_compaction_suspended ){
-			
-			if ( force || peer_list_hole_count > peer_map.size()/10 ){
-								
-				ArrayList	new_peer_list = new ArrayList( peer_list.size() - (peer_list_hole_count/2));
-				
-				int	holes_found = 0;
-				
-				for (int i=0;i<peer_list.size();i++){
-					
-					Object	obj = peer_list.get(i);
-					
-					if ( obj == null ){
-						
-						holes_found++;
-					}else{
-						
-						new_peer_list.add( obj );
-					}
-				}
-				
-				if( holes_found != peer_list_hole_count ){
-					
-					Debug.out( "TRTrackerTorrent:compactHoles: count mismatch" );
-				}
-				
-				peer_list	= new_peer_list;
-				
-				peer_list_hole_count	= 0;
-			}
-		}
-	}
-	
 	protected void
 	updateXferStats(
 		int		bytes_in,
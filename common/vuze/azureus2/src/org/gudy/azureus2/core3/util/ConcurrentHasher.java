@@ -28,6 +28,7 @@ package org.gudy.azureus2.core3.util;
  */
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.nio.ByteBuffer;
 
 import org.gudy.azureus2.core3.config.COConfigurationManager;
@@ -41,14 +42,15 @@ ConcurrentHasher
 	
 	protected int			processor_num;
 	
-	protected List<ConcurrentHasherRequest>				requests		= new LinkedList<ConcurrentHasherRequest>();
+		// lock free so the submitters and the hashing threads of all the cores don't queue up
+		// behind a monitor, the semaphores do the counting
 	
-	protected List<SHA1Hasher>	hashers			= new ArrayList<SHA1Hasher>();
+	protected Queue<ConcurrentHasherRequest>	requests		= new ConcurrentLinkedQueue<ConcurrentHasherRequest>();
+	
+	protected Queue<SHA1Hasher>	hashers			= new ConcurrentLinkedQueue<SHA1Hasher>();
 	
 	protected AESemaphore		request_sem		= new AESemaphore("ConcHashReqQ");
 	protected AESemaphore		scheduler_sem	= new AESemaphore("ConcHashSched");
-		
-	protected AEMonitor			requests_mon	= new AEMonitor( "ConcurrentHasher:R" );
 
 	private static boolean friendly_hashing;
 
@@ -113,26 +115,11 @@ ConcurrentHasher
 					
 						// now extract the request
 					
-					final ConcurrentHasherRequest	req;
-					final SHA1Hasher				hasher;
+					final ConcurrentHasherRequest	req = requests.poll();
 					
-					try{
-						requests_mon.enter();
-						
-						req	= requests.remove(0);
-						
-						if ( hashers.size() == 0 ){
-							
-							hasher = new SHA1Hasher();
-							
-						}else{
-							
-							hasher	= hashers.remove( hashers.size()-1 );
-						}
-					}finally{
-						
-						requests_mon.exit();
-					}
+					SHA1Hasher	pooled = hashers.poll();
+					
+					final SHA1Hasher				hasher = pooled==null?new SHA1Hasher():pooled;
 					
 					pool.run( 
 							new AERunnable()
@@ -144,15 +131,8 @@ ConcurrentHasher
 										req.run( hasher );
 										
 									}finally{
-										try{
-											requests_mon.enter();
-
-											hashers.add( hasher );
 										
-										}finally{
-											
-											requests_mon.exit();
-										}
+										hashers.add( hasher );
 
 										if ( friendly_hashing && req.isLowPriority()){
 				
@@ -230,15 +210,7 @@ ConcurrentHasher
 		
 		scheduler_sem.reserve();
 		
-		try{
-			requests_mon.enter();
-			
-			requests.add( req );
-		
-		}finally{
-			
-			requests_mon.exit();
-		}
+		requests.add( req );
 		
 		request_sem.release();
 		
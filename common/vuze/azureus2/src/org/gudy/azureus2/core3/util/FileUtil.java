@@ -482,10 +482,12 @@ public class FileUtil {
 			  BufferedOutputStream	baos = null;
 
 			  try{
-				  byte[] encoded_data = BEncoder.encode(data);
 				  FileOutputStream tempOS = new FileOutputStream( temp, false );
 				  baos = new BufferedOutputStream( tempOS, 8192 );
-				  baos.write( encoded_data );
+				  
+				  	// streamed, big configs don't need to be held in memory twice
+				  
+				  BEncoder.encode( data, baos );
 				  baos.flush();
 				  
 				  	// thinking about removing this - just do so for CVS for the moment
@@ -28,6 +28,10 @@ package org.gudy.azureus2.core3.util;
 
 import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 public class Timer
 	extends 	AERunnable
@@ -37,13 +41,34 @@ public class Timer
 	private static ArrayList<WeakReference<Timer>> timers = null;
 	private static AEMonitor timers_mon = new AEMonitor("timers list");
 	
+		// unlink cancelled events in batches rather than waking the timer for each
+	
+	private static final int	CANCEL_BATCH	= 1024;
+	
+		// longest single wait, events further away just mean waking up again. Also keeps
+		// the wait in nanos from overflowing for events more than about 106 days out
+	
+	private static final long	MAX_PARK_MILLIS	= 24*60*60*1000L;
+	
 	private ThreadPool	thread_pool;
+	
+	private Thread		thread;
 		
-	private Set<TimerEvent>	events = new TreeSet<TimerEvent>();
+		// the wheel and the due list are only used with the monitor held, other threads
+		// queue their changes without locking and the timer applies them
+	
+	private TimerWheel			wheel	= new TimerWheel( SystemTime.getCurrentTime());
+	private List<TimerEvent>	due		= new ArrayList<TimerEvent>();
+	
+	private final ConcurrentLinkedQueue<TimerEvent>	added		= new ConcurrentLinkedQueue<TimerEvent>();
+	private final ConcurrentLinkedQueue<TimerEvent>	cancelled	= new ConcurrentLinkedQueue<TimerEvent>();
+	private final AtomicInteger						cancelled_count	= new AtomicInteger();
 		
-	private long	unique_id_next	= 0;
+	private final AtomicLong	unique_id_next	= new AtomicLong();
 	
-	private long				current_when;
+		// when the timer is going to wake up, 0 if it's awake
+	
+	private volatile long		current_when;
 	private volatile boolean	destroyed;
 	private boolean				indestructable;
 	
@@ -88,13 +113,13 @@ public class Timer
 	
 		SystemTime.registerClockChangeListener( this );
 
-		Thread t = new Thread(this, "Timer:" + name );
+		thread = new Thread(this, "Timer:" + name );
 		
-		t.setDaemon( true );
+		thread.setDaemon( true );
 		
-		t.setPriority(thread_priority);
+		thread.setPriority(thread_priority);
 			
-		t.start();
+		thread.start();
 	}
 	
 	public void
@@ -106,8 +131,19 @@ public class Timer
 	public synchronized List<TimerEvent>
 	getEvents()
 	{
-		return( new ArrayList<TimerEvent>( events ));
+		processQueues();
+		
+		List<TimerEvent>	result = new ArrayList<TimerEvent>( wheel.size() + due.size());
+		
+		wheel.getEvents( result );
+		
+		result.addAll( due );
+		
+		Collections.sort( result );
+		
+		return( result );
 	}
+	
 	public void
 	setLogging(
 		boolean	_log )
@@ -134,10 +170,12 @@ public class Timer
 	public void
 	runSupport()
 	{
+		List<TimerEvent>	to_run = new ArrayList<TimerEvent>();
+		
 		while( true ){
 			
 			try{
-				TimerEvent	event_to_run = null;
+				long	next_when;
 				
 				synchronized(this){
 					
@@ -146,91 +184,94 @@ public class Timer
 						break;
 					}
 					
-					if ( events.isEmpty()){
-						
-						// System.out.println( "waiting forever" );
-						
-						try{
-							current_when = Integer.MAX_VALUE;
+					processQueues();
+					
+					long	now = SystemTime.getCurrentTime();
+					
+					if ( now < wheel.getTime() - SystemTime.TIME_GRANULARITY_MILLIS ){
 						
-							this.wait();
-							
-						}finally{
-							
-							current_when = 0;
-						}
-					}else{
+							// the clock went back without a change being reported
 						
-						long	now = SystemTime.getCurrentTime();
+						rebuild( now );
+					}
+					
+						// events within the time granularity are run now, as always
+					
+					wheel.advance( now + SystemTime.TIME_GRANULARITY_MILLIS, due );
+					
+					if ( due.isEmpty()){
 						
-						TimerEvent	next_event = (TimerEvent)events.iterator().next();
+						next_when = wheel.getNextTime();
 						
-						long	when = next_event.getWhen();
+					}else{
+					
+						List<TimerEvent>	temp = to_run;
 						
-						long	delay = when - now;
+						to_run	= due;
+						due		= temp;
 						
-						if ( delay > 0 ){
-							
-							// System.out.println( "waiting for " + delay );
-							
-							try{
-								current_when = when;
-							
-								this.wait(delay);
-								
-							}finally{
-								
-								current_when = 0;
-							}
-						}
+						next_when = 0;
 					}
+				}
 				
-					if ( destroyed ){
+				if ( next_when == 0 ){
+					
+					if ( to_run.size() > 1 ){
 						
-						break;
+						Collections.sort( to_run );
 					}
 					
-					if ( events.isEmpty()){
+					for ( TimerEvent event_to_run: to_run ){
+						
+						if ( event_to_run.isCancelled()){
+							
+							continue;
+						}
+						
+						event_to_run.setHasRun();
+						
+						if (log) {
+							System.out.println( "running: " + event_to_run.getString() );
+						}
 						
-						continue;
+						thread_pool.run(event_to_run.getRunnable());
 					}
 					
-					long	now = SystemTime.getCurrentTime();
+					to_run.clear();
+					
+				}else{
 					
-					Iterator<TimerEvent>	it = events.iterator();
+					long	delay = next_when - SystemTime.getCurrentTime();
 					
-					TimerEvent	next_event = it.next();
+					if ( next_when == Long.MAX_VALUE || delay > 0 ){
+						
+						current_when = next_when;
 						
-					long rem = next_event.getWhen() - now;
-																			
-					if ( rem <= SystemTime.TIME_GRANULARITY_MILLIS ){
+						try{
+								// anything queued after the wheel was looked at either is seen here
+								// or sees current_when and unparks us
 							
-						event_to_run = next_event;
+							if ( added.isEmpty() && cancelled_count.get() < CANCEL_BATCH && !destroyed ){
 							
-						it.remove();
-						
-						/*
-						if ( rem < -100 ){
+								if ( next_when == Long.MAX_VALUE ){
+									
+									// System.out.println( "waiting forever" );
+									
+									LockSupport.park( this );
+									
+								}else{
+									
+									// System.out.println( "waiting for " + delay );
+									
+									LockSupport.parkNanos( this, Math.min( delay, MAX_PARK_MILLIS )*1000000L );
+								}
+							}
+						}finally{
 							
-							System.out.println( "Late scheduling [" + (-rem) + "] of " + event_to_run.getString());
+							current_when = 0;
 						}
-						*/
 					}
-					
-					// System.out.println( getName() +": events=" + events.size() + ", to_run=" +  (event_to_run==null?"null":event_to_run.getString()));
 				}
-				
-				if ( event_to_run != null ){
-					
-					event_to_run.setHasRun();
-					
-					if (log) {
-						System.out.println( "running: " + event_to_run.getString() );
-					}
-					
-					thread_pool.run(event_to_run.getRunnable());
-				}
-				
 			}catch( Throwable e ){
 				
 				Debug.printStackTrace( e );
@@ -238,6 +279,98 @@ public class Timer
 		}
 	}
 	
+		/**
+		 * Applies the events added and cancelled by other threads, called with the
+		 * monitor held
+		 */
+	
+	private void
+	processQueues()
+	{
+		TimerEvent	event;
+		
+		while(( event = added.poll()) != null ){
+			
+			if ( event.isCancelled()){
+				
+				continue;
+			}
+			
+			if ( !wheel.add( event )){
+				
+				due.add( event );
+			}
+		}
+		
+		if ( cancelled_count.get() > 0 ){
+			
+			while(( event = cancelled.poll()) != null ){
+				
+				cancelled_count.decrementAndGet();
+				
+				wheel.remove( event );
+			}
+		}
+		
+		if ( log ){
+			
+			int	size = wheel.size() + due.size();
+			
+			if ( size > max_events_logged ){
+		
+				max_events_logged = size;
+				
+				System.out.println( "Timer '" + thread_pool.getName() + "' - events = " + max_events_logged );
+			}
+		}
+	}
+	
+		/**
+		 * Puts the events back in a wheel starting at the time, after their times
+		 * have been changed or the clock moved back. Called with the monitor held.
+		 */
+	
+	private void
+	rebuild(
+		long	now )
+	{
+		addAll( removeAll( now ));
+	}
+	
+		/**
+		 * @return all the events, taken out of the wheel, called with the monitor held
+		 */
+	
+	private List<TimerEvent>
+	removeAll(
+		long	now )
+	{
+		processQueues();
+		
+		List<TimerEvent>	events = new ArrayList<TimerEvent>( wheel.size() + due.size());
+		
+		wheel.removeAll( events, now );
+		
+		events.addAll( due );
+		
+		due.clear();
+		
+		return( events );
+	}
+	
+	private void
+	addAll(
+		List<TimerEvent>	events )
+	{
+		for ( TimerEvent event: events ){
+			
+			if ( !wheel.add( event )){
+				
+				due.add( event );
+			}
+		}
+	}
+	
 	public void
 	clockChangeDetected(
 		long	current_time,
@@ -249,9 +382,9 @@ public class Timer
 			
 			synchronized( this ){
 										
-				Iterator<TimerEvent>	it = events.iterator();
+				List<TimerEvent>	updated_events = removeAll( current_time );
 				
-				List<TimerEvent>	updated_events = new ArrayList<TimerEvent>( events.size());
+				Iterator<TimerEvent>	it = updated_events.iterator();
 				
 				while (it.hasNext()){
 					
@@ -297,15 +430,13 @@ public class Timer
 							event.setWhen( new_when );
 						}
 					}
-					
-					updated_events.add( event );
 				}
 														
-					// resort - we have to use an alternative list of events as input because if we just throw the
-					// treeset in the constructor optimises things under the assumption that the original set
-					// was correctly sorted...
+					// back in the wheel at their new times
+				
+				addAll( updated_events );
 				
-				events = new TreeSet<TimerEvent>( updated_events );
+				wakeUp();
 			}
 		}
 	}
@@ -324,6 +455,8 @@ public class Timer
 			
 			synchronized( this ){
 				
+				List<TimerEvent>	events = getEvents();
+				
 				Iterator<TimerEvent>	it = events.iterator();
 				
 				boolean	updated = false;
@@ -364,13 +497,13 @@ public class Timer
 														
 				if ( updated ){
 					
-					events = new TreeSet<TimerEvent>( new ArrayList<TimerEvent>( events ));
+					rebuild( current_time );
 				}
 				
-				// must have this notify here as the scheduling code uses the current time to calculate
+				// must have this wake up here as the scheduling code uses the current time to calculate
 				// how long to sleep for and this needs to be guaranteed to be using the correct (new) time
 
-				notify();
+				wakeUp();
 			}
 		}
 	}
@@ -383,11 +516,9 @@ public class Timer
 
 		synchronized (this) {
 			
-				// as we're adjusting all events by the same amount the ordering remains valid
-
+			List<TimerEvent> events = removeAll( SystemTime.getCurrentTime());
+			
 			Iterator<TimerEvent> it = events.iterator();
-
-			boolean resort = false;
 			
 			while (it.hasNext()) {
 
@@ -402,8 +533,6 @@ public class Timer
 
 					// Debug.out( "Ignoring wrap around for " + event.getName());
 					
-					resort = true;
-					
 				}else{
 					
 					// System.out.println( "    adjusted: " + old_when + " -> " + new_when );
@@ -412,16 +541,13 @@ public class Timer
 				}
 			}
 			
-			if ( resort ){
-
-				events = new TreeSet<TimerEvent>( new ArrayList<TimerEvent>( events ));
-			}
+			addAll( events );
 						
-			notify();
+			wakeUp();
 		}
 	}
 
-	public synchronized TimerEvent
+	public TimerEvent
 	addEvent(
 		long				when,
 		TimerEventPerformer	performer )
@@ -429,7 +555,7 @@ public class Timer
 		return( addEvent( SystemTime.getCurrentTime(), when, performer ));
 	}
 	
-	public synchronized TimerEvent
+	public TimerEvent
 	addEvent(
 		String				name,
 		long				when,
@@ -438,7 +564,7 @@ public class Timer
 		return( addEvent( name, SystemTime.getCurrentTime(), when, performer ));
 	}
 	
-	public synchronized TimerEvent
+	public TimerEvent
 	addEvent(
 		String				name,
 		long				when,
@@ -448,7 +574,7 @@ public class Timer
 		return( addEvent( name, SystemTime.getCurrentTime(), when, absolute, performer ));
 	}
 	
-	public synchronized TimerEvent
+	public TimerEvent
 	addEvent(
 		long				creation_time,
 		long				when,
@@ -457,7 +583,7 @@ public class Timer
 		return( addEvent( null, creation_time, when, performer ));
 	}
 	
-	public synchronized TimerEvent
+	public TimerEvent
 	addEvent(
 		long				creation_time,
 		long				when,
@@ -467,7 +593,7 @@ public class Timer
 		return( addEvent( null, creation_time, when, absolute, performer ));
 	}
 	
-	public synchronized TimerEvent
+	public TimerEvent
 	addEvent(
 		String				name,
 		long				creation_time,
@@ -477,7 +603,7 @@ public class Timer
 		return( addEvent( name, creation_time, when, false, performer ));
 	}
 	
-	public synchronized TimerEvent
+	public TimerEvent
 	addEvent(
 		String				name,
 		long				creation_time,
@@ -485,36 +611,26 @@ public class Timer
 		boolean				absolute,
 		TimerEventPerformer	performer )
 	{
-		TimerEvent	event = new TimerEvent( this, unique_id_next++, creation_time, when, absolute, performer );
+		TimerEvent	event = new TimerEvent( this, unique_id_next.getAndIncrement(), creation_time, when, absolute, performer );
 		
 		if ( name != null ){
 			
 			event.setName( name );
 		}
 		
-		events.add( event );
-		
-		if ( log ){
-			
-			if ( events.size() > max_events_logged ){
-		
-				max_events_logged = events.size();
-				
-				System.out.println( "Timer '" + thread_pool.getName() + "' - events = " + max_events_logged );
-			}
-		}
+		added.add( event );
 		
-		// System.out.println( "event added (" + when + ") - queue = " + events.size());
+		// System.out.println( "event added (" + when + ")" );
 		
-		if ( current_when == Integer.MAX_VALUE || when < current_when ){
+		if ( when < current_when ){
 		
-			notify();
+			LockSupport.unpark( thread );
 		}
 		
 		return( event );
 	}
 	
-	public synchronized TimerEventPeriodic
+	public TimerEventPeriodic
 	addPeriodicEvent(
 		long				frequency,
 		TimerEventPerformer	performer )
@@ -522,7 +638,7 @@ public class Timer
 		return( addPeriodicEvent( null, frequency, performer ));
 	}
 	
-	public synchronized TimerEventPeriodic
+	public TimerEventPeriodic
 	addPeriodicEvent(
 		String				name,
 		long				frequency,
@@ -531,7 +647,7 @@ public class Timer
 		return( addPeriodicEvent( name, frequency, false, performer ));
 	}
 	
-	public synchronized TimerEventPeriodic
+	public TimerEventPeriodic
 	addPeriodicEvent(
 		String				name,
 		long				frequency,
@@ -553,20 +669,27 @@ public class Timer
 		return( periodic_performer );
 	}
 	
-	protected synchronized void
+	protected void
 	cancelEvent(
 		TimerEvent	event )
 	{
-		if ( events.contains( event )){
-			
-			events.remove( event );
+			// the event is marked as cancelled and won't run, this just gets it out
+			// of the wheel
 		
-			// System.out.println( "event cancelled (" + event.getWhen() + ") - queue = " + events.size());
-	
-			notify();
+		cancelled.add( event );
+		
+		if ( cancelled_count.incrementAndGet() >= CANCEL_BATCH && current_when != 0 ){
+			
+			LockSupport.unpark( thread );
 		}
 	}
 	
+	private void
+	wakeUp()
+	{
+		LockSupport.unpark( thread );
+	}
+	
 	public synchronized void
 	destroy()
 	{
@@ -578,7 +701,7 @@ public class Timer
 			
 			destroyed	= true;
 			
-			notify();
+			wakeUp();
 			
 			SystemTime.unregisterClockChangeListener( this );
 		}
@@ -611,7 +734,7 @@ public class Timer
 	{
 		System.out.println( "Timer '" + thread_pool.getName() + "': dump" );
 
-		Iterator	it = events.iterator();
+		Iterator	it = getEvents().iterator();
 		
 		while(it.hasNext()){
 			
@@ -38,12 +38,19 @@ TimerEvent
 	private long					when;
 	private TimerEventPerformer	performer;
 	
-	private boolean		absolute;
-	private boolean		cancelled;
-	private boolean		has_run;
+	private boolean				absolute;
+	private volatile boolean	cancelled;
+	private boolean				has_run;
 	
 	private long			unique_id	= 1;
 	
+		// where the event is in the timer's wheel, only used by the timer
+	
+	TimerEvent	wheel_next;
+	TimerEvent	wheel_prev;
+	int			wheel_level	= -1;
+	int			wheel_slot;
+	
 	protected
 	TimerEvent(
 		Timer					_timer,
@@ -0,0 +1,412 @@
+/*
+ * Created on 17-Oct-2026
+ * Copyright (C) 2026 Aelitis, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * AELITIS, SAS au capital de 46,603.30 euros
+ * 8 Allee Lenotre, La Grille Royale, 78600 Le Mesnil le Roi, France.
+ *
+ */
+
+package org.gudy.azureus2.core3.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The hierarchical timing wheel behind {@link Timer}, one tick per millisecond.
+ * <p>
+ * Level 0 has a slot per millisecond of the current 256ms window, level 1 a
+ * slot per 256ms of the current 65s window and so on, four levels covering
+ * about 49 days; later events wait in an overflow list. An event goes in the
+ * lowest level where its time shares the higher digits with the wheel time,
+ * and when the wheel gets to the start of an upper slot its events are moved
+ * down. Adding and removing are O(1), the events are linked through fields of
+ * {@link TimerEvent} and a bitmap per level finds the next slot in use, so
+ * the wheel jumps straight to the next thing to do instead of ticking.
+ * <p>
+ * Not thread safe, the timer only uses it with its monitor held.
+ */
+final class
+TimerWheel
+{
+	private static final int	BITS	= 8;
+	private static final int	SLOTS	= 1 << BITS;
+	private static final int	MASK	= SLOTS - 1;
+	private static final int	LEVELS	= 4;
+
+	private static final int	OVERFLOW	= LEVELS;
+
+	private final TimerEvent[][]	slots	= new TimerEvent[LEVELS][SLOTS];
+	private final long[][]			in_use	= new long[LEVELS][SLOTS/64];
+
+	private TimerEvent	overflow;
+	private long		overflow_start	= Long.MAX_VALUE;
+
+	private long	time;
+	private int		size;
+
+	TimerWheel(
+		long		_time )
+	{
+		time	= _time;
+	}
+
+	long
+	getTime()
+	{
+		return( time );
+	}
+
+	int
+	size()
+	{
+		return( size );
+	}
+
+		/**
+		 * @return false if the event is due already, it isn't added
+		 */
+
+	boolean
+	add(
+		TimerEvent	event )
+	{
+		long	when = event.getWhen();
+
+		if ( when <= time ){
+
+			return( false );
+		}
+
+		int	level = ( 63 - Long.numberOfLeadingZeros( when ^ time )) / BITS;
+
+		if ( level >= LEVELS ){
+
+			link( event, OVERFLOW, 0 );
+
+			overflow_start = Math.min( overflow_start, when & ~(( 1L << ( LEVELS*BITS )) - 1 ));
+
+		}else{
+
+			link( event, level, (int)( when >>> ( level*BITS )) & MASK );
+		}
+
+		size++;
+
+		return( true );
+	}
+
+	void
+	remove(
+		TimerEvent	event )
+	{
+		if ( event.wheel_level < 0 ){
+
+			return;
+		}
+
+		int	level	= event.wheel_level;
+		int	slot	= event.wheel_slot;
+
+		TimerEvent	prev = event.wheel_prev;
+		TimerEvent	next = event.wheel_next;
+
+		if ( next != null ){
+
+			next.wheel_prev = prev;
+		}
+
+		if ( prev != null ){
+
+			prev.wheel_next = next;
+
+		}else if ( level == OVERFLOW ){
+
+			overflow = next;
+
+		}else{
+
+			slots[level][slot] = next;
+
+			if ( next == null ){
+
+				in_use[level][slot >>> 6] &= ~( 1L << slot );
+			}
+		}
+
+		event.wheel_prev	= null;
+		event.wheel_next	= null;
+		event.wheel_level	= -1;
+
+		size--;
+	}
+
+		/**
+		 * Moves the wheel forward, the events whose time has come are added
+		 * to the list in no particular order
+		 */
+
+	void
+	advance(
+		long				target,
+		List<TimerEvent>	due )
+	{
+		while( time < target ){
+
+			long	next = getNextTime();
+
+			if ( next > target ){
+
+					// nothing in between, no slot is skipped
+
+				time = target;
+
+				break;
+			}
+
+			time = next;
+
+			if ( time >= overflow_start ){
+
+				TimerEvent	list = overflow;
+
+				overflow		= null;
+				overflow_start	= Long.MAX_VALUE;
+
+				reinsert( list, due );
+			}
+
+			for ( int level=LEVELS-1;level>0;level--){
+
+				int	slot = (int)( time >>> ( level*BITS )) & MASK;
+
+				TimerEvent	list = slots[level][slot];
+
+				if ( list != null ){
+
+					clear( level, slot );
+
+					reinsert( list, due );
+				}
+			}
+
+			int	slot = (int)time & MASK;
+
+			TimerEvent	event = slots[0][slot];
+
+			if ( event != null ){
+
+				clear( 0, slot );
+
+				while( event != null ){
+
+					TimerEvent	next_event = event.wheel_next;
+
+					unlinked( event );
+
+					size--;
+
+					due.add( event );
+
+					event = next_event;
+				}
+			}
+		}
+	}
+
+		/**
+		 * @return the time of the next event, or the time when events further
+		 * away have to move down a level, Long.MAX_VALUE if the wheel is empty
+		 */
+
+	long
+	getNextTime()
+	{
+		for ( int level=0;level<LEVELS;level++){
+
+			int	shift	= level*BITS;
+			int	digit	= (int)( time >>> shift ) & MASK;
+
+			int	slot = nextInUse( in_use[level], digit + 1 );
+
+			if ( slot >= 0 ){
+
+				long	window = ~(( 1L << ( shift + BITS )) - 1 );
+
+				return(( time & window ) | ((long)slot << shift ));
+			}
+		}
+
+		return( overflow_start );
+	}
+
+	void
+	getEvents(
+		List<TimerEvent>	result )
+	{
+		for ( int level=0;level<LEVELS;level++){
+
+			for ( int slot=0;slot<SLOTS;slot++){
+
+				for ( TimerEvent event=slots[level][slot];event!=null;event=event.wheel_next){
+
+					result.add( event );
+				}
+			}
+		}
+
+		for ( TimerEvent event=overflow;event!=null;event=event.wheel_next){
+
+			result.add( event );
+		}
+	}
+
+		/**
+		 * Takes all the events out and restarts the wheel at the time, for when
+		 * the clock changes
+		 */
+
+	void
+	removeAll(
+		List<TimerEvent>	result,
+		long				new_time )
+	{
+		getEvents( result );
+
+		for ( TimerEvent event: result ){
+
+			unlinked( event );
+		}
+
+		for ( int level=0;level<LEVELS;level++){
+
+			Arrays.fill( slots[level], null );
+			Arrays.fill( in_use[level], 0 );
+		}
+
+		overflow		= null;
+		overflow_start	= Long.MAX_VALUE;
+
+		size	= 0;
+		time	= new_time;
+	}
+
+	private void
+	reinsert(
+		TimerEvent			event,
+		List<TimerEvent>	due )
+	{
+		while( event != null ){
+
+			TimerEvent	next = event.wheel_next;
+
+			unlinked( event );
+
+			size--;
+
+			if ( !add( event )){
+
+				due.add( event );
+			}
+
+			event = next;
+		}
+	}
+
+	private void
+	link(
+		TimerEvent	event,
+		int			level,
+		int			slot )
+	{
+		TimerEvent	head;
+
+		if ( level == OVERFLOW ){
+
+			head		= overflow;
+			overflow	= event;
+
+		}else{
+
+			head = slots[level][slot];
+
+			slots[level][slot] = event;
+
+			in_use[level][slot >>> 6] |= 1L << slot;
+		}
+
+		if ( head != null ){
+
+			head.wheel_prev = event;
+		}
+
+		event.wheel_next	= head;
+		event.wheel_prev	= null;
+		event.wheel_level	= level;
+		event.wheel_slot	= slot;
+	}
+
+		/**
+		 * the caller has taken the list of the slot
+		 */
+
+	private void
+	clear(
+		int		level,
+		int		slot )
+	{
+		slots[level][slot] = null;
+
+		in_use[level][slot >>> 6] &= ~( 1L << slot );
+	}
+
+	private void
+	unlinked(
+		TimerEvent	event )
+	{
+		event.wheel_prev	= null;
+		event.wheel_next	= null;
+		event.wheel_level	= -1;
+	}
+
+	private static int
+	nextInUse(
+		long[]	bits,
+		int		from )
+	{
+		if ( from >= SLOTS ){
+
+			return( -1 );
+		}
+
+		int		index	= from >>> 6;
+		long	word	= bits[index] & ( -1L << from );
+
+		while( true ){
+
+			if ( word != 0 ){
+
+				return( index*64 + Long.numberOfTrailingZeros( word ));
+			}
+
+			if ( ++index == bits.length ){
+
+				return( -1 );
+			}
+
+			word = bits[index];
+		}
+	}
+}
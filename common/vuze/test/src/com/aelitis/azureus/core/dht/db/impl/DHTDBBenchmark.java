@@ -0,0 +1,277 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) 2026 Aelitis, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * AELITIS, SAS au capital de 46,603.30 euros
+ * 8 Allee Lenotre, La Grille Royale, 78600 Le Mesnil le Roi, France.
+ *
+ */
+
+package com.aelitis.azureus.core.dht.db.impl;
+
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gudy.azureus2.core3.util.HashWrapper;
+import org.gudy.azureus2.core3.util.SystemTime;
+import org.gudy.azureus2.core3.util.test.TestUtils;
+
+import com.aelitis.azureus.core.dht.DHT;
+import com.aelitis.azureus.core.dht.DHTFactory;
+import com.aelitis.azureus.core.dht.db.DHTDBLookupResult;
+import com.aelitis.azureus.core.dht.db.DHTDBStats;
+import com.aelitis.azureus.core.dht.transport.DHTTransportContact;
+import com.aelitis.azureus.core.dht.transport.DHTTransportFactory;
+import com.aelitis.azureus.core.dht.transport.DHTTransportValue;
+
+/**
+ * Fills the store of a node with cached values for a few hundred thousand
+ * keys, like a long running node, and reports the time and the heap taken,
+ * then runs gets and stores from several threads while the republish and
+ * expiry scans go through the whole store, showing the operations per
+ * second and the longest wait of an operation.
+ * <p>
+ * Usage: DHTDBBenchmark [keys] [threads] [seconds]
+ */
+
+public class
+DHTDBBenchmark
+{
+	private static final int	SENDERS	= 64;
+
+	public static void
+	main(
+		String[]	args )
+
+		throws Exception
+	{
+		int	count	= args.length > 0 ? Integer.parseInt( args[0] ) : 200000;
+		int	threads	= args.length > 1 ? Integer.parseInt( args[1] ) : 4;
+		int	seconds	= args.length > 2 ? Integer.parseInt( args[2] ) : 5;
+
+		DHT	dht = DHTFactory.create( DHTTransportFactory.createLoopback( 20 ), new Properties(), null, null, TestUtils.getNullDHTLogger());
+
+		DHTDBImpl	db = (DHTDBImpl)dht.getDataBase();
+
+		DHTTransportContact[]	senders = new DHTTransportContact[SENDERS];
+
+		for (int i=0;i<SENDERS;i++){
+
+			senders[i] = DHTTransportFactory.createLoopback( 20 ).getLocalContact();
+		}
+
+		Random	rnd = new Random( 0 );
+
+		HashWrapper[]	keys = new HashWrapper[count];
+
+		for (int i=0;i<count;i++){
+
+			byte[]	key = new byte[20];
+
+			rnd.nextBytes( key );
+
+			keys[i] = new HashWrapper( key );
+		}
+
+		long	heap0	= TestUtils.usedHeap();
+		long	t0		= System.nanoTime();
+
+		fill( db, keys, senders, threads );
+
+		long	t1		= System.nanoTime();
+		long	heap1	= TestUtils.usedHeap();
+
+		System.out.println(
+			String.format(
+				"%d keys, %d values stored by %d threads in %.0f ms, %.0f bytes per key",
+				count, db.getValueDetails()[DHTDBStats.VD_VALUE_COUNT], threads, ( t1 - t0 ) / 1e6, ( heap1 - heap0 ) / (double)count ));
+
+		for (int round=0;round<2;round++){
+
+			mixed( db, keys, senders, 1, seconds );
+			mixed( db, keys, senders, threads, seconds );
+		}
+
+		System.exit( 0 );
+	}
+
+		/**
+		 * One to three values per key from different senders, the way cached
+		 * values come in
+		 */
+
+	protected static void
+	fill(
+		final DHTDBImpl					db,
+		final HashWrapper[]				keys,
+		final DHTTransportContact[]		senders,
+		int								threads )
+
+		throws Exception
+	{
+		final CountDownLatch	done = new CountDownLatch( threads );
+
+		for (int t=0;t<threads;t++){
+
+			final int	first	= t;
+			final int	step	= threads;
+
+			new Thread()
+			{
+				public void
+				run()
+				{
+					try{
+						Random	rnd = new Random( first );
+
+						for (int i=first;i<keys.length;i+=step){
+
+							int	values = 1 + rnd.nextInt( 3 );
+
+							for (int v=0;v<values;v++){
+
+								store( db, keys[i], senders[rnd.nextInt( senders.length )], rnd );
+							}
+						}
+					}catch( Throwable e ){
+
+						e.printStackTrace();
+
+					}finally{
+
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+
+		done.await();
+	}
+
+		/**
+		 * 90% gets and 10% stores on random keys, with a thread going through
+		 * the whole store all the time like the republish and expiry scans
+		 */
+
+	protected static void
+	mixed(
+		final DHTDBImpl					db,
+		final HashWrapper[]				keys,
+		final DHTTransportContact[]		senders,
+		int								threads,
+		final int						seconds )
+
+		throws Exception
+	{
+		final AtomicLong	ops			= new AtomicLong();
+		final AtomicLong	max_wait	= new AtomicLong();
+		final AtomicLong	scans		= new AtomicLong();
+		final long			end			= System.nanoTime() + seconds * 1000000000L;
+
+		final CountDownLatch	done = new CountDownLatch( threads + 1 );
+
+		new Thread()
+		{
+			public void
+			run()
+			{
+				while( System.nanoTime() < end ){
+
+					db.checkCacheExpiration( true );
+
+					db.getValueDetails();
+
+					scans.incrementAndGet();
+				}
+
+				done.countDown();
+			}
+		}.start();
+
+		for (int t=0;t<threads;t++){
+
+			final Random	rnd = new Random( t + 100 );
+
+			new Thread()
+			{
+				public void
+				run()
+				{
+					long	n		= 0;
+					long	longest	= 0;
+
+					while( System.nanoTime() < end ){
+
+						HashWrapper	key = keys[rnd.nextInt( keys.length )];
+
+						long	s = System.nanoTime();
+
+						if ( rnd.nextInt( 10 ) == 0 ){
+
+							store( db, key, senders[rnd.nextInt( senders.length )], rnd );
+
+						}else{
+
+							DHTDBLookupResult	result = db.get( senders[rnd.nextInt( senders.length )], key, 0, (byte)0, true );
+
+							if ( result == null ){
+
+								throw( new IllegalStateException( "missing key" ));
+							}
+						}
+
+						longest = Math.max( longest, System.nanoTime() - s );
+
+						n++;
+					}
+
+					ops.addAndGet( n );
+
+					synchronized( max_wait ){
+
+						max_wait.set( Math.max( max_wait.get(), longest ));
+					}
+
+					done.countDown();
+				}
+			}.start();
+		}
+
+		done.await();
+
+		System.out.println(
+			String.format(
+				"%d thread(s): %.0f ops/s, longest %.1f ms, %d full scans alongside",
+				threads, ops.get() / (double)seconds, max_wait.get() / 1e6, scans.get()));
+	}
+
+	protected static void
+	store(
+		DHTDBImpl				db,
+		HashWrapper				key,
+		DHTTransportContact		sender,
+		Random					rnd )
+	{
+		byte[]	value = new byte[16 + rnd.nextInt( 48 )];
+
+		rnd.nextBytes( value );
+
+		DHTTransportValue	v = new DHTDBValueImpl( SystemTime.getCurrentTime(), value, 1, sender, sender, false, 0, 0, DHT.REP_FACT_DEFAULT );
+
+		db.store( sender, key, new DHTTransportValue[]{ v });
+	}
+}
@@ -0,0 +1,456 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) 2026 Aelitis, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * AELITIS, SAS au capital de 46,603.30 euros
+ * 8 Allee Lenotre, La Grille Royale, 78600 Le Mesnil le Roi, France.
+ *
+ */
+
+package com.aelitis.azureus.core.dht.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gudy.azureus2.core3.util.test.TestUtils;
+
+import com.aelitis.azureus.core.dht.DHT;
+import com.aelitis.azureus.core.dht.DHTFactory;
+import com.aelitis.azureus.core.dht.DHTLogger;
+import com.aelitis.azureus.core.dht.DHTOperationAdapter;
+import com.aelitis.azureus.core.dht.router.DHTRouterStats;
+import com.aelitis.azureus.core.dht.transport.DHTTransport;
+import com.aelitis.azureus.core.dht.transport.DHTTransportContact;
+import com.aelitis.azureus.core.dht.transport.DHTTransportFactory;
+import com.aelitis.azureus.core.dht.transport.DHTTransportValue;
+import com.aelitis.azureus.core.dht.transport.loopback.DHTTransportLoopbackImpl;
+
+/**
+ * Runs a whole DHT in one JVM over the loopback transport, so that changes
+ * to the control, router and database code can be measured without a
+ * network.
+ * <p>
+ * The nodes are created and integrated, each one bootstrapping from a node
+ * created before it, then the harness reports the memory and the routing
+ * table size per node, and runs lookups (gets of keys nobody stored), puts
+ * and gets of the stored keys from random nodes with a number of them in
+ * flight, showing the latency percentiles, the throughput and how many
+ * succeeded. The latency and the loss are those of the loopback transport;
+ * the loss is turned on after the nodes are integrated and lost messages
+ * fail after the request timeout, like on the network.
+ * <p>
+ * Usage: DHTSimulation [nodes] [operations] [in flight] [latency ms] [jitter ms] [loss %]
+ */
+
+public class
+DHTSimulation
+{
+	private static final int	ID_BYTES			= 20;
+	private static final int	BOOT_THREADS		= 32;
+	private static final int	REQUEST_TIMEOUT		= 2000;
+	private static final long	OPERATION_TIMEOUT	= 60000;
+
+	public static void
+	main(
+		String[]	args )
+
+		throws Exception
+	{
+		int	nodes		= args.length > 0 ? Integer.parseInt( args[0] ) : 1000;
+		int	operations	= args.length > 1 ? Integer.parseInt( args[1] ) : 1000;
+		int	in_flight	= args.length > 2 ? Integer.parseInt( args[2] ) : 100;
+		int	latency		= args.length > 3 ? Integer.parseInt( args[3] ) : 50;
+		int	jitter		= args.length > 4 ? Integer.parseInt( args[4] ) : 50;
+		int	loss		= args.length > 5 ? Integer.parseInt( args[5] ) : 1;
+
+		DHTTransportLoopbackImpl.setLatency( latency, jitter );
+		DHTTransportLoopbackImpl.setFailDelay( REQUEST_TIMEOUT );
+
+		DHTSimulation	simulation = new DHTSimulation( nodes );
+
+		long	heap0	= TestUtils.usedHeap();
+		long	t0		= System.currentTimeMillis();
+
+		simulation.create();
+
+		long	t1 = System.currentTimeMillis();
+
+		simulation.integrate();
+
+		long	t2		= System.currentTimeMillis();
+		long	heap1	= TestUtils.usedHeap();
+
+		System.out.println( String.format( "%d nodes: created in %d ms, integrated in %d ms, %.1f KB per node", nodes, t1 - t0, t2 - t1, ( heap1 - heap0 ) / 1024.0 / nodes ));
+
+		simulation.routingTables();
+
+		DHTTransportLoopbackImpl.setFailPercentage( loss );
+
+		System.out.println( String.format( "latency %d-%d ms, loss %d%%, %d operations, %d in flight", latency, latency + jitter, loss, operations, in_flight ));
+
+		simulation.run( new Lookup(), operations, in_flight );
+		simulation.run( new Put(), operations, in_flight );
+		simulation.run( new Get(), operations, in_flight );
+
+		System.out.println( "transport: " + DHTTransportLoopbackImpl.getOverallStats().getString());
+
+		System.exit( 0 );
+	}
+
+	private final DHT[]				dhts;
+	private final DHTTransport[]	transports;
+	private final Random			random		= new Random( 0 );
+	private final Properties		properties	= new Properties();
+
+	public
+	DHTSimulation(
+		int		nodes )
+	{
+		dhts		= new DHT[nodes];
+		transports	= new DHTTransport[nodes];
+
+			// refreshes and republishing are left to their defaults, the run is shorter than them
+
+		properties.put( DHT.PR_CONTACTS_PER_NODE, new Integer( 20 ));
+		properties.put( DHT.PR_NODE_SPLIT_FACTOR, new Integer( 5 ));
+	}
+
+	public void
+	create()
+	{
+		DHTLogger	logger = TestUtils.getNullDHTLogger();
+
+		for (int i=0;i<dhts.length;i++){
+
+			transports[i]	= DHTTransportFactory.createLoopback( ID_BYTES );
+			dhts[i]			= DHTFactory.create( transports[i], properties, null, null, logger );
+		}
+	}
+
+		/**
+		 * Each node imports a random node created before it and integrates, a
+		 * few at a time, the first one knows nobody
+		 */
+
+	public void
+	integrate()
+
+		throws Exception
+	{
+		final AtomicInteger	next		= new AtomicInteger( 1 );
+		final int[]			bootstrap	= new int[dhts.length];
+
+		for (int i=1;i<dhts.length;i++){
+
+			bootstrap[i] = random.nextInt( i );
+		}
+
+		final CountDownLatch	done = new CountDownLatch( BOOT_THREADS );
+
+		for (int t=0;t<BOOT_THREADS;t++){
+
+			new Thread( "DHTSimulation:integrate" )
+			{
+				public void
+				run()
+				{
+					try{
+						int	i;
+
+						while(( i = next.getAndIncrement()) < dhts.length ){
+
+							ByteArrayOutputStream	baos = new ByteArrayOutputStream();
+
+							DataOutputStream	daos = new DataOutputStream( baos );
+
+							transports[bootstrap[i]].getLocalContact().exportContact( daos );
+
+							daos.close();
+
+							transports[i].importContact( new DataInputStream( new ByteArrayInputStream( baos.toByteArray())), true );
+
+							dhts[i].integrate( true );
+
+							if ( i % 1000 == 0 ){
+
+								System.out.println( "integrated " + i + " nodes" );
+							}
+						}
+					}catch( Throwable e ){
+
+						e.printStackTrace();
+
+					}finally{
+
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+
+		done.await();
+	}
+
+	public void
+	routingTables()
+	{
+		long[]	contacts	= new long[dhts.length];
+		long	live		= 0;
+
+		for (int i=0;i<dhts.length;i++){
+
+			long[]	stats = dhts[i].getRouter().getStats().getStats();
+
+			contacts[i] = stats[DHTRouterStats.ST_CONTACTS];
+
+			live += stats[DHTRouterStats.ST_CONTACTS_LIVE];
+		}
+
+		Arrays.sort( contacts );
+
+		long	total = 0;
+
+		for ( long c: contacts ){
+
+			total += c;
+		}
+
+		System.out.println(
+			String.format(
+				"routing table: mean %.1f contacts (%.1f live), min %d, median %d, max %d",
+				total / (double)dhts.length, live / (double)dhts.length, contacts[0], contacts[contacts.length/2], contacts[contacts.length-1] ));
+	}
+
+		/**
+		 * Runs the operation from random nodes with at most the given number
+		 * in flight and reports the latencies
+		 */
+
+	public void
+	run(
+		final Operation		operation,
+		int					count,
+		int					in_flight )
+
+		throws Exception
+	{
+		final Semaphore			slots		= new Semaphore( in_flight );
+		final CountDownLatch	done		= new CountDownLatch( count );
+		final long[]			latencies	= new long[count];
+		final AtomicInteger		succeeded	= new AtomicInteger();
+
+		long	start = System.currentTimeMillis();
+
+		for (int i=0;i<count;i++){
+
+			slots.acquire();
+
+			final int	index	= i;
+			final long	t		= System.currentTimeMillis();
+
+			operation.start(
+				dhts[random.nextInt( dhts.length )],
+				index,
+				new Result()
+				{
+					public void
+					completed(
+						boolean	success )
+					{
+						latencies[index] = System.currentTimeMillis() - t;
+
+						if ( success ){
+
+							succeeded.incrementAndGet();
+						}
+
+						slots.release();
+
+						done.countDown();
+					}
+				});
+		}
+
+		done.await();
+
+		long	elapsed = System.currentTimeMillis() - start;
+
+		Arrays.sort( latencies );
+
+		System.out.println(
+			String.format(
+				"%-7s %6.1f ops/s, %d/%d succeeded, latency ms: p50 %d, p90 %d, p99 %d, max %d",
+				operation.getName(), count * 1000.0 / Math.max( 1, elapsed ), succeeded.get(), count,
+				latencies[count/2], latencies[count*9/10], latencies[count*99/100], latencies[count-1] ));
+	}
+
+	protected static byte[]
+	getKey(
+		int		index )
+	{
+		return(( "simulation key " + index ).getBytes());
+	}
+
+	protected interface
+	Result
+	{
+		public void
+		completed(
+			boolean	success );
+	}
+
+	protected interface
+	Operation
+	{
+		public String
+		getName();
+
+		public void
+		start(
+			DHT			dht,
+			int			index,
+			Result		result );
+	}
+
+		/**
+		 * A get of a key nobody stored, which looks up the closest nodes
+		 */
+
+	protected static class
+	Lookup
+		implements Operation
+	{
+		public String
+		getName()
+		{
+			return( "lookup" );
+		}
+
+		public void
+		start(
+			DHT				dht,
+			int				index,
+			final Result	result )
+		{
+			dht.get(
+				( "missing key " + index ).getBytes(), "lookup", (byte)0, 1, OPERATION_TIMEOUT, false, false,
+				new DHTOperationAdapter()
+				{
+					public void
+					complete(
+						boolean	timeout )
+					{
+						result.completed( !timeout );
+					}
+				});
+		}
+	}
+
+	protected static class
+	Put
+		implements Operation
+	{
+		public String
+		getName()
+		{
+			return( "put" );
+		}
+
+		public void
+		start(
+			DHT				dht,
+			int				index,
+			final Result	result )
+		{
+			final AtomicInteger	written = new AtomicInteger();
+
+			dht.put(
+				getKey( index ), "put", ( "value " + index ).getBytes(), DHT.FLAG_SINGLE_VALUE,
+				new DHTOperationAdapter()
+				{
+					public void
+					wrote(
+						DHTTransportContact	contact,
+						DHTTransportValue	value )
+					{
+						written.incrementAndGet();
+					}
+
+					public void
+					complete(
+						boolean	timeout )
+					{
+						result.completed( !timeout && written.get() > 0 );
+					}
+				});
+		}
+	}
+
+		/**
+		 * A get of a key stored by the puts, it succeeds if the value is read
+		 */
+
+	protected static class
+	Get
+		implements Operation
+	{
+		public String
+		getName()
+		{
+			return( "get" );
+		}
+
+		public void
+		start(
+			DHT				dht,
+			int				index,
+			final Result	result )
+		{
+			final byte[]		expected	= ( "value " + index ).getBytes();
+			final AtomicInteger	read		= new AtomicInteger();
+
+			dht.get(
+				getKey( index ), "get", (byte)0, 1, OPERATION_TIMEOUT, false, false,
+				new DHTOperationAdapter()
+				{
+					public void
+					read(
+						DHTTransportContact	contact,
+						DHTTransportValue	value )
+					{
+						if ( Arrays.equals( expected, value.getValue())){
+
+							read.incrementAndGet();
+						}
+					}
+
+					public void
+					complete(
+						boolean	timeout )
+					{
+						result.completed( read.get() > 0 );
+					}
+				});
+		}
+	}
+}
@@ -0,0 +1,318 @@
+/*
+ * Created on 17-Oct-2026
+ * Copyright (C) 2026 Aelitis, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * AELITIS, SAS au capital de 46,603.30 euros
+ * 8 Allee Lenotre, La Grille Royale, 78600 Le Mesnil le Roi, France.
+ *
+ */
+
+package com.aelitis.azureus.core.diskmanager.cache.impl;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.Random;
+
+import org.gudy.azureus2.core3.torrent.TOTorrent;
+import org.gudy.azureus2.core3.torrent.TOTorrentFactory;
+import org.gudy.azureus2.core3.torrent.TOTorrentFile;
+import org.gudy.azureus2.core3.util.*;
+
+import com.aelitis.azureus.core.diskmanager.cache.*;
+
+/**
+ * Random writes, reads and flushes from several threads against a cache much smaller
+ * than the files, checked against a copy of the data kept in memory. Each thread owns
+ * every THREADS-th block of every file, so the expected content of what it reads back
+ * is known without locking between the threads. At the end the files are closed and
+ * compared with the copy on disk.
+ *
+ * Usage: ConcurrentTest [operations per thread]
+ */
+
+public class
+ConcurrentTest
+{
+	private static final int	THREADS		= 8;
+	private static final int	FILES		= 4;
+	private static final int	FILE_SIZE	= 512*1024;
+	private static final int	BLOCK_SIZE	= 4*1024;
+	private static final int	PIECE_SIZE	= 16*1024;
+	private static final int	CACHE_SIZE	= 1024*1024;
+
+	public static void
+	main(
+		String	[]args )
+	{
+		int	operations = args.length > 0 ? Integer.parseInt( args[0] ) : 20000;
+
+		try{
+			CacheFileManagerImpl	manager = (CacheFileManagerImpl)CacheFileManagerFactory.getSingleton();
+
+			manager.initialise( true, true, true, CACHE_SIZE, 1024 );
+
+			boolean	ok = new ConcurrentTest().run( manager, operations );
+
+			System.out.println( ok?"matched the reference model":"FAILED" );
+
+			System.exit( ok?0:1 );
+
+		}catch( Throwable e ){
+
+			Debug.printStackTrace( e );
+
+			System.exit( 1 );
+		}
+	}
+
+	private volatile boolean	failed;
+
+	public boolean
+	run(
+		CacheFileManagerImpl	manager,
+		final int				operations )
+
+		throws Exception
+	{
+		File	dir = File.createTempFile( "cachetest", "" );
+
+		dir.delete();
+
+		final File	control_dir	= new File( dir, "control" );
+		File		source_dir	= new File( dir, "source" );
+		File		target_dir	= new File( dir, "target" );
+
+		control_dir.mkdirs();
+		source_dir.mkdirs();
+		target_dir.mkdirs();
+
+			// the files need a torrent, the data of the source files doesn't matter
+
+		for (int i=0;i<FILES;i++){
+
+			RandomAccessFile	raf = new RandomAccessFile( new File( source_dir, "file" + i ), "rw" );
+
+			raf.setLength( FILE_SIZE );
+
+			raf.close();
+		}
+
+		TOTorrent	torrent =
+			TOTorrentFactory.createFromFileOrDirWithFixedPieceLength(
+				source_dir,
+				new URL( "http://a.b.c/" ),
+				PIECE_SIZE ).create();
+
+		final TOTorrentFile[] torrent_files = torrent.getFiles();
+
+		final CacheFile[]	files 		= new CacheFile[FILES];
+		final File[]		targets		= new File[FILES];
+		final byte[][]		file_data	= new byte[FILES][FILE_SIZE];
+
+		for (int i=0;i<files.length;i++){
+
+			final TOTorrentFile	tf = torrent_files[i];
+
+			targets[i] = new File( target_dir, tf.getRelativePath());
+
+			files[i] = manager.createFile(
+				new CacheFileOwner()
+				{
+					public String
+					getCacheFileOwnerName()
+					{
+						return( tf.getRelativePath());
+					}
+
+					public TOTorrentFile
+					getCacheFileTorrentFile()
+					{
+						return( tf );
+					}
+					public File
+					getCacheFileControlFileDir()
+					{
+						return( control_dir );
+					}
+					public int
+					getCacheMode()
+					{
+						return( CacheFileOwner.CACHE_MODE_NORMAL );
+					}
+				},
+				targets[i], CacheFile.CT_LINEAR );
+
+			files[i].setAccessMode( CacheFile.CF_WRITE );
+
+			DirectByteBuffer	buffer = DirectByteBufferPool.getBuffer( DirectByteBuffer.AL_OTHER, FILE_SIZE );
+
+			buffer.put( DirectByteBuffer.SS_CACHE, file_data[i] );
+
+			buffer.position( DirectByteBuffer.SS_CACHE, 0 );
+
+			files[i].writeAndHandoverBuffer( buffer, 0 );
+		}
+
+		Thread[]	threads = new Thread[THREADS];
+
+		long	start = System.currentTimeMillis();
+
+		for (int t=0;t<THREADS;t++){
+
+			final int	t_i = t;
+
+			threads[t] =
+				new Thread( "ConcurrentTest:" + t )
+				{
+					public void
+					run()
+					{
+						try{
+							exercise( t_i, files, file_data, operations );
+
+						}catch( Throwable e ){
+
+							failed	= true;
+
+							Debug.printStackTrace( e );
+						}
+					}
+				};
+
+			threads[t].start();
+		}
+
+		for (int t=0;t<THREADS;t++){
+
+			threads[t].join();
+		}
+
+		System.out.println( "threads done in " + ( System.currentTimeMillis() - start ) + " ms, " + manager.getStats().getCacheHitRatio() + " hit ratio" );
+
+		for (int i=0;i<files.length;i++){
+
+			files[i].close();
+
+			byte[]	on_disk = new byte[FILE_SIZE];
+
+			RandomAccessFile	raf = new RandomAccessFile( targets[i], "r" );
+
+			try{
+				raf.readFully( on_disk );
+
+			}finally{
+
+				raf.close();
+			}
+
+			for (int j=0;j<FILE_SIZE;j++){
+
+				if ( on_disk[j] != file_data[i][j] ){
+
+					System.err.println( "mismatch on disk: file=" + i + ",pos=" + j );
+
+					failed	= true;
+
+					break;
+				}
+			}
+
+		}
+
+		FileUtil.recursiveDelete( dir );
+
+		return( !failed );
+	}
+
+	protected void
+	exercise(
+		int				thread,
+		CacheFile[]		files,
+		byte[][]		file_data,
+		int				operations )
+
+		throws Exception
+	{
+		Random	random = new Random( thread );
+
+		int	blocks = FILE_SIZE / BLOCK_SIZE / THREADS;
+
+		for (int x=0;x<operations && !failed;x++){
+
+			int	file_index = random.nextInt( files.length );
+
+			CacheFile	cf		= files[file_index];
+			byte[]		bytes	= file_data[file_index];
+
+				// somewhere in one of our blocks
+
+			int	block_start = ( random.nextInt( blocks )*THREADS + thread )*BLOCK_SIZE;
+
+			int	start	= block_start + random.nextInt( BLOCK_SIZE );
+			int	len		= 1 + random.nextInt( block_start + BLOCK_SIZE - start );
+
+			int	function = random.nextInt( 100 );
+
+			if ( function < 40 ){
+
+				DirectByteBuffer	buffer = DirectByteBufferPool.getBuffer( DirectByteBuffer.AL_OTHER, len );
+
+				try{
+					cf.read( buffer, start, CacheFile.CP_READ_CACHE );
+
+					buffer.position( DirectByteBuffer.SS_CACHE, 0 );
+
+					byte[]	data_read = new byte[len];
+
+					buffer.get( DirectByteBuffer.SS_CACHE, data_read );
+
+					for (int i=0;i<len;i++){
+
+						if ( data_read[i] != bytes[start+i] ){
+
+							throw( new Exception( "data read mismatch: file=" + file_index + ",pos=" + ( start + i )));
+						}
+					}
+				}finally{
+
+					buffer.returnToPool();
+				}
+			}else if ( function < 95 ){
+
+				DirectByteBuffer	buffer = DirectByteBufferPool.getBuffer( DirectByteBuffer.AL_OTHER, len );
+
+				for (int i=0;i<len;i++){
+
+					bytes[start+i] = (byte)random.nextInt( 256 );
+
+					buffer.put( DirectByteBuffer.SS_CACHE, bytes[start+i]);
+				}
+
+				buffer.position( DirectByteBuffer.SS_CACHE, 0 );
+
+				cf.writeAndHandoverBuffer( buffer, start );
+
+			}else if ( function < 99 ){
+
+				cf.flushCache();
+
+			}else{
+
+				cf.clearCache();
+			}
+		}
+	}
+}
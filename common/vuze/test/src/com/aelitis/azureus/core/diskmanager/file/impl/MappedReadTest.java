@@ -0,0 +1,239 @@
+/*
+ * Created on 17-Oct-2026
+ * Copyright (C) 2026 Aelitis, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * AELITIS, SAS au capital de 46,603.30 euros
+ * 8 Allee Lenotre, La Grille Royale, 78600 Le Mesnil le Roi, France.
+ *
+ */
+
+package com.aelitis.azureus.core.diskmanager.file.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.Random;
+
+import org.gudy.azureus2.core3.config.COConfigurationManager;
+import org.gudy.azureus2.core3.torrent.TOTorrent;
+import org.gudy.azureus2.core3.torrent.TOTorrentFactory;
+import org.gudy.azureus2.core3.torrent.TOTorrentFile;
+import org.gudy.azureus2.core3.util.*;
+
+import com.aelitis.azureus.core.diskmanager.file.*;
+
+/**
+ * Reads a file open in read mode at random offsets into one to three buffers, with the
+ * mapped windows enabled and a pool holding only part of the file, so the reads cross
+ * window boundaries and the end of the file while windows come and go. Every read is
+ * checked against the file contents.
+ *
+ * Usage: MappedReadTest [reads]
+ */
+
+public class
+MappedReadTest
+{
+	private static final int	FILE_SIZE	= 40*1024*1024 + 12345;
+	private static final int	MAX_BUFFER	= 64*1024;
+
+	public static void
+	main(
+		String	[]args )
+	{
+		int	reads = args.length > 0 ? Integer.parseInt( args[0] ) : 20000;
+
+		try{
+			COConfigurationManager.setParameter( "diskmanager.perf.read.mmap.enable", true );
+			COConfigurationManager.setParameter( "diskmanager.perf.read.mmap.maxmb", 40 );
+
+			boolean	ok = new MappedReadTest().run( reads );
+
+			System.out.println( ok?"all reads matched":"FAILED" );
+
+			System.exit( ok?0:1 );
+
+		}catch( Throwable e ){
+
+			Debug.printStackTrace( e );
+
+			System.exit( 1 );
+		}
+	}
+
+	public boolean
+	run(
+		int		reads )
+
+		throws Exception
+	{
+		File	dir = File.createTempFile( "mmaptest", "" );
+
+		dir.delete();
+
+		final File	control_dir = new File( dir, "control" );
+
+		control_dir.mkdirs();
+
+		File	data_file = new File( dir, "data.dat" );
+
+		Random	random = new Random( 0 );
+
+		byte[]	data = new byte[FILE_SIZE];
+
+		random.nextBytes( data );
+
+		FileOutputStream	fos = new FileOutputStream( data_file );
+
+		try{
+			fos.write( data );
+
+		}finally{
+
+			fos.close();
+		}
+
+		TOTorrent	torrent =
+			TOTorrentFactory.createFromFileOrDirWithFixedPieceLength(
+				data_file,
+				new URL( "http://a.b.c/" ),
+				256*1024 ).create();
+
+		final TOTorrentFile	tf = torrent.getFiles()[0];
+
+		FMFile	file = FMFileManagerFactory.getSingleton().createFile(
+			new FMFileOwner()
+			{
+				public String
+				getName()
+				{
+					return( "mmaptest" );
+				}
+				public TOTorrentFile
+				getTorrentFile()
+				{
+					return( tf );
+				}
+				public File
+				getControlFileDir()
+				{
+					return( control_dir );
+				}
+			},
+			data_file, FMFile.FT_LINEAR );
+
+		file.setAccessMode( FMFile.FM_READ );
+
+		boolean	failed = false;
+
+		try{
+				// make sure the reads below don't just go through the channel
+
+			RandomAccessFile	raf = new RandomAccessFile( data_file, "r" );
+
+			try{
+				DirectByteBuffer	probe = DirectByteBufferPool.getBuffer( DirectByteBuffer.AL_OTHER, 16 );
+
+				try{
+					if ( !FMFileMappedWindows.read((FMFileImpl)file, raf.getChannel(), new DirectByteBuffer[]{ probe }, 0 )){
+
+						System.err.println( "file not mapped" );
+
+						failed = true;
+					}
+				}finally{
+
+					probe.returnToPool();
+				}
+			}finally{
+
+				raf.close();
+			}
+
+			for (int x=0;x<reads && !failed;x++){
+
+				DirectByteBuffer[]	buffers = new DirectByteBuffer[ 1 + random.nextInt( 3 )];
+
+				int	wanted = 0;
+
+				for (int i=0;i<buffers.length;i++){
+
+					buffers[i] = DirectByteBufferPool.getBuffer( DirectByteBuffer.AL_OTHER, 1 + random.nextInt( MAX_BUFFER ));
+
+					wanted += buffers[i].remaining( DirectByteBuffer.SS_FILE );
+				}
+
+					// one read in ten close to the end of the file
+
+				long	offset = random.nextInt( 10 ) == 0?FILE_SIZE - 1 - random.nextInt( 2*MAX_BUFFER ):random.nextInt( FILE_SIZE );
+
+				try{
+					file.read( buffers, offset );
+
+					int	expected	= (int)Math.min( wanted, FILE_SIZE - offset );
+					int	pos			= (int)offset;
+
+					for (int i=0;i<buffers.length && !failed;i++){
+
+						DirectByteBuffer	buffer = buffers[i];
+
+						int	len = buffer.position( DirectByteBuffer.SS_FILE );
+
+						buffer.flip( DirectByteBuffer.SS_FILE );
+
+						byte[]	data_read = new byte[len];
+
+						buffer.get( DirectByteBuffer.SS_FILE, data_read );
+
+						for (int j=0;j<len;j++){
+
+							if ( data_read[j] != data[pos+j] ){
+
+								System.err.println( "mismatch: read=" + x + ",pos=" + ( pos + j ));
+
+								failed = true;
+
+								break;
+							}
+						}
+
+						pos += len;
+					}
+
+					if ( !failed && pos - offset != expected ){
+
+						System.err.println( "short read: read=" + x + ",offset=" + offset + ",got=" + ( pos - offset ) + ",expected=" + expected );
+
+						failed = true;
+					}
+				}finally{
+
+					for (int i=0;i<buffers.length;i++){
+
+						buffers[i].returnToPool();
+					}
+				}
+			}
+		}finally{
+
+			file.close();
+
+			FileUtil.recursiveDelete( dir );
+		}
+
+		return( !failed );
+	}
+}
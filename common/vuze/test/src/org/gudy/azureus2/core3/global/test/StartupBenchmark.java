@@ -0,0 +1,280 @@
+/*
+ * Created on 17-Oct-2026
+ * Copyright (C) 2026 Aelitis, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * AELITIS, SAS au capital de 46,603.30 euros
+ * 8 Allee Lenotre, La Grille Royale, 78600 Le Mesnil le Roi, France.
+ *
+ */
+
+package org.gudy.azureus2.core3.global.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.gudy.azureus2.core3.config.COConfigurationManager;
+import org.gudy.azureus2.core3.download.DownloadManager;
+import org.gudy.azureus2.core3.global.GlobalManager;
+import org.gudy.azureus2.core3.global.impl.GlobalManagerImpl;
+import org.gudy.azureus2.core3.torrent.TOTorrent;
+import org.gudy.azureus2.core3.torrent.TOTorrentFactory;
+import org.gudy.azureus2.core3.util.BEncoder;
+import org.gudy.azureus2.core3.util.FileUtil;
+import org.gudy.azureus2.core3.util.SystemProperties;
+
+import com.aelitis.azureus.core.AzureusCore;
+import com.aelitis.azureus.core.AzureusCoreFactory;
+
+/**
+ * Measures the load of the downloads at startup with synthetic state, a few
+ * seeding and most of them stopped.
+ * <p>
+ * Usage: StartupBenchmark [dir] [torrents]
+ * <p>
+ * The first run builds the state under dir and shuts down cleanly once so the
+ * per-torrent state and the global state cache exist. Each measure runs in its
+ * own JVM as the state is kept in static maps.
+ */
+
+public class
+StartupBenchmark
+{
+	private static final int	PIECE_LENGTH	= 256*1024;
+
+	public static void
+	main(
+		String[]	args )
+
+		throws Exception
+	{
+		if ( args.length > 0 && args[0].equals( "-load" )){
+
+			load( new File( args[1] ), Integer.parseInt( args[2] ), args[3].equals( "stop" ));
+
+			return;
+		}
+
+		File	dir			= new File( args.length > 0 ? args[0] : System.getProperty( "java.io.tmpdir" ) + "/startup-bench" );
+		int		torrents	= args.length > 1 ? Integer.parseInt( args[1] ) : 5000;
+
+		File	cache			= new File( dir, "active/cache.dat" );
+		File	cache_backup	= new File( dir, "cache.dat.bench" );
+
+		if ( !new File( dir, "downloads.config" ).exists()){
+
+			System.out.println( "Generating " + torrents + " torrents in " + dir );
+
+			generate( dir, torrents );
+
+				// creates the .dat files and the cache
+
+			fork( dir, 1, true );
+
+			FileUtil.copyFile( cache, cache_backup );
+		}
+
+		String[]	names = { "no cache, 1 thread", "no cache, 4 threads", "cache, 1 thread", "cache, 4 threads" };
+
+		for (int i=0;i<names.length;i++){
+
+			boolean	use_cache	= i >= 2;
+			int		threads		= i % 2 == 0 ? 1 : 4;
+
+			long	best = Long.MAX_VALUE;
+
+			for (int run=0;run<3;run++){
+
+				cache.delete();
+
+				if ( use_cache ){
+
+					FileUtil.copyFile( cache_backup, cache );
+				}
+
+				best = Math.min( best, fork( dir, threads, false ));
+			}
+
+			System.out.println( names[i] + ": " + best + " ms" );
+		}
+	}
+
+	protected static void
+	generate(
+		File	dir,
+		int		torrents )
+
+		throws Exception
+	{
+		File	torrents_dir = new File( dir, "torrents" );
+
+		torrents_dir.mkdirs();
+
+		Random	r = new Random( 0 );
+
+		List<Map<String,Object>>	downloads = new ArrayList<Map<String,Object>>();
+
+		for (int i=0;i<torrents;i++){
+
+			int	pieces = 16 + r.nextInt( 1024 );
+
+			byte[]	hashes = new byte[20*pieces];
+
+			r.nextBytes( hashes );
+
+			Map<String,Object>	info = new HashMap<String,Object>();
+
+			info.put( "name", "synthetic-" + i );
+			info.put( "piece length", new Long( PIECE_LENGTH ));
+			info.put( "pieces", hashes );
+			info.put( "length", new Long((long)pieces * PIECE_LENGTH ));
+
+			Map<String,Object>	t = new HashMap<String,Object>();
+
+			t.put( "announce", "http://tracker" + ( i % 50 ) + ".example.com/announce" );
+			t.put( "info", info );
+
+			byte[]	data = BEncoder.encode( t );
+
+			File	file = new File( torrents_dir, i + ".torrent" );
+
+			FileOutputStream	os = new FileOutputStream( file );
+
+			try{
+				os.write( data );
+
+			}finally{
+
+				os.close();
+			}
+
+			TOTorrent	torrent = TOTorrentFactory.deserialiseFromBEncodedByteArray( data );
+
+			Map<String,Object>	dm = new HashMap<String,Object>();
+
+			dm.put( "torrent", file.getAbsolutePath());
+			dm.put( "torrent_hash", torrent.getHash());
+			dm.put( "save_dir", new File( dir, "data" ).getAbsolutePath());
+			dm.put( "save_file", "synthetic-" + i );
+			dm.put( "persistent", new Long( 1 ));
+			dm.put( "position", new Long( i + 1 ));
+			dm.put( "state", new Long( i % 10 == 0 ? DownloadManager.STATE_QUEUED : DownloadManager.STATE_STOPPED ));
+			dm.put( "secondsDownloading", new Long( 0 ));
+
+			downloads.add( dm );
+		}
+
+		Map<String,Object>	config = new HashMap<String,Object>();
+
+		config.put( "downloads", downloads );
+
+		FileOutputStream	os = new FileOutputStream( new File( dir, "downloads.config" ));
+
+		try{
+			os.write( BEncoder.encode( config ));
+
+		}finally{
+
+			os.close();
+		}
+	}
+
+	protected static long
+	fork(
+		File		dir,
+		int			threads,
+		boolean		stop )
+
+		throws Exception
+	{
+		String	java = System.getProperty( "java.home" ) + File.separator + "bin" + File.separator + "java";
+
+		ProcessBuilder	pb =
+			new ProcessBuilder(
+				java, "-cp", System.getProperty( "java.class.path" ),
+				"-D" + SystemProperties.SYS_PROP_CONFIG_OVERRIDE + "=" + dir.getAbsolutePath(),
+				StartupBenchmark.class.getName(), "-load", dir.getAbsolutePath(), String.valueOf( threads ), stop?"stop":"keep" );
+
+		pb.redirectErrorStream( true );
+
+		Process	p = pb.start();
+
+		BufferedReader	reader = new BufferedReader( new InputStreamReader( p.getInputStream()));
+
+		long	elapsed = -1;
+
+		String	line;
+
+		while(( line = reader.readLine()) != null ){
+
+			if ( line.startsWith( "elapsed=" )){
+
+				elapsed = Long.parseLong( line.substring( 8 ));
+			}
+		}
+
+		p.waitFor();
+
+		if ( elapsed < 0 ){
+
+			throw( new IllegalStateException( "load failed in child JVM" ));
+		}
+
+		return( elapsed );
+	}
+
+	protected static void
+	load(
+		File		dir,
+		int			threads,
+		boolean		stop )
+	{
+		COConfigurationManager.initialise();
+
+		COConfigurationManager.setParameter( "globalmanager.load.threads", threads );
+
+			// not started, the tag manager only needs it to exist
+
+		AzureusCore	core = AzureusCoreFactory.create();
+
+		long	start = System.nanoTime();
+
+		GlobalManager	gm = new GlobalManagerImpl( core, null, 0 );
+
+		long	elapsed = ( System.nanoTime() - start ) / 1000000;
+
+		if ( gm.getDownloadManagers().isEmpty()){
+
+			System.out.println( "no downloads loaded" );
+
+		}else{
+
+			System.out.println( "elapsed=" + elapsed );
+		}
+
+		if ( stop ){
+
+			gm.stopGlobalManager();
+		}
+
+		System.exit( 0 );
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Created on 17-Oct-2026
+ * Copyright (C) 2026 Aelitis, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * AELITIS, SAS au capital de 46,603.30 euros
+ * 8 Allee Lenotre, La Grille Royale, 78600 Le Mesnil le Roi, France.
+ *
+ */
+
+package org.gudy.azureus2.core3.ipfilter.test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gudy.azureus2.core3.ipfilter.IpRange;
+import org.gudy.azureus2.core3.ipfilter.impl.IPAddressRangeManager;
+import org.gudy.azureus2.core3.ipfilter.impl.IpRangeImpl;
+import org.gudy.azureus2.core3.tracker.protocol.PRHelpers;
+import org.gudy.azureus2.core3.util.test.TestUtils;
+
+/**
+ * Loads a blocklist of a million random ranges, the size of the big P2P
+ * lists, into an {@link IPAddressRangeManager} and reports the time to add
+ * them, the time of the first rebuild, the heap kept and the lookups per
+ * second from one and from several threads. The lookups are checked
+ * against a plain scan of the ranges.
+ * <p>
+ * Usage: IPAddressRangeBenchmark [ranges] [threads] [seconds]
+ */
+
+public class
+IPAddressRangeBenchmark
+{
+	public static void
+	main(
+		String[]	args )
+
+		throws Exception
+	{
+		int	count	= args.length > 0 ? Integer.parseInt( args[0] ) : 1000000;
+		int	threads	= args.length > 1 ? Integer.parseInt( args[1] ) : 4;
+		int	seconds	= args.length > 2 ? Integer.parseInt( args[2] ) : 5;
+
+		Random	rnd = new Random( 0 );
+
+		int[]	starts	= new int[count];
+		int[]	ends	= new int[count];
+
+		for (int i=0;i<count;i++){
+
+				// like the lists: mostly small ranges, some of them overlapping
+
+			starts[i]	= rnd.nextInt();
+			ends[i]		= (int)Math.min( 0xffffffffL, ( starts[i] & 0xffffffffL ) + ( i % 100 == 0 ? rnd.nextInt( 1 << 20 ) : rnd.nextInt( 256 )));
+		}
+
+		long	heap0 = TestUtils.usedHeap();
+
+		Manager	manager = new Manager();
+
+		long	t0 = System.nanoTime();
+
+		for (int i=0;i<count;i++){
+
+			manager.addRange( new IpRangeImpl( "", starts[i], ends[i], true ));
+		}
+
+		long	t1 = System.nanoTime();
+
+		manager.isInRange( "1.2.3.4" );
+
+		long	t2 = System.nanoTime();
+
+		long	heap1 = TestUtils.usedHeap();
+
+		System.out.println(
+			String.format(
+				"%d ranges: add %.0f ms, first rebuild %.0f ms, %.1f MB kept by the ranges and the manager, span %d",
+				count, ( t1 - t0 ) / 1e6, ( t2 - t1 ) / 1e6, ( heap1 - heap0 ) / 1e6, manager.getSpan()));
+
+		check( manager, starts, ends, 2000 );
+
+		lookups( manager, starts, 1, seconds );
+		lookups( manager, starts, threads, seconds );
+	}
+
+	protected static void
+	check(
+		Manager		manager,
+		int[]		starts,
+		int[]		ends,
+		int			samples )
+	{
+		Random	rnd = new Random( 1 );
+
+		int	hits = 0;
+
+		for (int n=0;n<samples;n++){
+
+			long	address = n % 2 == 0 ? rnd.nextInt() & 0xffffffffL : ( starts[rnd.nextInt( starts.length )] & 0xffffffffL ) + rnd.nextInt( 8 );
+
+			address = Math.min( address, 0xffffffffL );
+
+			boolean	expected = false;
+
+			for (int i=0;i<starts.length && !expected;i++){
+
+				expected = ( starts[i] & 0xffffffffL ) <= address && address <= ( ends[i] & 0xffffffffL );
+			}
+
+			IpRange	match = (IpRange)manager.isInRange( PRHelpers.intToAddress((int)address ));
+
+			if (	( match != null ) != expected ||
+					( match != null && ( match.getStartIpLong() > address || match.getEndIpLong() < address ))){
+
+				throw( new IllegalStateException( "wrong result for " + PRHelpers.intToAddress((int)address ) + ": " + match ));
+			}
+
+			if ( expected ){
+
+				hits++;
+			}
+		}
+
+		System.out.println( "check: " + samples + " addresses agree with a scan of the ranges, " + hits + " blocked" );
+	}
+
+	protected static void
+	lookups(
+		final Manager	manager,
+		int[]			starts,
+		int				threads,
+		final int		seconds )
+
+		throws Exception
+	{
+			// the addresses are prepared so the time is in the lookup, not in the parsing
+
+		final String[]	addresses = new String[1 << 16];
+
+		Random	rnd = new Random( 2 );
+
+		for (int i=0;i<addresses.length;i++){
+
+			int	address = i % 2 == 0 ? rnd.nextInt() : starts[rnd.nextInt( starts.length )];
+
+			addresses[i] = PRHelpers.intToAddress( address );
+		}
+
+		final AtomicLong		total	= new AtomicLong();
+		final AtomicLong		blocked	= new AtomicLong();
+		final CountDownLatch	done	= new CountDownLatch( threads );
+
+		for (int t=0;t<threads;t++){
+
+			new Thread()
+			{
+				public void
+				run()
+				{
+					long	n		= 0;
+					long	hits	= 0;
+					long	end		= System.nanoTime() + seconds * 1000000000L;
+
+					while( System.nanoTime() < end ){
+
+						for (int i=0;i<1024;i++){
+
+							if ( manager.isInRange( addresses[(int)( n++ & ( addresses.length - 1 ))]) != null ){
+
+								hits++;
+							}
+						}
+					}
+
+					total.addAndGet( n );
+					blocked.addAndGet( hits );
+
+					done.countDown();
+				}
+			}.start();
+		}
+
+		done.await();
+
+		System.out.println( String.format( "%d thread(s): %.0f lookups/s, %d blocked", threads, total.get() / (double)seconds, blocked.get()));
+	}
+
+	protected static class
+	Manager
+		extends IPAddressRangeManager
+	{
+		public long
+		getSpan()
+		{
+			return( getTotalSpan());
+		}
+	}
+}
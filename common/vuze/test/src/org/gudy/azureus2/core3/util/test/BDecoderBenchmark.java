@@ -0,0 +1,389 @@
+/*
+ * Created on 17-Oct-2026
+ * Copyright (C) 2026 Aelitis, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * AELITIS, SAS au capital de 46,603.30 euros
+ * 8 Allee Lenotre, La Grille Royale, 78600 Le Mesnil le Roi, France.
+ *
+ */
+
+package org.gudy.azureus2.core3.util.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.gudy.azureus2.core3.util.BDecoder;
+import org.gudy.azureus2.core3.util.BEncoder;
+import org.gudy.azureus2.core3.util.SHA1Hasher;
+
+import com.frostwire.torrent.BNode;
+
+/**
+ * Compares the decoders on a big synthetic torrent: the Vuze BDecoder, the
+ * FrostWire BDecoder (package private, called by reflection) and BNode.
+ * <p>
+ * Each one is timed decoding the whole torrent and then reading what a
+ * client needs first: the name, the piece length and the pieces, and
+ * separately getting the info hash, which the old decoders do by encoding
+ * the info dictionary again. The bytes allocated per operation are shown
+ * when the JVM can tell. BNode is also checked to give the same tree and
+ * the same info hash.
+ * <p>
+ * Usage: BDecoderBenchmark [files] [pieces] [seconds]
+ */
+
+@SuppressWarnings("rawtypes")
+public class
+BDecoderBenchmark
+{
+	public static void
+	main(
+		String[]	args )
+
+		throws Exception
+	{
+		int	files	= args.length > 0 ? Integer.parseInt( args[0] ) : 5000;
+		int	pieces	= args.length > 1 ? Integer.parseInt( args[1] ) : 50000;
+		int	seconds	= args.length > 2 ? Integer.parseInt( args[2] ) : 5;
+
+		final byte[]	data = createTorrent( files, pieces );
+
+		System.out.println( "torrent: " + files + " files, " + pieces + " pieces, " + data.length + " bytes" );
+
+		check( data );
+
+		Class<?>	c = Class.forName( "com.frostwire.torrent.BDecoder" );
+
+		final Method	fw_decode = c.getDeclaredMethod( "decode", byte[].class );
+
+		fw_decode.setAccessible( true );
+
+		Task[]	tasks = {
+			new Task( "vuze BDecoder" )
+			{
+				protected long
+				run()
+
+					throws Exception
+				{
+					Map		root	= BDecoder.decode( data );
+					Map		info	= (Map)root.get( "info" );
+					byte[]	name	= (byte[])info.get( "name" );
+					long	length	= ((Long)info.get( "piece length" )).longValue();
+					byte[]	p		= (byte[])info.get( "pieces" );
+
+					return( name.length + length + p.length );
+				}
+			},
+			new Task( "frostwire BDecoder" )
+			{
+				protected long
+				run()
+
+					throws Exception
+				{
+					Map		root	= (Map)fw_decode.invoke( null, data );
+					Map		info	= (Map)root.get( "info" );
+					byte[]	name	= (byte[])info.get( "name" );
+					long	length	= ((Long)info.get( "piece length" )).longValue();
+					byte[]	p		= (byte[])info.get( "pieces" );
+
+					return( name.length + length + p.length );
+				}
+			},
+			new Task( "BNode" )
+			{
+				protected long
+				run()
+
+					throws Exception
+				{
+					BNode		root	= BNode.decode( data );
+					BNode		info	= root.get( "info" );
+					ByteBuffer	name	= info.get( "name" ).slice();
+					long		length	= info.get( "piece length" ).longValue();
+					ByteBuffer	p		= info.get( "pieces" ).slice();
+
+					return( name.remaining() + length + p.remaining());
+				}
+			},
+			new Task( "BNode toObject" )
+			{
+				protected long
+				run()
+
+					throws Exception
+				{
+					Map	root = (Map)BNode.decode( data ).toObject();
+
+					return( root.size());
+				}
+			},
+			new Task( "vuze info hash" )
+			{
+				protected long
+				run()
+
+					throws Exception
+				{
+					Map	info = (Map)BDecoder.decode( data ).get( "info" );
+
+					return( new SHA1Hasher().calculateHash( BEncoder.encode( info ))[0] );
+				}
+			},
+			new Task( "BNode info hash" )
+			{
+				protected long
+				run()
+
+					throws Exception
+				{
+					BNode	info = BNode.decode( data ).get( "info" );
+
+					return( new SHA1Hasher().calculateHash( info.raw())[0] );
+				}
+			}};
+
+			// warm up
+
+		for ( Task t: tasks ){
+
+			t.measure( 1 );
+		}
+
+		for ( Task t: tasks ){
+
+			t.report( t.measure( seconds ));
+		}
+	}
+
+	protected static void
+	check(
+		byte[]	data )
+
+		throws Exception
+	{
+		Map		expected	= BDecoder.decode( data );
+		BNode	root		= BNode.decode( data );
+
+		if ( !same( expected, root.toObject())){
+
+			throw( new IllegalStateException( "BNode tree differs from BDecoder" ));
+		}
+
+		byte[]	hash1 = new SHA1Hasher().calculateHash( BEncoder.encode((Map)expected.get( "info" )));
+		byte[]	hash2 = new SHA1Hasher().calculateHash( root.get( "info" ).raw());
+
+		if ( !Arrays.equals( hash1, hash2 )){
+
+			throw( new IllegalStateException( "BNode info hash differs" ));
+		}
+
+		if ( root.rawLength() != data.length ){
+
+			throw( new IllegalStateException( "BNode raw length differs" ));
+		}
+
+		System.out.println( "check: BNode gives the same tree and info hash" );
+	}
+
+	protected static boolean
+	same(
+		Object	a,
+		Object	b )
+	{
+		if ( a instanceof byte[] ){
+
+			return( b instanceof byte[] && Arrays.equals((byte[])a, (byte[])b ));
+		}
+
+		if ( a instanceof Map ){
+
+			Map	ma = (Map)a;
+			Map	mb = (Map)b;
+
+			if ( ma.size() != mb.size()){
+
+				return( false );
+			}
+
+			Iterator	it = ma.keySet().iterator();
+
+			while( it.hasNext()){
+
+				Object	k = it.next();
+
+				if ( !same( ma.get( k ), mb.get( k ))){
+
+					return( false );
+				}
+			}
+
+			return( true );
+		}
+
+		if ( a instanceof List ){
+
+			List	la = (List)a;
+			List	lb = (List)b;
+
+			if ( la.size() != lb.size()){
+
+				return( false );
+			}
+
+			for (int i=0;i<la.size();i++){
+
+				if ( !same( la.get( i ), lb.get( i ))){
+
+					return( false );
+				}
+			}
+
+			return( true );
+		}
+
+		return( a.equals( b ));
+	}
+
+	protected static byte[]
+	createTorrent(
+		int		files,
+		int		pieces )
+
+		throws Exception
+	{
+		Random	rnd = new Random( 0 );
+
+		List<Object>	list = new ArrayList<Object>();
+
+		for (int i=0;i<files;i++){
+
+			Map<String,Object>	file = new HashMap<String,Object>();
+
+			file.put( "length", new Long( rnd.nextInt( 1 << 30 )));
+
+			List<Object>	path = new ArrayList<Object>();
+
+			path.add(( "folder " + ( i % 50 )).getBytes( "UTF-8" ));
+			path.add(( "file number " + i + ".dat" ).getBytes( "UTF-8" ));
+
+			file.put( "path", path );
+
+			list.add( file );
+		}
+
+		byte[]	p = new byte[20*pieces];
+
+		rnd.nextBytes( p );
+
+		Map<String,Object>	info = new HashMap<String,Object>();
+
+		info.put( "name", "benchmark".getBytes( "UTF-8" ));
+		info.put( "piece length", new Long( 256*1024 ));
+		info.put( "pieces", p );
+		info.put( "files", list );
+
+		Map<String,Object>	root = new HashMap<String,Object>();
+
+		root.put( "announce", "http://tracker.example.com/announce".getBytes( "UTF-8" ));
+		root.put( "creation date", new Long( System.currentTimeMillis() / 1000 ));
+		root.put( "info", info );
+
+		return( BEncoder.encode( root ));
+	}
+
+	protected abstract static class
+	Task
+	{
+		private final String	name;
+
+			// keeps the results alive so the work isn't optimized away
+
+		private long	sink;
+
+		protected
+		Task(
+			String	_name )
+		{
+			name	= _name;
+		}
+
+		protected abstract long
+		run()
+
+			throws Exception;
+
+		protected long[]
+		measure(
+			int		seconds )
+
+			throws Exception
+		{
+			System.gc();
+
+			long	allocated	= getAllocatedBytes();
+			long	end			= System.nanoTime() + seconds * 1000000000L;
+			long	time		= 0;
+			long	count		= 0;
+
+			while( System.nanoTime() < end ){
+
+				long	t = System.nanoTime();
+
+				sink += run();
+
+				time += System.nanoTime() - t;
+
+				count++;
+			}
+
+			allocated = allocated < 0 ? -1 : getAllocatedBytes() - allocated;
+
+			return( new long[]{ time, count, allocated });
+		}
+
+		protected void
+		report(
+			long[]	r )
+		{
+			String	bytes = r[2] < 0 ? "n/a" : String.valueOf( r[2] / r[1] );
+
+			System.out.println( String.format( "%-20s %10.3f ms/op %12s bytes/op (%d ops, %d)", name, r[0] / 1000000.0 / r[1], bytes, r[1], sink & 1 ));
+		}
+
+		protected static long
+		getAllocatedBytes()
+		{
+			ThreadMXBean	bean = ManagementFactory.getThreadMXBean();
+
+			if ( bean instanceof com.sun.management.ThreadMXBean ){
+
+				return(((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes( Thread.currentThread().getId()));
+			}
+
+			return( -1 );
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) 2026 Aelitis, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * AELITIS, SAS au capital de 46,603.30 euros
+ * 8 Allee Lenotre, La Grille Royale, 78600 Le Mesnil le Roi, France.
+ *
+ */
+
+package org.gudy.azureus2.core3.util.test;
+
+import org.gudy.azureus2.plugins.PluginInterface;
+
+import com.aelitis.azureus.core.dht.DHTLogger;
+
+/**
+ * Helpers shared by the benchmarks and simulations of the test tree
+ */
+
+public class
+TestUtils
+{
+	private static final DHTLogger	null_dht_logger =
+		new DHTLogger()
+		{
+			public void
+			log(
+				String	str )
+			{
+			}
+
+			public void
+			log(
+				Throwable	e )
+			{
+			}
+
+			public void
+			log(
+				int		log_type,
+				String	str )
+			{
+			}
+
+			public boolean
+			isEnabled(
+				int	log_type )
+			{
+				return( false );
+			}
+
+			public PluginInterface
+			getPluginInterface()
+			{
+				return( null );
+			}
+		};
+
+		/**
+		 * the heap in use once the garbage collector has had a few goes at it
+		 */
+
+	public static long
+	usedHeap()
+
+		throws InterruptedException
+	{
+		Runtime	rt = Runtime.getRuntime();
+
+		for (int i=0;i<3;i++){
+
+			System.gc();
+
+			Thread.sleep( 100 );
+		}
+
+		return( rt.totalMemory() - rt.freeMemory());
+	}
+
+		/**
+		 * a logger that drops everything, the output of a lot of nodes would
+		 * bury the results
+		 */
+
+	public static DHTLogger
+	getNullDHTLogger()
+	{
+		return( null_dht_logger );
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Created on 17-Oct-2026
+ * Copyright (C) 2026 Aelitis, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * AELITIS, SAS au capital de 46,603.30 euros
+ * 8 Allee Lenotre, La Grille Royale, 78600 Le Mesnil le Roi, France.
+ *
+ */
+
+package org.gudy.azureus2.core3.util.test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gudy.azureus2.core3.util.SystemTime;
+import org.gudy.azureus2.core3.util.Timer;
+import org.gudy.azureus2.core3.util.TimerEvent;
+import org.gudy.azureus2.core3.util.TimerEventPerformer;
+
+/**
+ * Schedules and cancels a million timeouts on a {@link Timer} from several
+ * threads, the way peers, trackers and DHT requests use their timeouts, and
+ * then checks that short events fire on time and cancelled ones don't.
+ * <p>
+ * Usage: TimerBenchmark [timeouts] [threads]
+ */
+
+public class
+TimerBenchmark
+{
+	public static void
+	main(
+		String[]	args )
+
+		throws Exception
+	{
+		int	timeouts	= args.length > 0 ? Integer.parseInt( args[0] ) : 1000000;
+		int	threads		= args.length > 1 ? Integer.parseInt( args[1] ) : 4;
+
+		Timer	timer = new Timer( "benchmark" );
+
+		for (int round=0;round<3;round++){
+
+			scheduleAndCancel( timer, timeouts, threads );
+		}
+
+		checkFiring( timer, 20000 );
+
+		timer.destroy();
+	}
+
+	protected static void
+	scheduleAndCancel(
+		final Timer		timer,
+		int				timeouts,
+		int				threads )
+
+		throws Exception
+	{
+		final TimerEventPerformer	performer =
+			new TimerEventPerformer()
+			{
+				public void
+				perform(
+					TimerEvent	event )
+				{
+				}
+			};
+
+		final int				per_thread	= timeouts / threads;
+		final CountDownLatch	start		= new CountDownLatch( 1 );
+		final CountDownLatch	done		= new CountDownLatch( threads );
+
+		for (int t=0;t<threads;t++){
+
+			final Random	rnd = new Random( t );
+
+			new Thread()
+			{
+				public void
+				run()
+				{
+					try{
+						start.await();
+
+						TimerEvent[]	events = new TimerEvent[1024];
+
+						for (int i=0;i<per_thread;i++){
+
+								// timeouts between 5 and 65 seconds, cancelled shortly after like a reply came
+
+							long	when = SystemTime.getCurrentTime() + 5000 + rnd.nextInt( 60000 );
+
+							int	slot = i & ( events.length - 1 );
+
+							if ( events[slot] != null ){
+
+								events[slot].cancel();
+							}
+
+							events[slot] = timer.addEvent( when, performer );
+						}
+
+						for ( TimerEvent e: events ){
+
+							if ( e != null ){
+
+								e.cancel();
+							}
+						}
+					}catch( Throwable e ){
+
+						e.printStackTrace();
+
+					}finally{
+
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+
+		long	t0 = System.nanoTime();
+
+		start.countDown();
+
+		done.await();
+
+		long	t1 = System.nanoTime();
+
+			// the timer has drained what was cancelled once getEvents returns
+
+		int	left = timer.getEvents().size();
+
+		long	t2 = System.nanoTime();
+
+		System.out.println(
+			String.format(
+				"%d timeouts scheduled and cancelled by %d threads: %.0f ms (%.0f ns each), drain %.0f ms, %d left",
+				per_thread * threads, threads, ( t1 - t0 ) / 1e6, (double)( t1 - t0 ) / ( per_thread * threads ), ( t2 - t1 ) / 1e6, left ));
+	}
+
+	protected static void
+	checkFiring(
+		Timer	timer,
+		int		count )
+
+		throws Exception
+	{
+		final CountDownLatch	fired		= new CountDownLatch( count / 2 );
+		final AtomicInteger		early		= new AtomicInteger();
+		final AtomicInteger		wrong		= new AtomicInteger();
+		final AtomicLong		lateness	= new AtomicLong();
+
+		Random	rnd = new Random( 1 );
+
+		TimerEvent[]	events = new TimerEvent[count];
+
+		for (int i=0;i<count;i++){
+
+			final boolean	cancel = i % 2 == 1;
+
+			long	when = SystemTime.getCurrentTime() + 500 + rnd.nextInt( 2500 );
+
+			events[i] = timer.addEvent(
+				when,
+				new TimerEventPerformer()
+				{
+					public void
+					perform(
+						TimerEvent	event )
+					{
+						long	late = SystemTime.getCurrentTime() - event.getWhen();
+
+						if ( late < -SystemTime.TIME_GRANULARITY_MILLIS ){
+
+							early.incrementAndGet();
+						}
+
+						if ( cancel ){
+
+							wrong.incrementAndGet();
+
+						}else{
+
+							lateness.addAndGet( late );
+
+							fired.countDown();
+						}
+					}
+				});
+		}
+
+		for (int i=1;i<count;i+=2){
+
+			events[i].cancel();
+		}
+
+		fired.await();
+
+		Thread.sleep( 3500 );
+
+		System.out.println(
+			String.format(
+				"%d events fired, %d early, %d cancelled ones ran, mean lateness %.1f ms",
+				count / 2, early.get(), wrong.get(), lateness.get() / ( count / 2.0 )));
+	}
+}
@@ -18,6 +18,11 @@
 
 package com.frostwire.core.providers;
 
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+
 import com.frostwire.content.ContentValues;
 import com.frostwire.content.Context;
 import com.frostwire.core.Constants;
@@ -39,7 +44,11 @@ public final class ShareFilesDB {
 
     private static final String DATABASE_NAME = "sharefiles";
 
-    private static final int DATABASE_VERSION = 1;
+    /**
+     * Version 2 stores the file size as BIGINT, the rows of version 1 are
+     * copied over when the new database is created.
+     */
+    private static final int DATABASE_VERSION = 2;
 
     private static final String TABLE_NAME = "ShareFiles";
 
@@ -47,6 +56,15 @@ public final class ShareFilesDB {
 
     private final DatabaseHelper databaseHelper;
 
+    /**
+     * Number of shared rows per file type, or null when it has to be
+     * counted again. Writes and counts are serialized on this lock so
+     * the counters never miss or double count a row.
+     */
+    private final Object sharedCountsLock;
+    private int[] sharedCounts;
+    private final long[] versions;
+
     private static ShareFilesDB instance = new ShareFilesDB();
 
     public static ShareFilesDB intance() {
@@ -55,9 +73,15 @@ public final class ShareFilesDB {
 
     private ShareFilesDB() {
         databaseHelper = new DatabaseHelper(new Context());
+        sharedCountsLock = new Object();
+        versions = new long[256];
     }
 
     public Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return query(projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    public Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit) {
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
 
         qb.setTables(TABLE_NAME);
@@ -74,12 +98,79 @@ public final class ShareFilesDB {
         // Get the database and run the query
         SQLiteDatabase db = databaseHelper.getReadableDatabase();
 
-        Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+        Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
 
         return c;
     }
 
     public long insert(ContentValues initialValues) {
+        ContentValues values = withDefaults(initialValues);
+
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        synchronized (sharedCountsLock) {
+            long result = db.insert(TABLE_NAME, "", values);
+
+            if (result > 0) {
+                versions[values.getAsByte(Columns.FILE_TYPE).byteValue() & 0xFF]++;
+
+                if (sharedCounts != null) {
+                    incrementShared(values);
+                }
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Inserts all the rows in a single transaction.
+     *
+     * @return the number of rows inserted, or -1 if none was inserted because of an error
+     */
+    public int bulkInsert(ContentValues[] initialValues) {
+        return bulkInsert(null, null, initialValues);
+    }
+
+    /**
+     * Deletes the rows matching the WHERE clause and inserts the new ones in
+     * a single transaction.
+     *
+     * @param where the WHERE clause of the delete, null for no delete
+     * @return the number of rows inserted, or -1 if nothing was done because of an error
+     */
+    public int bulkInsert(String where, String[] whereArgs, ContentValues[] initialValues) {
+        ContentValues[] values = new ContentValues[initialValues.length];
+        for (int i = 0; i < initialValues.length; i++) {
+            values[i] = withDefaults(initialValues[i]);
+        }
+
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        synchronized (sharedCountsLock) {
+            int result = db.bulkInsert(TABLE_NAME, where, whereArgs, values);
+
+            if (result > 0 && where != null) {
+                // the deleted rows are not known, count again
+                sharedCounts = null;
+                incrementVersions();
+            }
+
+            if (result > 0) {
+                for (ContentValues v : values) {
+                    versions[v.getAsByte(Columns.FILE_TYPE).byteValue() & 0xFF]++;
+
+                    if (sharedCounts != null) {
+                        incrementShared(v);
+                    }
+                }
+            }
+
+            return result;
+        }
+    }
+
+    private ContentValues withDefaults(ContentValues initialValues) {
         ContentValues values;
 
         if (initialValues != null) {
@@ -134,26 +225,102 @@ public final class ShareFilesDB {
             values.put(Columns.YEAR, "");
         }
 
-        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        return values;
+    }
 
-        return db.insert(TABLE_NAME, "", values);
+    private void incrementShared(ContentValues values) {
+        if (Boolean.TRUE.equals(values.getAsBoolean(Columns.SHARED))) {
+            sharedCounts[values.getAsByte(Columns.FILE_TYPE).byteValue() & 0xFF]++;
+        }
     }
 
     public int delete(String where, String[] whereArgs) {
         SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
-        int count = db.delete(TABLE_NAME, where, whereArgs);
+        synchronized (sharedCountsLock) {
+            int count = db.delete(TABLE_NAME, where, whereArgs);
+
+            if (count > 0) {
+                sharedCounts = null;
+                incrementVersions();
+            }
 
-        return count;
+            return count;
+        }
     }
 
     public int update(ContentValues values, String where, String[] whereArgs) {
 
         SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
-        int count = db.update(TABLE_NAME, values, where, whereArgs);
+        synchronized (sharedCountsLock) {
+            int count = db.update(TABLE_NAME, values, where, whereArgs);
+
+            if (count > 0) {
+                sharedCounts = null;
+                incrementVersions();
+            }
+
+            return count;
+        }
+    }
+
+    /**
+     * Changes every time the rows of the given type may have changed, only
+     * meaningful while the application is running.
+     */
+    public long getVersion(byte fileType) {
+        synchronized (sharedCountsLock) {
+            return versions[fileType & 0xFF];
+        }
+    }
 
-        return count;
+    /**
+     * The rows of a delete or update could be of any type.
+     */
+    private void incrementVersions() {
+        for (int i = 0; i < versions.length; i++) {
+            versions[i]++;
+        }
+    }
+
+    /**
+     * Number of shared files of the given type, without loading the rows.
+     * It's served from counters kept by the writes of this class, which are
+     * counted again with a single indexed query after a delete or update.
+     */
+    public int getNumShared(byte fileType) {
+        synchronized (sharedCountsLock) {
+            if (sharedCounts == null) {
+                sharedCounts = countShared();
+            }
+
+            return sharedCounts[fileType & 0xFF];
+        }
+    }
+
+    private int[] countShared() {
+        int[] counts = new int[256];
+
+        String sql = "SELECT " + Columns.FILE_TYPE + ", COUNT(*) FROM " + TABLE_NAME + " WHERE " + Columns.SHARED + " = ? GROUP BY " + Columns.FILE_TYPE;
+
+        SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+        Cursor c = null;
+
+        try {
+            c = db.rawQueryWithFactory(null, sql, new String[] { String.valueOf(true) }, TABLE_NAME);
+
+            while (c.moveToNext()) {
+                counts[c.getInt(1) & 0xFF] = c.getInt(2);
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        return counts;
     }
 
     public static final class Columns {
@@ -190,13 +357,49 @@ public final class ShareFilesDB {
         public void onCreate(SQLiteDatabase db) {
             db.execSQL("SET IGNORECASE TRUE");
 
-            db.execSQL("CREATE TABLE " + TABLE_NAME + " (" + Columns.ID + " INTEGER IDENTITY," + Columns.FILE_TYPE + " INTEGER," + Columns.FILE_PATH + " VARCHAR," + Columns.FILE_SIZE + " INTEGER," + Columns.MIME + " VARCHAR," + Columns.DATE_ADDED + " BIGINT," + Columns.DATE_MODIFIED + " BIGINT,"
+            db.execSQL("CREATE TABLE " + TABLE_NAME + " (" + Columns.ID + " INTEGER IDENTITY," + Columns.FILE_TYPE + " INTEGER," + Columns.FILE_PATH + " VARCHAR," + Columns.FILE_SIZE + " BIGINT," + Columns.MIME + " VARCHAR," + Columns.DATE_ADDED + " BIGINT," + Columns.DATE_MODIFIED + " BIGINT,"
                     + Columns.SHARED + " BOOLEAN," + Columns.TITLE + " VARCHAR," + Columns.ARTIST + " VARCHAR," + Columns.ALBUM + " VARCHAR," + Columns.YEAR + " VARCHAR" + ");");
 
             db.execSQL("CREATE INDEX idx_" + TABLE_NAME + "_" + Columns.ID + " ON " + TABLE_NAME + " (" + Columns.ID + ")");
             db.execSQL("CREATE INDEX idx_" + TABLE_NAME + "_" + Columns.FILE_TYPE + " ON " + TABLE_NAME + " (" + Columns.FILE_TYPE + ")");
             db.execSQL("CREATE INDEX idx_" + TABLE_NAME + "_" + Columns.FILE_PATH + " ON " + TABLE_NAME + " (" + Columns.FILE_PATH + ")");
             db.execSQL("CREATE INDEX idx_" + TABLE_NAME + "_" + Columns.SHARED + " ON " + TABLE_NAME + " (" + Columns.SHARED + ")");
+
+            importVersion1(db);
+        }
+
+        /**
+         * Keeps the rows, and so what the user shares, of the database with
+         * the INTEGER file size, which failed whole batches on files of 2GB
+         * or more.
+         */
+        private void importVersion1(SQLiteDatabase db) {
+            File path = new Context().getDatabasePath(DATABASE_NAME);
+            File folder = new File(path.getAbsolutePath() + ".1");
+
+            if (!folder.exists()) {
+                return;
+            }
+
+            String url = "jdbc:h2:" + new File(folder, DATABASE_NAME).getAbsolutePath();
+
+            try {
+                db.execSQL("CREATE LINKED TABLE Version1" + TABLE_NAME + "('org.h2.Driver', '" + url.replace("'", "''") + "', 'SA', '', '" + TABLE_NAME.toUpperCase() + "')");
+                try {
+                    db.execSQL("INSERT INTO " + TABLE_NAME + " SELECT * FROM Version1" + TABLE_NAME);
+                } finally {
+                    db.execSQL("DROP TABLE Version1" + TABLE_NAME);
+                }
+            } catch (Throwable e) {
+                LOG.warn("Unable to import the shared files of the old database, the library is scanned again", e);
+                return;
+            }
+
+            try {
+                FileUtils.deleteDirectory(folder);
+            } catch (IOException e) {
+                LOG.warn("Unable to delete old shared files database");
+            }
         }
 
         @Override
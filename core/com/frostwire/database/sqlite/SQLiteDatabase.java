@@ -224,6 +224,110 @@ public class SQLiteDatabase {
         return executeSql(sql.toString(), bindArgs);
     }
 
+    /**
+     * Inserts all the rows in a single transaction, with one batched statement.
+     * The columns are taken from the first row, a missing value in any other
+     * row is inserted as NULL.
+     *
+     * @param table the table to insert the rows into
+     * @param values the rows to insert
+     * @return the number of rows inserted, or -1 if an error occurred, in which
+     *         case none of them is inserted
+     */
+    public int bulkInsert(String table, ContentValues[] values) {
+        return bulkInsert(table, null, null, values);
+    }
+
+    /**
+     * Deletes the rows matching the WHERE clause and inserts the new rows,
+     * all in a single transaction, so either both are done or none.
+     *
+     * @param table the table to delete from and insert the rows into
+     * @param whereClause the WHERE clause of the delete, null for no delete
+     * @param values the rows to insert
+     * @return the number of rows inserted, or -1 if an error occurred, in which
+     *         case nothing is deleted nor inserted
+     */
+    public int bulkInsert(String table, String whereClause, String[] whereArgs, ContentValues[] values) {
+        verifyDbIsOpen();
+
+        if (values == null || values.length == 0) {
+            return 0;
+        }
+
+        String[] columns = values[0].keySet().toArray(new String[0]);
+
+        StringBuilder sql = new StringBuilder();
+        sql.append("INSERT INTO ");
+        sql.append(table);
+        sql.append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append((i > 0) ? "," : "");
+            sql.append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append((i > 0) ? ",?" : "?");
+        }
+        sql.append(')');
+
+        PreparedStatement statement = null;
+
+        synchronized (connection) {
+            boolean autoCommit = true;
+
+            try {
+                autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+
+                if (!TextUtils.isEmpty(whereClause)) {
+                    statement = prepareStatement(connection, "DELETE FROM " + table + " WHERE " + whereClause, (Object[]) whereArgs);
+                    statement.executeUpdate();
+                    statement.close();
+                    statement = null;
+                }
+
+                statement = connection.prepareStatement(sql.toString());
+
+                for (ContentValues row : values) {
+                    for (int i = 0; i < columns.length; i++) {
+                        statement.setObject(i + 1, row.get(columns[i]));
+                    }
+                    statement.addBatch();
+                }
+
+                statement.executeBatch();
+
+                connection.commit();
+
+                return values.length;
+            } catch (Throwable e) {
+                LOG.warn("Error performing bulk insert into: " + table, e);
+
+                try {
+                    connection.rollback();
+                } catch (Throwable e1) {
+                    // ignore
+                }
+
+                return -1;
+            } finally {
+                if (statement != null) {
+                    try {
+                        statement.close();
+                    } catch (Throwable e) {
+                    }
+                }
+
+                try {
+                    connection.setAutoCommit(autoCommit);
+                } catch (Throwable e) {
+                    LOG.warn("Error restoring auto commit of database: " + path, e);
+                }
+            }
+        }
+    }
+
     /**
      * Convenience method for deleting rows in the database.
      *
@@ -52,7 +52,7 @@ public final class CrawlCacheDB {
 
     private static final String DATABASE_NAME = "crawldb";
 
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 2;
 
     private static final String TABLE_NAME = "CacheData";
 
@@ -112,6 +112,55 @@ public final class CrawlCacheDB {
         return db.insert(TABLE_NAME, "", values);
     }
 
+    /**
+     * Inserts the row, or replaces the existing one with the same {@link Columns#KEY}.
+     * Relies on the unique index over the key column.
+     */
+    public int replace(String key, byte[] data) {
+        Long now = Long.valueOf(System.currentTimeMillis() / 1000);
+
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        String sql = "MERGE INTO " + TABLE_NAME + " (" + Columns.KEY + "," + Columns.DATA + "," + Columns.DATA_SIZE + "," + Columns.DATE_ADDED + ") KEY (" + Columns.KEY + ") VALUES (?,?,?,?)";
+
+        try {
+            db.execSQL(sql, new Object[] { key, data, Long.valueOf(data.length), now });
+            return 1;
+        } catch (Throwable e) {
+            LOG.warn("Error replacing crawl cache data with key: " + key, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Runs a single value aggregate (COUNT, SUM, etc) over the cache table.
+     */
+    public long aggregate(String expression, String where, String[] whereArgs) {
+        long result = 0;
+
+        String sql = "SELECT " + expression + " FROM " + TABLE_NAME + (!TextUtils.isEmpty(where) ? " WHERE " + where : "");
+
+        SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+        Cursor c = null;
+
+        try {
+            c = db.rawQueryWithFactory(null, sql, whereArgs, TABLE_NAME);
+
+            if (c != null && c.moveToNext()) {
+                result = c.getLong(1);
+            }
+        } catch (Throwable e) {
+            LOG.warn("Error running aggregate " + expression + " over crawl cache", e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        return result;
+    }
+
     public int delete(String where, String[] whereArgs) {
         SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
@@ -137,6 +186,7 @@ public final class CrawlCacheDB {
         public static final String ID = "id";
         public static final String KEY = "key";
         public static final String DATA = "data";
+        public static final String DATA_SIZE = "dataSize";
         public static final String DATE_ADDED = "dateAdded";
     }
 
@@ -162,10 +212,11 @@ public final class CrawlCacheDB {
 
             db.execSQL("SET IGNORECASE TRUE");
 
-            db.execSQL("CREATE TABLE " + TABLE_NAME + " (" + Columns.ID + " INTEGER IDENTITY," + Columns.KEY + " VARCHAR," + Columns.DATA + " BINARY," + Columns.DATE_ADDED + " BIGINT" + ");");
+            db.execSQL("CREATE TABLE " + TABLE_NAME + " (" + Columns.ID + " INTEGER IDENTITY," + Columns.KEY + " VARCHAR," + Columns.DATA + " BINARY," + Columns.DATA_SIZE + " BIGINT," + Columns.DATE_ADDED + " BIGINT" + ");");
 
             db.execSQL("CREATE INDEX idx_" + TABLE_NAME + "_" + Columns.ID + " ON " + TABLE_NAME + " (" + Columns.ID + ")");
-            db.execSQL("CREATE INDEX idx_" + TABLE_NAME + "_" + Columns.KEY + " ON " + TABLE_NAME + " (" + Columns.KEY + ")");
+            db.execSQL("CREATE UNIQUE INDEX idx_" + TABLE_NAME + "_" + Columns.KEY + " ON " + TABLE_NAME + " (" + Columns.KEY + ")");
+            db.execSQL("CREATE INDEX idx_" + TABLE_NAME + "_" + Columns.DATE_ADDED + " ON " + TABLE_NAME + " (" + Columns.DATE_ADDED + ")");
         }
 
         @Override
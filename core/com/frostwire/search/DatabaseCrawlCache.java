@@ -20,7 +20,6 @@ package com.frostwire.search;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.frostwire.content.ContentValues;
 import com.frostwire.database.Cursor;
 import com.frostwire.search.CrawlCacheDB.Columns;
 import com.limegroup.gnutella.settings.SearchSettings;
@@ -73,12 +72,7 @@ public class DatabaseCrawlCache implements CrawlCache {
     public void put(String key, byte[] data) {
         if (SearchSettings.SMART_SEARCH_ENABLED.getValue()) {
             try {
-                ContentValues values = new ContentValues();
-
-                values.put(Columns.KEY, key);
-                values.put(Columns.DATA, data);
-
-                db.insert(values);
+                db.replace(key, data);
             } catch (Throwable e) {
                 LOG.warn("Error putting value to crawl cache: " + e.getMessage());
             }
@@ -108,30 +102,77 @@ public class DatabaseCrawlCache implements CrawlCache {
 
     @Override
     public long size() {
-        long size = 0;
+        return db.aggregate("COUNT(*)", "", new String[] {});
+    }
+
+    /**
+     * Total bytes of crawl data stored on disk.
+     */
+    public long dataSize() {
+        return db.aggregate("COALESCE(SUM(" + Columns.DATA_SIZE + "), 0)", "", new String[] {});
+    }
+
+    /**
+     * Removes the entries older than <code>maxAge</code> and then, if the stored
+     * data is still above <code>maxBytes</code>, the oldest entries until it fits.
+     * 
+     * @param maxAge maximum age in seconds
+     * @param maxBytes maximum total data size in bytes
+     * @return the number of entries removed
+     */
+    public int evict(long maxAge, long maxBytes) {
+        int removed = 0;
+
+        try {
+            long expiredBefore = System.currentTimeMillis() / 1000 - maxAge;
+            int n = db.delete(Columns.DATE_ADDED + " < ?", new String[] { String.valueOf(expiredBefore) });
+            if (n > 0) {
+                removed += n;
+            }
+
+            long excess = dataSize() - maxBytes;
+            if (excess > 0) {
+                long cutoff = findEvictionCutoff(excess);
+                n = db.delete(Columns.DATE_ADDED + " <= ?", new String[] { String.valueOf(cutoff) });
+                if (n > 0) {
+                    removed += n;
+                }
+            }
+        } catch (Throwable e) {
+            LOG.warn("Error evicting entries from crawl cache: " + e.getMessage());
+        }
+
+        return removed;
+    }
+
+    /**
+     * Walks the entries from the oldest one and returns the date of the
+     * last entry needed to free at least <code>excess</code> bytes.
+     */
+    private long findEvictionCutoff(long excess) {
+        long cutoff = 0;
 
         Cursor c = null;
 
         try {
+            String[] columns = new String[] { Columns.DATA_SIZE, Columns.DATE_ADDED };
 
-            String[] columns = new String[] { Columns.ID };
-            String where = "";
-            String[] whereArgs = new String[] {};
+            c = db.query(columns, "", new String[] {}, Columns.DATE_ADDED + " ASC");
 
-            c = db.query(columns, where, whereArgs, null);
+            int sizeIdx = c.getColumnIndex(Columns.DATA_SIZE);
+            int dateIdx = c.getColumnIndex(Columns.DATE_ADDED);
 
-            if (c != null) {
-                size = c.getCount();
+            long freed = 0;
+            while (freed < excess && c.moveToNext()) {
+                freed += c.getLong(sizeIdx);
+                cutoff = c.getLong(dateIdx);
             }
-
-        } catch (Exception e) {
-            LOG.warn("Failed to get num of shared files", e);
         } finally {
             if (c != null) {
                 c.close();
             }
         }
 
-        return size;
+        return cutoff;
     }
 }
@@ -0,0 +1,165 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Crawl cache with a bounded in-memory tier in front of the database.
+ * <p>
+ * Reads go to memory first and fall back to disk, promoting what they find.
+ * Writes go to both tiers. The disk tier is swept every now and then for
+ * expired entries and trimmed to its maximum size, oldest entries first.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class TieredCrawlCache implements CrawlCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TieredCrawlCache.class);
+
+    private static final int SWEEP_INTERVAL_PUTS = 200;
+    private static final long SWEEP_INTERVAL_MILLIS = 10 * 60 * 1000; // 10 minutes
+
+    private final MemoryCrawlCache memory;
+    private final DatabaseCrawlCache disk;
+
+    private final long maxAge;
+    private final long maxDiskBytes;
+
+    private final AtomicLong diskHits;
+    private final AtomicLong misses;
+    private final AtomicLong diskEvictions;
+
+    private final AtomicLong putsSinceSweep;
+    private final AtomicBoolean sweeping;
+    private volatile long lastSweep;
+
+    /**
+     * @param maxMemoryBytes size of the in-memory tier
+     * @param maxDiskBytes size the disk tier is trimmed to
+     * @param maxAge time to live of the disk entries, in seconds
+     */
+    public TieredCrawlCache(long maxMemoryBytes, long maxDiskBytes, long maxAge) {
+        this.memory = new MemoryCrawlCache(maxMemoryBytes);
+        this.disk = new DatabaseCrawlCache();
+
+        this.maxAge = maxAge;
+        this.maxDiskBytes = maxDiskBytes;
+
+        this.diskHits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.diskEvictions = new AtomicLong();
+
+        this.putsSinceSweep = new AtomicLong();
+        this.sweeping = new AtomicBoolean(false);
+        this.lastSweep = 0; // first put will sweep
+    }
+
+    @Override
+    public byte[] get(String key) {
+        byte[] data = memory.get(key);
+
+        if (data == null) {
+            data = disk.get(key);
+
+            if (data != null) {
+                diskHits.incrementAndGet();
+                memory.put(key, data);
+            } else {
+                misses.incrementAndGet();
+            }
+        }
+
+        return data;
+    }
+
+    @Override
+    public void put(String key, byte[] data) {
+        memory.put(key, data);
+        disk.put(key, data);
+
+        if (putsSinceSweep.incrementAndGet() >= SWEEP_INTERVAL_PUTS || System.currentTimeMillis() - lastSweep > SWEEP_INTERVAL_MILLIS) {
+            sweep();
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        memory.remove(key);
+        disk.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        memory.clear();
+        disk.clear();
+    }
+
+    @Override
+    public long size() {
+        return disk.size();
+    }
+
+    public long getMemoryHits() {
+        return memory.getHits();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getMemoryEvictions() {
+        return memory.getEvictions();
+    }
+
+    public long getDiskEvictions() {
+        return diskEvictions.get();
+    }
+
+    /**
+     * Only one thread sweeps at a time, the others don't wait for it.
+     */
+    private void sweep() {
+        if (sweeping.compareAndSet(false, true)) {
+            try {
+                putsSinceSweep.set(0);
+                lastSweep = System.currentTimeMillis();
+
+                int n = disk.evict(maxAge, maxDiskBytes);
+                if (n > 0) {
+                    diskEvictions.addAndGet(n);
+                    LOG.debug("Evicted " + n + " entries from disk crawl cache");
+                }
+            } catch (Throwable e) {
+                LOG.warn("Error sweeping crawl cache: " + e.getMessage());
+            } finally {
+                sweeping.set(false);
+            }
+        }
+    }
+}
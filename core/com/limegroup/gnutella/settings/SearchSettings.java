@@ -312,6 +312,21 @@ public final class SearchSettings extends LimeProps {
 	public static final StringSetting LAST_MEDIA_TYPE_USED = FACTORY.createStringSetting("LAST_MEDIA_TYPE_USED", MediaType.getAudioMediaType().getMimeType());
 	
 	public static final BooleanSetting SMART_SEARCH_ENABLED = FACTORY.createBooleanSetting("SMART_SEARCH_ENABLED", true);
+
+    /**
+     * Size in MB of the in-memory tier of the crawl cache.
+     */
+    public static final IntSetting CRAWL_CACHE_MEMORY_SIZE_MB = FACTORY.createIntSetting("CRAWL_CACHE_MEMORY_SIZE_MB", 16);
+
+    /**
+     * Maximum size in MB of the crawl data kept on disk, the oldest entries are evicted first.
+     */
+    public static final IntSetting CRAWL_CACHE_DISK_SIZE_MB = FACTORY.createIntSetting("CRAWL_CACHE_DISK_SIZE_MB", 512);
+
+    /**
+     * Number of days a crawled entry is kept on disk before it expires.
+     */
+    public static final IntSetting CRAWL_CACHE_TTL_DAYS = FACTORY.createIntSetting("CRAWL_CACHE_TTL_DAYS", 30);
 	
     public static final BooleanSetting SHOW_DETAIL_PAGE_AFTER_DOWNLOAD_START = FACTORY.createBooleanSetting("SHOW_DETAIL_PAGE_AFTER_DOWNLOAD_START", false);
 }
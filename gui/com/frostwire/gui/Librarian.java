@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -53,9 +54,17 @@ public final class Librarian {
     public static final int FILE_STATE_SHARING = 1;
     public static final int FILE_STATE_SHARED = 2;
 
+    /**
+     * Minimum time between two sweeps for rows of files that no longer exist.
+     */
+    private static final long RECONCILE_INTERVAL = 10 * 60 * 1000; // 10 minutes
+
+    private static final int RECONCILE_DELETE_BATCH = 500;
+
     //private final Set<String> pathSharedSet;
     private final Set<String> pathSharingSet;
     private final ExecutorService shareFileExec;
+    private final AtomicLong lastReconcile;
 
     private static final Librarian instance = new Librarian();
 
@@ -67,6 +76,7 @@ public final class Librarian {
         //this.pathSharedSet = Collections.synchronizedSet(new HashSet<String>());
         this.pathSharingSet = Collections.synchronizedSet(new HashSet<String>());
         this.shareFileExec = Executors.newSingleThreadExecutor();
+        this.lastReconcile = new AtomicLong(0);
     }
 
     public Finger finger() {
@@ -93,6 +103,8 @@ public final class Librarian {
         finger.numSharedApplicationFiles = getNumSharedFiles(Constants.FILE_TYPE_APPLICATIONS);
         finger.numSharedRingtoneFiles = getNumSharedFiles(Constants.FILE_TYPE_RINGTONES);
 
+        requestReconcile();
+
         return finger;
     }
 
@@ -107,35 +119,16 @@ public final class Librarian {
     }
 
     /**
-     * 
-     * @param fileType
-     * @param onlyShared - If false, forces getting all files, shared or unshared. 
-     * @return
+     * Counted in the database, the rows of files that no longer exist are
+     * removed later by the background reconciliation sweep.
      */
     public int getNumSharedFiles(byte fileType) {
-        Cursor c = null;
-
         int numFiles = 0;
 
         try {
-            ShareFilesDB db = ShareFilesDB.intance();
-
-            String[] columns = new String[] { Columns.ID, Columns.FILE_PATH, Columns.SHARED };
-            String where = Columns.FILE_TYPE + " = ? AND " + Columns.SHARED + " = ?";
-            String[] whereArgs = new String[] { String.valueOf(fileType), String.valueOf(true) };
-
-            c = db.query(columns, where, whereArgs, null);
-
-            List<FileDescriptor> fds = filteredOutBadRows(c);
-
-            numFiles = fds.size();
-
+            numFiles = ShareFilesDB.intance().getNumShared(fileType);
         } catch (Exception e) {
             LOG.log(Level.WARNING, "Failed to get num of shared files", e);
-        } finally {
-            if (c != null) {
-                c.close();
-            }
         }
 
         return numFiles;
@@ -225,9 +218,13 @@ public final class Librarian {
 
             c = db.query(columns, where, whereArgs, null);
 
-            List<FileDescriptor> fds = filteredOutBadRows(c);
+            while (c.moveToNext()) {
+                result.add(cursorToFileDescriptor(c));
+            }
+
+            requestReconcile();
 
-            return fds;
+            return result;
 
         } catch (Throwable e) {
             LOG.log(Level.WARNING, "General failure getting files", e);
@@ -240,6 +237,104 @@ public final class Librarian {
         return result;
     }
 
+    /**
+     * A page of the shared files of the given type, in id order, starting
+     * after the given id.
+     */
+    public List<FileDescriptor> getSharedFiles(byte fileType, int afterId, int limit) {
+        List<FileDescriptor> result = new ArrayList<FileDescriptor>(Math.min(limit, 1024));
+
+        Cursor c = null;
+
+        try {
+            ShareFilesDB db = ShareFilesDB.intance();
+
+            String[] columns = new String[] { Columns.ID, Columns.FILE_TYPE, Columns.FILE_PATH, Columns.FILE_SIZE, Columns.MIME, Columns.DATE_ADDED, Columns.DATE_MODIFIED, Columns.SHARED, Columns.TITLE, Columns.ARTIST, Columns.ALBUM, Columns.YEAR };
+            String where = Columns.FILE_TYPE + " = ? AND " + Columns.SHARED + " = ? AND " + Columns.ID + " > ?";
+            String[] whereArgs = new String[] { String.valueOf(fileType), String.valueOf(true), String.valueOf(afterId) };
+
+            c = db.query(columns, where, whereArgs, Columns.ID, String.valueOf(limit));
+
+            while (c.moveToNext()) {
+                result.add(cursorToFileDescriptor(c));
+            }
+
+            requestReconcile();
+
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "General failure getting files", e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Schedules a sweep for rows of files that no longer exist, unless
+     * one was done recently.
+     */
+    private void requestReconcile() {
+        long now = System.currentTimeMillis();
+        long last = lastReconcile.get();
+
+        if (now - last > RECONCILE_INTERVAL && lastReconcile.compareAndSet(last, now)) {
+            shareFileExec.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        reconcile();
+                    } catch (Throwable e) {
+                        LOG.log(Level.WARNING, "Error removing no existent files from the share table", e);
+                    }
+                }
+            });
+        }
+    }
+
+    private void reconcile() {
+        List<String> missing = new ArrayList<String>();
+
+        Cursor c = null;
+
+        try {
+            ShareFilesDB db = ShareFilesDB.intance();
+
+            c = db.query(new String[] { Columns.ID, Columns.FILE_PATH }, null, null, Columns.ID);
+
+            int idCol = c.getColumnIndex(Columns.ID);
+            int filePathCol = c.getColumnIndex(Columns.FILE_PATH);
+
+            while (c.moveToNext()) {
+                if (!(new File(c.getString(filePathCol))).exists()) {
+                    missing.add(String.valueOf(c.getInt(idCol)));
+                }
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        for (int i = 0; i < missing.size(); i += RECONCILE_DELETE_BATCH) {
+            List<String> ids = missing.subList(i, Math.min(i + RECONCILE_DELETE_BATCH, missing.size()));
+
+            StringBuilder where = new StringBuilder(Columns.ID + " IN (");
+            for (int j = 0; j < ids.size(); j++) {
+                where.append(j > 0 ? ",?" : "?");
+            }
+            where.append(")");
+
+            ShareFilesDB.intance().delete(where.toString(), ids.toArray(new String[ids.size()]));
+        }
+
+        if (!missing.isEmpty()) {
+            LOG.info("Removed " + missing.size() + " no existent files from the share table");
+        }
+    }
+
     public void scan(File file) {
         scan(file, TorrentUtil.getIgnorableFiles());
     }
@@ -257,19 +352,7 @@ public final class Librarian {
     }
 
     private void scan(File file, Set<File> ignorableFiles) {
-        if (ignorableFiles.contains(file)) {
-            return;
-        }
-
-        if (file.isDirectory()) {
-            for (File child : file.listFiles()) {
-                if (child.isDirectory() || child.isFile()) {
-                    scan(child);
-                }
-            }
-        } else if (file.isFile()) {
-            new UniversalScanner().scan(file.getAbsolutePath());
-        }
+        new LibraryScanner(ignorableFiles).scan(file);
     }
 
     public void shareFile(final String filePath, final boolean share) {
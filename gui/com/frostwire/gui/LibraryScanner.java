@@ -0,0 +1,250 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.frostwire.concurrent.DefaultThreadFactory;
+import com.frostwire.content.ContentValues;
+import com.frostwire.core.providers.ShareFilesDB;
+import com.frostwire.core.providers.ShareFilesDB.Columns;
+import com.frostwire.database.Cursor;
+
+/**
+ * Scans whole folders into the share table.
+ * <p>
+ * The folders are walked in the calling thread, the files already shared
+ * with the same size and modification time are skipped, and the metadata
+ * of the rest is read by a bounded pool of workers. The rows are written
+ * in batches, each one in a single transaction.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class LibraryScanner {
+
+    private static final Logger LOG = Logger.getLogger(LibraryScanner.class.getName());
+
+    private static final int BATCH_SIZE = 500;
+
+    private final Set<File> ignorableFiles;
+    private final int threads;
+
+    private final UniversalScanner scanner;
+    private final List<ContentValues> batch;
+
+    public LibraryScanner(Set<File> ignorableFiles, int threads) {
+        this.ignorableFiles = ignorableFiles;
+        this.threads = threads;
+
+        this.scanner = new UniversalScanner();
+        this.batch = new ArrayList<ContentValues>(BATCH_SIZE);
+    }
+
+    public LibraryScanner(Set<File> ignorableFiles) {
+        this(ignorableFiles, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns when every file under the given one is in the share table.
+     */
+    public void scan(File file) {
+        // when the queue is full the walker reads the metadata itself, that keeps the memory bounded
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(threads * 4), new DefaultThreadFactory("LibraryScanner", true), new ThreadPoolExecutor.CallerRunsPolicy());
+
+        try {
+            walk(file, executor);
+        } finally {
+            executor.shutdown();
+
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        flush();
+    }
+
+    private void walk(File file, ThreadPoolExecutor executor) {
+        LinkedList<File> dirs = new LinkedList<File>();
+        List<File> files = new ArrayList<File>(BATCH_SIZE);
+
+        if (file.isDirectory()) {
+            dirs.add(file);
+        } else if (file.isFile() && !ignorableFiles.contains(file)) {
+            files.add(file);
+        }
+
+        while (!dirs.isEmpty()) {
+            File[] children = dirs.removeFirst().listFiles();
+
+            if (children == null) {
+                continue;
+            }
+
+            for (File child : children) {
+                if (ignorableFiles.contains(child)) {
+                    continue;
+                }
+
+                if (child.isDirectory()) {
+                    dirs.add(child);
+                } else if (child.isFile()) {
+                    files.add(child);
+
+                    if (files.size() == BATCH_SIZE) {
+                        submit(files, executor);
+                        files.clear();
+                    }
+                }
+            }
+        }
+
+        submit(files, executor);
+    }
+
+    private void submit(List<File> files, ThreadPoolExecutor executor) {
+        if (files.isEmpty()) {
+            return;
+        }
+
+        Map<String, long[]> shared = getSharedFiles(files);
+
+        for (File file : files) {
+            final String filePath = file.getAbsolutePath();
+
+            long[] known = shared.get(filePath);
+            if (known != null && known[0] == file.length() && known[1] == file.lastModified()) {
+                continue; // unchanged since the last scan
+            }
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    add(scanner.read(filePath));
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the size and modification time of the given files already shared.
+     */
+    private Map<String, long[]> getSharedFiles(List<File> files) {
+        Map<String, long[]> result = new HashMap<String, long[]>();
+
+        StringBuilder where = new StringBuilder(Columns.SHARED + " = ? AND " + Columns.FILE_PATH + " IN (");
+        String[] whereArgs = new String[files.size() + 1];
+
+        whereArgs[0] = String.valueOf(true);
+        for (int i = 0; i < files.size(); i++) {
+            where.append(i > 0 ? ",?" : "?");
+            whereArgs[i + 1] = files.get(i).getAbsolutePath();
+        }
+        where.append(")");
+
+        Cursor c = null;
+
+        try {
+            String[] columns = new String[] { Columns.FILE_PATH, Columns.FILE_SIZE, Columns.DATE_MODIFIED };
+
+            c = ShareFilesDB.intance().query(columns, where.toString(), whereArgs, Columns.FILE_PATH);
+
+            int filePathCol = c.getColumnIndex(Columns.FILE_PATH);
+            int fileSizeCol = c.getColumnIndex(Columns.FILE_SIZE);
+            int dateModifiedCol = c.getColumnIndex(Columns.DATE_MODIFIED);
+
+            while (c.moveToNext()) {
+                result.put(c.getString(filePathCol), new long[] { c.getLong(fileSizeCol), c.getLong(dateModifiedCol) });
+            }
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "Error looking up already shared files, scanning all of them", e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        return result;
+    }
+
+    private void add(ContentValues values) {
+        ContentValues[] rows = null;
+
+        synchronized (batch) {
+            batch.add(values);
+
+            if (batch.size() >= BATCH_SIZE) {
+                rows = batch.toArray(new ContentValues[batch.size()]);
+                batch.clear();
+            }
+        }
+
+        if (rows != null) {
+            write(rows);
+        }
+    }
+
+    private void flush() {
+        ContentValues[] rows;
+
+        synchronized (batch) {
+            rows = batch.toArray(new ContentValues[batch.size()]);
+            batch.clear();
+        }
+
+        write(rows);
+    }
+
+    private void write(ContentValues[] rows) {
+        if (rows.length == 0) {
+            return;
+        }
+
+        ShareFilesDB db = ShareFilesDB.intance();
+
+        // the rows of the files that changed since the last scan, replaced in one transaction
+        StringBuilder where = new StringBuilder(Columns.FILE_PATH + " IN (");
+        String[] whereArgs = new String[rows.length];
+
+        for (int i = 0; i < rows.length; i++) {
+            where.append(i > 0 ? ",?" : "?");
+            whereArgs[i] = rows[i].getAsString(Columns.FILE_PATH);
+        }
+        where.append(")");
+
+        if (db.bulkInsert(where.toString(), whereArgs, rows) == -1) {
+            LOG.log(Level.WARNING, "Error inserting " + rows.length + " scanned files into the share table");
+        }
+    }
+}
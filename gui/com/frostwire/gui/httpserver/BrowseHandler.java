@@ -18,19 +18,29 @@
 
 package com.frostwire.gui.httpserver;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.util.List;
 import java.util.Map;
 import java.util.zip.GZIPOutputStream;
 
 import com.frostwire.core.FileDescriptor;
+import com.frostwire.core.providers.ShareFilesDB;
 import com.frostwire.gui.Librarian;
 import com.frostwire.logging.Logger;
 import com.frostwire.util.JsonUtils;
 import com.frostwire.util.URLUtils;
+import com.google.gson.stream.JsonWriter;
 import com.sun.net.httpserver.HttpExchange;
 
 /**
+ * Lists the shared files of a type as {"files":[...]}, streamed into the
+ * gzip output a page of rows at a time.
+ * <p>
+ * The optional parameters after (a file id) and limit ask for a single page,
+ * in that case "next" is the after of the next page, if there may be one.
+ *
  * @author gubatron
  * @author aldenml
  *
@@ -39,6 +49,24 @@ class BrowseHandler extends AbstractHandler {
 
     private static final Logger LOG = Logger.getLogger(BrowseHandler.class);
 
+    /**
+     * Rows read from the database at a time.
+     */
+    private static final int PAGE_SIZE = 500;
+
+    /**
+     * Different in every run, the versions of the share table start over.
+     */
+    private static final String ETAG_PREFIX = Long.toHexString(System.currentTimeMillis());
+
+    private final String[] etags;
+    private final long[] etagVersions;
+
+    public BrowseHandler() {
+        this.etags = new String[256];
+        this.etagVersions = new long[256];
+    }
+
     @Override
     public void handle(HttpExchange exchange) throws IOException {
         assertUPnPActive();
@@ -46,6 +74,8 @@ class BrowseHandler extends AbstractHandler {
         GZIPOutputStream os = null;
 
         byte type = -1;
+        int after = -1;
+        int limit = -1;
 
         try {
             Map<String, String> splitQuery = URLUtils.splitQuery(exchange.getRequestURI().getQuery());
@@ -53,21 +83,39 @@ class BrowseHandler extends AbstractHandler {
             if (splitQuery.containsKey("type")) {
                 type = Byte.parseByte(splitQuery.get("type"));
             }
+
+            if (splitQuery.containsKey("after")) {
+                after = Integer.parseInt(splitQuery.get("after"));
+            }
+
+            if (splitQuery.containsKey("limit")) {
+                limit = Integer.parseInt(splitQuery.get("limit"));
+            }
             
-            if (type == -1) {
+            if (type == -1 || (splitQuery.containsKey("limit") && limit <= 0)) {
                 exchange.sendResponseHeaders(Code.HTTP_BAD_REQUEST, 0);
                 return;
             }
 
-            String response = getResponse(exchange, type);
+            String etag = getETag(type, after, limit);
+
+            exchange.getResponseHeaders().set("ETag", etag);
+
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(Code.HTTP_NOT_MODIFIED, -1);
+                return;
+            }
 
             exchange.getResponseHeaders().set("Content-Encoding", "gzip");
             exchange.getResponseHeaders().set("Content-Type", "text/json; charset=UTF-8");
             exchange.sendResponseHeaders(Code.HTTP_OK, 0);
 
-            os = new GZIPOutputStream(exchange.getResponseBody());
+            os = new GZIPOutputStream(exchange.getResponseBody(), 8192);
+
+            JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(os, "UTF-8"), 8192));
+            writeResponse(writer, type, after, limit);
+            writer.flush();
 
-            os.write(response.getBytes("UTF-8"));
             os.finish();
 
         } catch (IOException e) {
@@ -81,16 +129,65 @@ class BrowseHandler extends AbstractHandler {
         }
     }
 
-    private String getResponse(HttpExchange exchange, byte fileType) {
-        List<FileDescriptor> fileDescriptors = Librarian.instance().getSharedFiles(fileType);
+    private void writeResponse(JsonWriter writer, byte fileType, int after, int limit) throws IOException {
+        Librarian librarian = Librarian.instance();
+
+        int remaining = limit > 0 ? limit : Integer.MAX_VALUE;
+        boolean more = true;
+
+        writer.beginObject();
+        writer.name("files");
+        writer.beginArray();
+
+        while (more && remaining > 0) {
+            int size = Math.min(PAGE_SIZE, remaining);
+
+            List<FileDescriptor> fds = librarian.getSharedFiles(fileType, after, size);
+
+            for (FileDescriptor fd : fds) {
+                JsonUtils.toJson(fd, FileDescriptor.class, writer);
+                after = fd.id;
+            }
+
+            remaining -= fds.size();
+            more = fds.size() == size;
+        }
+
+        writer.endArray();
+
+        if (limit > 0 && more) {
+            writer.name("next");
+            writer.value(after);
+        }
+
+        writer.endObject();
+    }
+
+    /**
+     * Changes only when the shared files of the type may have changed, a page
+     * gets its own tag from the after and limit it was asked with.
+     */
+    private String getETag(byte fileType, int after, int limit) {
+        String etag = getETag(fileType);
 
-        FileDescriptorList list = new FileDescriptorList();
-        list.files = fileDescriptors;
+        if (after == -1 && limit == -1) {
+            return etag;
+        }
 
-        return JsonUtils.toJson(list);
+        return etag.substring(0, etag.length() - 1) + "-" + after + "-" + limit + "\"";
     }
 
-    static final class FileDescriptorList {
-        public List<FileDescriptor> files;
+    private String getETag(byte fileType) {
+        long version = ShareFilesDB.intance().getVersion(fileType);
+        int i = fileType & 0xFF;
+
+        synchronized (etags) {
+            if (etags[i] == null || etagVersions[i] != version) {
+                etags[i] = "\"" + ETAG_PREFIX + "-" + i + "-" + Long.toHexString(version) + "\"";
+                etagVersions[i] = version;
+            }
+
+            return etags[i];
+        }
     }
 }
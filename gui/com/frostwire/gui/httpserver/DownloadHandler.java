@@ -23,7 +23,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.frostwire.core.FileDescriptor;
 import com.frostwire.gui.Librarian;
@@ -31,6 +35,7 @@ import com.frostwire.gui.bittorrent.BTDownloadMediator;
 import com.frostwire.gui.transfers.PeerHttpUpload;
 import com.frostwire.logging.Logger;
 import com.frostwire.util.URLUtils;
+import com.limegroup.gnutella.settings.LibrarySettings;
 import com.sun.net.httpserver.HttpExchange;
 
 /**
@@ -42,30 +47,52 @@ class DownloadHandler extends AbstractHandler {
 
     private static final Logger LOG = Logger.getLogger(DownloadHandler.class);
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Executor executor;
+    private final PeerRateLimiter rateLimiter;
+
+    public DownloadHandler(Executor executor) {
+        this.executor = executor;
+        this.rateLimiter = new PeerRateLimiter(LibrarySettings.LIBRARY_WIFI_SHARING_PEER_MAX_SPEED);
+    }
+
+    /**
+     * Hands the transfer to the download executor, the rate limit sleeps in the
+     * sending thread and that must not hold the threads answering /finger and
+     * /browse, see {@link HttpServerManager}.
+     */
     @Override
     public void handle(final HttpExchange exchange) throws IOException {
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    internalHandler(exchange);
-                } catch (IOException e) {
-                    LOG.warn("DownloadHandler async handle error", e);
+        assertUPnPActive();
+
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        send(exchange);
+                    } catch (IOException e) {
+                        // already logged, the exchange is closed
+                    } catch (Throwable e) {
+                        LOG.error("Error sending download", e);
+                    }
                 }
-            }
-        }).start();
+            });
+        } catch (RejectedExecutionException e) {
+            // server stopping
+            exchange.close();
+        }
     }
-    
-    public void internalHandler(HttpExchange exchange) throws IOException {
-        assertUPnPActive();
 
+    private void send(HttpExchange exchange) throws IOException {
         OutputStream os = null;
-        FileInputStream fis = null;
+        FileChannel fc = null;
 
         byte type = -1;
         int id = -1;
 
         PeerHttpUpload upload = null;
+        PeerRateLimiter.Bucket bucket = null;
 
         try {
             
@@ -94,25 +121,57 @@ class DownloadHandler extends AbstractHandler {
                 throw new IOException("There is no such file shared");
             }
 
+            File file = new File(fd.filePath);
+            long length = file.length();
+
+            exchange.getResponseHeaders().add("Content-Type", fd.mime);
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+
+            long[] range = parseRange(exchange.getRequestHeaders().getFirst("Range"), length);
+
+            if (range == UNSATISFIABLE_RANGE) {
+                exchange.getResponseHeaders().add("Content-Range", "bytes */" + length);
+                exchange.sendResponseHeaders(Code.HTTP_RANGE_NOT_SATISFIABLE, -1);
+                return;
+            }
+
+            long position = range != null ? range[0] : 0;
+            long count = range != null ? range[1] - range[0] + 1 : length;
+
             //upload = TransferManager.instance().upload(fd);
             upload = BTDownloadMediator.instance().upload(fd);
 
-            exchange.getResponseHeaders().add("Content-Type", fd.mime);
-            
-            File file = new File(fd.filePath);
-            
-            exchange.sendResponseHeaders(Code.HTTP_OK, file.length());
+            if (range != null) {
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+                exchange.sendResponseHeaders(Code.HTTP_PARTIAL, count);
+            } else {
+                exchange.sendResponseHeaders(Code.HTTP_OK, count > 0 ? count : -1);
+            }
 
             os = exchange.getResponseBody();
 
-            fis = new FileInputStream(file);
+            fc = new FileInputStream(file).getChannel();
+
+            bucket = rateLimiter.acquire(exchange.getRemoteAddress().getAddress().getHostAddress());
 
-            byte[] buffer = new byte[4 * 1024];
-            int n;
-            int count = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ByteBuffer bb = ByteBuffer.wrap(buffer);
+
+            long end = position + count;
+
+            while (position < end) {
+                bb.clear();
+                bb.limit((int) Math.min(buffer.length, end - position));
+
+                int n = fc.read(bb, position);
+                if (n == -1) {
+                    break;
+                }
+
+                bucket.consume(n);
 
-            while ((n = fis.read(buffer, 0, buffer.length)) != -1) {
                 os.write(buffer, 0, n);
+                position += n;
                 upload.addBytesSent(n);
                 
                 if (upload.isCanceled()) {
@@ -122,20 +181,17 @@ class DownloadHandler extends AbstractHandler {
                         os.close();
                     }
                 }
-                
-                count += n;
-                if (count > 4096) {
-                    count = 0;
-                    Thread.yield();
-                }
             }
 
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Upload interrupted");
         } catch (IOException e) {
             LOG.info("Error uploading file type=" + type + ", id=" + id);
             throw e;
         } finally {
             close(os);
-            close(fis);
+            close(fc);
 
             try {
                 exchange.close();
@@ -143,12 +199,66 @@ class DownloadHandler extends AbstractHandler {
                 // ignore
             }
 
+            if (bucket != null) {
+                rateLimiter.release(bucket);
+            }
+
             if (upload != null) {
                 upload.complete();
             }
         }
     }
 
+    private static final long[] UNSATISFIABLE_RANGE = new long[0];
+
+    /**
+     * Returns the first and last byte of a single "bytes" range, null if there
+     * is no range to honor, in which case the whole file is sent.
+     */
+    static long[] parseRange(String header, long length) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') != -1) {
+            return null;
+        }
+
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return null;
+        }
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+
+            long start;
+            long end;
+
+            if (first.length() == 0) {
+                // the last N bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return UNSATISFIABLE_RANGE;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.length() == 0 ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                if (end < start && last.length() != 0 && start < length) {
+                    return null; // invalid, ignored
+                }
+            }
+
+            if (start >= length) {
+                return UNSATISFIABLE_RANGE;
+            }
+
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     private void close(Closeable c) {
         if (c != null) {
             try {
@@ -19,9 +19,13 @@
 package com.frostwire.gui.httpserver;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.frostwire.concurrent.DefaultThreadFactory;
 import com.sun.net.httpserver.HttpServer;
 
 /**
@@ -33,7 +37,20 @@ public class HttpServerManager {
 
     private static final Logger LOG = Logger.getLogger(HttpServerManager.class.getName());
 
+    /**
+     * Number of requests handled at the same time, the rest wait in the queue.
+     */
+    private static final int MAX_HANDLER_THREADS = 8;
+
+    /**
+     * Number of downloads sent at the same time, they run apart from the other
+     * requests because the per peer rate limit keeps their threads waiting.
+     */
+    private static final int MAX_DOWNLOAD_THREADS = 8;
+
     private HttpServer httpServer;
+    private ThreadPoolExecutor executor;
+    private ThreadPoolExecutor downloadExecutor;
 
     public HttpServerManager() {
     }
@@ -48,9 +65,14 @@ public class HttpServerManager {
 
             httpServer = HttpServer.create(new InetSocketAddress(port), 10);
 
+            executor = newExecutor(MAX_HANDLER_THREADS, "HttpServerManager-Handler");
+            downloadExecutor = newExecutor(MAX_DOWNLOAD_THREADS, "HttpServerManager-Download");
+
             httpServer.createContext("/finger", new FingerHandler());
             httpServer.createContext("/browse", new BrowseHandler());
-            httpServer.createContext("/download", new DownloadHandler());
+            httpServer.createContext("/download", new DownloadHandler(downloadExecutor));
+
+            httpServer.setExecutor(executor);
 
             httpServer.start();
 
@@ -71,5 +93,21 @@ public class HttpServerManager {
         }
 
         httpServer = null;
+
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+
+        if (downloadExecutor != null) {
+            downloadExecutor.shutdownNow();
+            downloadExecutor = null;
+        }
+    }
+
+    private static ThreadPoolExecutor newExecutor(int threads, String name) {
+        ThreadPoolExecutor e = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DefaultThreadFactory(name, true));
+        e.allowCoreThreadTimeOut(true);
+        return e;
     }
 }
@@ -0,0 +1,107 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui.httpserver;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.limewire.setting.IntSetting;
+
+/**
+ * A token bucket per peer address, shared by all the transfers to that peer.
+ * The rate is read from the setting every time, in KB/s, 0 means no limit.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class PeerRateLimiter {
+
+    private final IntSetting maxSpeed;
+    private final Map<String, Bucket> buckets;
+
+    public PeerRateLimiter(IntSetting maxSpeed) {
+        this.maxSpeed = maxSpeed;
+        this.buckets = new HashMap<String, Bucket>();
+    }
+
+    /**
+     * Registers a transfer to the peer, must be paired with {@link #release(Bucket)}.
+     */
+    public Bucket acquire(String peer) {
+        synchronized (buckets) {
+            Bucket b = buckets.get(peer);
+            if (b == null) {
+                b = new Bucket(peer);
+                buckets.put(peer, b);
+            }
+            b.transfers++;
+            return b;
+        }
+    }
+
+    public void release(Bucket b) {
+        synchronized (buckets) {
+            b.transfers--;
+            if (b.transfers == 0) {
+                buckets.remove(b.peer);
+            }
+        }
+    }
+
+    final class Bucket {
+
+        private final String peer;
+        private int transfers;
+
+        private double tokens;
+        private long lastRefill;
+
+        private Bucket(String peer) {
+            this.peer = peer;
+            this.lastRefill = System.nanoTime();
+        }
+
+        /**
+         * Blocks until the bytes can be sent without going over the rate.
+         */
+        public void consume(int bytes) throws InterruptedException {
+            long rate = maxSpeed.getValue() * 1024L;
+            if (rate <= 0) {
+                return;
+            }
+
+            long waitMillis;
+
+            synchronized (this) {
+                long now = System.nanoTime();
+                // at most one second of burst
+                tokens = Math.min(rate, tokens + (now - lastRefill) * rate / 1e9);
+                lastRefill = now;
+
+                tokens -= bytes;
+                waitMillis = tokens < 0 ? (long) (-tokens * 1000 / rate) : 0;
+            }
+
+            if (waitMillis > 0) {
+                Thread.sleep(waitMillis);
+            }
+        }
+    }
+}
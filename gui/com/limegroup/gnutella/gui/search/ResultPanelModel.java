@@ -15,11 +15,13 @@
 
 package com.limegroup.gnutella.gui.search;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import com.limegroup.gnutella.gui.tables.AbstractTableMediator;
 import com.limegroup.gnutella.gui.tables.BasicDataLineModel;
+import com.limegroup.gnutella.gui.tables.LazyRowIndex;
 import com.limegroup.gnutella.gui.tables.LimeTableColumn;
 import com.limegroup.gnutella.settings.SearchSettings;
 
@@ -43,9 +45,15 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
     protected final SearchTableColumns COLUMNS = new SearchTableColumns();
 
     /**
-     * HashMap for quick access to indexes based on SHA1 info.
+     * Quick access to indexes based on SHA1 info, repaired lazily
+     * so inserts in the middle of the list don't remap every row.
      */
-    private final Map<String, Integer> _indexes = new HashMap<String, Integer>();
+    private final LazyRowIndex<String, SearchResultDataLine> _indexes = new LazyRowIndex<String, SearchResultDataLine>(_list) {
+        @Override
+        protected String getKey(SearchResultDataLine line) {
+            return line.getHash();
+        }
+    };
 
     private int _numResults;
 
@@ -104,12 +112,10 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
      * @param row  the index of the row to remove.
      */
     public void remove(int row) {
-        String sha1 = getHash(row);
-        if (sha1 != null)
-            _indexes.remove(sha1);
+        SearchResultDataLine line = get(row);
         super.remove(row);
         _numResults -= 1;
-        remapIndexes(row);
+        _indexes.removed(line, row);
     }
 
     /**
@@ -139,14 +145,40 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
      */
     public int add(SearchResultDataLine tl, int row) {
         _numResults += 1;
-        String sha1 = tl.getHash();
-        if (sha1 != null)
-            _indexes.put(sha1, new Integer(row));
         int addedAt = super.add(tl, row);
-        remapIndexes(addedAt + 1);
+        _indexes.inserted(tl, addedAt);
         return addedAt;
     }
 
+    /**
+     * Adds a whole batch of lines with a single table event.
+     * <p>
+     * If <code>sorted</code> the batch is sorted and merged into
+     * the existing rows, otherwise it's appended at the end.
+     */
+    public void addBatch(List<SearchResultDataLine> lines, boolean sorted) {
+        if (lines.isEmpty()) {
+            return;
+        }
+
+        _numResults += lines.size();
+
+        if (sorted) {
+            List<SearchResultDataLine> batch = new ArrayList<SearchResultDataLine>(lines);
+            Collections.sort(batch, this);
+            mergeSorted(batch);
+            _indexes.invalidate();
+            fireTableDataChanged();
+        } else {
+            int first = _list.size();
+            _list.addAll(lines);
+            for (int i = first; i < _list.size(); i++) {
+                _indexes.inserted(_list.get(i), i);
+            }
+            fireTableRowsInserted(first, _list.size() - 1);
+        }
+    }
+
     /**
      * Gets the row this DataLine is at.
      */
@@ -164,8 +196,7 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
      */
     protected void doResort() {
         super.doResort();
-        _indexes.clear(); // it's easier & quicker to just clear & re-input
-        remapIndexes(0);
+        _indexes.invalidate();
     }
 
     /**
@@ -185,33 +216,26 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
     }
 
     /**
-     * Remaps the indexes, starting at 'start' and going to the end of
-     * the list.  This is needed for when rows are added to the middle of
-     * the list to maintain the correct rows per objects.
-     */
-    private void remapIndexes(int start) {
-        remapIndexes(start, getRowCount());
-    }
-
-    /**
-     * Remaps the indexes, starting at 'start' and going to 'end'.
-     * This is useful for when we move a row from end to start or vice versa.
+     * Merges the already sorted batch into the sorted list in one pass.
+     * Existing lines go first on ties, like addSorted does.
      */
-    private void remapIndexes(int start, int end) {
-        for (int i = start; i < end; i++) {
-            String sha1 = getHash(i);
-            if (sha1 != null)
-                _indexes.put(sha1, new Integer(i));
+    private void mergeSorted(List<SearchResultDataLine> batch) {
+        List<SearchResultDataLine> merged = new ArrayList<SearchResultDataLine>(_list.size() + batch.size());
+
+        int i = 0;
+        int j = 0;
+        while (i < _list.size() && j < batch.size()) {
+            if (compare(batch.get(j), _list.get(i)) < 0) {
+                merged.add(batch.get(j++));
+            } else {
+                merged.add(_list.get(i++));
+            }
         }
-    }
+        merged.addAll(_list.subList(i, _list.size()));
+        merged.addAll(batch.subList(j, batch.size()));
 
-    /**
-     * Gets the SHA1 URN for a row.
-     */
-    private String getHash(int idx) {
-        if (idx >= getRowCount())
-            return null;
-        return get(idx).getHash();
+        _list.clear();
+        _list.addAll(merged);
     }
 
     /** Compares the spam difference between the two rows. */
@@ -249,11 +273,7 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
      * Fast match -- lookup in the table.
      */
     private int fastMatch(String sha1) {
-        Integer idx = _indexes.get(sha1);
-        if (idx == null)
-            return -1;
-        else
-            return idx.intValue();
+        return _indexes.getRow(sha1);
     }
 
     public int getTotalResults() {
@@ -16,16 +16,9 @@
 package com.limegroup.gnutella.gui.search;
 
 import java.io.File;
-import java.text.Normalizer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Locale;
-import java.util.Set;
 
 import javax.swing.JComponent;
 import javax.swing.SwingUtilities;
@@ -42,13 +35,14 @@ import com.frostwire.gui.filters.SearchFilterFactory;
 import com.frostwire.gui.filters.SearchFilterFactoryImpl;
 import com.frostwire.search.CrawlPagedWebSearchPerformer;
 import com.frostwire.search.CrawledSearchResult;
-import com.frostwire.search.DatabaseCrawlCache;
 import com.frostwire.search.FileSearchResult;
+import com.frostwire.search.KeywordMatcher;
 import com.frostwire.search.SearchManager;
 import com.frostwire.search.SearchManagerImpl;
 import com.frostwire.search.SearchManagerListener;
 import com.frostwire.search.SearchPerformer;
 import com.frostwire.search.SearchResult;
+import com.frostwire.search.TieredCrawlCache;
 import com.frostwire.search.VuzeMagnetDownloader;
 import com.frostwire.search.archiveorg.ArchiveorgCrawledSearchResult;
 import com.frostwire.search.soundcloud.SoundcloudSearchResult;
@@ -111,8 +105,15 @@ public final class SearchMediator {
 
     private static final int SEARCH_MANAGER_NUM_THREADS = 6;
 
+    /**
+     * How long results wait to be coalesced before they are added to the table.
+     */
+    private static final int RESULTS_DELIVERY_DELAY = 250;
+
     private final SearchManager manager;
 
+    private final SearchResultQueue resultQueue;
+
     /**
      * This instance handles the display of all search results.
      * TODO: Changed to package-protected for testing to add special results
@@ -148,13 +149,18 @@ public final class SearchMediator {
         });
 
         try {
-            CrawlPagedWebSearchPerformer.setCache(new DatabaseCrawlCache());
+            long memorySize = SearchSettings.CRAWL_CACHE_MEMORY_SIZE_MB.getValue() * 1024L * 1024L;
+            long diskSize = SearchSettings.CRAWL_CACHE_DISK_SIZE_MB.getValue() * 1024L * 1024L;
+            long ttl = SearchSettings.CRAWL_CACHE_TTL_DAYS.getValue() * 24L * 60L * 60L;
+            CrawlPagedWebSearchPerformer.setCache(new TieredCrawlCache(memorySize, diskSize, ttl));
         } catch (Throwable t) {
             LOG.error("could not set database crawl cache", t);
         }
 
         CrawlPagedWebSearchPerformer.setMagnetDownloader(new VuzeMagnetDownloader());
 
+        this.resultQueue = new SearchResultQueue(RESULTS_DELIVERY_DELAY, new ResultSink());
+
         this.manager = new SearchManagerImpl(SEARCH_MANAGER_NUM_THREADS);
         this.manager.registerListener(new ManagerListener());
     }
@@ -266,20 +272,23 @@ public final class SearchMediator {
         }
     }
 
-    private List<SearchResult> filter(SearchPerformer performer, List<SearchResult> results, List<String> searchTokens) {
+    private List<SearchResult> filter(SearchPerformer performer, List<SearchResult> results, KeywordMatcher matcher) {
         List<SearchResult> list;
 
-        if (searchTokens == null || searchTokens.isEmpty()) {
+        if (matcher == null) {
             list = Collections.emptyList();
+        } else if (matcher.getTokens().isEmpty()) {
+            // a query made only of separators, nothing to filter on
+            list = new ArrayList<SearchResult>(results);
         } else {
-            list = filter(results, searchTokens);
+            list = filter(results, matcher);
         }
 
         return list;
     }
 
-    private List<SearchResult> filter(List<? extends SearchResult> results, List<String> searchTokens) {
-        List<SearchResult> list = new LinkedList<SearchResult>();
+    private List<SearchResult> filter(List<? extends SearchResult> results, KeywordMatcher matcher) {
+        List<SearchResult> list = new ArrayList<SearchResult>(results.size());
 
         try {
             for (SearchResult sr : results) {
@@ -287,7 +296,7 @@ public final class SearchMediator {
                     // special case for youtube
                     if (sr instanceof YouTubeCrawledSearchResult) {
                         list.add(sr);
-                    } else if (filter(new LinkedList<String>(searchTokens), sr)) {
+                    } else if (filter(matcher, (CrawledSearchResult) sr)) {
                         list.add(sr);
                     }
                 } else {
@@ -302,71 +311,14 @@ public final class SearchMediator {
         return list;
     }
 
-    private boolean filter(List<String> tokens, SearchResult sr) {
-        StringBuilder sb = new StringBuilder();
-
-        sb.append(sr.getDisplayName());
-        if (sr instanceof CrawledSearchResult) {
-            sb.append(((CrawledSearchResult) sr).getParent().getDisplayName());
-        }
-
-        if (sr instanceof FileSearchResult) {
-            sb.append(((FileSearchResult) sr).getFilename());
-        }
-
-        String str = sanitize(sb.toString());
-        str = normalize(str);
-
-        Iterator<String> it = tokens.iterator();
-        while (it.hasNext()) {
-            String token = it.next();
-            if (str.contains(token)) {
-                it.remove();
-            }
-        }
+    private boolean filter(KeywordMatcher matcher, CrawledSearchResult sr) {
+        String filename = sr instanceof FileSearchResult ? ((FileSearchResult) sr).getFilename() : null;
 
-        return tokens.isEmpty();
-    }
-
-    private static String stripHtml(String str) {
-        str = str.replaceAll("\\<.*?>", "");
-        str = str.replaceAll("\\&.*?\\;", "");
-        return str;
-    }
-
-    private String sanitize(String str) {
-        str = stripHtml(str);
-        str = str.replaceAll("\\.torrent|www\\.|\\.com|\\.net|[\\\\\\/%_;\\-\\.\\(\\)\\[\\]\\n\\rÐ&~{}\\*@\\^'=!,¡|#ÀÁ]", " ");
-        str = StringUtils.removeDoubleSpaces(str);
-
-        return str.trim();
+        return matcher.matches(sr.getDisplayName(), sr.getParent().getDisplayName(), filename);
     }
 
     private List<String> tokenize(String keywords) {
-        keywords = sanitize(keywords);
-
-        Set<String> tokens = new HashSet<String>(Arrays.asList(keywords.toLowerCase(Locale.US).split(" ")));
-
-        return new ArrayList<String>(normalizeTokens(tokens));
-    }
-
-    private Set<String> normalizeTokens(Set<String> tokens) {
-        Set<String> normalizedTokens = new HashSet<String>();
-
-        for (String token : tokens) {
-            String norm = normalize(token);
-            normalizedTokens.add(norm);
-        }
-
-        return normalizedTokens;
-    }
-
-    private String normalize(String token) {
-        String norm = Normalizer.normalize(token, Normalizer.Form.NFKD);
-        norm = norm.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
-        norm = norm.toLowerCase(Locale.US);
-
-        return norm;
+        return KeywordMatcher.tokenize(keywords);
     }
 
     private static void updateSearchIcon(final long token, final boolean active) {
@@ -538,9 +490,8 @@ public final class SearchMediator {
     }
 
     private void onFinished(long token) {
-        SearchResultMediator rp = getResultPanelForGUID(token);
-        updateSearchIcon(token, false);
-        rp.setToken(0); // to identify that the search is stopped (needs refactor)
+        // the panel is updated once the results still queued are added
+        resultQueue.close(token);
     }
 
     private final class ManagerListener implements SearchManagerListener {
@@ -555,7 +506,7 @@ public final class SearchMediator {
 
                 if (rp != null && !rp.isStopped()) {
                     @SuppressWarnings("unchecked")
-                    List<SearchResult> filtered = filter(performer, (List<SearchResult>) results, rp.getSearchTokens());
+                    List<SearchResult> filtered = filter(performer, (List<SearchResult>) results, rp.getKeywordMatcher());
 
                     if (filtered != null && !filtered.isEmpty()) {
 
@@ -564,23 +515,9 @@ public final class SearchMediator {
                             return;
                         }
 
-                        final List<UISearchResult> uiResults = convertResults(filtered, se, rp.getQuery());
-
-                        GUIMediator.safeInvokeAndWait(new Runnable() {
-                            public void run() {
-                                try {
-                                    SearchFilter filter = getSearchFilterFactory().createFilter();
-                                    for (UISearchResult sr : uiResults) {
-                                        if (filter.allow(sr)) {
-                                            getSearchResultDisplayer().addQueryResult(token, sr, rp);
-                                        }
-                                    }
-                                } catch (Exception e) {
-                                    e.printStackTrace();
-                                }
-                            }
-
-                        });
+                        List<UISearchResult> uiResults = convertResults(filtered, se, rp.getQuery());
+
+                        resultQueue.offer(token, uiResults);
                     }
                 }
             }
@@ -593,6 +530,46 @@ public final class SearchMediator {
         }
     }
 
+    /**
+     * Adds the coalesced results to their panel, runs in the EDT.
+     */
+    private static final class ResultSink implements SearchResultQueue.Sink {
+
+        @Override
+        public boolean onBatch(long token, List<UISearchResult> results) {
+            SearchResultMediator rp = getResultPanelForGUID(token);
+
+            if (rp == null || rp.isStopped()) {
+                return false;
+            }
+
+            try {
+                SearchFilter filter = getSearchFilterFactory().createFilter();
+                List<UISearchResult> allowed = new ArrayList<UISearchResult>(results.size());
+                for (UISearchResult sr : results) {
+                    if (filter.allow(sr)) {
+                        allowed.add(sr);
+                    }
+                }
+
+                getSearchResultDisplayer().addQueryResults(token, allowed, rp);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+
+            return true;
+        }
+
+        @Override
+        public void onClosed(long token) {
+            SearchResultMediator rp = getResultPanelForGUID(token);
+            if (rp != null) {
+                rp.updateSearchIcon(false);
+                rp.setToken(0); // to identify that the search is stopped (needs refactor)
+            }
+        }
+    }
+
     public void clearCache() {
         try {
             CrawlPagedWebSearchPerformer.clearCache();
@@ -365,6 +365,28 @@ public final class SearchResultDisplayer implements RefreshListener {
         tabbedPane.setTitleAt(resultPanelIndex, titleOf(rp));
     }
 
+    /**
+     * Adds a batch of results to the panel in one go.
+     */
+    void addQueryResults(long token, List<UISearchResult> lines, SearchResultMediator rp) {
+        if (rp.isStopped() || lines.isEmpty()) {
+            return;
+        }
+
+        if (!rp.matches(token))//GUID of rp!=replyGuid
+            throw new IllegalArgumentException("guids don't match");
+
+        rp.addBatch(lines);
+
+        int resultPanelIndex = entries.indexOf(rp);
+
+        // If we couldn't find it, silently exit.
+        if (resultPanelIndex == -1)
+            return;
+
+        tabbedPane.setTitleAt(resultPanelIndex, titleOf(rp));
+    }
+
     void updateSearchIcon(SearchResultMediator rp, boolean active) {
         int resultPanelIndex = -1;
         // Search for the ResultPanel to verify it exists.
@@ -23,6 +23,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
@@ -57,6 +58,7 @@ import com.frostwire.gui.theme.SkinMenu;
 import com.frostwire.gui.theme.SkinMenuItem;
 import com.frostwire.gui.theme.SkinPopupMenu;
 import com.frostwire.gui.theme.ThemeMediator;
+import com.frostwire.search.KeywordMatcher;
 import com.frostwire.search.torrent.TorrentSearchResult;
 import com.frostwire.uxstats.UXAction;
 import com.frostwire.uxstats.UXStats;
@@ -105,6 +107,8 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
 
     private final List<String> searchTokens;
 
+    private final KeywordMatcher keywordMatcher;
+
     /**
      * The CompositeFilter for this ResultPanel.
      */
@@ -151,6 +155,7 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
         FILTER = null;
         this.token = 0;
         this.searchTokens = null;
+        this.keywordMatcher = null;
         setButtonEnabled(SearchButtons.TORRENT_DETAILS_BUTTON_INDEX, false);
         // disable dnd for overlay panel
         TABLE.setDragEnabled(false);
@@ -170,6 +175,7 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
         SEARCH_INFO = info;
         this.token = token;
         this.searchTokens = searchTokens;
+        this.keywordMatcher = new KeywordMatcher(searchTokens);
         setupRealTable();
         resetFilters();
     }
@@ -868,6 +874,10 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
         return searchTokens;
     }
 
+    KeywordMatcher getKeywordMatcher() {
+        return keywordMatcher;
+    }
+
     public void updateFiltersPanel() {
         schemaBox.applyFilters();
         searchOptionsPanel.updateFiltersPanel();
@@ -885,4 +895,43 @@ public final class SearchResultMediator extends AbstractTableMediator<TableRowFi
 
         schemaBox.updateCounters(o);
     }
+
+    /**
+     * Adds all the results with a single model insert and table event,
+     * keeping the current selection.
+     */
+    void addBatch(List<UISearchResult> results) {
+        if (TABLE.isEditing()) {
+            TABLE.getCellEditor().cancelCellEditing();
+        }
+
+        boolean inView = TABLE.isSelectionVisible();
+        SearchResultDataLine[] selected = getAllSelectedLines();
+
+        List<SearchResultDataLine> lines = new ArrayList<SearchResultDataLine>(results.size());
+        for (UISearchResult sr : results) {
+            SearchResultDataLine line = DATA_MODEL.getNewDataLine(sr);
+            if (line != null) {
+                lines.add(line);
+            }
+        }
+
+        DATA_MODEL.addBatch(lines, SETTINGS.REAL_TIME_SORT.getValue() && DATA_MODEL.isSorted());
+
+        TABLE.clearSelection();
+        for (SearchResultDataLine line : selected) {
+            int row = DATA_MODEL.getRow(line);
+            if (row != -1) {
+                TABLE.addRowSelectionInterval(row, row);
+            }
+        }
+        int first = TABLE.getSelectedRow();
+        if (inView && first != -1) {
+            TABLE.ensureRowVisible(first);
+        }
+
+        for (UISearchResult sr : results) {
+            schemaBox.updateCounters(sr);
+        }
+    }
 }
\ No newline at end of file
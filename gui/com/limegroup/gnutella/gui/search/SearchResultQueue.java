@@ -0,0 +1,155 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.limegroup.gnutella.gui.search;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.Timer;
+
+/**
+ * Coalesces the results the search threads produce, so they never wait
+ * for the event dispatch thread.
+ * <p>
+ * The search threads add to a lock-free queue per search token. A one-shot
+ * Swing timer is armed by the first result after a drain, and when it fires
+ * the whole queue of every token is handed to the {@link Sink} in the EDT.
+ * The queue of a token is removed once the sink doesn't want its results
+ * anymore, or once it's drained after {@link #close(long)}.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class SearchResultQueue {
+
+    private final ConcurrentHashMap<Long, ConcurrentLinkedQueue<UISearchResult>> queues;
+    private final Set<Long> closed;
+    private final AtomicBoolean scheduled;
+    private final Timer timer;
+    private final Sink sink;
+
+    public SearchResultQueue(int delay, Sink sink) {
+        this.queues = new ConcurrentHashMap<Long, ConcurrentLinkedQueue<UISearchResult>>();
+        this.closed = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        this.scheduled = new AtomicBoolean(false);
+        this.sink = sink;
+
+        this.timer = new Timer(delay, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                drain();
+            }
+        });
+        this.timer.setRepeats(false);
+    }
+
+    /**
+     * Safe to call from any thread, never blocks.
+     */
+    public void offer(long token, List<UISearchResult> results) {
+        Long key = Long.valueOf(token);
+
+        ConcurrentLinkedQueue<UISearchResult> queue = queues.get(key);
+        if (queue == null) {
+            queue = new ConcurrentLinkedQueue<UISearchResult>();
+            ConcurrentLinkedQueue<UISearchResult> existing = queues.putIfAbsent(key, queue);
+            if (existing != null) {
+                queue = existing;
+            }
+        }
+
+        queue.addAll(results);
+
+        schedule();
+    }
+
+    /**
+     * Called when no more results come for this token, from any thread. The
+     * results already offered are still handed over, then the queue is removed
+     * and {@link Sink#onClosed(long)} is called.
+     */
+    public void close(long token) {
+        closed.add(Long.valueOf(token));
+
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            timer.restart();
+        }
+    }
+
+    private void drain() {
+        // anything offered from now on arms the timer again
+        scheduled.set(false);
+
+        Iterator<Entry<Long, ConcurrentLinkedQueue<UISearchResult>>> it = queues.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<Long, ConcurrentLinkedQueue<UISearchResult>> e = it.next();
+            ConcurrentLinkedQueue<UISearchResult> queue = e.getValue();
+
+            List<UISearchResult> batch = new ArrayList<UISearchResult>();
+            UISearchResult sr;
+            while ((sr = queue.poll()) != null) {
+                batch.add(sr);
+            }
+
+            if (!batch.isEmpty()) {
+                if (!sink.onBatch(e.getKey().longValue(), batch)) {
+                    it.remove(); // nobody wants results for this token anymore
+                }
+            }
+        }
+
+        // the queues were just drained, nothing is offered after a close
+        Iterator<Long> closedIt = closed.iterator();
+        while (closedIt.hasNext()) {
+            Long key = closedIt.next();
+            closedIt.remove();
+            queues.remove(key);
+            sink.onClosed(key.longValue());
+        }
+    }
+
+    interface Sink {
+
+        /**
+         * Called in the event dispatch thread.
+         *
+         * @return false if the search of this token is gone
+         */
+        public boolean onBatch(long token, List<UISearchResult> results);
+
+        /**
+         * Called in the event dispatch thread, after the last batch of the token.
+         */
+        public void onClosed(long token);
+    }
+}
@@ -96,6 +96,31 @@ public class TableRowFilteredModel extends ResultPanelModel {
         return -1;
     }
 
+    /**
+     * Filters the batch the same way add does, before adding it in one go.
+     */
+    @Override
+    public void addBatch(List<SearchResultDataLine> lines, boolean sorted) {
+        List<SearchResultDataLine> allowed = new ArrayList<SearchResultDataLine>(lines.size());
+
+        for (SearchResultDataLine tl : lines) {
+            boolean isNotJunk = junkFilter.allow(tl);
+
+            if (isNotJunk || !SearchSettings.hideJunk()) {
+                if (allow(tl)) {
+                    allowed.add(tl);
+                } else {
+                    HIDDEN.add(tl);
+                    _numResults += 1;
+                }
+            } else {
+                _numResults += 1;
+            }
+        }
+
+        super.addBatch(allowed, sorted);
+    }
+
     /**
      * Intercepts to clear the hidden map.
      */
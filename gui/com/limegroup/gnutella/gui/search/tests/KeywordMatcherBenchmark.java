@@ -0,0 +1,154 @@
+package com.limegroup.gnutella.gui.search.tests;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import org.limewire.util.StringUtils;
+
+import com.frostwire.search.KeywordMatcher;
+
+/**
+ * Compares the old regex based keyword filter of the search mediator with
+ * KeywordMatcher over file names like the ones found in crawled torrents,
+ * and checks both agree on every name.
+ */
+public class KeywordMatcherBenchmark {
+
+    private static final int NAMES = 50000;
+    private static final int ROUNDS = 5;
+
+    private static final String[] QUERIES = { "ubuntu iso", "Deep Learning lecture", "the beatles abbey road", "Café del Mar", "imagenet 2012" };
+
+    private static final String[] PARENTS = { "Ubuntu 14.04 LTS Desktop [amd64] www.linuxtracker.org", "Stanford CS231n - Deep Learning Lectures (2016)", "The Beatles - Abbey Road (1969) [FLAC]", "Café del Mar - Volumen Uno", "ImageNet_ILSVRC2012 &amp; dev kit", "<b>Academic</b> Datasets collection" };
+
+    private static final String[] DIRS = { "", "lectures/", "CD1/", "Disc 2\\", "data/train/", "Música/" };
+
+    private static final String[] WORDS = { "ubuntu", "Lecture", "abbey", "Road", "Come_Together", "Café", "deep-learning", "imagenet", "n01440764", "iso", "ÀÁ", "2012", "Here.Comes.The.Sun", "readme", "sample", "www.example.com" };
+
+    private static final String[] EXTENSIONS = { ".mp3", ".flac", ".iso", ".JPEG", ".mp4", ".txt", ".torrent", ".pdf" };
+
+    public static void main(String[] args) {
+        Random rnd = new Random(7);
+
+        String[][] names = new String[NAMES][];
+        for (int i = 0; i < NAMES; i++) {
+            String parent = PARENTS[rnd.nextInt(PARENTS.length)];
+            StringBuilder file = new StringBuilder(DIRS[rnd.nextInt(DIRS.length)]);
+            int n = 1 + rnd.nextInt(4);
+            for (int j = 0; j < n; j++) {
+                file.append(j > 0 ? (rnd.nextBoolean() ? " " : "_") : "").append(WORDS[rnd.nextInt(WORDS.length)]);
+            }
+            file.append(String.format("_%03d", rnd.nextInt(1000))).append(EXTENSIONS[rnd.nextInt(EXTENSIONS.length)]);
+            String filename = file.toString();
+            String displayName = filename.substring(filename.lastIndexOf('/') + 1);
+            names[i] = new String[] { displayName, parent, filename };
+        }
+
+        for (String query : QUERIES) {
+            List<String> tokens = oldTokenize(query);
+            KeywordMatcher matcher = KeywordMatcher.compile(query);
+
+            int mismatches = 0;
+            int matched = 0;
+            for (String[] name : names) {
+                boolean a = oldFilter(new LinkedList<String>(tokens), name);
+                boolean b = matcher.matches(name[0], name[1], name[2]);
+                if (a != b) {
+                    mismatches++;
+                }
+                if (b) {
+                    matched++;
+                }
+            }
+
+            System.out.println("'" + query + "' " + tokens + " -> " + matcher.getTokens() + ", matched: " + matched + ", mismatches: " + mismatches);
+        }
+
+        for (int r = 0; r < ROUNDS; r++) {
+            long t = System.nanoTime();
+            int c1 = 0;
+            for (String query : QUERIES) {
+                List<String> tokens = oldTokenize(query);
+                for (String[] name : names) {
+                    if (oldFilter(new LinkedList<String>(tokens), name)) {
+                        c1++;
+                    }
+                }
+            }
+            long old = System.nanoTime() - t;
+
+            t = System.nanoTime();
+            int c2 = 0;
+            for (String query : QUERIES) {
+                KeywordMatcher matcher = KeywordMatcher.compile(query);
+                for (String[] name : names) {
+                    if (matcher.matches(name[0], name[1], name[2])) {
+                        c2++;
+                    }
+                }
+            }
+            long now = System.nanoTime() - t;
+
+            System.out.println("regex filter: " + old / 1000000 + " ms (" + c1 + "), keyword matcher: " + now / 1000000 + " ms (" + c2 + ") [" + QUERIES.length * NAMES + " names]");
+        }
+    }
+
+    // the filter as it was in SearchMediator
+
+    private static boolean oldFilter(List<String> tokens, String[] name) {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append(name[0]);
+        sb.append(name[1]);
+        sb.append(name[2]);
+
+        String str = sanitize(sb.toString());
+        str = normalize(str);
+
+        Iterator<String> it = tokens.iterator();
+        while (it.hasNext()) {
+            String token = it.next();
+            if (str.contains(token)) {
+                it.remove();
+            }
+        }
+
+        return tokens.isEmpty();
+    }
+
+    private static String sanitize(String str) {
+        str = str.replaceAll("\\<.*?>", "");
+        str = str.replaceAll("\\&.*?\\;", "");
+        str = str.replaceAll("\\.torrent|www\\.|\\.com|\\.net|[\\\\\\/%_;\\-\\.\\(\\)\\[\\]\\n\\rÐ&~{}\\*@\\^'=!,¡|#ÀÁ]", " ");
+        str = StringUtils.removeDoubleSpaces(str);
+
+        return str.trim();
+    }
+
+    private static List<String> oldTokenize(String keywords) {
+        keywords = sanitize(keywords);
+
+        Set<String> tokens = new HashSet<String>(Arrays.asList(keywords.toLowerCase(Locale.US).split(" ")));
+
+        Set<String> normalizedTokens = new HashSet<String>();
+        for (String token : tokens) {
+            normalizedTokens.add(normalize(token));
+        }
+
+        return new ArrayList<String>(normalizedTokens);
+    }
+
+    private static String normalize(String token) {
+        String norm = Normalizer.normalize(token, Normalizer.Form.NFKD);
+        norm = norm.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
+        return norm.toLowerCase(Locale.US);
+    }
+}
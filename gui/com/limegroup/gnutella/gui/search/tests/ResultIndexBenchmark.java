@@ -0,0 +1,96 @@
+package com.limegroup.gnutella.gui.search.tests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.limegroup.gnutella.gui.tables.LazyRowIndex;
+
+/**
+ * Micro-benchmark of the SHA1 to row index kept by the search result model,
+ * inserting 10k results at sorted positions and looking each one up again.
+ * Compares the old remap-on-every-insert HashMap with LazyRowIndex.
+ */
+public class ResultIndexBenchmark {
+
+    private static final int RESULTS = 10000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        List<String> hashes = new ArrayList<String>(RESULTS);
+        Random rnd = new Random(42);
+        for (int i = 0; i < RESULTS; i++) {
+            hashes.add(Long.toHexString(rnd.nextLong()) + Long.toHexString(rnd.nextLong()));
+        }
+
+        // warm up
+        eager(hashes);
+        lazy(hashes);
+
+        for (int r = 0; r < ROUNDS; r++) {
+            long t = System.nanoTime();
+            long check1 = eager(hashes);
+            long eager = System.nanoTime() - t;
+
+            t = System.nanoTime();
+            long check2 = lazy(hashes);
+            long lazy = System.nanoTime() - t;
+
+            if (check1 != check2) {
+                System.out.println("row mismatch: " + check1 + " != " + check2);
+            }
+
+            System.out.println("eager remap: " + eager / 1000000 + " ms, lazy index: " + lazy / 1000000 + " ms [" + RESULTS + " inserts]");
+        }
+    }
+
+    private static long eager(List<String> hashes) {
+        List<String> list = new ArrayList<String>();
+        Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+        for (String h : hashes) {
+            int row = sortedPosition(list, h);
+            indexes.put(h, Integer.valueOf(row));
+            list.add(row, h);
+            for (int i = row + 1; i < list.size(); i++) {
+                indexes.put(list.get(i), Integer.valueOf(i));
+            }
+        }
+
+        long sum = 0;
+        for (String h : hashes) {
+            sum += indexes.get(h).intValue();
+        }
+        return sum;
+    }
+
+    private static long lazy(List<String> hashes) {
+        List<String> list = new ArrayList<String>();
+        LazyRowIndex<String, String> indexes = new LazyRowIndex<String, String>(list) {
+            @Override
+            protected String getKey(String line) {
+                return line;
+            }
+        };
+
+        for (String h : hashes) {
+            int row = sortedPosition(list, h);
+            list.add(row, h);
+            indexes.inserted(h, row);
+        }
+
+        long sum = 0;
+        for (String h : hashes) {
+            sum += indexes.getRow(h);
+        }
+        return sum;
+    }
+
+    private static int sortedPosition(List<String> list, String h) {
+        int row = Collections.binarySearch(list, h);
+        return row < 0 ? -(row + 1) : row;
+    }
+}
@@ -0,0 +1,119 @@
+package com.limegroup.gnutella.gui.tables;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Key to row index over a list of lines that is repaired lazily.
+ * <p>
+ * Instead of remapping every following row on each insert or remove,
+ * the index only remembers the lowest row whose line may have moved.
+ * Lines below that watermark are exactly mapped, cached rows are always
+ * verified against the list on lookup and the tail is only remapped
+ * when a lookup misses.
+ */
+public abstract class LazyRowIndex<K, T> {
+
+    private final List<T> list;
+
+    private final Map<K, Integer> rows;
+
+    /**
+     * The lines in rows [0, valid) are known to be correctly mapped.
+     * Cached entries of the other lines may point anywhere.
+     */
+    private int valid;
+
+    public LazyRowIndex(List<T> list) {
+        this.list = list;
+        this.rows = new HashMap<K, Integer>();
+        this.valid = 0;
+    }
+
+    /**
+     * Returns the key of the line, or null if the line is not indexed.
+     */
+    protected abstract K getKey(T line);
+
+    /**
+     * Notifies that a line was inserted at the given row.
+     */
+    public void inserted(T line, int row) {
+        K key = getKey(line);
+        if (key != null) {
+            rows.put(key, Integer.valueOf(row));
+        }
+        if (row < valid) {
+            valid = row;
+        }
+        if (row == valid) {
+            valid = row + 1;
+        }
+    }
+
+    /**
+     * Notifies that the line at the given row was removed.
+     */
+    public void removed(T line, int row) {
+        K key = getKey(line);
+        if (key != null) {
+            rows.remove(key);
+        }
+        if (row < valid) {
+            valid = row;
+        }
+    }
+
+    /**
+     * Marks every row as moved, for example after a sort or a bulk insert.
+     */
+    public void invalidate() {
+        valid = 0;
+    }
+
+    public void clear() {
+        rows.clear();
+        valid = 0;
+    }
+
+    /**
+     * Returns the row of the line with the given key, or -1 if it's not there.
+     */
+    public int getRow(K key) {
+        int row = lookup(key);
+
+        if (row == -1 && valid < list.size()) {
+            remap();
+            row = lookup(key);
+        }
+
+        return row;
+    }
+
+    private int lookup(K key) {
+        Integer idx = rows.get(key);
+        if (idx == null) {
+            return -1;
+        }
+
+        // the cached row may be stale, trust it only if it still points to the right line
+        int row = idx.intValue();
+        if (row < list.size() && key.equals(getKey(list.get(row)))) {
+            return row;
+        }
+
+        return -1;
+    }
+
+    private void remap() {
+        int end = list.size();
+        for (int i = valid; i < end; i++) {
+            K key = getKey(list.get(i));
+            if (key != null) {
+                rows.put(key, Integer.valueOf(i));
+            }
+        }
+        valid = end;
+    }
+}